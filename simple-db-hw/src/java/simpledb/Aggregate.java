@@ -1,13 +1,22 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import simpledb.Aggregator.Op;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). An Aggregate either computes a single aggregate grouped by at most one
+ * column, or any number of aggregates grouped by any number of columns in a
+ * single pass over its child (see {@link MultiAggregator}).
+ * 
+ * When the degree of parallelism is greater than one and the child is a
+ * sequential scan of a heap file, optionally under a chain of filters, the
+ * pages of the file are split into contiguous ranges which are aggregated by
+ * separate worker threads into thread-local partial aggregators; the partials
+ * are then merged into the final result. Any other child is aggregated
+ * serially.
  */
 public class Aggregate extends Operator {
 
@@ -20,6 +29,16 @@ public class Aggregate extends Operator {
     private String gFieldName = null;
     private String aFieldName = null;
     private int afield, gfield;
+    private int[] afields, gfields;
+    private Aggregator.Op[] aops;
+    private String[] aFieldNames, gFieldNames;
+    // parameters needed to build fresh partial aggregators
+    private boolean multi = false;
+    private int aggAfield, aggGfield;
+    private TupleDesc childTd;
+    private int parallelism = defaultParallelism;
+
+    private static int defaultParallelism = 1;
 
     /**
      * Constructor.
@@ -52,16 +71,10 @@ public class Aggregate extends Operator {
 		this.gfield = 0;
 	    }
 	TupleDesc child_td = child.getTupleDesc();
-
-	if (child_td.getFieldType(afield) == Type.INT_TYPE) {
-	    this.agg = new IntegerAggregator(gfield,
-		    gfield == Aggregator.NO_GROUPING ? null
-		            : child_td.getFieldType(gfield), afield, aop);
-	} else {
-	    this.agg = new StringAggregator(gfield,
-		    gfield == Aggregator.NO_GROUPING ? null
-		            : child_td.getFieldType(gfield), afield, aop);
-	}
+	this.childTd = child_td;
+	this.aggAfield = afield;
+	this.aggGfield = gfield;
+	this.agg = newAggregator();
 
 	if (gfield == Aggregator.NO_GROUPING) {
 	    int nFields = 1;
@@ -117,6 +130,77 @@ public class Aggregate extends Operator {
 
 	    td = new TupleDesc(typeAr, fields);
 	}
+
+	this.afields = new int[] { this.afield };
+	this.aops = new Aggregator.Op[] { aop };
+	this.aFieldNames = new String[] { aFieldName };
+	if (this.gfield == Aggregator.NO_GROUPING) {
+	    this.gfields = new int[0];
+	    this.gFieldNames = new String[0];
+	} else {
+	    this.gfields = new int[] { this.gfield };
+	    this.gFieldNames = new String[] { gFieldName };
+	}
+    }
+
+    /**
+     * Constructor for computing several aggregates at once.
+     * 
+     * The output tuples contain the group by fields in the order given,
+     * followed by one column per aggregate, all computed during a single scan
+     * of the child.
+     * 
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; an empty
+     *            array if there is no grouping
+     * @param aops
+     *            The aggregation operator to use for each entry of afields
+     * @throws IllegalArgumentException
+     *             if an operator cannot be applied to the type of its column
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields,
+	    Aggregator.Op[] aops) {
+	this.child = child;
+	this.afields = afields;
+	this.gfields = gfields;
+	this.aops = aops;
+	TupleDesc child_td = child.getTupleDesc();
+
+	Type[] gtypes = new Type[gfields.length];
+	Type[] atypes = new Type[afields.length];
+	Type[] typeAr = new Type[gfields.length + afields.length];
+	String[] fields = new String[gfields.length + afields.length];
+	this.gFieldNames = new String[gfields.length];
+	this.aFieldNames = new String[afields.length];
+
+	for (int i = 0; i < gfields.length; i++) {
+	    gtypes[i] = child_td.getFieldType(gfields[i]);
+	    typeAr[i] = gtypes[i];
+	    fields[i] = child_td.getFieldName(gfields[i]);
+	    gFieldNames[i] = fields[i];
+	}
+	for (int i = 0; i < afields.length; i++) {
+	    atypes[i] = child_td.getFieldType(afields[i]);
+	    typeAr[gfields.length + i] = Type.INT_TYPE;
+	    fields[gfields.length + i] = nameOfAggregatorOp(aops[i]) + "("
+		    + child_td.getFieldName(afields[i]) + ")";
+	    aFieldNames[i] = fields[gfields.length + i];
+	}
+	td = new TupleDesc(typeAr, fields);
+
+	this.multi = true;
+	this.childTd = child_td;
+	this.agg = newAggregator();
+
+	this.afield = afields.length > 0 ? afields[0] : Aggregator.NO_GROUPING;
+	this.aop = aops.length > 0 ? aops[0] : null;
+	this.aFieldName = aFieldNames.length > 0 ? aFieldNames[0] : null;
+	this.gfield = gfields.length > 0 ? gfields[0] : Aggregator.NO_GROUPING;
+	this.gFieldName = gFieldNames.length > 0 ? gFieldNames[0] : null;
     }
 
     /**
@@ -159,6 +243,100 @@ public class Aggregate extends Operator {
 	return this.aop;
     }
 
+    /**
+     * @return the group by field indexes in the <b>INPUT</b> tuples, in the
+     *         order they appear in the output; empty if there is no grouping
+     * */
+    public int[] groupFields() {
+	return this.gfields;
+    }
+
+    /**
+     * @return the names of the group by fields in the <b>OUTPUT</b> tuples
+     * */
+    public String[] groupFieldNames() {
+	return this.gFieldNames;
+    }
+
+    /**
+     * @return the aggregate field indexes in the <b>INPUT</b> tuples
+     * */
+    public int[] aggregateFields() {
+	return this.afields;
+    }
+
+    /**
+     * @return the names of the aggregate fields in the <b>OUTPUT</b> tuples
+     * */
+    public String[] aggregateFieldNames() {
+	return this.aFieldNames;
+    }
+
+    /**
+     * @return the aggregate operators, one per aggregate field
+     * */
+    public Aggregator.Op[] aggregateOps() {
+	return this.aops;
+    }
+
+    /**
+     * Set the number of worker threads used to compute this aggregate.
+     * 
+     * @param parallelism
+     *            the degree of parallelism; 1 aggregates serially
+     */
+    public void setParallelism(int parallelism) {
+	if (parallelism < 1)
+	    throw new IllegalArgumentException("parallelism must be at least 1");
+	this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the number of worker threads used to compute this aggregate
+     */
+    public int getParallelism() {
+	return this.parallelism;
+    }
+
+    /**
+     * Set the degree of parallelism of Aggregate operators constructed after
+     * this call.
+     */
+    public static void setDefaultParallelism(int parallelism) {
+	if (parallelism < 1)
+	    throw new IllegalArgumentException("parallelism must be at least 1");
+	defaultParallelism = parallelism;
+    }
+
+    /**
+     * Reset the default degree of parallelism to 1 (serial aggregation).
+     */
+    public static void resetDefaultParallelism() {
+	defaultParallelism = 1;
+    }
+
+    /**
+     * @return a new, empty aggregator with the parameters of this operator
+     */
+    private Aggregator newAggregator() {
+	if (multi) {
+	    Type[] gtypes = new Type[gfields.length];
+	    Type[] atypes = new Type[afields.length];
+	    for (int i = 0; i < gfields.length; i++)
+		gtypes[i] = childTd.getFieldType(gfields[i]);
+	    for (int i = 0; i < afields.length; i++)
+		atypes[i] = childTd.getFieldType(afields[i]);
+	    return new MultiAggregator(gfields, gtypes, afields, atypes, aops);
+	}
+
+	Type gtype = aggGfield == Aggregator.NO_GROUPING ? null : childTd
+		.getFieldType(aggGfield);
+	if (childTd.getFieldType(aggAfield) == Type.INT_TYPE)
+	    return new IntegerAggregator(aggGfield, gtype, aggAfield, aop);
+	else
+	    return new StringAggregator(aggGfield, gtype, aggAfield, aop);
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	return aop.toString();
     }
@@ -181,9 +359,13 @@ public class Aggregate extends Operator {
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// Actually perform the aggregation
 	if (it == null) {
-	    while (child.hasNext()) {
-		Tuple t = child.next();
-		agg.mergeTupleIntoGroup(t);
+	    if (parallelism > 1 && heapScan() != null) {
+		aggregateParallel();
+	    } else {
+		while (child.hasNext()) {
+		    Tuple t = child.next();
+		    agg.mergeTupleIntoGroup(t);
+		}
 	    }
 
 	    it = agg.iterator();
@@ -195,6 +377,75 @@ public class Aggregate extends Operator {
 	return null;
     }
 
+    /**
+     * @return the sequential scan at the bottom of the child if the child is
+     *         a heap file scan under zero or more filters, or null otherwise
+     */
+    private SeqScan heapScan() {
+	DbIterator op = child;
+	while (op instanceof Filter)
+	    op = ((Filter) op).getChildren()[0];
+	if (op instanceof SeqScan && ((SeqScan) op).file instanceof HeapFile)
+	    return (SeqScan) op;
+	return null;
+    }
+
+    /**
+     * Aggregate the child by splitting the pages of the scanned heap file
+     * into one contiguous range per worker, aggregating each range into its
+     * own partial aggregator, and merging the partials into agg.
+     */
+    private void aggregateParallel() throws TransactionAbortedException,
+	    DbException {
+	final List<Predicate> preds = new ArrayList<Predicate>();
+	for (DbIterator op = child; op instanceof Filter; op = ((Filter) op)
+		.getChildren()[0])
+	    preds.add(((Filter) op).getPredicate());
+	SeqScan scan = heapScan();
+	preds.addAll(scan.getPredicates());
+	final HeapFile hf = (HeapFile) scan.file;
+	final TransactionId tid = scan.tid;
+	final CompiledPredicate pred = hf.compile(preds);
+	int numPages = hf.numPages();
+	int dop = Math.max(1, Math.min(parallelism, numPages));
+
+	ExecutorService pool = Executors.newFixedThreadPool(dop);
+	List<Future<Aggregator>> partials = new ArrayList<Future<Aggregator>>();
+	try {
+	    for (int i = 0; i < dop; i++) {
+		final int start = (int) ((long) i * numPages / dop);
+		final int end = (int) ((long) (i + 1) * numPages / dop);
+		partials.add(pool.submit(new Callable<Aggregator>() {
+		    public Aggregator call() throws Exception {
+			Aggregator partial = newAggregator();
+			DbFileIterator it = hf.iterator(tid, start, end, pred);
+			it.open();
+			try {
+			    while (it.hasNext())
+				partial.mergeTupleIntoGroup(it.next());
+			} finally {
+			    it.close();
+			}
+			return partial;
+		    }
+		}));
+	    }
+	    for (Future<Aggregator> f : partials)
+		agg.merge(f.get());
+	} catch (InterruptedException e) {
+	    throw new DbException("interrupted while aggregating: " + e);
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof TransactionAbortedException)
+		throw (TransactionAbortedException) cause;
+	    if (cause instanceof DbException)
+		throw (DbException) cause;
+	    throw new DbException("parallel aggregation failed: " + cause);
+	} finally {
+	    pool.shutdownNow();
+	}
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 	close();
 	open();
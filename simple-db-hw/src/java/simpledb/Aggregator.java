@@ -76,6 +76,16 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the partial group aggregates computed by another aggregator into
+     * this one. Both aggregators must have been constructed with the same
+     * fields and operators; this is used to combine partial results computed
+     * over disjoint sets of tuples.
+     *
+     * @param other an aggregator of the same class and parameters
+     */
+    public void merge(Aggregator other);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
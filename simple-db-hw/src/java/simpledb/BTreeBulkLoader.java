@@ -0,0 +1,313 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeBulkLoader builds the pages of a B+ tree from tuples that come in key
+ * order, bottom up, in one pass over them. Each level of the tree keeps the
+ * pages it has built that do not have a parent yet; as soon as a level has
+ * enough of them, they get one, and are written to disk, so only a few pages
+ * per level are ever held in memory, and the file is written front to back
+ * in page number order, a batch at a time. The root pointer page is written
+ * last.
+ * <p>
+ * Every page but the last two of each level holds a fixed fraction of the
+ * tuples or entries it can hold; the last two share the rest, so that no
+ * page is less than half full. For string keys, which internal pages store
+ * compressed, that is a fraction of the bytes their entries can take, and the
+ * key between two leaves is cut down to the shortest prefix that separates
+ * them. Likewise, the leaves of a file created slotted are filled to a fraction
+ * of their bytes.
+ *
+ * @see BTreeFile#bulkLoad
+ */
+class BTreeBulkLoader {
+
+	/**
+	 * A page that has been built but not written, because its parent is
+	 * not known yet.
+	 */
+	private static class Node {
+		final BTreePageId pid;
+		final Field key; // the smallest key in the subtree
+		final ArrayList<Tuple> tuples; // of a leaf
+		final ArrayList<BTreeEntry> entries; // of an internal page
+		BTreePageId left, right; // leaf siblings
+
+		Node(BTreePageId pid, Field key, ArrayList<Tuple> tuples,
+				ArrayList<BTreeEntry> entries) {
+			this.pid = pid;
+			this.key = key;
+			this.tuples = tuples;
+			this.entries = entries;
+		}
+	}
+
+	private final RandomAccessFile out;
+	private final int tableid;
+	private final int keyField;
+	private final Type[] types;
+	private final int leafFill, leafMax; // tuples per leaf
+	// whether leaves are filled by the bytes their variable-length records take
+	private final boolean slotted;
+	private final int leafFillBytes, leafBytes; // tuple bytes per leaf
+	private final int internalFill, internalMax; // children per internal page
+	// whether internal pages are filled by the bytes their compressed keys take
+	private final boolean compressed;
+	private final int internalFillBytes, internalBytes; // entry bytes per internal page
+
+	// the tuples that are not on a leaf yet
+	private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+	// the bytes they would take on one leaf, with their slots, if slotted
+	private int tupleBytes = 0;
+	// levels.get(i) holds the pages of height i without a parent
+	private final ArrayList<ArrayList<Node>> levels = new ArrayList<ArrayList<Node>>();
+	// levelBytes.get(i) is the bytes their entries would take on one page, if compressed
+	private final ArrayList<Integer> levelBytes = new ArrayList<Integer>();
+	private Node lastLeaf = null;
+	private int nextPageNo = 1;
+
+	/**
+	 * Start building a tree for a B+ tree file.
+	 *
+	 * @param bf - the file whose tuples are loaded
+	 * @param out - the file the pages are written to, which must be empty
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+	 */
+	BTreeBulkLoader(BTreeFile bf, File out, double fillFactor) throws IOException {
+		this.out = new RandomAccessFile(out, "rw");
+		this.tableid = bf.getId();
+		this.keyField = bf.keyField();
+		TupleDesc td = bf.getTupleDesc();
+		this.types = new Type[td.numFields()];
+		for (int i = 0; i < types.length; i++)
+			types[i] = td.getFieldType(i);
+
+		// the capacities of the pages, as laid out by BTreeFileEncoder
+		int pageBits = BufferPool.getPageSize() * 8;
+		int indexBits = BTreePage.INDEX_SIZE * 8;
+		this.slotted = bf.isSlotted();
+		int leafAreaSize = BufferPool.getPageSize() - 3 * BTreePage.INDEX_SIZE;
+		this.leafMax = slotted ? SlottedPageFormat.getMaxSlots(td, leafAreaSize)
+				: (pageBits - 3 * indexBits) / (td.getSize() * 8 + 1);
+		this.leafBytes = leafAreaSize - SlottedPageFormat.usedBytes(0, 0);
+		this.leafFillBytes = (int) (fillFactor * leafBytes);
+		this.compressed = bf.compressesKeys();
+		// a compressed entry takes at least the two lengths of its key
+		int entryBits = (compressed ? 2 : types[keyField].getLen()) * 8 + indexBits;
+		int maxEntries = (pageBits - 2 * indexBits - 8 - 1) / (entryBits + 1);
+		this.internalMax = maxEntries + 1;
+		this.leafFill = Math.max(1, (int) (fillFactor * leafMax));
+		this.internalFill = Math.max(2, (int) (fillFactor * maxEntries) + 1);
+		this.internalBytes = BTreeInternalPage.getCompressedEntryAreaSize(BufferPool.getPageSize());
+		this.internalFillBytes = (int) (fillFactor * internalBytes);
+	}
+
+	/**
+	 * Add the next tuple to the tree.
+	 *
+	 * @throws DbException if its key is smaller than that of the previous tuple
+	 */
+	void add(Tuple t) throws DbException, IOException {
+		Field key = t.getField(keyField);
+		Tuple prev = tuples.isEmpty() ? null : tuples.get(tuples.size() - 1);
+		if (prev != null && prev.getField(keyField).compare(Predicate.Op.GREATER_THAN, key))
+			throw new DbException("tuples are not sorted on field " + keyField
+					+ ": " + key + " follows " + prev.getField(keyField));
+		tuples.add(t);
+		// keep more than a page's worth in hand, so that the last two leaves
+		// can share the rest evenly
+		if (slotted) {
+			tupleBytes += tupleBytes(t);
+			if (tuples.size() > 2 * leafMax || tupleBytes > leafFillBytes + leafBytes / 2)
+				emitLeaf(tuplesThatFit(leafFillBytes));
+		}
+		else if (tuples.size() > 2 * leafFill)
+			emitLeaf(leafFill);
+	}
+
+	// the bytes a tuple takes on a slotted leaf, with its slot
+	private static int tupleBytes(Tuple t) {
+		return SlottedPageFormat.SLOT_SIZE + SlottedPageFormat.recordSize(t);
+	}
+
+	// the number of the first remaining tuples that fit on one leaf in the given
+	// bytes; at least one
+	private int tuplesThatFit(int bytes) {
+		int n = 0;
+		int used = 0;
+		while (n < tuples.size() && n < leafMax) {
+			used += tupleBytes(tuples.get(n));
+			if (used > bytes)
+				break;
+			n++;
+		}
+		return Math.max(n, 1);
+	}
+
+	/**
+	 * Build the pages that hold the remaining tuples, and the rest of the
+	 * tree above them, and write the root pointer page.
+	 *
+	 * @return false if no tuples were added, and nothing was written
+	 */
+	boolean finish() throws DbException, IOException {
+		if (lastLeaf == null && tuples.isEmpty())
+			return false;
+		if (slotted) {
+			if (tuples.size() > leafMax || tupleBytes > leafBytes)
+				emitLeaf(tuplesThatFit(tupleBytes / 2));
+		}
+		else if (tuples.size() > leafMax)
+			emitLeaf(tuples.size() / 2);
+		emitLeaf(tuples.size());
+
+		Node root = null;
+		for (int h = 0; root == null; h++) {
+			ArrayList<Node> rest = levels.get(h);
+			if (h == levels.size() - 1 && rest.size() == 1) {
+				root = rest.get(0);
+			}
+			else if (compressed) {
+				if (rest.size() > internalMax || levelBytes.get(h) > internalBytes)
+					emitInternal(h, childrenThatFit(rest, levelBytes.get(h) / 2));
+				emitInternal(h, rest.size());
+			}
+			else {
+				if (rest.size() > internalMax)
+					emitInternal(h, rest.size() / 2);
+				emitInternal(h, rest.size());
+			}
+		}
+		write(root, BTreeRootPtrPage.getId(tableid));
+		out.seek(0);
+		out.write(BTreeFileEncoder.convertToRootPtrPage(root.pid.pageNumber(),
+				root.pid.pgcateg(), 0));
+		return true;
+	}
+
+	/**
+	 * Close the file the pages are written to.
+	 */
+	void close() throws IOException {
+		out.close();
+	}
+
+	// put the first n remaining tuples on a new leaf
+	private void emitLeaf(int n) throws DbException, IOException {
+		List<Tuple> first = tuples.subList(0, n);
+		BTreePageId pid = new BTreePageId(tableid, nextPageNo++, BTreePageId.LEAF);
+		Field key = first.get(0).getField(keyField);
+		if (lastLeaf != null) {
+			Tuple below = lastLeaf.tuples.get(lastLeaf.tuples.size() - 1);
+			key = BTreeInternalPage.getSeparator(below.getField(keyField), key);
+		}
+		Node leaf = new Node(pid, key, new ArrayList<Tuple>(first), null);
+		if (slotted)
+			for (Tuple t : first)
+				tupleBytes -= tupleBytes(t);
+		first.clear();
+		if (lastLeaf != null) {
+			lastLeaf.right = pid;
+			leaf.left = lastLeaf.pid;
+		}
+		lastLeaf = leaf;
+		addChild(0, leaf);
+	}
+
+	// add a page of height h to those that need a parent
+	private void addChild(int h, Node child) throws DbException, IOException {
+		if (levels.size() == h) {
+			levels.add(new ArrayList<Node>());
+			levelBytes.add(0);
+		}
+		ArrayList<Node> level = levels.get(h);
+		level.add(child);
+		if (compressed) {
+			if (level.size() > 1) {
+				byte[] prev = level.size() > 2
+						? BTreeInternalPage.keyBytes(level.get(level.size() - 2).key) : null;
+				levelBytes.set(h, levelBytes.get(h) + BTreeInternalPage.compressedEntrySize(
+						prev, BTreeInternalPage.keyBytes(child.key)));
+			}
+			// keep more than a page's worth in hand, as for tuples; an entry takes
+			// at least the bytes of an empty key, so the byte limit comes first
+			if (level.size() > 2 * internalMax
+					|| levelBytes.get(h) > internalFillBytes + internalBytes / 2)
+				emitInternal(h, childrenThatFit(level, internalFillBytes));
+		}
+		else if (level.size() > 2 * internalFill)
+			emitInternal(h, internalFill);
+	}
+
+	// the number of the first pages of a level that can be the children of one
+	// internal page whose entries take at most the given bytes; at least two
+	private int childrenThatFit(List<Node> level, int bytes) {
+		int n = 1;
+		int used = 0;
+		byte[] prev = null;
+		while (n < level.size() && n < internalMax) {
+			byte[] key = BTreeInternalPage.keyBytes(level.get(n).key);
+			used += BTreeInternalPage.compressedEntrySize(prev, key);
+			if (used > bytes)
+				break;
+			prev = key;
+			n++;
+		}
+		return Math.max(n, 2);
+	}
+
+	// the bytes the entries between pages of a level would take on one page
+	private static int entryBytes(List<Node> level) {
+		int used = 0;
+		byte[] prev = null;
+		for (int i = 1; i < level.size(); i++) {
+			byte[] key = BTreeInternalPage.keyBytes(level.get(i).key);
+			used += BTreeInternalPage.compressedEntrySize(prev, key);
+			prev = key;
+		}
+		return used;
+	}
+
+	// make the first n pages of height h without a parent the children of a
+	// new internal page, and write them
+	private void emitInternal(int h, int n) throws DbException, IOException {
+		List<Node> children = levels.get(h).subList(0, n);
+		BTreePageId pid = new BTreePageId(tableid, nextPageNo++, BTreePageId.INTERNAL);
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+		for (int i = 1; i < n; i++)
+			entries.add(new BTreeEntry(children.get(i).key,
+					children.get(i - 1).pid, children.get(i).pid));
+		for (Node child : children)
+			write(child, pid);
+		Node page = new Node(pid, children.get(0).key, null, entries);
+		children.clear();
+		if (compressed)
+			levelBytes.set(h, entryBytes(levels.get(h)));
+		addChild(h + 1, page);
+	}
+
+	// write a page, now that its parent is known
+	private void write(Node n, BTreePageId parent) throws DbException, IOException {
+		BTreePage page;
+		if (n.tuples != null) {
+			BTreeLeafPage leaf = new BTreeLeafPage(n.pid,
+					BTreeFileEncoder.convertToLeafPage(n.tuples, BufferPool.getPageSize(),
+							types.length, types, keyField, slotted), keyField);
+			leaf.setLeftSiblingId(n.left);
+			leaf.setRightSiblingId(n.right);
+			page = leaf;
+		}
+		else {
+			page = new BTreeInternalPage(n.pid,
+					BTreeFileEncoder.convertToInternalPage(n.entries, BufferPool.getPageSize(),
+							types[keyField], n.entries.get(0).getLeftChild().pgcateg(), compressed),
+					keyField);
+		}
+		page.setParentId(parent);
+		out.seek(BTreeRootPtrPage.getPageSize()
+				+ (long) (n.pid.pageNumber() - 1) * BufferPool.getPageSize());
+		out.write(page.getPageData());
+	}
+}
@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import simpledb.Predicate.Op;
 
@@ -12,6 +13,21 @@ import simpledb.Predicate.Op;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Transactions can read and write the tree concurrently. Readers take no latches:
+ * they read pages optimistically, and start over if a writer changed a page while
+ * it was read (see {@link #findLeafSnapshot}). Writers that insert into or delete
+ * from a single leaf page latch only that page, and run in parallel; a writer that
+ * has to split, merge or redistribute pages waits for them, and latches every page
+ * it changes.
+ * <p>
+ * A BTreeFile may store its pages compressed, in a {@link CompressedPageFile} where
+ * the root pointer page is page 0 and every other page keeps its page number.
+ * <p>
+ * A BTreeFile with STRING_TYPE fields may store its tuples as variable-length
+ * records, on leaf pages in the {@link SlottedPageFormat}, if it is created so.
+ * A BTreeFile keyed on a STRING_TYPE field may likewise be created to store the
+ * keys of its internal pages prefix compressed (see {@link BTreeInternalPage}).
  * 
  * @see simpledb.BTreeLeafPage#BTreeLeafPage
  * @see simpledb.BTreeInternalPage#BTreeInternalPage
@@ -25,6 +41,20 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	// null if the pages are not compressed
+	private final CompressedPageFile compressed;
+	// whether the leaf pages are in the SlottedPageFormat
+	private final boolean slotted;
+	// whether the internal pages store their keys prefix compressed
+	private final boolean compressKeys;
+
+	// the latches on the pages of the tree
+	private final BTreeLatches latches = new BTreeLatches();
+	// held shared by writers that change a single leaf page, and exclusively by
+	// a writer that changes the structure of the tree
+	private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+	// the latches held by the writer changing the structure of the tree
+	private HashSet<Integer> structureLatches;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,10 +65,89 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, whose pages are
+	 * stored compressed if compress is true. The pages of a file that already
+	 * stores them uncompressed are compressed first, and a file that already
+	 * stores them compressed keeps doing so either way.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param compress - whether to store the pages compressed
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean compress) {
+		this(f, key, td, compress, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, whose pages are
+	 * stored compressed if compress is true, and whose tuples are stored on
+	 * slotted leaf pages if slotted is true. The layout can only be chosen
+	 * while the file is empty; a file that already has pages keeps its layout.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param compress - whether to store the pages compressed
+	 * @param slotted - whether to store the tuples as variable-length records in
+	 *            the {@link SlottedPageFormat}; ignored unless td has a STRING_TYPE
+	 *            field
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean compress, boolean slotted) {
+		this(f, key, td, compress, slotted, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, whose pages are
+	 * stored compressed if compress is true, whose tuples are stored on slotted
+	 * leaf pages if slotted is true, and whose internal pages store their keys
+	 * prefix compressed if compressKeys is true. The layouts can only be chosen
+	 * while the file is empty; a file that already has pages keeps its layouts.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param compress - whether to store the pages compressed
+	 * @param slotted - whether to store the tuples as variable-length records in
+	 *            the {@link SlottedPageFormat}; ignored unless td has a STRING_TYPE
+	 *            field
+	 * @param compressKeys - whether to store the keys of the internal pages prefix
+	 *            compressed; ignored unless the key is a STRING_TYPE field
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean compress, boolean slotted,
+			boolean compressKeys) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		if(compress || CompressedPageFile.isCompressed(f)) {
+			try {
+				if(!CompressedPageFile.isCompressed(f) && f.length() > 0) {
+					CompressedPageFile.convert(f, BTreeRootPtrPage.getPageSize(),
+							BufferPool.getPageSize());
+				}
+				this.compressed = new CompressedPageFile(f);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		else {
+			this.compressed = null;
+		}
+		try {
+			this.slotted = SlottedPageFormat.open(f, td, slotted);
+			this.compressKeys = BTreeInternalPage.openKeyCompression(f, td.getFieldType(key),
+					compressKeys);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
@@ -48,6 +157,30 @@ public class BTreeFile implements DbFile {
 		return f;
 	}
 
+	/**
+	 * Returns the compressed pages of this BTreeFile, or null if they are not
+	 * compressed.
+	 */
+	public CompressedPageFile getCompressedPages() {
+		return compressed;
+	}
+
+	/**
+	 * Returns true if the tuples of this BTreeFile are stored on leaf pages in
+	 * the {@link SlottedPageFormat}.
+	 */
+	public boolean isSlotted() {
+		return slotted;
+	}
+
+	/**
+	 * Returns true if the internal pages of this BTreeFile store their keys
+	 * prefix compressed.
+	 */
+	public boolean compressesKeys() {
+		return compressKeys;
+	}
+
 	/**
 	 * Returns an ID uniquely identifying this BTreeFile. Implementation note:
 	 * you will need to generate this tableid somewhere and ensure that each
@@ -79,6 +212,17 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
+		if(compressed != null) {
+			try {
+				// compressed pages are decompressed as they are read
+				if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+					return new BTreeRootPtrPage(id, compressed.read(0, BTreeRootPtrPage.getPageSize()));
+				}
+				return createPage(id, compressed.read(id.pageNumber(), BufferPool.getPageSize()));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
 		BufferedInputStream bis = null;
 
 		try {
@@ -113,18 +257,7 @@ public class BTreeFile implements DbFile {
 							+ BufferPool.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+				return createPage(id, pageBuf);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -139,6 +272,22 @@ public class BTreeFile implements DbFile {
 		}
 	}
 
+	// construct an internal, leaf or header page from the bytes read from disk
+	private Page createPage(BTreePageId id, byte[] pageBuf) throws IOException {
+		if(id.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
+			return p;
+		}
+		else if(id.pgcateg() == BTreePageId.LEAF) {
+			BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
+			return p;
+		}
+		else { // id.pgcateg() == BTreePageId.HEADER
+			BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
+			return p;
+		}
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -149,6 +298,10 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
+		if(compressed != null) {
+			compressed.write(id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : id.pageNumber(), data);
+			return;
+		}
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 			rf.write(data);
@@ -165,10 +318,22 @@ public class BTreeFile implements DbFile {
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
+		if(compressed != null) {
+			// less the root pointer page
+			return Math.max(0, compressed.numPages() - 1);
+		}
 		// we only ever write full pages
 		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
 
+	// whether the file has no pages yet, not even the root pointer page
+	private boolean isEmpty() {
+		if(compressed != null) {
+			return compressed.numPages() == 0;
+		}
+		return f.length() == 0;
+	}
+
 	/**
 	 * Returns the index of the field that this B+ tree is keyed on
 	 */
@@ -197,8 +362,7 @@ public class BTreeFile implements DbFile {
 					throws DbException, TransactionAbortedException {
 
 		//If the pid requested is already a leaf page, fetch it from the buffer pool and return it.
-		System.out.println(pid.toString());
-		if(pid.pgcateg() == BTreePageId.LEAF){
+if(pid.pgcateg() == BTreePageId.LEAF){
 			return (BTreeLeafPage) this.getPage(tid, dirtypages, pid, perm);
 		}
 		//If it's not a leaf page, it is an internal page in this lab,
@@ -251,11 +415,128 @@ public class BTreeFile implements DbFile {
 		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
 	}
 
+	/**
+	 * The tuples of a leaf page and its right sibling, as they were when the page was read
+	 * without latching it.
+	 */
+	static class LeafSnapshot {
+		final BTreePageId pid;
+		final long version;
+		final ArrayList<Tuple> tuples;
+		final BTreePageId rightSibling;
+
+		LeafSnapshot(BTreeLeafPage page, long version) {
+			this.pid = page.getId();
+			this.version = version;
+			this.tuples = new ArrayList<Tuple>(page.getNumTuples());
+			Iterator<Tuple> it = page.iterator();
+			while(it.hasNext()) {
+				tuples.add(it.next());
+			}
+			this.rightSibling = page.getRightSiblingId();
+		}
+	}
+
+	/**
+	 * Find the left-most leaf page possibly containing the key field f, like findLeafPage, and
+	 * read its tuples, without latching any page, so that readers never wait for writers.
+	 * The search reads the version of each page's latch before reading the page, and
+	 * validates it after reading the version of the child it moves to; if a writer latched the
+	 * page in the meantime, the child pointer may be out of date, and the search starts over
+	 * from the root pointer page.
+	 *
+	 * @param tid - the transaction id
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @return the tuples of the leaf page, or null if the tree has no root page
+	 */
+	LeafSnapshot findLeafSnapshot(TransactionId tid, Field f)
+			throws DbException, TransactionAbortedException {
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		restart:
+		while(true) {
+			if(isEmpty()) {
+				return null;
+			}
+			int parentLatch = latches.latchOf(rootPtrId.pageNumber());
+			long parentVersion = latches.version(parentLatch);
+			Page page = Database.getBufferPool().getPage(tid, rootPtrId, Permissions.READ_ONLY);
+			BTreePageId pid = ((BTreeRootPtrPage) page).getRootId();
+			while(true) {
+				if(pid == null) {
+					if(latches.validate(parentLatch, parentVersion)) {
+						return null;
+					}
+					continue restart;
+				}
+				int latch = latches.latchOf(pid.pageNumber());
+				long version = latches.version(latch);
+				if(version < 0 || !latches.validate(parentLatch, parentVersion)) {
+					Thread.yield();
+					continue restart;
+				}
+				try {
+					page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+					if(pid.pgcateg() == BTreePageId.LEAF) {
+						LeafSnapshot leaf = new LeafSnapshot((BTreeLeafPage) page, version);
+						if(latches.validate(latch, version)) {
+							return leaf;
+						}
+						continue restart;
+					}
+					pid = childFor((BTreeInternalPage) page, f);
+				} catch(RuntimeException e) {
+					// the page was read while a writer changed it
+					if(latches.validate(latch, version)) {
+						throw e;
+					}
+					continue restart;
+				}
+				parentLatch = latch;
+				parentVersion = version;
+			}
+		}
+	}
+
+	/**
+	 * Read the tuples of a leaf page, such as the right sibling of a page read earlier, without
+	 * latching it.
+	 *
+	 * @param tid - the transaction id
+	 * @param pid - the id of the leaf page
+	 * @return the tuples of the page, or null if a writer latched the page while it was read
+	 */
+	LeafSnapshot readLeafSnapshot(TransactionId tid, BTreePageId pid)
+			throws DbException, TransactionAbortedException {
+		int latch = latches.latchOf(pid.pageNumber());
+		long version = latches.version(latch);
+		if(version < 0) {
+			return null;
+		}
+		try {
+			LeafSnapshot leaf = new LeafSnapshot((BTreeLeafPage) Database.getBufferPool().getPage(
+					tid, pid, Permissions.READ_ONLY), version);
+			return latches.validate(latch, version) ? leaf : null;
+		} catch(RuntimeException e) {
+			if(latches.validate(latch, version)) {
+				throw e;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if no writer has latched a leaf page since it was read
+	 */
+	boolean isCurrent(LeafSnapshot leaf) {
+		return latches.validate(latches.latchOf(leaf.pid.pageNumber()), leaf.version);
+	}
+
 	/**
 	 * Split a leaf page to make room for new tuples and recursively split the parent node
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
-	 * of the first tuple in the right-hand page (the key is "copied up"), and child pointers 
-	 * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent 
+	 * of the first tuple in the right-hand page (the key is "copied up"), or for string keys, the
+	 * shortest prefix of it that still separates the two pages, and child pointers 
+	 * pointing to the two leaf pages resulting from the split.Update sibling pointers and parent 
 	 * pointers as needed.  
 	 * 
 	 * Return the leaf page into which a new tuple with key field "field" should be inserted.
@@ -278,14 +559,14 @@ public class BTreeFile implements DbFile {
 		BTreeLeafPage _newLeftPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
 		
 		// prepare the while loop
-		int _numTuples = page.getNumTuples();
-		int _counter = 0;
+		int _numToMove = page.getSplitPoint();
 		Iterator<Tuple> _leafIterator = page.iterator();
+		Tuple _tupleToAdd = null;
 		
 		//No need to iterate through second half - adds to the runtime
-		for (int i = 0; i < _numTuples / 2; i++) {
+		for (int i = 0; i < _numToMove; i++) {
             if (_leafIterator.hasNext()) {
-                Tuple _tupleToAdd = _leafIterator.next();
+                _tupleToAdd = _leafIterator.next();
                 page.deleteTuple(_tupleToAdd);
                 _newLeftPage.insertTuple(_tupleToAdd);            	
             }
@@ -308,7 +589,11 @@ public class BTreeFile implements DbFile {
 		page.setLeftSiblingId(_newLeftPage.getId());
 		
 
-		Field _nextField = _leafIterator.next().getField(this.keyField());
+		// the key copied up need only separate the two pages, so it may be shorter than
+		// the first key of the right-hand page
+		Field _nextField = BTreeInternalPage.getSeparator(
+				_tupleToAdd == null ? null : _tupleToAdd.getField(this.keyField()),
+				_leafIterator.next().getField(this.keyField()));
 		
 		// update pointers to parents
 		BTreeInternalPage _newParentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), _nextField);
@@ -356,12 +641,12 @@ public class BTreeFile implements DbFile {
 		BTreeEntry _entryToPush = null;
 		Field _fieldToPush = null;
 		//prepare the loop
-		int _numEntries = page.getNumEntries();
+		int _numEntries = page.getSplitPoint();
 		Iterator<BTreeEntry> _entryIterator = page.iterator();
 		
 		//Put the first half into a new page - no need to iterate through the other
 		//half unnecessarily
-	      for (int j = 0; j < _numEntries / 2; j ++) {
+	      for (int j = 0; j < _numEntries; j ++) {
               if (_entryIterator.hasNext()){
                   BTreeEntry e = _entryIterator.next();
                   page.deleteKeyAndLeftChild(e);
@@ -528,6 +813,13 @@ public class BTreeFile implements DbFile {
 			return dirtypages.get(pid);
 		}
 		else {
+			if(perm == Permissions.READ_WRITE && structure.isWriteLockedByCurrentThread()) {
+				// latch each page the structure change modifies until it is done
+				int latch = latches.latchOf(pid.pageNumber());
+				if(structureLatches.add(latch)) {
+					latches.lock(latch);
+				}
+			}
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
 			if(perm == Permissions.READ_WRITE) {
 				dirtypages.put(pid, p);
@@ -536,6 +828,130 @@ public class BTreeFile implements DbFile {
 		}
 	}
 
+	/**
+	 * Wait until no other writer is changing the tree, and keep others from changing it
+	 * until {@link #endStructureChange} is called. Every page fetched with READ_WRITE
+	 * permission in the meantime is latched.
+	 */
+	private void beginStructureChange() {
+		structure.writeLock().lock();
+		structureLatches = new HashSet<Integer>();
+	}
+
+	/**
+	 * Release the latches taken since {@link #beginStructureChange}, and let other
+	 * writers change the tree.
+	 */
+	private void endStructureChange() {
+		for(int latch : structureLatches) {
+			latches.unlock(latch);
+		}
+		structureLatches = null;
+		structure.writeLock().unlock();
+	}
+
+	/**
+	 * Return the child of an internal page whose subtree is the left-most possibly
+	 * containing the key field f, or the left-most child if f is null.
+	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+	 */
+	private BTreePageId childFor(BTreeInternalPage page, Field f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = it.next();
+		if(f == null) {
+			return e.getLeftChild();
+		}
+		while(true) {
+			if(e.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
+				return e.getLeftChild();
+			}
+			if(!it.hasNext()) {
+				return e.getRightChild();
+			}
+			e = it.next();
+		}
+	}
+
+	/**
+	 * Insert a tuple into the leaf page it belongs on if the page has room for it, latching
+	 * only that page. Any number of writers can do this at once; they exclude only a writer
+	 * changing the structure of the tree, so the internal pages do not change meanwhile.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to insert
+	 * @return the leaf page, or null if the tuple was not inserted because the page is full or
+	 * the tree has no root page yet
+	 */
+	private BTreeLeafPage insertIntoLeaf(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		structure.readLock().lock();
+		try {
+			BTreePageId pid = getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId();
+			if(pid == null) {
+				return null;
+			}
+			while(pid.pgcateg() == BTreePageId.INTERNAL) {
+				BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(
+						tid, pid, Permissions.READ_ONLY);
+				pid = childFor(page, t.getField(keyField));
+			}
+			int latch = latches.latchOf(pid.pageNumber());
+			latches.lock(latch);
+			try {
+				BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(
+						tid, pid, Permissions.READ_WRITE);
+				if(leaf.getNumEmptySlots() == 0) {
+					return null;
+				}
+				leaf.insertTuple(t);
+				return leaf;
+			} finally {
+				latches.unlock(latch);
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Delete a tuple from its leaf page if the page stays at least half full, latching only
+	 * that page, like {@link #insertIntoLeaf}.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to delete
+	 * @return the leaf page, or null if the tuple was not deleted because the page would be
+	 * less than half full
+	 */
+	private BTreeLeafPage deleteFromLeaf(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		structure.readLock().lock();
+		try {
+			while(true) {
+				int pgNo = t.getRecordId().getPageId().pageNumber();
+				int latch = latches.latchOf(pgNo);
+				latches.lock(latch);
+				try {
+					// the tuple cannot move off the page while it is latched
+					if(t.getRecordId().getPageId().pageNumber() != pgNo) {
+						continue;
+					}
+					BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(
+							tid, new BTreePageId(tableid, pgNo, BTreePageId.LEAF), Permissions.READ_WRITE);
+					if(!leaf.isHalfFullWithout(t)
+							&& leaf.getParentId().pgcateg() != BTreePageId.ROOT_PTR) {
+						return null;
+					}
+					leaf.deleteTuple(t);
+					return leaf;
+				} finally {
+					latches.unlock(latch);
+				}
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
 	 * May cause pages to split if the page where tuple t belongs is full.
@@ -548,33 +964,43 @@ public class BTreeFile implements DbFile {
 	 */
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
+		BTreeLeafPage leaf = insertIntoLeaf(tid, t);
+		if(leaf != null) {
+			dirtyPagesArr.add(leaf);
+			return dirtyPagesArr;
+		}
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		beginStructureChange();
+		try {
+			// get a read lock on the root pointer page and use it to locate the root page
+			BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+			BTreePageId rootId = rootPtr.getRootId();
+
+			if(rootId == null) { // the root has just been created, so set the root pointer to point to it
+				rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+				rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+				rootPtr.setRootId(rootId);
+			}
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
-		}
+			// find and lock the left-most leaf page corresponding to the key field,
+			// and split the leaf page if there are no more slots available
+			BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+			if(leafPage.getNumEmptySlots() == 0) {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+			}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			// insert the tuple into the leaf page
+			leafPage.insertTuple(t);
+		} finally {
+			endStructureChange();
 		}
 
-		// insert the tuple into the leaf page
-		leafPage.insertTuple(t);
-
-		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
 		dirtyPagesArr.addAll(dirtypages.values());
 		return dirtyPagesArr;
 	}
-	
+
 	/**
 	 * Handle the case when a B+ tree page becomes less than half full due to deletions.
 	 * If one of its siblings has extra tuples/entries, redistribute those tuples/entries.
@@ -602,6 +1028,12 @@ public class BTreeFile implements DbFile {
 		// the page and siblings
 		if(parentId.pgcateg() != BTreePageId.ROOT_PTR) {
 			parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+			if(!parent.hasRoomToReplaceKey()) {
+				// redistributing tuples or entries replaces the key between the page and its
+				// sibling, which may need more room than a parent with compressed keys has left
+				splitInternalPage(tid, dirtypages, parent, parent.iterator().next().getKey());
+				parent = (BTreeInternalPage) getPage(tid, dirtypages, page.getParentId(), Permissions.READ_WRITE);
+			}
 			Iterator<BTreeEntry> ite = parent.iterator();
 			while(ite.hasNext()) {
 				BTreeEntry e = ite.next();
@@ -649,12 +1081,11 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeLeafPage leftSibling = (BTreeLeafPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some tuples from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(leftSibling)) {
 				mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
@@ -665,7 +1096,7 @@ public class BTreeFile implements DbFile {
 			BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some tuples from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(rightSibling)) {
 				mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
@@ -694,7 +1125,7 @@ public class BTreeFile implements DbFile {
 		// the corresponding parent entry.
 		
 		//Initialize the iterator and the number of tuples to 'steal'
-        int _numSteal = (sibling.getNumTuples() - page.getNumTuples()) / 2;
+        int _numSteal = page.getNumTuplesToSteal(sibling, isRightSibling);
         Iterator<Tuple> _siblingIterator;
         
         //If it's from the right sibling, start from the left (iterate normally through the lowest tuples)
@@ -718,11 +1149,18 @@ public class BTreeFile implements DbFile {
             }
 
         }
-        // the stolen tuple now needs to update the parent
+        // the stolen tuple now needs to update the parent, with a key that separates the
+        // last tuple of the left-hand page from the first of the right-hand page
+        Tuple _below;
         if (isRightSibling) {
+        	_below = _tupleToSteal;
         	_tupleToSteal = _siblingIterator.next();
         }
-        entry.setKey(_tupleToSteal.getField(keyField));
+        else {
+        	_below = _siblingIterator.hasNext() ? _siblingIterator.next() : null;
+        }
+        entry.setKey(BTreeInternalPage.getSeparator(
+        		_below == null ? null : _below.getField(keyField), _tupleToSteal.getField(keyField)));
         parent.updateEntry(entry);
 	}
 
@@ -753,12 +1191,11 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(leftSibling)) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
@@ -769,7 +1206,7 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(rightSibling)) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
@@ -806,7 +1243,7 @@ public class BTreeFile implements DbFile {
 		// pointers of all children in the entries that were moved.
 		
 		//Initialize the same way as steal leaf function
-        int _numSteal = (leftSibling.getNumEntries() - page.getNumEntries()) / 2;
+        int _numSteal = page.getNumEntriesToSteal(leftSibling, false);
         Iterator<BTreeEntry> _entryIterator = leftSibling.reverseIterator();
 
         BTreeEntry _centerEntry = new BTreeEntry(parentEntry.getKey(), null, page.iterator().next().getLeftChild());
@@ -857,7 +1294,7 @@ public class BTreeFile implements DbFile {
 		
 		//This function is implemented as a reverse to the stealfromleftinternalpage function
 		
-        int _numSteal = (rightSibling.getNumEntries() - page.getNumEntries()) / 2;
+        int _numSteal = page.getNumEntriesToSteal(rightSibling, true);
         Iterator<BTreeEntry> _entryIterator = rightSibling.iterator();
 
         BTreeEntry _centerEntry = new BTreeEntry(parentEntry.getKey(), page.reverseIterator().next().getRightChild(), null);
@@ -999,8 +1436,7 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -1015,7 +1451,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().pageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isLessThanHalfFull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -1031,23 +1467,32 @@ public class BTreeFile implements DbFile {
 	 * many pages since parent pointers will need to be updated when an internal node merges.
 	 * @see #handleMinOccupancyPage(TransactionId, HashMap, BTreePage)
 	 */
-	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) 
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
-
-		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(), 
-				BTreePageId.LEAF);
-		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-		page.deleteTuple(t);
+		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
+		BTreeLeafPage leaf = deleteFromLeaf(tid, t);
+		if(leaf != null) {
+			dirtyPagesArr.add(leaf);
+			return dirtyPagesArr;
+		}
 
-		// if the page is below minimum occupancy, get some tuples from its siblings
-		// or merge with one of the siblings
-		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-		if(page.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, page);
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		beginStructureChange();
+		try {
+			BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(),
+					BTreePageId.LEAF);
+			BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+			page.deleteTuple(t);
+
+			// if the page is below minimum occupancy, get some tuples from its siblings
+			// or merge with one of the siblings
+			if(page.isLessThanHalfFull()) {
+				handleMinOccupancyPage(tid, dirtypages, page);
+			}
+		} finally {
+			endStructureChange();
 		}
 
-		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
 		dirtyPagesArr.addAll(dirtypages.values());
 		return dirtyPagesArr;
 	}
@@ -1065,7 +1510,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(isEmpty() && compressed != null) {
+				// create the root pointer page and the root page
+				compressed.write(0, BTreeRootPtrPage.createEmptyPageData());
+				compressed.write(1, BTreeLeafPage.createEmptyPageData());
+			}
+			else if(isEmpty()) {
 				// create the root pointer page and the root page
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
@@ -1129,11 +1579,16 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				if(compressed != null) {
+					compressed.write(numPages() + 1, emptyData);
+				}
+				else {
+					BufferedOutputStream bw = new BufferedOutputStream(
+							new FileOutputStream(f, true));
+					bw.write(emptyData);
+					bw.close();
+				}
 				emptyPageNo = numPages();
 			}
 		}
@@ -1164,10 +1619,15 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		if(compressed != null) {
+			compressed.write(emptyPageNo, BTreePage.createEmptyPageData());
+		}
+		else {
+			RandomAccessFile rf = new RandomAccessFile(f, "rw");
+			rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
+			rf.write(BTreePage.createEmptyPageData());
+			rf.close();
+		}
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1262,6 +1722,99 @@ public class BTreeFile implements DbFile {
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 
+	/**
+	 * Load tuples into this B+ tree, which must be empty, by building the tree
+	 * bottom up in one pass over them, instead of inserting them one at a time.
+	 * Every leaf and internal page but the last two of each level is filled to
+	 * the given fraction of its capacity, and the pages are written sequentially,
+	 * without going through the buffer pool.
+	 * <p>
+	 * The tree is built in a new file next to this one, which replaces it only once
+	 * the whole tree has been written, so a load that fails, or has no tuples,
+	 * leaves the tree as it was. If the pages of this file are compressed, those of
+	 * the new file are compressed before it replaces it. The statistics of the table
+	 * are not updated.
+	 * 
+	 * @param tid - the transaction id
+	 * @param tuples - the tuples to load, with the TupleDesc of this file; the
+	 *            iterator is opened and closed by this call
+	 * @param sorted - whether the tuples come in the order of the key field; if not,
+	 *            they are sorted first, in runs of as many tuples as fit in the
+	 *            default number of buffer pool pages
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+	 * @throws DbException if the tree is not empty, or if sorted is true but the
+	 *             tuples are not in the order of the key field
+	 * @see BTreeBulkLoader
+	 */
+	public void bulkLoad(TransactionId tid, DbFileIterator tuples, boolean sorted, double fillFactor)
+			throws DbException, IOException, TransactionAbortedException {
+		if(fillFactor < 0.5 || fillFactor > 1) {
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1");
+		}
+
+		// lock the root pointer page, so that no one else reads or writes the tree
+		// until the transaction completes
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		getRootPtrPage(tid, dirtypages);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+				BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+		boolean empty = true;
+		if(rootPtr.getRootId() != null) {
+			DbFileIterator it = iterator(tid);
+			it.open();
+			empty = !it.hasNext();
+			it.close();
+		}
+		if(!empty) {
+			throw new DbException("only an empty B+ tree can be bulk loaded");
+		}
+
+		if(!sorted) {
+			int runSize = BufferPool.DEFAULT_PAGES * (BufferPool.getPageSize() / td.getSize());
+			tuples = ExternalSort.sort(tuples, td, new BTreeFileEncoder.TupleComparator(keyField), runSize);
+		}
+		File tmp = new File(f.getPath() + ".load");
+		BTreeBulkLoader loader = new BTreeBulkLoader(this, tmp, fillFactor);
+		boolean loaded = false;
+		try {
+			tuples.open();
+			while(tuples.hasNext()) {
+				loader.add(tuples.next());
+			}
+			loaded = loader.finish();
+		} finally {
+			tuples.close();
+			loader.close();
+			if(!loaded) {
+				tmp.delete();
+			}
+		}
+		if(!loaded) {
+			// there were no tuples to load
+			return;
+		}
+
+		synchronized(this) {
+			// the cached pages of the empty tree are out of date
+			Database.getBufferPool().discardPage(BTreeRootPtrPage.getId(tableid));
+			int[] categories = { BTreePageId.INTERNAL, BTreePageId.LEAF, BTreePageId.HEADER };
+			for(int pgNo = 1; pgNo <= numPages(); pgNo++) {
+				for(int categ : categories) {
+					Database.getBufferPool().discardPage(new BTreePageId(tableid, pgNo, categ));
+				}
+			}
+			if(compressed != null) {
+				CompressedPageFile.convert(tmp, BTreeRootPtrPage.getPageSize(),
+						BufferPool.getPageSize());
+				compressed.replaceWith(tmp);
+			}
+			else if(!tmp.renameTo(f)) {
+				tmp.delete();
+				throw new IOException("could not replace " + f + " with " + tmp);
+			}
+		}
+	}
+
 	/**
 	 * get the specified tuples from the file based on its IndexPredicate value on
 	 * behalf of the specified transaction. This method will acquire a read lock on
@@ -1291,65 +1844,98 @@ public class BTreeFile implements DbFile {
 }
 
 /**
- * Helper class that implements the Java Iterator for tuples on a BTreeFile
+ * Helper class for the iterators of a BTreeFile, which returns the tuples of its leaf
+ * pages in key order, starting from the left-most leaf page possibly containing a key.
+ * It reads one leaf page at a time without latching it, and moves on to the page's right
+ * sibling only if the page has not changed since it was read, since otherwise tuples may
+ * have moved between the pages in the meantime. If it has, the iterator searches the tree
+ * again for the key of the last tuple it returned, and skips the tuples with that key it
+ * has already returned.
+ *
+ * @see BTreeFile#findLeafSnapshot
  */
-class BTreeFileIterator extends AbstractDbFileIterator {
+abstract class BTreeLeafIterator extends AbstractDbFileIterator {
 
-	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
+	final TransactionId tid;
+	final BTreeFile f;
+	private final Field start;
 
-	TransactionId tid;
-	BTreeFile f;
+	private BTreeFile.LeafSnapshot leaf = null;
+	private int pos;
+	// the key of the last tuple returned, and the number of tuples with that key returned
+	private Field lastKey;
+	private int lastKeyCount;
+	// the number of tuples with the last key to skip after searching the tree again
+	private int skip;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
+	 * @param start - the key to start from, or null to start from the first tuple
 	 */
-	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+	BTreeLeafIterator(BTreeFile f, TransactionId tid, Field start) {
 		this.f = f;
 		this.tid = tid;
+		this.start = start;
 	}
 
 	/**
-	 * Open this iterator by getting an iterator on the first leaf page
+	 * Open this iterator by reading the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
-		it = curp.iterator();
+		leaf = f.findLeafSnapshot(tid, start);
+		pos = 0;
+		lastKey = null;
+		lastKeyCount = 0;
+		skip = 0;
 	}
 
 	/**
 	 * Read the next tuple either from the current page if it has more tuples or
 	 * from the next page by following the right sibling pointer.
-	 * 
-	 * @return the next tuple, or null if none exists
+	 *
+	 * @return the next tuple in key order, or null if none exists
 	 */
-	@Override
-	protected Tuple readNext() throws TransactionAbortedException, DbException {
-		if (it != null && !it.hasNext())
-			it = null;
+	Tuple nextTuple() throws DbException, TransactionAbortedException {
+		while(leaf != null) {
+			if(pos < leaf.tuples.size()) {
+				Tuple t = leaf.tuples.get(pos++);
+				Field key = t.getField(f.keyField());
+				if(lastKey != null && key.compare(Op.LESS_THAN, lastKey)) {
+					continue;
+				}
+				if(lastKey != null && key.compare(Op.EQUALS, lastKey)) {
+					if(skip > 0) {
+						skip--;
+						continue;
+					}
+					lastKeyCount++;
+					return t;
+				}
+				lastKey = key;
+				lastKeyCount = 1;
+				skip = 0;
+				return t;
+			}
 
-		while (it == null && curp != null) {
-			BTreePageId nextp = curp.getRightSiblingId();
-			if(nextp == null) {
-				curp = null;
+			if(leaf.rightSibling == null) {
+				leaf = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
-				if (!it.hasNext())
-					it = null;
+				BTreeFile.LeafSnapshot next = f.readLeafSnapshot(tid, leaf.rightSibling);
+				if(next != null && f.isCurrent(leaf)) {
+					leaf = next;
+					pos = 0;
+				}
+				else {
+					leaf = f.findLeafSnapshot(tid, lastKey != null ? lastKey : start);
+					pos = 0;
+					skip = lastKeyCount;
+				}
 			}
 		}
-
-		if (it == null)
-			return null;
-		return it.next();
+		return null;
 	}
 
 	/**
@@ -1365,8 +1951,27 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
-		it = null;
-		curp = null;
+		leaf = null;
+	}
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a BTreeFile
+ */
+class BTreeFileIterator extends BTreeLeafIterator {
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 */
+	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+		super(f, tid, null);
+	}
+
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		return nextTuple();
 	}
 }
 
@@ -1374,13 +1979,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
  * Helper class that implements the DbFileIterator for search tuples on a
  * B+ Tree File
  */
-class BTreeSearchIterator extends AbstractDbFileIterator {
+class BTreeSearchIterator extends BTreeLeafIterator {
 
-	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
-
-	TransactionId tid;
-	BTreeFile f;
 	IndexPredicate ipred;
 
 	/**
@@ -1390,86 +1990,37 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * @param ipred - the predicate to filter on
 	 */
 	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
-		this.f = f;
-		this.tid = tid;
+		// start from the first leaf page applicable for the given predicate operation
+		super(f, tid, ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
+				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ ? ipred.getField() : null);
 		this.ipred = ipred;
 	}
 
 	/**
-	 * Open this iterator by getting an iterator on the first leaf page applicable
-	 * for the given predicate operation
-	 */
-	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
-				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
-		}
-		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
-		}
-		it = curp.iterator();
-	}
-
-	/**
-	 * Read the next tuple either from the current page if it has more tuples matching
-	 * the predicate or from the next page by following the right sibling pointer.
-	 * 
+	 * Read the next tuple matching the predicate, in key order.
+	 *
 	 * @return the next tuple matching the predicate, or null if none exists
 	 */
 	@Override
 	protected Tuple readNext() throws TransactionAbortedException, DbException,
 	NoSuchElementException {
-		while (it != null) {
-
-			while (it.hasNext()) {
-				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-					return t;
-				}
-				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
-					return null;
-				}
-				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
-					return null;
-				}
+		Tuple t;
+		while ((t = nextTuple()) != null) {
+			if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+				return t;
 			}
-
-			BTreePageId nextp = curp.getRightSiblingId();
-			// if there are no more pages to the right, end the iteration
-			if(nextp == null) {
+			else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+				// if the predicate was not satisfied and the operation is less than, we have
+				// hit the end
 				return null;
 			}
-			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
+			else if(ipred.getOp() == Op.EQUALS &&
+					t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
+				// if the tuple is now greater than the field passed in and the operation
+				// is equals, we have reached the end
+				return null;
 			}
 		}
-
 		return null;
 	}
-
-	/**
-	 * rewind this iterator back to the beginning of the tuples
-	 */
-	public void rewind() throws DbException, TransactionAbortedException {
-		close();
-		open();
-	}
-
-	/**
-	 * close the iterator
-	 */
-	public void close() {
-		super.close();
-		it = null;
-	}
 }
@@ -232,8 +232,14 @@ public class BTreeFileEncoder {
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
 		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		if (bf.compressesKeys()) {
+			// entries with compressed keys differ in size; only put as many on a page as
+			// would fit if none of them were compressed
+			nentries = BTreeInternalPage.getCompressedEntryAreaSize(npagebytes)
+					/ BTreeInternalPage.MAX_COMPRESSED_ENTRY_SIZE;
+		}
 
-		ArrayList<ArrayList<BTreeEntry>> entries = new ArrayList<ArrayList<BTreeEntry>>();
+		ArrayList<ArrayList<BTreeEntry>> entries= new ArrayList<ArrayList<BTreeEntry>>();
 
 		// first add some bytes for the root pointer page
 		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), 
@@ -415,7 +421,7 @@ public class BTreeFileEncoder {
 			int size = entries.get(i).size();
 			if(size <= nentries) {
 				// write out a page of entries
-				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyType, childPageCategory);
+				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyType, childPageCategory, bf.compressesKeys());
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
 				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
 			}
@@ -427,11 +433,11 @@ public class BTreeFileEncoder {
 				lastPg.addAll(entries.get(i).subList(size/2 + 1, size));
 
 				// write out the last two pages of entries
-				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keyType, childPageCategory);
+				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keyType, childPageCategory, bf.compressesKeys());
 				BTreePageId secondToLastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
 				bf.writePage(new BTreeInternalPage(secondToLastPid, secondToLastPageBytes, keyField));
 
-				byte[] lastPageBytes = convertToInternalPage(lastPg, npagebytes, keyType, childPageCategory);
+				byte[] lastPageBytes = convertToInternalPage(lastPg, npagebytes, keyType, childPageCategory, bf.compressesKeys());
 				BTreePageId lastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
 				bf.writePage(new BTreeInternalPage(lastPid, lastPageBytes, keyField));
 
@@ -475,7 +481,7 @@ public class BTreeFileEncoder {
 				// write out a page of entries
 				ArrayList<BTreeEntry> pageEntries = new ArrayList<BTreeEntry>();
 				pageEntries.addAll(entries.get(level).subList(0, nentries));
-				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyType, childPageCategory);
+				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyType, childPageCategory, bf.compressesKeys());
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
 				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
 
@@ -506,6 +512,32 @@ public class BTreeFileEncoder {
 	public static byte[] convertToLeafPage(ArrayList<Tuple> tuples, int npagebytes,
 			int numFields, Type[] typeAr, int keyField)
 					throws IOException {
+		return convertToLeafPage(tuples, npagebytes, numFields, typeAr, keyField, false);
+	}
+
+	/**
+	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage
+	 * of a B+ tree file whose leaf pages are slotted if slotted is true
+	 * 
+	 * @param tuples - the set of tuples
+	 * @param npagebytes - number of bytes per page
+	 * @param numFields - number of fields in each tuple
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyField - the field of the tuples the B+ tree will be keyed on
+	 * @param slotted - whether the page is in the SlottedPageFormat; ignored
+	 *        unless a field is a string
+	 * @return a byte array which can be passed to the BTreeLeafPage constructor
+	 * @throws IOException
+	 * @see BTreeFile#isSlotted
+	 */
+	public static byte[] convertToLeafPage(ArrayList<Tuple> tuples, int npagebytes,
+			int numFields, Type[] typeAr, int keyField, boolean slotted)
+					throws IOException {
+		TupleDesc schema = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+		if (slotted && SlottedPageFormat.appliesTo(schema)) {
+			return convertToSlottedLeafPage(tuples, npagebytes, schema, keyField);
+		}
+
 		int nrecbytes = 0;
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
@@ -569,6 +601,38 @@ public class BTreeFileEncoder {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Convert a set of tuples with a string field to a byte array in the format of a
+	 * slotted BTreeLeafPage, with as many of the tuples as fit
+	 * 
+	 * @see SlottedPageFormat
+	 */
+	private static byte[] convertToSlottedLeafPage(ArrayList<Tuple> tuples, int npagebytes,
+			TupleDesc td, int keyField) throws IOException {
+		int areaSize = npagebytes - 3 * BTreeLeafPage.INDEX_SIZE;
+		int maxSlots = SlottedPageFormat.getMaxSlots(td, areaSize);
+
+		Collections.sort(tuples, new TupleComparator(keyField));
+		byte[][] records = new byte[maxSlots][];
+		int recordcount = 0;
+		int recordbytes = 0;
+		while (recordcount < tuples.size() && recordcount < maxSlots) {
+			byte[] record = SlottedPageFormat.toRecord(tuples.get(recordcount));
+			if (SlottedPageFormat.usedBytes(recordcount + 1, recordbytes + record.length) > areaSize)
+				break;
+			records[recordcount++] = record;
+			recordbytes += record.length;
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeInt(0); // parent pointer
+		dos.writeInt(0); // left sibling pointer
+		dos.writeInt(0); // right sibling pointer
+		SlottedPageFormat.writeArea(dos, records, recordcount, npagebytes);
+		return baos.toByteArray();
+	}
+
 	/**
 	 *  Comparator to sort BTreeEntry objects by key
 	 */
@@ -624,6 +688,28 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		return convertToInternalPage(entries, npagebytes, keyType, childPageCategory, false);
+	}
+
+	/**
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * of a B+ tree file whose internal pages store their keys prefix compressed if
+	 * compressKeys is true
+	 * 
+	 * @param entries - the set of entries
+	 * @param npagebytes - number of bytes per page
+	 * @param keyType - the type of the key field
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @param compressKeys - whether the keys are stored prefix compressed
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @throws IOException
+	 */
+	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+			Type keyType, int childPageCategory, boolean compressKeys)
+					throws IOException {
+		if (compressKeys) {
+			return convertToCompressedInternalPage(entries, npagebytes, childPageCategory);
+		}
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -697,6 +783,64 @@ public class BTreeFileEncoder {
 
 	}
 
+	/**
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage whose
+	 * keys are prefix compressed. As many of the entries are written as fit.
+	 * 
+	 * @param entries - the set of entries
+	 * @param npagebytes - number of bytes per page
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @throws IOException
+	 */
+	private static byte[] convertToCompressedInternalPage(ArrayList<BTreeEntry> entries,
+			int npagebytes, int childPageCategory) throws IOException {
+		// a compressed entry takes at least a child pointer and the two lengths of its key
+		int nentrybytes = 2 + BTreeInternalPage.INDEX_SIZE;
+		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);
+		int nheaderbytes = (nentries + 1 + 7) / 8;
+		int nareabytes = BTreeInternalPage.getCompressedEntryAreaSize(npagebytes);
+
+		Collections.sort(entries, new EntryComparator());
+		int entrycount = 0;
+		int used = 0;
+		byte[] prev = null;
+		while (entrycount < entries.size() && entrycount < nentries) {
+			byte[] key = BTreeInternalPage.keyBytes(entries.get(entrycount).getKey());
+			used += BTreeInternalPage.compressedEntrySize(prev, key);
+			if (used > nareabytes)
+				break;
+			prev = key;
+			entrycount++;
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+
+		byte[] header = new byte[nheaderbytes];
+		for (int i=0; i<entrycount + 1; i++)
+			header[i / 8] |= 1 << (i % 8);
+		dos.write(header);
+
+		dos.writeInt(entries.get(0).getLeftChild().pageNumber());
+		prev = null;
+		for (int e = 0; e < entrycount; e++) {
+			byte[] key = BTreeInternalPage.keyBytes(entries.get(e).getKey());
+			BTreeInternalPage.writeCompressedEntry(dos, prev, key,
+					entries.get(e).getRightChild().pageNumber());
+			prev = key;
+		}
+
+		// pad the rest of the page with zeroes
+		dos.write(new byte[npagebytes - dos.size()]);
+
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Create a byte array in the format of a BTreeRootPtrPage
 	 * 
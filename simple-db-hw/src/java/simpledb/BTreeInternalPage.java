@@ -8,6 +8,21 @@ import simpledb.Predicate.Op;
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The pages of a BTreeFile created with compressed keys, on a string field, store
+ * their keys prefix compressed, since a fixed-width string key leaves room for
+ * only a few dozen entries on a page: each
+ * key is stored as the number of bytes it shares with the key before it and the
+ * rest of its bytes. Entries then differ in size, so such a page is full when it
+ * has no room for another entry with the longest possible key, rather than when
+ * its slots are used up, and it holds many more entries when its keys are short
+ * or share long prefixes. Keys are kept short by the separators BTreeFile chooses
+ * for them (see {@link #getSeparator}).
+ * <p>
+ * The keys of a file are compressed if and only if it has a format marker, an
+ * empty sidecar file next to it (the file's name with {@link #COMPRESSED_KEYS_SUFFIX}
+ * appended), which can only be created while the file is empty; the internal pages
+ * of files without one keep their fixed-width keys.
  *
  * @see BTreeFile
  * @see BufferPool
@@ -21,6 +36,18 @@ public class BTreeInternalPage extends BTreePage {
 	
 	private int childCategory; // either leaf or internal
 
+	/**
+	 * The most bytes an entry of a page with compressed keys takes: a child pointer,
+	 * the two lengths of its key, and the key
+	 */
+	static final int MAX_COMPRESSED_ENTRY_SIZE = INDEX_SIZE + 2 + Type.STRING_LEN;
+
+	/** Suffix appended to the name of a B+ tree file to name its compressed keys marker */
+	static final String COMPRESSED_KEYS_SUFFIX = ".prefixkeys";
+
+	private final boolean compressed; // whether the keys are stored prefix compressed
+	private int usedBytes = -1; // the bytes the entries of a compressed page take, or -1 if not known
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -37,7 +64,14 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		if (checkOccupancy && depth > 0) {
-			assert (getNumEntries() >= getMaxEntries() / 2);
+			if (compressed) {
+				// entries differ in size, so a page split or evened out with a sibling
+				// may fall short of half full by a few of them
+				assert (2 * (getUsedBytes() + 3 * MAX_COMPRESSED_ENTRY_SIZE) >= getEntryAreaSize());
+			}
+			else {
+				assert (getNumEntries() >= getMaxEntries() / 2);
+			}
 		}
 	}
 	
@@ -57,6 +91,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * If the keys are compressed, the header is followed instead by the first child
+	 * pointer and then, for each used slot in order, its child pointer, the number of
+	 * bytes its key shares with the key before it, the number of bytes that follow,
+	 * and those bytes. The number of entry slots is then the most entries that could
+	 * fit, if every key were the same as the one before it.
+	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -67,6 +107,8 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
+		DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+		this.compressed = file instanceof BTreeFile && ((BTreeFile) file).compressesKeys();
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -87,24 +129,29 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
-		try{
-			// allocate and read the keys of this page
-			// start from 1 because the first key slot is not used
-			// since a node with m keys has m+1 pointers
-			keys[0] = null;
-			for (int i=1; i<keys.length; i++)
-				keys[i] = readNextKey(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+		children = new int[numSlots];
+		if (compressed) {
+			readCompressedEntries(dis);
 		}
+		else {
+			try{
+				// allocate and read the keys of this page
+				// start from 1 because the first key slot is not used
+				// since a node with m keys has m+1 pointers
+				keys[0] = null;
+				for (int i=1; i<keys.length; i++)
+					keys[i] = readNextKey(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 
-		children = new int[numSlots];
-		try{
-			// allocate and read the child pointers of this page
-			for (int i=0; i<children.length; i++)
-				children[i] = readNextChild(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+			try{
+				// allocate and read the child pointers of this page
+				for (int i=0; i<children.length; i++)
+					children[i] = readNextChild(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 		}
 		dis.close();
 
@@ -115,7 +162,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		// a compressed entry takes at least a child pointer and the two lengths of its key
+		int keySize = compressed ? 2 : td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
@@ -136,6 +184,173 @@ public class BTreeInternalPage extends BTreePage {
 		return hb;
 	}
 
+	private static File keysMarkerOf(File f) {
+		return new File(f.getPath() + COMPRESSED_KEYS_SUFFIX);
+	}
+
+	/**
+	 * @return true if the internal pages of a B+ tree file store their keys prefix
+	 * compressed, that is if it has a compressed keys marker
+	 */
+	static boolean compressesKeys(File f) {
+		return keysMarkerOf(f).exists();
+	}
+
+	/**
+	 * Open the key layout of the internal pages of a B+ tree file.
+	 * @param f - the file of the B+ tree
+	 * @param keyType - the type of the key field
+	 * @param compress - whether to store the keys prefix compressed; ignored unless the
+	 *            key is a STRING_TYPE field and the file has no pages yet
+	 * @return true if the internal pages of the file store their keys prefix compressed
+	 * @throws IOException if the marker cannot be created
+	 */
+	static boolean openKeyCompression(File f, Type keyType, boolean compress) throws IOException {
+		if(!compressesKeys(f) && compress && keyType == Type.STRING_TYPE && f.length() == 0)
+			new FileOutputStream(keysMarkerOf(f), true).close();
+		return compressesKeys(f);
+	}
+
+	/**
+	 * Computes the number of bytes of a page with compressed keys that hold its entries,
+	 * after its header and first child pointer
+	 * @param pageSize - the number of bytes of the page
+	 */
+	static int getCompressedEntryAreaSize(int pageSize) {
+		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
+		int slotsPerPage = (pageSize * 8 - extraBits) / ((INDEX_SIZE + 2) * 8 + 1) + 1;
+		return pageSize - 2 * INDEX_SIZE - 1 - (slotsPerPage + 7) / 8;
+	}
+
+	private int getEntryAreaSize() {
+		return getCompressedEntryAreaSize(BufferPool.getPageSize());
+	}
+
+	/**
+	 * @return the bytes of a compressed key, one for each character, as written by
+	 * {@link StringField#serialize}
+	 */
+	static byte[] keyBytes(Field key) {
+		String s = ((StringField) key).getValue();
+		byte[] b = new byte[s.length()];
+		for (int i=0; i<b.length; i++)
+			b[i] = (byte) s.charAt(i);
+		return b;
+	}
+
+	/**
+	 * @return the number of leading bytes two keys share, or 0 if prev is null
+	 */
+	private static int sharedPrefix(byte[] prev, byte[] key) {
+		int n = 0;
+		if (prev != null) {
+			while (n < prev.length && n < key.length && prev[n] == key[n])
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of bytes an entry with the given key takes on a page with compressed
+	 * keys, following an entry with key prev, or first if prev is null
+	 */
+	static int compressedEntrySize(byte[] prev, byte[] key) {
+		return INDEX_SIZE + 2 + key.length - sharedPrefix(prev, key);
+	}
+
+	/**
+	 * Write an entry of a page with compressed keys: its right child pointer, and its key
+	 * as the number of bytes it shares with the key of the entry before it and the rest.
+	 */
+	static void writeCompressedEntry(DataOutputStream dos, byte[] prev, byte[] key, int child)
+			throws IOException {
+		int shared = sharedPrefix(prev, key);
+		dos.writeInt(child);
+		dos.writeByte(shared);
+		dos.writeByte(key.length - shared);
+		dos.write(key, shared, key.length - shared);
+	}
+
+	/**
+	 * Read the child pointers and keys of a page with compressed keys.
+	 */
+	private void readCompressedEntries(DataInputStream dis) throws IOException {
+		int first = dis.readInt();
+		children[0] = isSlotUsed(0) ? first : -1;
+		byte[] prev = new byte[0];
+		for (int i=1; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				children[i] = -1;
+				continue;
+			}
+			children[i] = dis.readInt();
+			int shared = dis.readUnsignedByte();
+			byte[] key = new byte[shared + dis.readUnsignedByte()];
+			System.arraycopy(prev, 0, key, 0, shared);
+			dis.readFully(key, shared, key.length - shared);
+			keys[i] = new StringField(new String(key), Type.STRING_LEN);
+			prev = key;
+		}
+	}
+
+	/**
+	 * Write the child pointers and keys of a page with compressed keys.
+	 */
+	private void writeCompressedEntries(DataOutputStream dos) {
+		try {
+			dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+			byte[] prev = null;
+			for (int i=1; i<numSlots; i++) {
+				if (isSlotUsed(i)) {
+					byte[] key = keyBytes(keys[i]);
+					writeCompressedEntry(dos, prev, key, children[i]);
+					prev = key;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the number of bytes the entries of a page with compressed keys take
+	 */
+	private int getUsedBytes() {
+		if (usedBytes < 0) {
+			int bytes = 0;
+			byte[] prev = null;
+			for (int i=1; i<numSlots; i++) {
+				if (isSlotUsed(i)) {
+					byte[] key = keyBytes(keys[i]);
+					bytes += compressedEntrySize(prev, key);
+					prev = key;
+				}
+			}
+			usedBytes = bytes;
+		}
+		return usedBytes;
+	}
+
+	/**
+	 * Returns the shortest key that can separate the pages of an entry whose left child ends
+	 * with key below and whose right child starts with key, which is greater than below and
+	 * a prefix of key. Only string keys, which are compressed, are shortened.
+	 * @param below - the greatest key of the left child, or null if not known
+	 * @param key - the least key of the right child
+	 */
+	static Field getSeparator(Field below, Field key) {
+		if (below == null || !(key instanceof StringField))
+			return key;
+		String a = ((StringField) below).getValue();
+		String b = ((StringField) key).getValue();
+		int n = 0;
+		while (n < a.length() && n < b.length() && a.charAt(n) == b.charAt(n))
+			n++;
+		if (n >= b.length())
+			return key;
+		return new StringField(b.substring(0, n + 1), Type.STRING_LEN);
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeInternalPage getBeforeImage(){
@@ -262,61 +477,65 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
-		// create the keys
-		// start from 1 because the first key slot is not used
-		// since a node with m keys has m+1 pointers
-		for (int i=1; i<keys.length; i++) {
+		if (compressed) {
+			writeCompressedEntries(dos);
+		}
+		else {
+			// create the keys
+			// start from 1 because the first key slot is not used
+			// since a node with m keys has m+1 pointers
+			for (int i=1; i<keys.length; i++) {
+
+				// empty slot
+				if (!isSlotUsed(i)) {
+					for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+						try {
+							dos.writeByte(0);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
 
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
 					}
+					continue;
+				}
 
+				// non-empty slot
+				try {
+					keys[i].serialize(dos);
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
-				continue;
-			}
 
-			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
 
-		}
+			// create the child pointers
+			for (int i=0; i<children.length; i++) {
 
-		// create the child pointers
-		for (int i=0; i<children.length; i++) {
+				// empty slot
+				if (!isSlotUsed(i)) {
+					for (int j=0; j<INDEX_SIZE; j++) {
+						try {
+							dos.writeByte(0);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
 
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<INDEX_SIZE; j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
 					}
-
+					continue;
 				}
-				continue;
-			}
 
-			// non-empty slot
-			try {
-				dos.writeInt(children[i]);
+				// non-empty slot
+				try {
+					dos.writeInt(children[i]);
 
-			} catch (IOException e) {
-				e.printStackTrace();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+		int zerolen = BufferPool.getPageSize() - dos.size();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -425,12 +644,28 @@ public class BTreeInternalPage extends BTreePage {
 					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
 							" HINT: updated key must be greater than or equal to keys on the left");
 				}
-				children[i] = e.getLeftChild().pageNumber();
 				break;
 			}	
 		}
+		if(compressed) {
+			Field old = keys[rid.tupleno()];
+			keys[rid.tupleno()] = e.getKey();
+			usedBytes = -1;
+			if(getUsedBytes() > getEntryAreaSize()) {
+				keys[rid.tupleno()] = old;
+				usedBytes = -1;
+				throw new DbException("no room on page to update entry with key " + e.getKey());
+			}
+		}
+		for(int i = rid.tupleno() - 1; i >= 0; i--) {
+			if(isSlotUsed(i)) {
+				children[i] = e.getLeftChild().pageNumber();
+				break;
+			}
+		}
 		children[rid.tupleno()] = e.getRightChild().pageNumber(); 
 		keys[rid.tupleno()] = e.getKey();
+		usedBytes = -1;
 	}
 
 	/**
@@ -456,8 +691,11 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if(compressed && getUsedBytes() + compressedEntrySize(null, keyBytes(e.getKey())) > getEntryAreaSize())
+			throw new DbException("called insertEntry on page with no room for the entry.");
+
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().pageNumber();
 			children[1] = e.getRightChild().pageNumber();
 			keys[1] = e.getKey();
@@ -562,11 +800,16 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		int cnt = 0;
+		for(int i=1; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. If the keys are compressed, that is
+	 * the number of entries that are sure to fit, however long their keys.
 	 */
 	public int getNumEmptySlots() {
 		int cnt = 0;
@@ -575,9 +818,91 @@ public class BTreeInternalPage extends BTreePage {
 		for(int i=1; i<numSlots; i++)
 			if(!isSlotUsed(i))
 				cnt++;
+		if(compressed)
+			cnt = Math.min(cnt, (getEntryAreaSize() - getUsedBytes()) / MAX_COMPRESSED_ENTRY_SIZE);
 		return cnt;
 	}
 
+	/**
+	 * Returns true if this page is less than half full, so that it should get entries from
+	 * a sibling or be merged with one.
+	 */
+	public boolean isLessThanHalfFull() {
+		if(compressed)
+			return 2 * getUsedBytes() < getEntryAreaSize();
+		return getNumEmptySlots() > getMaxEntries() - getMaxEntries()/2; // ceiling
+	}
+
+	/**
+	 * Returns true if this page, which is less than half full, should be merged with a
+	 * sibling rather than get entries from it: if the sibling is at minimum occupancy, or
+	 * for compressed keys, if the entries of both pages and the key between them pulled
+	 * down from their parent fit on one page.
+	 * @param sibling - the left or right sibling of this page
+	 */
+	public boolean canMergeWith(BTreeInternalPage sibling) {
+		if(compressed)
+			return getUsedBytes() + sibling.getUsedBytes() + MAX_COMPRESSED_ENTRY_SIZE <= getEntryAreaSize();
+		return sibling.getNumEmptySlots() >= getMaxEntries() - getMaxEntries()/2; // ceiling
+	}
+
+	/**
+	 * Returns the number of entries to move to this page from a sibling so that the two
+	 * pages end up about equally full.
+	 * @param sibling - the left or right sibling of this page
+	 * @param isRightSibling - whether the sibling is a right sibling, whose first entries
+	 * would move, rather than its last
+	 */
+	public int getNumEntriesToSteal(BTreeInternalPage sibling, boolean isRightSibling) {
+		if(!compressed)
+			return (sibling.getNumEntries() - getNumEntries()) / 2;
+		// count each entry at the most it could take once moved
+		Iterator<BTreeEntry> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+		int mine = getUsedBytes();
+		int theirs = sibling.getUsedBytes();
+		int n = 0;
+		while(it.hasNext() && n < sibling.getNumEntries() - 1) {
+			int size = compressedEntrySize(null, keyBytes(it.next().getKey()));
+			if(mine + size > theirs - size)
+				break;
+			mine += size;
+			theirs -= size;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the number of entries that move to a new left-hand page when this page is
+	 * split, so that the two pages end up about equally full.
+	 */
+	public int getSplitPoint() {
+		if(!compressed)
+			return getNumEntries() / 2;
+		int half = getUsedBytes() / 2;
+		int bytes = 0;
+		int n = 0;
+		byte[] prev = null;
+		for(int i=1; i<numSlots && bytes < half; i++) {
+			if(isSlotUsed(i)) {
+				byte[] key = keyBytes(keys[i]);
+				bytes += compressedEntrySize(prev, key);
+				prev = key;
+				n++;
+			}
+		}
+		return Math.max(1, Math.min(n, getNumEntries() - 2));
+	}
+
+	/**
+	 * Returns true if the key of any entry on this page can be replaced with any other, as
+	 * when entries are moved between its children. That is always so unless the keys are
+	 * compressed, when a longer key, or one sharing less with its neighbors, needs room.
+	 */
+	public boolean hasRoomToReplaceKey() {
+		return !compressed || getEntryAreaSize() - getUsedBytes() >= 2 * Type.STRING_LEN;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -595,7 +920,8 @@ public class BTreeInternalPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
+		usedBytes = -1;
+if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * BTreeLatches are the short-term latches on the pages of a BTreeFile, which
+ * keep concurrent operations on the tree from seeing or making half-done
+ * changes to a page. They are independent of the locks a transaction holds,
+ * and are held only while a page is being changed.
+ * <p>
+ * Each latch is a version number, which is odd while a writer holds the
+ * latch, and is advanced when the writer releases it. A reader never takes a
+ * latch: it reads the version of a page, reads the page, and then validates
+ * that the version has not changed; if it has, the reader starts over. Pages
+ * share latches by page number modulo the number of latches, so a reader may
+ * occasionally start over for a change to another page.
+ *
+ * @see BTreeFile#findLeafSnapshot
+ */
+class BTreeLatches {
+
+	private static final int LATCHES = 1024; // a power of two
+
+	private final AtomicLongArray versions = new AtomicLongArray(LATCHES);
+
+	/**
+	 * @return the latch that covers a page
+	 */
+	int latchOf(int pgNo) {
+		return pgNo & (LATCHES - 1);
+	}
+
+	/**
+	 * @return the version of a latch, or -1 if a writer holds it
+	 */
+	long version(int latch) {
+		long v = versions.get(latch);
+		return (v & 1) == 0 ? v : -1;
+	}
+
+	/**
+	 * @return true if the latch has not been taken since version returned v.
+	 * This is a compare-and-set rather than a read, so that the reads of the
+	 * page it validates cannot be reordered after it.
+	 */
+	boolean validate(int latch, long v) {
+		return v >= 0 && versions.compareAndSet(latch, v, v);
+	}
+
+	/**
+	 * Take a latch, waiting for the writer that holds it to release it.
+	 */
+	void lock(int latch) {
+		while(true) {
+			long v = versions.get(latch);
+			if((v & 1) == 0 && versions.compareAndSet(latch, v, v + 1)) {
+				return;
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Release a latch, advancing its version.
+	 */
+	void unlock(int latch) {
+		versions.incrementAndGet(latch);
+	}
+}
@@ -6,6 +6,12 @@ import java.io.*;
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The tuples of a table created slotted are stored as variable-length
+ * records, in the {@link SlottedPageFormat}, so that short strings do not take
+ * the room of the longest. Such a page is full when it has no room for another
+ * tuple with the largest record possible, and it is split, merged and evened
+ * out with its siblings by the bytes its tuples take rather than their number.
  *
  * @see BTreeFile
  * @see BufferPool
@@ -15,6 +21,8 @@ public class BTreeLeafPage extends BTreePage {
 	private final byte header[];
 	private final Tuple tuples[];
 	private final int numSlots;
+	private final boolean slotted; // whether the tuples are variable-length records
+	private int usedBytes = -1; // the bytes the records of a slotted page take, or -1 if not known
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
@@ -36,7 +44,14 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		if (checkoccupancy && depth > 0) {
-			assert(getNumTuples() >= getMaxTuples()/2);
+			if (slotted) {
+				// records differ in size, so a page split or evened out with a sibling
+				// may fall short of half full by a few of them
+				assert (2 * (getUsedBytes() + 3 * getMaxTupleBytes()) >= getAreaSize());
+			}
+			else {
+				assert(getNumTuples() >= getMaxTuples()/2);
+			}
 		}
 	}
 
@@ -53,6 +68,9 @@ public class BTreeLeafPage extends BTreePage {
 	 * <p>
 	 *      ceiling(no. tuple slots / 8)
 	 * <p>
+	 * A page of a {@link BTreeFile} created slotted has a slot directory in the
+	 * {@link SlottedPageFormat} after the parent and sibling pointers instead.
+	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -63,6 +81,8 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
+		DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+		this.slotted = file instanceof BTreeFile && ((BTreeFile) file).isSlotted();
 		this.numSlots = getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -90,16 +110,28 @@ public class BTreeLeafPage extends BTreePage {
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
-
 		tuples = new Tuple[numSlots];
-		try{
-			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+		if (slotted) {
+			int[] offsets = SlottedPageFormat.readDirectory(data, 3 * INDEX_SIZE, numSlots);
+			for (int i=0; i<numSlots; i++) {
+				if (offsets[i] != 0) {
+					markSlotUsed(i, true);
+					tuples[i] = SlottedPageFormat.readRecord(data, offsets[i], td);
+					tuples[i].setRecordId(new RecordId(pid, i));
+				}
+			}
+		}
+		else {
+			for (int i=0; i<header.length; i++)
+				header[i] = dis.readByte();
+
+			try{
+				// allocate and read the actual records of this page
+				for (int i=0; i<tuples.length; i++)
+					tuples[i] = readNextTuple(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 		}
 		dis.close();
 
@@ -110,6 +142,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * Retrieve the maximum number of tuples this page can hold.
 	 */
 	public int getMaxTuples() {        
+		if (slotted)
+			return SlottedPageFormat.getMaxSlots(td, getAreaSize());
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
 		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
 		int extraBits = 3 * INDEX_SIZE * 8; 
@@ -128,6 +162,40 @@ public class BTreeLeafPage extends BTreePage {
 		return hb;
 	}
 
+	/**
+	 * Computes the number of bytes of a slotted page that hold its slot directory and
+	 * records, after its parent and sibling pointers
+	 */
+	private int getAreaSize() {
+		return BufferPool.getPageSize() - 3 * INDEX_SIZE;
+	}
+
+	/**
+	 * @return the most bytes a tuple takes on a slotted page: its slot and the largest
+	 * record possible
+	 */
+	private int getMaxTupleBytes() {
+		return SlottedPageFormat.SLOT_SIZE + SlottedPageFormat.maxRecordSize(td);
+	}
+
+	/**
+	 * @return the bytes the slot directory and records of a slotted page take
+	 */
+	private int getUsedBytes() {
+		if(usedBytes < 0) {
+			int count = 0;
+			int recordBytes = 0;
+			for(int i=0; i<numSlots; i++) {
+				if(isSlotUsed(i)) {
+					recordBytes += SlottedPageFormat.recordSize(tuples[i]);
+					count = i + 1;
+				}
+			}
+			usedBytes = SlottedPageFormat.usedBytes(count, recordBytes);
+		}
+		return usedBytes;
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
@@ -223,6 +291,24 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		if (slotted) {
+			byte[][] records = new byte[numSlots][];
+			int count = 0;
+			for (int i=0; i<numSlots; i++) {
+				if (isSlotUsed(i)) {
+					records[i] = SlottedPageFormat.toRecord(tuples[i]);
+					count = i + 1;
+				}
+			}
+			try {
+				SlottedPageFormat.writeArea(dos, records, count, len);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the header of the page
 		for (int i=0; i<header.length; i++) {
 			try {
@@ -295,6 +381,7 @@ public class BTreeLeafPage extends BTreePage {
 		if (!isSlotUsed(rid.tupleno()))
 			throw new DbException("tried to delete null tuple.");
 		markSlotUsed(rid.tupleno(), false);
+		usedBytes = -1;
 		t.setRecordId(null);
 	}
 
@@ -302,13 +389,16 @@ public class BTreeLeafPage extends BTreePage {
 	 * Adds the specified tuple to the page such that all records remain in sorted order;  
 	 * the tuple should be updated to reflect
 	 *  that it is now stored on this page.
-	 * @throws DbException if the page is full (no empty slots) or tupledesc
-	 *         is mismatch.
+	 * @throws DbException if the page is full (no empty slots, or for a slotted
+	 *         page, no room for its record) or tupledesc is mismatch.
 	 * @param t The tuple to add.
 	 */
 	public void insertTuple(Tuple t) throws DbException {
 		if (!t.getTupleDesc().equals(td))
 			throw new DbException("type mismatch, in addTuple");
+		if (slotted && getUsedBytes() + SlottedPageFormat.SLOT_SIZE
+				+ SlottedPageFormat.recordSize(t) > getAreaSize())
+			throw new DbException("called addTuple on page with no room for its record.");
 
 		// find the first empty slot 
 		int emptySlot = -1;
@@ -356,6 +446,7 @@ public class BTreeLeafPage extends BTreePage {
 		RecordId rid = new RecordId(pid, goodSlot);
 		t.setRecordId(rid);
 		tuples[goodSlot] = t;
+		usedBytes = -1;
 	}
 
 	/**
@@ -438,20 +529,126 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of tuples currently stored on this page
 	 */
 	public int getNumTuples() {
-		return numSlots - getNumEmptySlots();
+		int cnt = 0;
+		for(int i=0; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. For a slotted page, that is the
+	 * number of tuples it certainly has room for, each with the largest record possible.
 	 */
 	public int getNumEmptySlots() {
 		int cnt = 0;
 		for(int i=0; i<numSlots; i++)
 			if(!isSlotUsed(i))
 				cnt++;
+		if(slotted)
+			cnt = Math.min(cnt, (getAreaSize() - getUsedBytes()) / getMaxTupleBytes());
 		return cnt;
 	}
 
+	/**
+	 * Returns true if this page is less than half full, so that it should get tuples from
+	 * a sibling or be merged with one.
+	 */
+	public boolean isLessThanHalfFull() {
+		if(slotted)
+			return 2 * getUsedBytes() < getAreaSize();
+		return getNumEmptySlots() > getMaxTuples() - getMaxTuples()/2; // ceiling
+	}
+
+	/**
+	 * Returns true if this page would still be at least half full without a tuple on it.
+	 * @param t - a tuple on this page
+	 */
+	public boolean isHalfFullWithout(Tuple t) {
+		if(slotted)
+			return 2 * (getUsedBytes() - SlottedPageFormat.recordSize(t)) >= getAreaSize();
+		return getNumEmptySlots() + 1 <= getMaxTuples() - getMaxTuples()/2; // ceiling
+	}
+
+	/**
+	 * Returns true if this page, which is less than half full, should be merged with a
+	 * sibling rather than get tuples from it: if the sibling is at minimum occupancy, or
+	 * for a slotted page, if the tuples of either page fit on the other.
+	 * @param sibling - the left or right sibling of this page
+	 */
+	public boolean canMergeWith(BTreeLeafPage sibling) {
+		if(slotted)
+			return Math.max(getUsedBytes() + sibling.getMovedBytes(),
+					sibling.getUsedBytes() + getMovedBytes()) <= getAreaSize();
+		return sibling.getNumEmptySlots() >= getMaxTuples() - getMaxTuples()/2; // ceiling
+	}
+
+	/**
+	 * @return the most bytes the tuples of this slotted page take when moved to another
+	 * page, each needing a slot there
+	 */
+	private int getMovedBytes() {
+		return getUsedBytes() - SlottedPageFormat.usedBytes(0, 0)
+				+ SlottedPageFormat.SLOT_SIZE * (getNumTuples() - getNumSlotsInDirectory());
+	}
+
+	/**
+	 * @return the number of slots in the slot directory of a slotted page, one more than
+	 * the last used
+	 */
+	private int getNumSlotsInDirectory() {
+		for(int i=numSlots - 1; i>=0; i--)
+			if(isSlotUsed(i))
+				return i + 1;
+		return 0;
+	}
+
+	/**
+	 * Returns the number of tuples to move to this page from a sibling so that the two
+	 * pages end up about equally full.
+	 * @param sibling - the left or right sibling of this page
+	 * @param isRightSibling - whether the sibling is a right sibling, whose first tuples
+	 * would move, rather than its last
+	 */
+	public int getNumTuplesToSteal(BTreeLeafPage sibling, boolean isRightSibling) {
+		if(!slotted)
+			return (sibling.getNumTuples() - getNumTuples()) / 2;
+		// count each tuple with the slot it needs once moved
+		Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+		int mine = getUsedBytes();
+		int theirs = sibling.getUsedBytes();
+		int n = 0;
+		while(it.hasNext() && n < sibling.getNumTuples() - 1) {
+			int size = SlottedPageFormat.SLOT_SIZE + SlottedPageFormat.recordSize(it.next());
+			if(mine + size > theirs - size + SlottedPageFormat.SLOT_SIZE)
+				break;
+			mine += size;
+			theirs -= size - SlottedPageFormat.SLOT_SIZE;
+			n++;
+		}
+		// a sibling too full to merge with always has a tuple to spare
+		return Math.max(n, 1);
+	}
+
+	/**
+	 * Returns the number of tuples that move to a new left-hand page when this page is
+	 * split, so that the two pages end up about equally full.
+	 */
+	public int getSplitPoint() {
+		if(!slotted)
+			return getNumTuples() / 2;
+		int half = getUsedBytes() / 2;
+		int bytes = SlottedPageFormat.usedBytes(0, 0);
+		int n = 0;
+		for(int i=0; i<numSlots && bytes < half; i++) {
+			if(isSlotUsed(i)) {
+				bytes += SlottedPageFormat.SLOT_SIZE + SlottedPageFormat.recordSize(tuples[i]);
+				n++;
+			}
+		}
+		return Math.max(1, Math.min(n, getNumTuples() - 1));
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -0,0 +1,350 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchAggregate is the vectorized counterpart of {@link Aggregate}. It
+ * computes any number of aggregates over any number of group by columns.
+ * <p>
+ * Each input batch is processed in two steps: first every live row is mapped
+ * to the slot of its group, then each aggregate is updated with one loop over
+ * its column. The running aggregates are kept in one int[] per aggregate and
+ * operator, indexed by slot. A single INT_TYPE group column is looked up in
+ * an open-addressing int hash table so that no key objects are created.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchIterator child;
+    private final int[] afields, gfields;
+    private final Aggregator.Op[] aops;
+    private final TupleDesc td;
+
+    // group slots
+    private transient int numGroups, capacity;
+    private transient IntSlotMap intSlots;
+    private transient HashMap<List<Object>, Integer> slots;
+    private transient int[][] gInts;
+    private transient String[][] gStrings;
+    // running aggregates, indexed by [aggregate][slot]
+    private transient int[][] count, sum, min, max;
+
+    private transient int[] rowSlots;
+    private transient boolean aggregated;
+    private transient int emitted;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The batch operator that is feeding us rows.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; an empty
+     *            array if there is no grouping
+     * @param aops
+     *            The aggregation operator to use for each entry of afields
+     * @throws IllegalArgumentException
+     *             if an operator cannot be applied to the type of its column
+     */
+    public BatchAggregate(BatchIterator child, int[] afields, int[] gfields,
+            Aggregator.Op[] aops) {
+        TupleDesc childtd = child.getTupleDesc();
+        if (afields.length != aops.length)
+            throw new IllegalArgumentException(
+                    "Each aggregate field needs exactly one operator");
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[gfields.length + afields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childtd.getFieldType(gfields[i]);
+            names[i] = childtd.getFieldName(gfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            switch (aops[i]) {
+            case COUNT:
+                break;
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+                if (childtd.getFieldType(afields[i]) != Type.INT_TYPE)
+                    throw new IllegalArgumentException("Invalid operator type "
+                            + aops[i] + " over "
+                            + childtd.getFieldType(afields[i]));
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid operator type "
+                        + aops[i]);
+            }
+            types[gfields.length + i] = Type.INT_TYPE;
+            names[gfields.length + i] = Aggregate.nameOfAggregatorOp(aops[i])
+                    + "(" + childtd.getFieldName(afields[i]) + ")";
+        }
+        this.child = child;
+        this.afields = afields;
+        this.gfields = gfields;
+        this.aops = aops;
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the batch operator this aggregate reads from
+     */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    /**
+     * Returns the TupleDesc of this BatchAggregate: the group by columns in
+     * order, followed by one INT_TYPE column per aggregate.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        reset();
+    }
+
+    public void close() {
+        child.close();
+        count = sum = min = max = null;
+        gInts = null;
+        gStrings = null;
+        slots = null;
+        intSlots = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        reset();
+    }
+
+    private void reset() {
+        int cap = 16;
+        numGroups = 0;
+        capacity = cap;
+        intSlots = null;
+        slots = null;
+        if (gfields.length == 1
+                && child.getTupleDesc().getFieldType(gfields[0]) == Type.INT_TYPE)
+            intSlots = new IntSlotMap();
+        else if (gfields.length > 0)
+            slots = new HashMap<List<Object>, Integer>();
+        gInts = new int[gfields.length][];
+        gStrings = new String[gfields.length][];
+        for (int g = 0; g < gfields.length; g++) {
+            if (child.getTupleDesc().getFieldType(gfields[g]) == Type.INT_TYPE)
+                gInts[g] = new int[cap];
+            else
+                gStrings[g] = new String[cap];
+        }
+        count = new int[afields.length][cap];
+        sum = new int[afields.length][cap];
+        min = new int[afields.length][cap];
+        max = new int[afields.length][cap];
+        aggregated = false;
+        emitted = 0;
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (count == null)
+            throw new IllegalStateException("Operator not yet open");
+        if (!aggregated) {
+            TupleBatch b;
+            while ((b = child.nextBatch()) != null)
+                consume(b);
+            aggregated = true;
+        }
+        if (emitted == numGroups)
+            return null;
+
+        int n = Math.min(TupleBatch.DEFAULT_CAPACITY, numGroups - emitted);
+        int[][] ints = new int[td.numFields()][];
+        String[][] strings = new String[td.numFields()][];
+        for (int g = 0; g < gfields.length; g++) {
+            if (gInts[g] != null)
+                ints[g] = Arrays.copyOfRange(gInts[g], emitted, emitted + n);
+            else
+                strings[g] = Arrays.copyOfRange(gStrings[g], emitted, emitted + n);
+        }
+        for (int a = 0; a < afields.length; a++) {
+            int[] col = new int[n];
+            ints[gfields.length + a] = col;
+            for (int i = 0; i < n; i++) {
+                int s = emitted + i;
+                switch (aops[a]) {
+                case MIN:
+                    col[i] = min[a][s];
+                    break;
+                case MAX:
+                    col[i] = max[a][s];
+                    break;
+                case SUM:
+                    col[i] = sum[a][s];
+                    break;
+                case COUNT:
+                    col[i] = count[a][s];
+                    break;
+                case AVG:
+                    col[i] = sum[a][s] / count[a][s];
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+        emitted += n;
+        return new TupleBatch(td, ints, strings, n, null, n);
+    }
+
+    /** Map every live row of b to a group slot, then update the aggregates. */
+    private void consume(TupleBatch b) {
+        int n = b.numRows();
+        if (rowSlots == null || rowSlots.length < n)
+            rowSlots = new int[Math.max(n, TupleBatch.DEFAULT_CAPACITY)];
+        int[] in = b.selection();
+
+        if (gfields.length == 0) {
+            if (numGroups == 0)
+                newGroup(b, 0);
+            Arrays.fill(rowSlots, 0, n, 0);
+        } else if (intSlots != null) {
+            int[] key = b.intColumn(gfields[0]);
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                int s = intSlots.get(key[r]);
+                if (s < 0) {
+                    s = newGroup(b, r);
+                    intSlots.put(key[r], s);
+                }
+                rowSlots[i] = s;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                List<Object> key = new ArrayList<Object>(gfields.length);
+                for (int g = 0; g < gfields.length; g++) {
+                    if (gInts[g] != null)
+                        key.add(b.intColumn(gfields[g])[r]);
+                    else
+                        key.add(b.stringColumn(gfields[g])[r]);
+                }
+                Integer s = slots.get(key);
+                if (s == null) {
+                    s = newGroup(b, r);
+                    slots.put(key, s);
+                }
+                rowSlots[i] = s;
+            }
+        }
+
+        for (int a = 0; a < afields.length; a++) {
+            int[] cnt = count[a];
+            for (int i = 0; i < n; i++)
+                cnt[rowSlots[i]]++;
+            if (aops[a] == Aggregator.Op.COUNT)
+                continue;
+            int[] col = b.intColumn(afields[a]);
+            int[] sm = sum[a], mn = min[a], mx = max[a];
+            for (int i = 0; i < n; i++) {
+                int s = rowSlots[i];
+                int x = col[in == null ? i : in[i]];
+                sm[s] += x;
+                if (x < mn[s])
+                    mn[s] = x;
+                if (x > mx[s])
+                    mx[s] = x;
+            }
+        }
+    }
+
+    /** Allocate a slot for the group of row r of b. */
+    private int newGroup(TupleBatch b, int r) {
+        int s = numGroups++;
+        if (s == capacity)
+            grow();
+        for (int g = 0; g < gfields.length; g++) {
+            if (gInts[g] != null)
+                gInts[g][s] = b.intColumn(gfields[g])[r];
+            else
+                gStrings[g][s] = b.stringColumn(gfields[g])[r];
+        }
+        for (int a = 0; a < afields.length; a++) {
+            min[a][s] = Integer.MAX_VALUE;
+            max[a][s] = Integer.MIN_VALUE;
+        }
+        return s;
+    }
+
+    private void grow() {
+        int cap = capacity * 2;
+        capacity = cap;
+        for (int g = 0; g < gfields.length; g++) {
+            if (gInts[g] != null)
+                gInts[g] = Arrays.copyOf(gInts[g], cap);
+            else
+                gStrings[g] = Arrays.copyOf(gStrings[g], cap);
+        }
+        for (int a = 0; a < afields.length; a++) {
+            count[a] = Arrays.copyOf(count[a], cap);
+            sum[a] = Arrays.copyOf(sum[a], cap);
+            min[a] = Arrays.copyOf(min[a], cap);
+            max[a] = Arrays.copyOf(max[a], cap);
+        }
+    }
+
+    /**
+     * An open-addressing hash table from int keys to group slots.
+     */
+    private static class IntSlotMap {
+        private int[] keys = new int[64];
+        private int[] vals = new int[64];
+        private boolean[] used = new boolean[64];
+        private int size = 0;
+
+        private static int hash(int k) {
+            int h = k * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /** @return the slot of k, or -1 if k is not in the table */
+        int get(int k) {
+            int mask = keys.length - 1;
+            for (int i = hash(k) & mask; used[i]; i = (i + 1) & mask)
+                if (keys[i] == k)
+                    return vals[i];
+            return -1;
+        }
+
+        void put(int k, int v) {
+            if (2 * (size + 1) > keys.length)
+                resize();
+            int mask = keys.length - 1;
+            int i = hash(k) & mask;
+            while (used[i] && keys[i] != k)
+                i = (i + 1) & mask;
+            if (!used[i])
+                size++;
+            used[i] = true;
+            keys[i] = k;
+            vals[i] = v;
+        }
+
+        private void resize() {
+            int[] oldKeys = keys, oldVals = vals;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            vals = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++)
+                if (oldUsed[i])
+                    put(oldKeys[i], oldVals[i]);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package simpledb;
+
+/**
+ * BatchFilter is the vectorized counterpart of {@link Filter}. For each batch
+ * it evaluates the predicate over a whole column and records the rows that
+ * pass in the batch's selection vector; the column data is never copied.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final Predicate pred;
+    private BatchIterator child;
+    private transient int[] sel;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * batches to filter from.
+     *
+     * @param p
+     *            The predicate to filter rows with
+     * @param child
+     *            The child operator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.pred = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the batch operator this filter reads from
+     */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    /**
+     * Returns the next batch from the child that has at least one row passing
+     * the predicate, with its selection vector narrowed to those rows.
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            if (sel == null || sel.length < b.size())
+                sel = new int[b.size()];
+            int count;
+            if (getTupleDesc().getFieldType(pred.getField()) == Type.INT_TYPE)
+                count = filterInts(b, sel);
+            else
+                count = filterFields(b, sel);
+            if (count > 0) {
+                b.setSelection(sel, count);
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evaluate the predicate over an int column with one loop per operator.
+     *
+     * @return the number of passing rows written to out
+     */
+    private int filterInts(TupleBatch b, int[] out) {
+        int[] col = b.intColumn(pred.getField());
+        int v = ((IntField) pred.getOperand()).getValue();
+        int[] in = b.selection();
+        int n = b.numRows();
+        int k = 0;
+        switch (pred.getOp()) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                if (col[r] == v)
+                    out[k++] = r;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                if (col[r] != v)
+                    out[k++] = r;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                if (col[r] > v)
+                    out[k++] = r;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                if (col[r] >= v)
+                    out[k++] = r;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                if (col[r] < v)
+                    out[k++] = r;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                if (col[r] <= v)
+                    out[k++] = r;
+            }
+            break;
+        }
+        return k;
+    }
+
+    /**
+     * Evaluate the predicate over a string column, comparing each value with
+     * the operand's string as {@link StringField#compare} does.
+     *
+     * @return the number of passing rows written to out
+     */
+    private int filterFields(TupleBatch b, int[] out) {
+        String[] col = b.stringColumn(pred.getField());
+        String v = ((StringField) pred.getOperand()).getValue();
+        Predicate.Op op = pred.getOp();
+        int[] in = b.selection();
+        int n = b.numRows();
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int r = in == null ? i : in[i];
+            if (compare(col[r], op, v))
+                out[k++] = r;
+        }
+        return k;
+    }
+
+    private static boolean compare(String s, Predicate.Op op, String v) {
+        if (op == Predicate.Op.LIKE)
+            return s.indexOf(v) >= 0;
+        int cmp = s.compareTo(v);
+        switch (op) {
+        case EQUALS:
+            return cmp == 0;
+        case NOT_EQUALS:
+            return cmp != 0;
+        case GREATER_THAN:
+            return cmp > 0;
+        case GREATER_THAN_OR_EQ:
+            return cmp >= 0;
+        case LESS_THAN:
+            return cmp < 0;
+        case LESS_THAN_OR_EQ:
+            return cmp <= 0;
+        default:
+            return false;
+        }
+    }
+
+}
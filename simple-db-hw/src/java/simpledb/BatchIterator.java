@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the interface implemented by vectorized operators. It is
+ * the batch-at-a-time counterpart of {@link DbIterator}: instead of one Tuple
+ * per call, each call to {@link #nextBatch} returns a {@link TupleBatch} of
+ * up to {@link TupleBatch#DEFAULT_CAPACITY} rows.
+ * <p>
+ * Batch and row operators can be mixed in one plan with
+ * {@link RowsToBatches} and {@link BatchesToRows}.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before {@link #nextBatch}.
+     *
+     * @throws DbException
+     *             when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch. The returned batch, including its columns and
+     * selection vector, is only valid until the next call to nextBatch,
+     * rewind or close; the iterator may reuse it.
+     *
+     * @return the next batch with at least one live row, or null if the
+     *         iterator is exhausted
+     * @throws IllegalStateException
+     *             If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     *
+     * @throws DbException
+     *             when rewind is unsupported.
+     * @throws IllegalStateException
+     *             If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc associated with this BatchIterator.
+     *
+     * @return the TupleDesc associated with this BatchIterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchProject is the vectorized counterpart of {@link Project}. Projecting
+ * a batch only rearranges references to the child's column arrays, so no row
+ * data is copied.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+
+    /**
+     * Constructor accepts a child operator to read batches to apply
+     * projection to and a list of fields in the output batches
+     *
+     * @param fieldList
+     *            The ids of the fields child's tupleDesc to project out
+     * @param child
+     *            The child operator
+     */
+    public BatchProject(ArrayList<Integer> fieldList, BatchIterator child) {
+        this.child = child;
+        this.outFieldIds = new int[fieldList.size()];
+        Type[] types = new Type[fieldList.size()];
+        String[] names = new String[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < outFieldIds.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            types[i] = childtd.getFieldType(outFieldIds[i]);
+            names[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the batch operator this projection reads from
+     */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        if (b == null)
+            return null;
+        int[][] ints = new int[outFieldIds.length][];
+        String[][] strings = new String[outFieldIds.length][];
+        for (int i = 0; i < outFieldIds.length; i++) {
+            ints[i] = b.intColumns()[outFieldIds[i]];
+            strings[i] = b.stringColumns()[outFieldIds[i]];
+        }
+        return new TupleBatch(td, ints, strings, b.size(), b.selection(),
+                b.numRows());
+    }
+
+}
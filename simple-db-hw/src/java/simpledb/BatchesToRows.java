@@ -0,0 +1,98 @@
+package simpledb;
+
+/**
+ * BatchesToRows adapts a {@link BatchIterator} to the tuple-at-a-time
+ * {@link DbIterator} interface, so that the output of vectorized operators
+ * can be consumed by row operators.
+ */
+public class BatchesToRows extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchIterator child;
+    private transient TupleBatch batch;
+    private int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The batch operator to read batches from
+     */
+    public BatchesToRows(BatchIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException,
+            TransactionAbortedException {
+        while (batch == null || pos == batch.numRows()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(pos++);
+    }
+
+    /**
+     * @return the batch operator this adapter reads from
+     */
+    public BatchIterator getBatchChild() {
+        return child;
+    }
+
+    /**
+     * @return the row operator the batch operators below this adapter read
+     *         from, through a {@link RowsToBatches}, or null if they read
+     *         from none
+     */
+    public DbIterator getRowInput() {
+        BatchIterator b = child;
+        while (true) {
+            if (b instanceof RowsToBatches)
+                return ((RowsToBatches) b).getChild();
+            else if (b instanceof BatchFilter)
+                b = ((BatchFilter) b).getChild();
+            else if (b instanceof BatchProject)
+                b = ((BatchProject) b).getChild();
+            else if (b instanceof BatchAggregate)
+                b = ((BatchAggregate) b).getChild();
+            else
+                return null;
+        }
+    }
+
+    /**
+     * Batch operators are not DbIterators, so this adapter has no row
+     * children.
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin computes a join as a block nested loops join: it reads
+ * the outer input a block of tuples at a time, and scans the inner input once
+ * per block rather than once per outer tuple, matching each inner tuple
+ * against every tuple of the block. Unlike {@link Join}, it does not return
+ * the joined tuples in the order of the outer input.
+ */
+public class BlockNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int blockSize;
+    private transient ArrayList<Tuple> block;
+    private transient Tuple t2;
+    private transient int next;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockSize
+     *            The number of outer tuples held in memory at a time
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1,
+            DbIterator child2, int blockSize) {
+        super(p, child1, child2);
+        if (blockSize < 1)
+            throw new IllegalArgumentException("block must hold at least one tuple");
+        this.blockSize = blockSize;
+    }
+
+    public String getJoinMethod() {
+        return "block nested loop";
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        block = new ArrayList<Tuple>();
+        loadBlock();
+    }
+
+    public void close() {
+        super.close();
+        block = null;
+        t2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        loadBlock();
+    }
+
+    // read the next block of the outer input; false if there is none
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        DbIterator outer = getOuter();
+        block.clear();
+        while (block.size() < blockSize && outer.hasNext())
+            block.add(outer.next());
+        t2 = null;
+        return !block.isEmpty();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        DbIterator inner = getInner();
+        while (!block.isEmpty()) {
+            // loop around the inner input, matching each tuple to the block
+            while (t2 != null || inner.hasNext()) {
+                if (t2 == null) {
+                    t2 = inner.next();
+                    next = 0;
+                }
+                JoinPredicate p = getJoinPredicate();
+                while (next < block.size()) {
+                    int i = next++;
+                    if (p.filter(block.get(i), t2))
+                        return merge(block.get(i), t2);
+                }
+                t2 = null;
+            }
+
+            // the inner input is done: advance to the next block
+            inner.rewind();
+            if (!loadBlock())
+                break;
+        }
+        return null;
+    }
+}
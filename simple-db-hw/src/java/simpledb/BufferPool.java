@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Random;
 
@@ -75,15 +76,19 @@ public class BufferPool {
         throws TransactionAbortedException, DbException {
     	
     	// look for the page in the buffer
-        if (!pageBuf.containsKey(pid)) {
-        	// load the page from file
+        Page p = pageBuf.get(pid);
+        if (p == null) {
+        	// load the page from file; if another thread loaded it meanwhile,
+        	// use its copy, which it may have changed already
         	DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
         	Page ret = dbFile.readPage(pid);
-            pageBuf.put(pid, ret);
-            pageBuf.get(pid).setBeforeImage();
+        	ret.setBeforeImage();
+        	p = pageBuf.putIfAbsent(pid, ret);
+        	if (p == null)
+        		p = ret;
          }
                  
-         return pageBuf.get(pid);
+         return p;
     }
 
     /**
@@ -136,7 +141,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
-     * that future requests see up-to-date pages. 
+     * that future requests see up-to-date pages. The tuple is also added
+     * to the table's {@link SecondaryIndex}es.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -150,6 +156,7 @@ public class BufferPool {
         // to.
 
         ArrayList<Page> dirtypages = file.insertTuple(tid, t);
+        TableStats.tupleInserted(tableId, t);
 
         synchronized(this) {
             for (Page p : dirtypages){
@@ -171,6 +178,10 @@ public class BufferPool {
                 }
             }
         }
+
+        // the tuple now has its record id: add it to the table's indexes
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.insert(tid, t);
     }
 
     /**
@@ -181,15 +192,22 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
-     * that future requests see up-to-date pages. 
+     * that future requests see up-to-date pages. The tuple is also removed
+     * from the table's {@link SecondaryIndex}es.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        // while the tuple still has its record id, remove it from the
+        // table's indexes
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.delete(tid, t);
         ArrayList<Page> dirtypages = file.deleteTuple(tid, t);
+        TableStats.tupleDeleted(tableId, t);
 
         synchronized(this) {
         	for (Page p : dirtypages){
@@ -219,9 +237,18 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         /* calls flushPage() for each page in the BufferPool */
         Iterator<PageId> i = pageBuf.keySet().iterator();
-        while(i.hasNext())
-            flushPage(i.next());
-
+        HashSet<Integer> tables = new HashSet<Integer>();
+        while(i.hasNext()) {
+            PageId pid = i.next();
+            flushPage(pid);
+            tables.add(pid.getTableId());
+        }
+        // update the zone maps of the heap files written once, not per page
+        for (int tableid : tables) {
+            DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+            if (file instanceof HeapFile)
+                ((HeapFile) file).flushZoneMap();
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
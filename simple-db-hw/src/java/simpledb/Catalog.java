@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import simpledb.TupleDesc.TDItem;
 
@@ -51,6 +52,12 @@ public class Catalog {
 	Map<Integer, Table> tablesById;
 	Map<String, Table> tablesByName;
 	
+	//The secondary indexes of each table, by table id
+	Map<Integer, List<SecondaryIndex>> indexesByTable;
+	
+	//Bumped whenever a table is added or removed, so that whatever was
+	//derived from the catalog (e.g. cached query plans) can tell it is stale
+	private final AtomicLong version = new AtomicLong();
 	
 	
     /**
@@ -62,6 +69,7 @@ public class Catalog {
     	//Initializes the hashtables
     	tablesById = new ConcurrentHashMap<Integer, Table>();
     	tablesByName = new ConcurrentHashMap<String, Table>();
+    	indexesByTable = new ConcurrentHashMap<Integer, List<SecondaryIndex>>();
     }
 
     /**
@@ -81,6 +89,7 @@ public class Catalog {
     	//And put it in out list of tables.
     	tablesById.put(file.getId(), table);
     	tablesByName.put(name, table);
+    	version.incrementAndGet();
     }
 
     public void addTable(DbFile file, String name) {
@@ -162,6 +171,35 @@ public class Catalog {
     	}
     }
 
+    /**
+     * Add a secondary index to the catalog. The file of the index is added
+     * as a table named after the index, so that its pages can be read
+     * through the buffer pool.
+     * @param index the index to add; its table must already be in the catalog
+     */
+    public void addIndex(SecondaryIndex index) {
+    	addTable(index.getFile(), index.getName());
+    	List<SecondaryIndex> indexes = indexesByTable.get(index.getTableId());
+    	if (indexes == null) {
+    		indexes = new java.util.concurrent.CopyOnWriteArrayList<SecondaryIndex>();
+    		indexesByTable.put(index.getTableId(), indexes);
+    	}
+    	indexes.add(index);
+    }
+
+    /**
+     * Returns the secondary indexes of the specified table
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @return the indexes, in the order they were added; empty if there are none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+    	List<SecondaryIndex> indexes = indexesByTable.get(tableid);
+    	if (indexes == null)
+    		return Collections.emptyList();
+    	return Collections.unmodifiableList(indexes);
+    }
+
     public Iterator<Integer> tableIdIterator() {
     	// iterate over the keys of the ID hashmap
     	return this.tablesById.keySet().iterator();
@@ -175,10 +213,34 @@ public class Catalog {
     public void clear() {
     	this.tablesById = new ConcurrentHashMap<Integer, Table>();
     	this.tablesByName = new ConcurrentHashMap<String, Table>();
+    	this.indexesByTable = new ConcurrentHashMap<Integer, List<SecondaryIndex>>();
+    	version.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever a table is added to or removed
+     *         from the catalog
+     */
+    public long getVersion() {
+    	return version.get();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A table is declared as
+     * <pre>name (field type, field type pk, field string dict, ...) columnar compressed</pre>
+     * where the pk annotation marks the primary key, the dict annotation has a
+     * string field of a HeapFile dictionary encoded (see
+     * {@link StringDictionary}), the columnar option stores the table in a
+     * {@link PaxFile} rather than a HeapFile, and the compressed option stores
+     * its pages compressed (see {@link CompressedPageFile}); all are optional. A
+     * HeapFile with a varchar or varchar(n) field, which is a string field, is
+     * created with its tuples on slotted pages (see {@link SlottedPageFormat});
+     * one whose data file already has pages keeps its layout. Besides tables, the file may declare secondary indexes over tables declared
+     * before them, one per line, as
+     * <pre>index name on table (keyField) include (field, field, ...)</pre>
+     * where the include clause is optional. An index is stored in name.dat,
+     * and built from its table if that file is empty.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -188,30 +250,55 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
+                if (line.trim().toLowerCase().startsWith("index ")) {
+                    loadIndex(line.trim(), baseFolder);
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
+                boolean[] encoded = null;
                 String primaryKey = "";
+                boolean columnar = false;
+                boolean compressed = false;
+                boolean slotted = false;
+                String options = line.substring(line.lastIndexOf(")") + 1).trim();
+                for (String option : options.split("\\s+")) {
+                    if (option.toLowerCase().equals("columnar"))
+                        columnar = true;
+                    else if (option.toLowerCase().equals("compressed"))
+                        compressed = true;
+                    else if (option.length() > 0) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
+                    Type type = Type.forName(els2[1]);
+                    if (type != null)
+                        types.add(type);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    if (Type.isVarchar(els2[1]))
+                        slotted = true;
+                    for (int k = 2; k < els2.length; k++) {
+                        if (els2[k].trim().equals("pk"))
                             primaryKey = els2[0].trim();
-                        else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                        else if (els2[k].trim().equals("dict") && type == Type.STRING_TYPE
+                                && !columnar) {
+                            if (encoded == null)
+                                encoded = new boolean[els.length];
+                            encoded[names.size() - 1] = true;
+                        } else {
+                            System.out.println("Unknown annotation " + els2[k]);
                             System.exit(0);
                         }
                     }
@@ -219,8 +306,10 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tab = columnar ? new PaxFile(tabFile, t, compressed)
+                        : new HeapFile(tabFile, t, compressed, encoded, slotted);
+                addTable(tab,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -229,7 +318,56 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (NoSuchElementException e) {
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
+        }
+    }
+
+    //Create the index declared by a line of the schema file, which must be
+    //of the form: index name on table (keyField) [include (field, ...)]
+    private void loadIndex(String line, String baseFolder) throws IOException {
+        String[] head = line.substring(0, line.indexOf("(")).trim().split("\\s+");
+        if (head.length != 4 || !head[2].toLowerCase().equals("on"))
+            throw new IndexOutOfBoundsException();
+        String name = head[1];
+        int tableid = getTableId(head[3]);
+        TupleDesc td = getTupleDesc(tableid);
+        String key = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+        String rest = line.substring(line.indexOf(")") + 1).trim();
+        ArrayList<Integer> included = new ArrayList<Integer>();
+        if (rest.length() > 0) {
+            if (!rest.toLowerCase().startsWith("include"))
+                throw new IndexOutOfBoundsException();
+            String fields = rest.substring(rest.indexOf("(") + 1, rest.indexOf(")"));
+            for (String f : fields.split(","))
+                included.add(td.fieldNameToIndex(f.trim()));
+        }
+        int[] includedAr = new int[included.size()];
+        for (int i = 0; i < includedAr.length; i++)
+            includedAr[i] = included.get(i);
+
+        File f = new File(baseFolder + "/" + name + ".dat");
+        boolean empty = f.length() == 0;
+        SecondaryIndex index = new SecondaryIndex(name, tableid,
+                td.fieldNameToIndex(key), includedAr, f);
+        addIndex(index);
+        if (empty) {
+            TransactionId tid = new TransactionId();
+            try {
+                index.build(tid);
+            } catch (DbException e) {
+                throw new IOException(e.getMessage());
+            } catch (TransactionAbortedException e) {
+                throw new IOException(e.getMessage());
+            }
+            Database.getBufferPool().flushAllPages();
+            Database.getBufferPool().transactionComplete(tid);
         }
+        System.out.println("Added index : " + name + " on " + head[3] + " (" + key + ")");
     }
 }
 
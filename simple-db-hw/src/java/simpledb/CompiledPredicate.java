@@ -0,0 +1,417 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CompiledPredicate is an evaluator specialized for one {@link Predicate}, or
+ * for a conjunction of several. Where {@link Predicate#filter} dispatches
+ * through the Field interface and switches on the operator for every tuple,
+ * {@link #compile} turns every INT_TYPE comparison into a range check on the
+ * int held by the tuple's IntField, done by a single final class.
+ * <p>
+ * String comparisons still go through Field.compare.
+ * <p>
+ * Every evaluator can also be applied to a tuple still serialized in a page,
+ * reading each INT field straight from the page bytes, so that a scan only
+ * has to materialize the tuples that qualify.
+ */
+public abstract class CompiledPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @return true if t satisfies the predicate
+     */
+    public abstract boolean eval(Tuple t);
+
+    /**
+     * Evaluate the predicate against a tuple serialized in page data, without
+     * materializing it.
+     *
+     * @param data
+     *            the page data
+     * @param off
+     *            the offset of the tuple in data
+     * @param fieldOffsets
+     *            the offset of each field within the tuple
+     * @return true if the tuple satisfies the predicate
+     */
+    public abstract boolean eval(byte[] data, int off, int[] fieldOffsets);
+
+    /**
+     * Decide from the range of each field over a set of tuples, such as the
+     * tuples on one page, whether any of them can satisfy the predicate.
+     *
+     * @param min
+     *            the minimum of each INT_TYPE field
+     * @param max
+     *            the maximum of each INT_TYPE field
+     * @return false if no tuple with its fields in these ranges satisfies the
+     *         predicate
+     * @see ZoneMap
+     */
+    public boolean mayMatch(int[] min, int[] max) {
+        return true;
+    }
+
+    /**
+     * Build an evaluator for a single predicate.
+     */
+    public static CompiledPredicate compile(Predicate p) {
+        return compile(Collections.singletonList(p));
+    }
+
+    /**
+     * Build an evaluator for the conjunction of the given predicates.
+     * <p>
+     * All INT_TYPE comparisons are folded into a single {@link IntConjunction}
+     * that checks each field against an inclusive range, so evaluating the
+     * whole conjunction involves no virtual calls; predicates on the same
+     * field are merged into one range. The remaining predicates are
+     * evaluated afterwards, in order.
+     */
+    public static CompiledPredicate compile(List<Predicate> preds) {
+        IntConjunction ints = new IntConjunction();
+        ArrayList<CompiledPredicate> rest = new ArrayList<CompiledPredicate>();
+        for (Predicate p : preds) {
+            if (!(p.getOperand() instanceof IntField) || !ints.add(p))
+                rest.add(new Generic(p));
+        }
+        if (ints.isEmpty() && rest.isEmpty())
+            return new True();
+        if (rest.isEmpty())
+            return ints.simplify();
+        if (!ints.isEmpty())
+            rest.add(0, ints.simplify());
+        return and(rest.toArray(new CompiledPredicate[rest.size()]));
+    }
+
+    /**
+     * Build an evaluator for a join predicate with its outer tuple fixed.
+     * A nested loops join can bind each outer tuple once and then evaluate
+     * the join over the whole inner relation as a comparison of one inner
+     * field against a constant.
+     *
+     * @param p
+     *            the join predicate
+     * @param t1
+     *            the outer tuple
+     * @return an evaluator over inner tuples t2 that is true when
+     *         p.filter(t1, t2) is
+     */
+    public static CompiledPredicate bind(JoinPredicate p, Tuple t1) {
+        Field v = t1.getField(p.getField1());
+        Predicate.Op op;
+        switch (p.getOperator()) {
+        case EQUALS:
+        case NOT_EQUALS:
+            op = p.getOperator();
+            break;
+        case GREATER_THAN:
+            op = Predicate.Op.LESS_THAN;
+            break;
+        case GREATER_THAN_OR_EQ:
+            op = Predicate.Op.LESS_THAN_OR_EQ;
+            break;
+        case LESS_THAN:
+            op = Predicate.Op.GREATER_THAN;
+            break;
+        case LESS_THAN_OR_EQ:
+            op = Predicate.Op.GREATER_THAN_OR_EQ;
+            break;
+        default:
+            // LIKE does not commute; evaluate it as written
+            return new BoundLike(v, p.getField2());
+        }
+        return compile(new Predicate(p.getField2(), op, v));
+    }
+
+    /**
+     * @return an evaluator that is true when all of terms are
+     */
+    public static CompiledPredicate and(CompiledPredicate... terms) {
+        if (terms.length == 1)
+            return terms[0];
+        if (terms.length == 2)
+            return new And2(terms[0], terms[1]);
+        return new AndN(terms);
+    }
+
+    static int intValue(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    /** Read an int serialized by IntField.serialize at data[off] */
+    static int intValue(byte[] data, int off) {
+        return (data[off] << 24) | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /**
+     * A conjunction of INT_TYPE comparisons: for each i, lo[i] &lt;=
+     * field(fields[i]) &lt;= hi[i], and for each j, field(neFields[j]) !=
+     * neValues[j].
+     */
+    static final class IntConjunction extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private int[] fields = new int[0], lo = new int[0], hi = new int[0];
+        private int[] neFields = new int[0], neValues = new int[0];
+
+        boolean isEmpty() {
+            return fields.length == 0 && neFields.length == 0;
+        }
+
+        /**
+         * Add an INT_TYPE predicate to the conjunction.
+         *
+         * @return false if p's operator is not supported
+         */
+        boolean add(Predicate p) {
+            int f = p.getField();
+            int v = ((IntField) p.getOperand()).getValue();
+            int l = Integer.MIN_VALUE, h = Integer.MAX_VALUE;
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                l = h = v;
+                break;
+            case GREATER_THAN:
+                if (v == Integer.MAX_VALUE) {
+                    // never true: empty range
+                    l = 1;
+                    h = 0;
+                } else
+                    l = v + 1;
+                break;
+            case GREATER_THAN_OR_EQ:
+                l = v;
+                break;
+            case LESS_THAN:
+                if (v == Integer.MIN_VALUE) {
+                    // never true: empty range
+                    l = 1;
+                    h = 0;
+                } else
+                    h = v - 1;
+                break;
+            case LESS_THAN_OR_EQ:
+                h = v;
+                break;
+            case NOT_EQUALS:
+                neFields = append(neFields, f);
+                neValues = append(neValues, v);
+                return true;
+            default:
+                return false;
+            }
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] == f) {
+                    lo[i] = Math.max(lo[i], l);
+                    hi[i] = Math.min(hi[i], h);
+                    return true;
+                }
+            }
+            fields = append(fields, f);
+            lo = append(lo, l);
+            hi = append(hi, h);
+            return true;
+        }
+
+        /**
+         * @return a {@link IntRange} if this is a single range check, or this
+         */
+        CompiledPredicate simplify() {
+            if (fields.length == 1 && neFields.length == 0)
+                return new IntRange(fields[0], lo[0], hi[0]);
+            return this;
+        }
+
+        private static int[] append(int[] a, int v) {
+            int[] b = Arrays.copyOf(a, a.length + 1);
+            b[a.length] = v;
+            return b;
+        }
+
+        public boolean eval(Tuple t) {
+            for (int i = 0; i < fields.length; i++) {
+                int x = intValue(t, fields[i]);
+                if (x < lo[i] || x > hi[i])
+                    return false;
+            }
+            for (int i = 0; i < neFields.length; i++)
+                if (intValue(t, neFields[i]) == neValues[i])
+                    return false;
+            return true;
+        }
+
+        public boolean eval(byte[] data, int off, int[] fieldOffsets) {
+            for (int i = 0; i < fields.length; i++) {
+                int x = intValue(data, off + fieldOffsets[fields[i]]);
+                if (x < lo[i] || x > hi[i])
+                    return false;
+            }
+            for (int i = 0; i < neFields.length; i++)
+                if (intValue(data, off + fieldOffsets[neFields[i]]) == neValues[i])
+                    return false;
+            return true;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            for (int i = 0; i < fields.length; i++)
+                if (max[fields[i]] < lo[i] || min[fields[i]] > hi[i])
+                    return false;
+            for (int i = 0; i < neFields.length; i++)
+                if (min[neFields[i]] == neValues[i]
+                        && max[neFields[i]] == neValues[i])
+                    return false;
+            return true;
+        }
+    }
+
+    /** lo &lt;= field &lt;= hi, the common case of a single INT comparison */
+    static final class IntRange extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, lo, hi;
+
+        IntRange(int field, int lo, int hi) {
+            this.field = field;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        public boolean eval(Tuple t) {
+            int x = intValue(t, field);
+            return x >= lo && x <= hi;
+        }
+
+        public boolean eval(byte[] data, int off, int[] fieldOffsets) {
+            int x = intValue(data, off + fieldOffsets[field]);
+            return x >= lo && x <= hi;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            return max[field] >= lo && min[field] <= hi;
+        }
+    }
+
+    /** Falls back to Predicate.filter, for strings and LIKE */
+    static final class Generic extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final Predicate p;
+
+        Generic(Predicate p) {
+            this.p = p;
+        }
+
+        public boolean eval(Tuple t) {
+            return p.filter(t);
+        }
+
+        /** Decode only the field p compares */
+        public boolean eval(byte[] data, int off, int[] fieldOffsets) {
+            Type type = p.getOperand().getType();
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                    data, off + fieldOffsets[p.getField()], type.getLen()));
+            try {
+                return type.parse(dis).compare(p.getOp(), p.getOperand());
+            } catch (java.text.ParseException e) {
+                throw new NoSuchElementException("parsing error!");
+            }
+        }
+    }
+
+    /** A LIKE join predicate with the field of its outer tuple fixed to v */
+    static final class BoundLike extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final Field v;
+        private final int field;
+
+        BoundLike(Field v, int field) {
+            this.v = v;
+            this.field = field;
+        }
+
+        public boolean eval(Tuple t2) {
+            return v.compare(Predicate.Op.LIKE, t2.getField(field));
+        }
+
+        /** Decode only the inner field v is compared with */
+        public boolean eval(byte[] data, int off, int[] fieldOffsets) {
+            Type type = v.getType();
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                    data, off + fieldOffsets[field], type.getLen()));
+            try {
+                return v.compare(Predicate.Op.LIKE, type.parse(dis));
+            } catch (java.text.ParseException e) {
+                throw new NoSuchElementException("parsing error!");
+            }
+        }
+    }
+
+    static final class True extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+
+        public boolean eval(Tuple t) {
+            return true;
+        }
+
+        public boolean eval(byte[] data, int off, int[] fieldOffsets) {
+            return true;
+        }
+    }
+
+    static final class And2 extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final CompiledPredicate a, b;
+
+        And2(CompiledPredicate a, CompiledPredicate b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        public boolean eval(Tuple t) {
+            return a.eval(t) && b.eval(t);
+        }
+
+        public boolean eval(byte[] data, int off, int[] fieldOffsets) {
+            return a.eval(data, off, fieldOffsets)
+                    && b.eval(data, off, fieldOffsets);
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            return a.mayMatch(min, max) && b.mayMatch(min, max);
+        }
+    }
+
+    static final class AndN extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final CompiledPredicate[] terms;
+
+        AndN(CompiledPredicate[] terms) {
+            this.terms = terms;
+        }
+
+        public boolean eval(Tuple t) {
+            for (CompiledPredicate c : terms)
+                if (!c.eval(t))
+                    return false;
+            return true;
+        }
+
+        public boolean eval(byte[] data, int off, int[] fieldOffsets) {
+            for (CompiledPredicate c : terms)
+                if (!c.eval(data, off, fieldOffsets))
+                    return false;
+            return true;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            for (CompiledPredicate c : terms)
+                if (!c.mayMatch(min, max))
+                    return false;
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,393 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A CompressedPageFile stores the pages of a table compressed, so that they
+ * take a variable number of bytes on disk. Pages are compressed with
+ * {@link Deflater} at its fastest level when they are written, which the
+ * buffer pool does when it flushes them, and decompressed when they are read,
+ * which it does on a miss; the pages in the buffer pool are uncompressed. A
+ * page that does not get smaller is stored as it is.
+ * <p>
+ * Pages are numbered from 0, and every page number below {@link #numPages()}
+ * has a page. The compressed pages are stored in the data file, in extents of
+ * a multiple of {@link #EXTENT_UNIT} bytes, so that a page that grows a little
+ * is usually rewritten in place. A page that no longer fits its extent is
+ * moved to a free extent, or to the end of the data file, and its old extent
+ * is reused by later writes. The offset and length of each page are kept in a
+ * page map, a sidecar file next to the data file (the data file's name with
+ * {@link #SUFFIX} appended) whose entry for a page is rewritten after the page
+ * is. A data file is compressed if and only if it has a page map.
+ * <p>
+ * Only looking a page up in the page map holds the lock of the file, so that
+ * several threads can read and decompress pages at once; writes, which move
+ * extents, are serialized.
+ */
+public class CompressedPageFile {
+
+    /** Suffix appended to the name of a data file to name its page map */
+    public static final String SUFFIX = ".pagemap";
+
+    /** The extents of pages in the data file are multiples of this many bytes */
+    public static final int EXTENT_UNIT = 64;
+
+    private static final int MAGIC = 0x53504d31;
+    // page map layout: MAGIC, then (offset, length) per page; a length of 0
+    // means the page was never written, and reads as all zeros
+    private static final int HEADER_SIZE = 4;
+    private static final int ENTRY_SIZE = 8 + 4;
+
+    private final File dataFile;
+    private final File mapFile;
+    private int numPages;
+    private long[] offsets;
+    private int[] lengths;
+    // the free extents of the data file before its end, by offset
+    private final TreeMap<Long, Long> free = new TreeMap<Long, Long>();
+    private long end;
+    // incremented by every change to the data file, so that a read that
+    // overlapped one can tell the extent it read may have been reused
+    private long version;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * Opens the compressed pages of a data file, which is created empty, with
+     * its page map, if it does not exist or is empty.
+     *
+     * @throws IOException
+     *             if the data file has pages that are not compressed, or its
+     *             page map cannot be read
+     */
+    public CompressedPageFile(File dataFile) throws IOException {
+        this.dataFile = dataFile;
+        this.mapFile = mapFileOf(dataFile);
+        if (!mapFile.exists()) {
+            if (dataFile.length() > 0)
+                throw new IOException(dataFile + " is not compressed");
+            new FileOutputStream(dataFile, true).close();
+            DataOutputStream dos = new DataOutputStream(new FileOutputStream(mapFile));
+            try {
+                dos.writeInt(MAGIC);
+            } finally {
+                dos.close();
+            }
+        }
+        load();
+    }
+
+    private static File mapFileOf(File dataFile) {
+        return new File(dataFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * @return true if the pages of a data file are compressed, that is if it
+     *         has a page map
+     */
+    public static boolean isCompressed(File dataFile) {
+        return mapFileOf(dataFile).exists();
+    }
+
+    /**
+     * Compress the pages of a data file in place. The compressed pages are
+     * written to a new file, which replaces the data file once they all have
+     * been.
+     *
+     * @param firstPageSize
+     *            the bytes of the first page of the file
+     * @param pageSize
+     *            the bytes of every other page
+     */
+    public static void convert(File dataFile, int firstPageSize, int pageSize)
+            throws IOException {
+        File tmp = new File(dataFile.getPath() + ".compress");
+        tmp.delete();
+        mapFileOf(tmp).delete();
+        CompressedPageFile out = new CompressedPageFile(tmp);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(dataFile)));
+        try {
+            long left = dataFile.length();
+            for (int i = 0; left > 0; i++) {
+                byte[] page = new byte[i == 0 ? firstPageSize : pageSize];
+                in.readFully(page);
+                out.write(i, page);
+                left -= page.length;
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            mapFileOf(tmp).delete();
+            throw e;
+        } finally {
+            in.close();
+        }
+        out.moveTo(dataFile);
+    }
+
+    /**
+     * Replace the pages of this file with those of another compressed file,
+     * which is moved into its place.
+     */
+    public synchronized void replaceWith(File other) throws IOException {
+        new CompressedPageFile(other).moveTo(dataFile);
+        load();
+    }
+
+    // rename this file and its page map to those of target
+    private void moveTo(File target) throws IOException {
+        target.delete();
+        mapFileOf(target).delete();
+        if (!dataFile.renameTo(target) || !mapFile.renameTo(mapFileOf(target)))
+            throw new IOException("could not replace " + target + " with " + dataFile);
+    }
+
+    // read the page map, and find the free extents of the data file
+    private void load() throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(mapFile)));
+        try {
+            if (dis.readInt() != MAGIC)
+                throw new IOException(mapFile + " is not a page map");
+            numPages = (int) ((mapFile.length() - HEADER_SIZE) / ENTRY_SIZE);
+            offsets = new long[Math.max(numPages, 16)];
+            lengths = new int[offsets.length];
+            for (int i = 0; i < numPages; i++) {
+                offsets[i] = dis.readLong();
+                lengths[i] = dis.readInt();
+            }
+        } finally {
+            dis.close();
+        }
+
+        TreeMap<Long, Long> used = new TreeMap<Long, Long>();
+        for (int i = 0; i < numPages; i++)
+            if (lengths[i] > 0)
+                used.put(offsets[i], extentSize(lengths[i]));
+        free.clear();
+        end = 0;
+        for (Map.Entry<Long, Long> e : used.entrySet()) {
+            if (e.getKey() > end)
+                free.put(end, e.getKey() - end);
+            end = e.getKey() + e.getValue();
+        }
+        version++;
+    }
+
+    private static long extentSize(int length) {
+        return (length + EXTENT_UNIT - 1) / EXTENT_UNIT * EXTENT_UNIT;
+    }
+
+    /**
+     * @return the number of pages of the file
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the bytes the compressed pages take, with their page map
+     */
+    public synchronized long storedBytes() {
+        return dataFile.length() + mapFile.length();
+    }
+
+    /**
+     * Read a page and decompress it.
+     *
+     * @param pageNo
+     *            the number of the page
+     * @param pageSize
+     *            the bytes of the page, uncompressed
+     * @throws IllegalArgumentException
+     *             if the file has no page pageNo
+     */
+    public byte[] read(int pageNo, int pageSize) throws IOException {
+        while (true) {
+            long offset;
+            int length;
+            long seen;
+            synchronized (this) {
+                if (pageNo < 0 || pageNo >= numPages)
+                    throw new IllegalArgumentException("page " + pageNo + " is not in "
+                            + dataFile);
+                offset = offsets[pageNo];
+                length = lengths[pageNo];
+                seen = version;
+            }
+            if (length == 0)
+                return new byte[pageSize];
+            byte[] page = null;
+            IOException failed = null;
+            try {
+                page = decompress(pageNo, readExtent(offset, length), pageSize);
+            } catch (IOException e) {
+                failed = e;
+            }
+            // otherwise a write moved or overwrote the extent while it was read
+            synchronized (this) {
+                if (version == seen) {
+                    if (failed != null)
+                        throw failed;
+                    return page;
+                }
+            }
+        }
+    }
+
+    // the length bytes of the data file at offset
+    private byte[] readExtent(long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        FileChannel ch = new FileInputStream(dataFile).getChannel();
+        try {
+            while (buf.hasRemaining())
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    throw new EOFException(dataFile + " ends inside a page");
+        } finally {
+            ch.close();
+        }
+        return buf.array();
+    }
+
+    // the page of pageSize bytes stored, which is stored as it is if its
+    // length is pageSize
+    private byte[] decompress(int pageNo, byte[] stored, int pageSize) throws IOException {
+        if (stored.length == pageSize)
+            return stored;
+        byte[] page = new byte[pageSize];
+        Inflater inflater = new Inflater();
+        int n = 0;
+        try {
+            inflater.setInput(stored);
+            while (n < pageSize && !inflater.finished()) {
+                int k = inflater.inflate(page, n, pageSize - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += k;
+            }
+            if (n != pageSize || !inflater.finished())
+                throw new IOException("page " + pageNo + " of " + dataFile + " is corrupt");
+        } catch (DataFormatException e) {
+            throw new IOException("page " + pageNo + " of " + dataFile + " is corrupt: "
+                    + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return page;
+    }
+
+    /**
+     * Compress a page and write it, adding it to the file if pageNo is not
+     * below {@link #numPages()}. The pages between the last one and it are
+     * added too, all zeros.
+     */
+    public synchronized void write(int pageNo, byte[] data) throws IOException {
+        byte[] stored = compress(data);
+        int firstNew = numPages;
+        if (pageNo >= numPages) {
+            if (pageNo >= offsets.length) {
+                int capacity = Math.max(pageNo + 1, 2 * offsets.length);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            numPages = pageNo + 1;
+        }
+
+        long size = extentSize(stored.length);
+        long offset;
+        if (lengths[pageNo] > 0 && size <= extentSize(lengths[pageNo])) {
+            offset = offsets[pageNo];
+            release(offset + size, extentSize(lengths[pageNo]) - size);
+        } else {
+            if (lengths[pageNo] > 0)
+                release(offsets[pageNo], extentSize(lengths[pageNo]));
+            offset = allocate(size);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+        try {
+            raf.seek(offset);
+            raf.write(stored);
+            if (raf.length() < offset + size)
+                raf.setLength(offset + size);
+        } finally {
+            raf.close();
+        }
+        offsets[pageNo] = offset;
+        lengths[pageNo] = stored.length;
+        version++;
+
+        raf = new RandomAccessFile(mapFile, "rw");
+        try {
+            // the entry of the page, and those of the pages added before it
+            int first = pageNo < firstNew ? pageNo : firstNew;
+            raf.seek(HEADER_SIZE + (long) first * ENTRY_SIZE);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            for (int i = first; i <= pageNo; i++) {
+                dos.writeLong(offsets[i]);
+                dos.writeInt(lengths[i]);
+            }
+            raf.write(baos.toByteArray());
+        } finally {
+            raf.close();
+        }
+    }
+
+    // the page compressed, or itself if it does not get smaller
+    private byte[] compress(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buf = new byte[data.length];
+        int n = 0;
+        while (n < buf.length && !deflater.finished())
+            n += deflater.deflate(buf, n, buf.length - n);
+        if (!deflater.finished() || n >= data.length)
+            return data;
+        return Arrays.copyOf(buf, n);
+    }
+
+    // find an extent of size bytes, first fit among the free extents
+    private long allocate(long size) {
+        for (Map.Entry<Long, Long> e : free.entrySet()) {
+            long offset = e.getKey();
+            long extent = e.getValue();
+            if (extent >= size) {
+                free.remove(offset);
+                if (extent > size)
+                    free.put(offset + size, extent - size);
+                return offset;
+            }
+        }
+        long offset = end;
+        end += size;
+        return offset;
+    }
+
+    // make an extent free, merging it with the free extents next to it
+    private void release(long offset, long size) {
+        if (size == 0)
+            return;
+        Map.Entry<Long, Long> next = free.ceilingEntry(offset);
+        if (next != null && next.getKey() == offset + size) {
+            free.remove(next.getKey());
+            size += next.getValue();
+        }
+        Map.Entry<Long, Long> prev = free.floorEntry(offset);
+        if (prev != null && prev.getKey() + prev.getValue() == offset) {
+            free.remove(prev.getKey());
+            offset = prev.getKey();
+            size += prev.getValue();
+        }
+        if (offset + size == end)
+            end = offset;
+        else
+            free.put(offset, size);
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary-encoded field of a table, which also
+ * carries the code the {@link StringDictionary} of the table gives its value.
+ * Two EncodedStringFields of the same dictionary are equal if and only if
+ * their codes are, so grouping and equi-joining on encoded fields compares
+ * ints rather than strings. Compared with any other StringField, an
+ * EncodedStringField compares its string.
+ */
+public class EncodedStringField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    // null once deserialized, when the code can no longer be relied on
+    private final transient StringDictionary dictionary;
+    private final int code;
+
+    /**
+     * Constructor.
+     *
+     * @param dictionary
+     *            the dictionary that gave the value its code
+     * @param code
+     *            the code of the value
+     * @param s
+     *            the value of this field
+     */
+    EncodedStringField(StringDictionary dictionary, int code, String s) {
+        super(s, Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    /**
+     * @return the code of the value of this field
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the dictionary that gave the value of this field its code
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    // whether field has a code of the same dictionary as this one
+    private boolean sameDictionary(Field field) {
+        return dictionary != null && field instanceof EncodedStringField
+                && ((EncodedStringField) field).dictionary == dictionary;
+    }
+
+    // hashCode stays the string's, which String caches, so that it agrees
+    // with equals against plain StringFields and those of other dictionaries
+    public boolean equals(Object field) {
+        if (sameDictionary((Field) field))
+            return ((EncodedStringField) field).code == code;
+        return super.equals(field);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field, by code if
+     * both are of the same dictionary and the operator is EQUALS or
+     * NOT_EQUALS. Return semantics are as specified by Field.compare
+     *
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        if ((op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)
+                && sameDictionary(val))
+            return (((EncodedStringField) val).code == code) == (op == Predicate.Op.EQUALS);
+        return super.compare(op, val);
+    }
+}
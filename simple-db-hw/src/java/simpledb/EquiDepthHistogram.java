@@ -0,0 +1,273 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An equi-depth histogram over a single integer-based field. Unlike
+ * {@link IntHistogram}, whose buckets split the range [min, max] into equal
+ * widths, each bucket of an equi-depth histogram holds about the same number
+ * of values, so skewed columns get narrow buckets where their values are
+ * dense. The histogram is built from a sample of the column (e.g. a reservoir
+ * sample, see {@link TableStats}), so the range of the column does not have to
+ * be known in advance, and scaled to the number of values in the column.
+ * <p>
+ * Each bucket records its lowest and highest value, the estimated number of
+ * values in it, and the estimated number of distinct values among them. All
+ * copies of a value fall in the same bucket, so a value that is frequent
+ * enough to fill a bucket gets a bucket of its own, whose lowest and highest
+ * values are equal, and its frequency is estimated exactly.
+ */
+public class EquiDepthHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] lo, hi;
+    private double[] count;
+    private double[] distinct;
+    private double total;
+
+    /**
+     * Create a new EquiDepthHistogram.
+     *
+     * @param buckets
+     *            The maximum number of buckets
+     * @param sample
+     *            A uniform sample of the values of the column; the first n
+     *            entries are used, and the array is not modified
+     * @param n
+     *            The number of values in the sample
+     * @param total
+     *            The number of values in the column the sample was drawn from
+     */
+    public EquiDepthHistogram(int buckets, int[] sample, int n, double total) {
+        int[] sorted = Arrays.copyOf(sample, n);
+        Arrays.sort(sorted);
+        int nb = Math.min(buckets, n);
+        lo = new int[nb];
+        hi = new int[nb];
+        count = new double[nb];
+        distinct = new double[nb];
+        this.total = n == 0 ? 0 : total;
+        int b = 0;
+        for (int start = 0; start < n; b++) {
+            // end the bucket at its share of the rest of the sample, but never
+            // between two copies of a value: end it before the copies if it
+            // holds other values, after them if not. The last bucket takes
+            // whatever is left.
+            int end = b == nb - 1 ? n : start + Math.max(1, (n - start) / (nb - b));
+            if (end < n && sorted[end] == sorted[end - 1]) {
+                int run = end - 1;
+                while (run > start && sorted[run - 1] == sorted[end])
+                    run--;
+                if (run > start)
+                    end = run;
+                else
+                    while (end < n && sorted[end] == sorted[end - 1])
+                        end++;
+            }
+            lo[b] = sorted[start];
+            hi[b] = sorted[end - 1];
+            count[b] = (double) (end - start) * total / n;
+            int d = 1;
+            for (int i = start + 1; i < end; i++)
+                if (sorted[i] != sorted[i - 1])
+                    d++;
+            distinct[b] = d;
+            start = end;
+        }
+        if (b < nb) {
+            lo = Arrays.copyOf(lo, b);
+            hi = Arrays.copyOf(hi, b);
+            count = Arrays.copyOf(count, b);
+            distinct = Arrays.copyOf(distinct, b);
+        }
+    }
+
+    /**
+     * Scale the number of distinct values in each bucket so that they add up
+     * to ndv, e.g. because the sample the histogram was built from missed the
+     * rarer values of the column. No bucket gets more distinct values than its
+     * range or its count allows.
+     *
+     * @param ndv
+     *            The estimated number of distinct values in the column
+     */
+    public void scaleDistinct(double ndv) {
+        double sum = 0;
+        for (double d : distinct)
+            sum += d;
+        if (sum == 0 || ndv <= sum)
+            return;
+        double f = ndv / sum;
+        for (int b = 0; b < distinct.length; b++) {
+            double width = (double) hi[b] - lo[b] + 1;
+            distinct[b] = Math.max(1, Math.min(Math.min(width, count[b]),
+                    distinct[b] * f));
+        }
+    }
+
+    /**
+     * Add a value to the histogram, e.g. when a tuple holding it is inserted.
+     * A value outside the range of the histogram widens its first or last
+     * bucket.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(int v) {
+        if (lo.length == 0) {
+            lo = new int[] { v };
+            hi = new int[] { v };
+            count = new double[] { 0 };
+            distinct = new double[] { 1 };
+        }
+        int b = bucketOf(v);
+        if (v < lo[b] || v > hi[b]) {
+            // a value outside the bucket's range is one it has not seen
+            lo[b] = Math.min(lo[b], v);
+            hi[b] = Math.max(hi[b], v);
+            distinct[b]++;
+        }
+        count[b]++;
+        total++;
+    }
+
+    /**
+     * Remove a value that was added to the histogram, e.g. when the tuple
+     * holding it is deleted.
+     * @param v Value to remove from the histogram
+     */
+    public void removeValue(int v) {
+        if (lo.length == 0)
+            return;
+        int b = bucketOf(v);
+        if (count[b] >= 1) {
+            count[b]--;
+            total--;
+        }
+    }
+
+    // the first bucket whose highest value is at least v, or the last bucket
+    private int bucketOf(int v) {
+        int b = 0;
+        while (b < hi.length - 1 && hi[b] < v)
+            b++;
+        return b;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (total <= 0)
+            return 0.0;
+        double sel;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            sel = equal(v);
+            break;
+        case NOT_EQUALS:
+            sel = total - equal(v);
+            break;
+        case LESS_THAN:
+            sel = less(v);
+            break;
+        case LESS_THAN_OR_EQ:
+            sel = less(v) + equal(v);
+            break;
+        case GREATER_THAN:
+            sel = total - less(v) - equal(v);
+            break;
+        case GREATER_THAN_OR_EQ:
+            sel = total - less(v);
+            break;
+        default:
+            return -1.0;
+        }
+        return Math.max(0.0, Math.min(1.0, sel / total));
+    }
+
+    // the estimated number of values equal to v
+    private double equal(int v) {
+        double n = 0;
+        for (int b = 0; b < lo.length; b++)
+            if (lo[b] <= v && v <= hi[b])
+                n += count[b] / distinct[b];
+        return n;
+    }
+
+    // the estimated number of values less than v, assuming the values of a
+    // bucket are spread uniformly over its range
+    private double less(int v) {
+        double n = 0;
+        for (int b = 0; b < lo.length; b++) {
+            if (hi[b] < v)
+                n += count[b];
+            else if (lo[b] < v)
+                n += count[b] * ((double) v - lo[b])
+                        / ((double) hi[b] - lo[b] + 1);
+        }
+        return n;
+    }
+
+    /**
+     * Estimate the selectivity of a join predicate <tt>x op y</tt>, where x is
+     * a value of this histogram and y a value of other: the fraction of the
+     * pairs (x, y) that satisfy it. The buckets of the two histograms are
+     * overlapped: for each bucket of other, whose values are taken to be
+     * spread uniformly over its range, the selectivity of <tt>op y</tt> on
+     * this histogram is averaged over that range (with Simpson's rule) and
+     * weighted by the bucket's share of other's values.
+     *
+     * @param op Operator
+     * @param other The histogram of the values on the right of op
+     * @return Predicted selectivity of the join predicate, or -1.0 if op
+     *         cannot be estimated from histograms
+     */
+    public double estimateJoinSelectivity(Predicate.Op op,
+            EquiDepthHistogram other) {
+        if (op == Predicate.Op.LIKE)
+            return -1.0;
+        if (total <= 0 || other.total <= 0)
+            return 0.0;
+        double sel = 0;
+        for (int b = 0; b < other.lo.length; b++) {
+            if (other.count[b] <= 0)
+                continue;
+            double s;
+            if (other.lo[b] == other.hi[b]) {
+                s = estimateSelectivity(op, other.lo[b]);
+            } else {
+                int mid = (int) (((long) other.lo[b] + other.hi[b]) / 2);
+                s = (estimateSelectivity(op, other.lo[b]) + 4
+                        * estimateSelectivity(op, mid) + estimateSelectivity(
+                        op, other.hi[b])) / 6;
+            }
+            sel += s * other.count[b];
+        }
+        return Math.max(0.0, Math.min(1.0, sel / other.total));
+    }
+
+    /**
+     * @return the number of values the histogram describes
+     */
+    public double totalValues() {
+        return total;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int b = 0; b < lo.length; b++)
+            sb.append("[").append(lo[b]).append(", ").append(hi[b])
+                    .append("]: ").append(Math.round(count[b])).append(" (")
+                    .append(Math.round(distinct[b])).append(" distinct)\n");
+        return sb.toString();
+    }
+}
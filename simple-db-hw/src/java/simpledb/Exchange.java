@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Exchange runs its child on a separate producer thread so that the child and
+ * the parent operator can work at the same time. The producer groups the
+ * child's tuples into batches and passes them to the consumer through a
+ * bounded queue; when the queue is full the producer blocks until the parent
+ * catches up. Any exception thrown by the child is rethrown by
+ * {@link #next} or {@link #hasNext} once the tuples produced before it have
+ * been consumed.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of tuples in a batch */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    /** Default number of batches the queue can hold */
+    public static final int DEFAULT_QUEUE_BATCHES = 8;
+
+    private DbIterator child;
+    private final int batchSize;
+    private final int queueBatches;
+
+    private transient BlockingQueue<ArrayList<Tuple>> queue;
+    private transient Thread producer;
+    private transient volatile Throwable error;
+    private transient Iterator<Tuple> batch;
+    private boolean done;
+
+    // marks the end of the child's output in the queue
+    private static final ArrayList<Tuple> END = new ArrayList<Tuple>();
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The child operator, to be run on its own thread
+     */
+    public Exchange(DbIterator child) {
+        this(child, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_BATCHES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The child operator, to be run on its own thread
+     * @param batchSize
+     *            the number of tuples handed to the consumer at a time
+     * @param queueBatches
+     *            the number of batches the producer may run ahead of the
+     *            consumer
+     */
+    public Exchange(DbIterator child, int batchSize, int queueBatches) {
+        if (batchSize < 1 || queueBatches < 1)
+            throw new IllegalArgumentException(
+                    "batch size and queue size must be at least 1");
+        this.child = child;
+        this.batchSize = batchSize;
+        this.queueBatches = queueBatches;
+    }
+
+    /**
+     * @return the name of this operator, as shown in query plans
+     */
+    public String getName() {
+        return "exchange";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        startProducer();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        stopProducer();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // drop any tuple Operator has already fetched from the old producer
+        super.close();
+        stopProducer();
+        child.rewind();
+        startProducer();
+        super.open();
+    }
+
+    private void startProducer() {
+        final BlockingQueue<ArrayList<Tuple>> q = new ArrayBlockingQueue<ArrayList<Tuple>>(
+                queueBatches);
+        queue = q;
+        error = null;
+        batch = null;
+        done = false;
+        producer = new Thread(new Runnable() {
+            public void run() {
+                produce(q);
+            }
+        }, "exchange");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Interrupt the producer and wait for it to exit, so that the child is
+     * no longer in use by another thread.
+     */
+    private void stopProducer() {
+        if (producer == null)
+            return;
+        producer.interrupt();
+        boolean interrupted = false;
+        while (producer.isAlive()) {
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        producer = null;
+        queue = null;
+        batch = null;
+    }
+
+    /** Producer loop: drain the child into batches, then post END. */
+    private void produce(BlockingQueue<ArrayList<Tuple>> q) {
+        ArrayList<Tuple> out = new ArrayList<Tuple>(batchSize);
+        try {
+            try {
+                while (child.hasNext()) {
+                    out.add(child.next());
+                    if (out.size() == batchSize) {
+                        q.put(out);
+                        out = new ArrayList<Tuple>(batchSize);
+                    }
+                    if (Thread.interrupted())
+                        return;
+                }
+            } catch (InterruptedException e) {
+                // the exchange was closed or rewound
+                return;
+            } catch (Throwable e) {
+                error = e;
+            }
+            // hand over what was produced before the end or the error
+            if (!out.isEmpty())
+                q.put(out);
+            q.put(END);
+        } catch (InterruptedException e) {
+            // the exchange was closed while we were finishing
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException,
+            TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            if (done)
+                return null;
+            ArrayList<Tuple> next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for child: "
+                        + e);
+            }
+            if (next == END) {
+                done = true;
+                Throwable e = error;
+                if (e instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) e;
+                if (e instanceof DbException)
+                    throw (DbException) e;
+                if (e instanceof RuntimeException)
+                    throw (RuntimeException) e;
+                if (e != null)
+                    throw new DbException("exchange child failed: " + e);
+                return null;
+            }
+            batch = next.iterator();
+        }
+        return batch.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,210 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ExternalSort sorts the tuples of an iterator that may not fit in memory: it
+ * reads them in runs of a bounded number of tuples, sorts each run in memory
+ * and writes it to a temporary file, and then merges the runs, reading each
+ * file once, sequentially. Input that fits in a single run is never written
+ * out.
+ */
+public class ExternalSort {
+
+    /**
+     * Sort the tuples of an iterator. The input is read and closed by this
+     * call; the returned iterator deletes the temporary files of the runs
+     * when it is closed.
+     *
+     * @param in
+     *            the tuples to sort, not yet opened
+     * @param td
+     *            the schema of the tuples
+     * @param cmp
+     *            the order to sort the tuples in; tuples that compare equal
+     *            keep the order they come in
+     * @param runSize
+     *            the number of tuples sorted in memory at a time
+     * @return an iterator over the sorted tuples, not yet opened
+     */
+    public static DbFileIterator sort(DbFileIterator in, TupleDesc td,
+            Comparator<Tuple> cmp, int runSize) throws DbException,
+            TransactionAbortedException, IOException {
+        if (runSize < 1)
+            throw new IllegalArgumentException("runs must hold at least one tuple");
+        ArrayList<File> runs = new ArrayList<File>();
+        ArrayList<Tuple> run = new ArrayList<Tuple>();
+        boolean done = false;
+        try {
+            in.open();
+            while (in.hasNext()) {
+                run.add(in.next());
+                if (run.size() == runSize) {
+                    runs.add(writeRun(run, cmp));
+                    run.clear();
+                }
+            }
+            in.close();
+            Collections.sort(run, cmp);
+            done = true;
+        } finally {
+            if (!done)
+                for (File f : runs)
+                    f.delete();
+        }
+        return new MergeIterator(td, cmp, runs, run);
+    }
+
+    // sort a run and write it to a new temporary file
+    private static File writeRun(ArrayList<Tuple> run, Comparator<Tuple> cmp)
+            throws IOException {
+        Collections.sort(run, cmp);
+        File f = File.createTempFile("sort", ".run");
+        f.deleteOnExit();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(f)));
+        try {
+            for (Tuple t : run)
+                for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                    t.getField(i).serialize(dos);
+        } finally {
+            dos.close();
+        }
+        return f;
+    }
+
+    /**
+     * A run being merged: the tuples of a file, or of the last run, which is
+     * kept in memory.
+     */
+    private static class Run {
+        final int index;
+        private final TupleDesc td;
+        private final DataInputStream dis;
+        private final Iterator<Tuple> it;
+        Tuple head;
+
+        Run(int index, TupleDesc td, File f) throws IOException {
+            this.index = index;
+            this.td = td;
+            this.dis = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(f)));
+            this.it = null;
+        }
+
+        Run(int index, List<Tuple> tuples) {
+            this.index = index;
+            this.td = null;
+            this.dis = null;
+            this.it = tuples.iterator();
+        }
+
+        // move to the next tuple of the run; return false if there is none
+        boolean advance() throws DbException {
+            if (it != null) {
+                head = it.hasNext() ? it.next() : null;
+                return head != null;
+            }
+            try {
+                dis.mark(1);
+                if (dis.read() < 0) {
+                    head = null;
+                    return false;
+                }
+                dis.reset();
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(dis));
+                head = t;
+                return true;
+            } catch (IOException e) {
+                throw new DbException("error reading sort run: " + e);
+            } catch (ParseException e) {
+                throw new DbException("corrupt sort run: " + e);
+            }
+        }
+
+        void close() {
+            if (dis != null) {
+                try {
+                    dis.close();
+                } catch (IOException e) {
+                    // ignore failures closing the file
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges sorted runs, smallest head first.
+     */
+    private static class MergeIterator extends AbstractDbFileIterator {
+        private final TupleDesc td;
+        private final ArrayList<File> files;
+        private final ArrayList<Tuple> last;
+        private final PriorityQueue<Run> heads;
+        private final ArrayList<Run> runs = new ArrayList<Run>();
+
+        MergeIterator(TupleDesc td, final Comparator<Tuple> cmp,
+                ArrayList<File> files, ArrayList<Tuple> last) {
+            this.td = td;
+            this.files = files;
+            this.last = last;
+            this.heads = new PriorityQueue<Run>(files.size() + 1,
+                    new Comparator<Run>() {
+                        public int compare(Run a, Run b) {
+                            int c = cmp.compare(a.head, b.head);
+                            // earlier runs hold earlier input tuples
+                            return c != 0 ? c : a.index - b.index;
+                        }
+                    });
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            try {
+                for (int i = 0; i < files.size(); i++)
+                    runs.add(new Run(i, td, files.get(i)));
+            } catch (IOException e) {
+                closeRuns();
+                throw new DbException("error opening sort run: " + e);
+            }
+            runs.add(new Run(files.size(), last));
+            for (Run r : runs)
+                if (r.advance())
+                    heads.add(r);
+        }
+
+        protected Tuple readNext() throws DbException,
+                TransactionAbortedException {
+            Run r = heads.poll();
+            if (r == null)
+                return null;
+            Tuple t = r.head;
+            if (r.advance())
+                heads.add(r);
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            closeRuns();
+            super.close();
+            open();
+        }
+
+        private void closeRuns() {
+            for (Run r : runs)
+                r.close();
+            runs.clear();
+            heads.clear();
+        }
+
+        public void close() {
+            closeRuns();
+            for (File f : files)
+                f.delete();
+            super.close();
+        }
+    }
+}
@@ -4,12 +4,26 @@ import java.util.*;
 
 /**
  * Filter is an operator that implements a relational select.
+ * <p>
+ * When Filters are stacked directly on top of each other, as the planner does
+ * for several predicates on one table, the topmost Filter evaluates all of
+ * their predicates as a single {@link CompiledPredicate} conjunction and reads
+ * straight from the operator below the stack. If that operator is a
+ * {@link SeqScan}, the conjunction is pushed down into the scan instead, which
+ * evaluates it on page data and only materializes qualifying tuples; likewise
+ * into a {@link ParallelSeqScan}, whose workers evaluate it. The
+ * Filters below the top are not opened, and are left unchanged, so they can
+ * still be used on their own; the predicates pushed into the scan are taken
+ * back out when the top Filter is closed.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
     private Predicate pred;
     private DbIterator child;
+    private transient CompiledPredicate compiled;
+    // the operator below the stack of Filters this one tops, which it reads
+    private transient DbIterator source;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -35,17 +49,42 @@ public class Filter extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
+        // fuse the predicates of a stack of Filters, innermost first
+        LinkedList<Predicate> preds = new LinkedList<Predicate>();
+        preds.add(pred);
+        DbIterator c = child;
+        while (c instanceof Filter) {
+            preds.addFirst(((Filter) c).pred);
+            c = ((Filter) c).child;
+        }
+        source = c;
+        if (c instanceof SeqScan) {
+            ((SeqScan) c).pushDown(preds);
+            compiled = CompiledPredicate.compile(new ArrayList<Predicate>());
+        } else if (c instanceof ParallelSeqScan) {
+            ((ParallelSeqScan) c).pushDown(preds);
+            compiled = CompiledPredicate.compile(new ArrayList<Predicate>());
+        } else {
+            compiled = CompiledPredicate.compile(preds);
+        }
+        source.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        child.close();
+        if (source != null) {
+            source.close();
+            if (source instanceof SeqScan)
+                ((SeqScan) source).pushDown(Collections.<Predicate>emptyList());
+            else if (source instanceof ParallelSeqScan)
+                ((ParallelSeqScan) source).pushDown(Collections.<Predicate>emptyList());
+            source = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child.rewind();
+        source.rewind();
     }
 
     /**
@@ -59,9 +98,9 @@ public class Filter extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        while (child.hasNext()) {
-            Tuple t = child.next();
-            if (pred.filter(t))
+        while (source.hasNext()) {
+            Tuple t = source.next();
+            if (compiled.eval(t))
                 return t;
         }
         return null;
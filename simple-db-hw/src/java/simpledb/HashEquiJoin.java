@@ -26,9 +26,31 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join; its tuples
+     *            are hashed
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param mapSize
+     *            The number of outer tuples hashed at a time; the inner
+     *            relation is scanned once per mapSize outer tuples
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int mapSize) {
+        if (mapSize < 1)
+            throw new IllegalArgumentException("hash table must hold at least one tuple");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.mapSize = mapSize;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -52,6 +74,7 @@ public class HashEquiJoin extends Operator {
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
+    private final int mapSize;
 
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
@@ -64,7 +87,7 @@ public class HashEquiJoin extends Operator {
                 map.put(t1.getField(pred.getField1()), list);
             }
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (++cnt == mapSize)
                 return true;
         }
         return cnt > 0;
@@ -92,6 +115,10 @@ public class HashEquiJoin extends Operator {
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        this.t1 = null;
+        this.t2 = null;
+        this.listIt = null;
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -9,6 +9,21 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Each HeapFile keeps a {@link ZoneMap} of the ranges of its INT_TYPE columns
+ * on every page, which scans with pushed down predicates use to skip pages.
+ * <p>
+ * A HeapFile may store its pages compressed, in a {@link CompressedPageFile}:
+ * they are compressed when they are written to disk and decompressed when they
+ * are read, so the file takes less space and fewer bytes are read to scan it.
+ * <p>
+ * The low-cardinality STRING_TYPE fields of a HeapFile may be dictionary
+ * encoded: its pages store the integer codes a {@link StringDictionary} gives
+ * their values, and predicates pushed down to the pages, as compiled by
+ * {@link #compile}, compare codes.
+ * <p>
+ * A HeapFile with STRING_TYPE fields may store its tuples as variable-length
+ * records, on pages in the {@link SlottedPageFormat}, if it is created so.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -18,17 +33,114 @@ public class HeapFile implements DbFile {
 	TupleDesc td;
 	File file;
 	int id;
+	volatile ZoneMap zoneMap;	//loaded the first time it is needed
+	CompressedPageFile compressed;	//null if the pages are not compressed
+	StringDictionary dictionary;	//null if no field is dictionary encoded
+	boolean slotted;	//whether the pages are in the SlottedPageFormat
 	
     /**
-     * Constructs a heap file backed by the specified file.
+     * Constructs a heap file backed by the specified file. Its pages are
+     * compressed if the file already stores them compressed.
      * 
      * @param f
      *            the file that stores the on-disk backing store for this heap
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * stored compressed if compress is true. The pages of a file that already
+     * stores them uncompressed are compressed first.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param compress
+     *            whether to store the pages compressed; a file that already
+     *            stores them compressed keeps doing so either way
+     */
+    public HeapFile(File f, TupleDesc td, boolean compress) {
+        this(f, td, compress, null);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * stored compressed if compress is true, and whose fields flagged in
+     * encoded are dictionary encoded. Fields can only be chosen to be
+     * encoded while the file is empty; a file that already has a dictionary
+     * keeps its encoded fields.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param compress
+     *            whether to store the pages compressed; a file that already
+     *            stores them compressed keeps doing so either way
+     * @param encoded
+     *            for each field, whether to encode it, or null to encode
+     *            none
+     * @throws IllegalArgumentException
+     *             if a field to encode is not a STRING_TYPE field, or the
+     *             file already stores tuples without a dictionary
+     */
+    public HeapFile(File f, TupleDesc td, boolean compress, boolean[] encoded) {
+        this(f, td, compress, encoded, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * stored compressed if compress is true, whose fields flagged in encoded
+     * are dictionary encoded, and whose tuples are stored on slotted pages if
+     * slotted is true. The layout can only be chosen while the file is empty;
+     * a file that already has pages keeps its layout.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param compress
+     *            whether to store the pages compressed; a file that already
+     *            stores them compressed keeps doing so either way
+     * @param encoded
+     *            for each field, whether to encode it, or null to encode
+     *            none
+     * @param slotted
+     *            whether to store the tuples as variable-length records in
+     *            the {@link SlottedPageFormat}; ignored unless a field is
+     *            stored as a STRING_TYPE field
+     * @throws IllegalArgumentException
+     *             if a field to encode is not a STRING_TYPE field, or the
+     *             file already stores tuples without a dictionary
+     */
+    public HeapFile(File f, TupleDesc td, boolean compress, boolean[] encoded,
+            boolean slotted) {
         this.td = td;
         this.file = f;
+        if (encoded != null || StringDictionary.exists(f)) {
+            try {
+                this.dictionary = new StringDictionary(f, td, encoded);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (compress || CompressedPageFile.isCompressed(f)) {
+            try {
+                if (!CompressedPageFile.isCompressed(f) && f.length() > 0)
+                    CompressedPageFile.convert(f, BufferPool.getPageSize(),
+                            BufferPool.getPageSize());
+                this.compressed = new CompressedPageFile(f);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        try {
+            this.slotted = SlottedPageFormat.open(f, dictionary == null ? td
+                    : dictionary.getStoredTupleDesc(), slotted);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -40,6 +152,41 @@ public class HeapFile implements DbFile {
         return file;
     }
 
+    /**
+     * Returns the compressed pages of this HeapFile, or null if they are not
+     * compressed.
+     */
+    public CompressedPageFile getCompressedPages() {
+        return compressed;
+    }
+
+    /**
+     * Returns the dictionary of the encoded fields of this HeapFile, or null
+     * if none are.
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns true if the tuples of this HeapFile are stored on pages in the
+     * {@link SlottedPageFormat}.
+     */
+    public boolean isSlotted() {
+        return slotted;
+    }
+
+    /**
+     * Builds an evaluator for the conjunction of predicates over the tuples of
+     * this file to push down to its pages, with {@link CompiledPredicate#compile}
+     * or, if it has encoded fields, {@link StringDictionary#compile}.
+     */
+    public CompiledPredicate compile(List<Predicate> preds) {
+        if (dictionary == null)
+            return CompiledPredicate.compile(preds);
+        return dictionary.compile(preds);
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -66,7 +213,7 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
     	//First, we import the buffer pool to get the pages' information
     	Database.getBufferPool();
-    	int totalPages = ((int) file.length()) / BufferPool.getPageSize();
+    	int totalPages = numPages();
     	byte[] page = new byte[BufferPool.getPageSize()];
     	
     	
@@ -75,6 +222,18 @@ public class HeapFile implements DbFile {
     		throw new IllegalArgumentException("table number too high");
     	}
     	
+    	//Compressed pages are decompressed as they are read
+    	if (compressed != null) {
+    		try {
+    			HeapPage hp = new HeapPage((HeapPageId) pid,
+    					compressed.read(pid.pageNumber(), BufferPool.getPageSize()));
+    			getZoneMap().pageRead(hp);
+    			return hp;
+    		} catch (IOException e) {
+    			throw new IllegalArgumentException(e.getMessage());
+    		}
+    	}
+    	
     	//Try to read the page from the file with fileinputstream and return it in a HeapPage
     	// If the file is not found or page number is out of bounds, throw exception
     	try {
@@ -82,7 +241,9 @@ public class HeapFile implements DbFile {
     		fis.skip(pid.pageNumber() * BufferPool.getPageSize());
 			fis.read(page);
 			fis.close();
-			return new HeapPage((HeapPageId) pid, page);
+			HeapPage hp = new HeapPage((HeapPageId) pid, page);
+			getZoneMap().pageRead(hp);
+			return hp;
 		} catch (FileNotFoundException e) {
 			throw new IllegalArgumentException("file not found");
 		} catch (IOException i) {
@@ -93,31 +254,108 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+    	writePageData(page.getId().pageNumber(), page.getPageData());
+    	getZoneMap().pageWritten((HeapPage) page);
+    }
+
+    //Write the bytes of a page to the file, compressed if its pages are
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+    	if (compressed != null) {
+    		compressed.write(pgNo, data);
+    		return;
+    	}
+    	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    	try {
+    		raf.seek((long) pgNo * BufferPool.getPageSize());
+    		raf.write(data);
+    	} finally {
+    		raf.close();
+    	}
+    }
+
+    /**
+     * Returns the zone map of this file, loading it from its sidecar the
+     * first time it is needed. The sidecar is read outside the lock on this
+     * file, and the first zone map loaded is the one published.
+     */
+    public ZoneMap getZoneMap() {
+    	ZoneMap zm = zoneMap;
+    	if (zm == null) {
+    		zm = ZoneMap.open(this);
+    		synchronized (this) {
+    			if (zoneMap == null)
+    				zoneMap = zm;
+    			zm = zoneMap;
+    		}
+    	}
+    	return zm;
+    }
+
+    /**
+     * Writes the changes to the zone map of this file, if it is loaded, to
+     * its sidecar.
+     * 
+     * @see ZoneMap#flush
+     */
+    public void flushZoneMap() {
+    	ZoneMap zm = zoneMap;
+    	if (zm != null)
+    		zm.flush();
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
+        if (compressed != null)
+            return compressed.numPages();
         return ((int) file.length()) / BufferPool.getPageSize();
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+    	ZoneMap zm = getZoneMap();
+    	ArrayList<Page> dirtied = new ArrayList<Page>();
+    	//Find the first page with an empty slot
+    	for (int i = 0; i < numPages(); i++) {
+    		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+    				new HeapPageId(getId(), i), Permissions.READ_WRITE);
+    		if (page.getNumEmptySlots() > 0) {
+    			page.insertTuple(t);
+    			zm.tupleInserted(i, page.getStoredTupleInSlot(t.getRecordId().tupleno()));
+    			dirtied.add(page);
+    			return dirtied;
+    		}
+    	}
+    	//All pages are full: append an empty page to the file and insert there
+    	int pgNo;
+    	synchronized (this) {
+    		pgNo = numPages();
+    		writePageData(pgNo, HeapPage.createEmptyPageData());
+    	}
+    	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+    			new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+    	page.insertTuple(t);
+    	zm.tupleInserted(pgNo, page.getStoredTupleInSlot(t.getRecordId().tupleno()));
+    	dirtied.add(page);
+    	return dirtied;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+    	RecordId rid = t.getRecordId();
+    	if (rid == null || rid.getPageId().getTableId() != getId())
+    		throw new DbException("tuple is not a member of this file");
+    	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+    			rid.getPageId(), Permissions.READ_WRITE);
+    	page.deleteTuple(t);
+    	//Deleting may shrink the page's ranges
+    	getZoneMap().pageChanged(page);
+    	ArrayList<Page> dirtied = new ArrayList<Page>();
+    	dirtied.add(page);
+    	return dirtied;
     }
     
     public class HeapFileIterator implements DbFileIterator {
@@ -125,32 +363,70 @@ public class HeapFile implements DbFile {
     	TransactionId tid;
     	HeapFile hf;
     	int p;
+    	int startPage;
+    	int endPage;
     	boolean open = false;
     	int tableId;
+    	CompiledPredicate pred;
+    	int skipped;	//pages the zone map ruled out since open or rewind
     	Iterator<Tuple> tupleIterator;
     	
     	//Constructor
     	public HeapFileIterator(TransactionId tid, HeapFile hf) {
+    		this(tid, hf, 0, -1);
+    	}
+    	
+    	//Constructor for iterating over pages startPage (inclusive) to endPage (exclusive);
+    	//an endPage of -1 means up to the last page of the file
+    	public HeapFileIterator(TransactionId tid, HeapFile hf, int startPage, int endPage) {
+    		this(tid, hf, startPage, endPage, null);
+    	}
+    	
+    	//Constructor for iterating over only the tuples that satisfy pred, which is
+    	//evaluated on the bytes of each page; a null pred means all tuples
+    	public HeapFileIterator(TransactionId tid, HeapFile hf, int startPage, int endPage,
+    			CompiledPredicate pred) {
     		this.tid = tid;
     		this.hf = hf;
     		this.tableId = hf.getId();
-    		p = 0;
+    		this.startPage = startPage;
+    		this.endPage = endPage;
+    		this.pred = pred;
+    		p = startPage;
     	}
     	
 		@Override
 	    public void open() throws DbException,
         TransactionAbortedException {
 			open = true;
+			p = startPage;
+			skipped = 0;
 			tupleIterator = loadPageTuples();
 		}
 
+		//the page after the last page of this iterator's range
+		private int lastPage() {
+			int n = hf.numPages();
+			return (endPage < 0 || endPage > n) ? n : endPage;
+		}
+
 		//this method will be called each time we need to call a new page
 		//It loads a new heap page and returns its iterator so that we can iterate through its tuples.
 		private Iterator<Tuple> loadPageTuples() throws DbException,
 		                            TransactionAbortedException{
+			//skip the pages the zone map proves hold no qualifying tuples
+			if (pred != null) {
+				ZoneMap zm = hf.getZoneMap();
+				while (p < lastPage() && !zm.mayMatch(p, pred)) {
+					p++;
+					skipped++;
+				}
+			}
+			if (p >= lastPage())
+				return Collections.<Tuple>emptyList().iterator();
 			HeapPageId pid = new HeapPageId(tableId, p);
 			HeapPage p = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-			return p.iterator();
+			return p.iterator(pred);
 		}
 		
 	    public boolean hasNext() throws DbException,
@@ -159,23 +435,14 @@ public class HeapFile implements DbFile {
 	    	if (open == false) 
 	    		return false;
 	    	
-	    	//If the page has more tuples, return true
-	    	else if (tupleIterator.hasNext()) {
-	    		return true;
-	    	} 
-	    	
-	    	//Otherwise, go to the next page, and read in new tuples
-	    	else {
+	    	//Otherwise, skip ahead through the pages until one has more tuples
+	    	while (!tupleIterator.hasNext()) {
 	    		p++;
-	    		if (p < hf.numPages()) {
-	    			tupleIterator = loadPageTuples();
-	    			return tupleIterator.hasNext();
-	    		} 
-	    		else{
+	    		if (p >= lastPage())
 	    			return false;
-	    		}
-	    			
+	    		tupleIterator = loadPageTuples();
 	    	}
+	    	return true;
 	    }
 
 		@Override
@@ -189,7 +456,8 @@ public class HeapFile implements DbFile {
 		@Override
 		public void rewind() throws DbException, TransactionAbortedException {
 			// reset iterator variables and load first page
-			p = 0;
+			p = startPage;
+			skipped = 0;
 			tupleIterator = loadPageTuples();
 		}
 
@@ -197,6 +465,12 @@ public class HeapFile implements DbFile {
 		public void close() {
 			open = false;
 		}
+
+		//Returns the number of pages skipped using the zone map since the
+		//iterator was opened or rewound
+		public int getSkippedPages() {
+			return skipped;
+		}
     	
     }
     // see DbFile.java for javadocs
@@ -204,5 +478,39 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, this);
     }
 
+    /**
+     * Returns an iterator over the tuples stored on a contiguous range of
+     * pages of this file. Iterators over disjoint ranges can be used to scan
+     * the file from several threads at once.
+     * 
+     * @param startPage
+     *            the first page to read
+     * @param endPage
+     *            the page after the last page to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileIterator(tid, this, startPage, endPage);
+    }
+
+    /**
+     * Returns an iterator over the tuples on a contiguous range of pages of
+     * this file that satisfy a predicate. The predicate is evaluated on the
+     * bytes of each page, so tuples that do not satisfy it are never
+     * materialized.
+     * 
+     * @param startPage
+     *            the first page to read
+     * @param endPage
+     *            the page after the last page to read, or -1 for the last
+     *            page of the file
+     * @param pred
+     *            the predicate pushed down to the pages, as built by
+     *            {@link #compile}
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage,
+            int endPage, CompiledPredicate pred) {
+        return new HeapFileIterator(tid, this, startPage, endPage, pred);
+    }
+
 }
 
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -90,6 +92,28 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, false);
+  }
+
+   /** Convert the specified input text file into a binary page file, as
+    * {@link #convert(File, File, int, int, Type[], char)} does, with its
+    * pages in the SlottedPageFormat if slotted is true and any field is a
+    * string. Slotted pages hold as many records as fit, and the output file
+    * is given the format marker that tells HeapFile they are slotted.
+    *
+    * @see SlottedPageFormat
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean slotted)
+      throws IOException {
+
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      slotted = slotted && SlottedPageFormat.appliesTo(td);
+      SlottedPageFormat.setSlotted(outFile, slotted);
+      if (slotted) {
+          convertSlotted(inFile, outFile, npagebytes, td, fieldSeparator);
+          return;
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -223,4 +247,68 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert an input text file, with fields of schema td separated by
+   * fieldSeparator, into pages of variable-length records.
+   *
+   * @see SlottedPageFormat
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 TupleDesc td, char fieldSeparator) throws IOException {
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+    int maxSlots = SlottedPageFormat.getMaxSlots(td, npagebytes);
+    byte[][] records = new byte[maxSlots][];
+    int count = 0;
+    int recordBytes = 0;
+    int npages = 0;
+
+    String line;
+    while (true) {
+        line = br.readLine();
+        byte[] record = null;
+        if (line != null) {
+            if (line.trim().length() == 0)
+                continue;
+            String[] fields = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++) {
+                String s = i < fields.length ? fields[i].trim() : "";
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    try {
+                        t.setField(i, new IntField(Integer.parseInt(s)));
+                    } catch (NumberFormatException e) {
+                        System.out.println ("BAD LINE : " + line);
+                        t.setField(i, new IntField(0));
+                    }
+                } else {
+                    t.setField(i, new StringField(s, Type.STRING_LEN));
+                }
+            }
+            record = SlottedPageFormat.toRecord(t);
+        }
+
+        // write out the page once the next record does not fit on it, or
+        // when we're done, if it has records on it or the file is empty
+        boolean full = record != null && (count == maxSlots
+                || SlottedPageFormat.usedBytes(count + 1, recordBytes + record.length) > npagebytes);
+        if (full || line == null && (count > 0 || npages == 0)) {
+            ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
+            DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+            SlottedPageFormat.writeArea(pageStream, records, count, npagebytes);
+            pageStream.flush();
+            pageBAOS.writeTo(os);
+            Arrays.fill(records, null);
+            count = 0;
+            recordBytes = 0;
+            npages++;
+        }
+        if (line == null)
+            break;
+        records[count++] = record;
+        recordBytes += record.length;
+    }
+    br.close();
+    os.close();
+  }
 }
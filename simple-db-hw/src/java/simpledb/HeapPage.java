@@ -17,11 +17,36 @@ import java.io.*;
 public class HeapPage implements Page {
 
     final HeapPageId pid;
+    // the TupleDesc of the tuples as stored, which is the table's unless
+    // some of its fields are dictionary encoded
     final TupleDesc td;
+    // the TupleDesc of the table, and its dictionary, or null if none of its
+    // fields are encoded
+    final TupleDesc tupleDesc;
+    final StringDictionary dictionary;
     final byte header[];
     final Tuple tuples[];
+    // the tuple in each slot with its encoded fields decoded, once it has
+    // been read; null if no field is encoded
+    final Tuple decodedTuples[];
     final int numSlots;
 
+    // whether the tuples are variable-length records in a SlottedPageFormat
+    final boolean slotted;
+
+    // the bytes this page was read from; a used slot whose tuple has not been
+    // materialized yet is decoded from here on demand
+    final byte[] data;
+    // offset of each field within a serialized tuple, if not slotted
+    final int[] fieldOffsets;
+    // offset in data of the record in each slot, if slotted
+    final int[] recordOffsets;
+    // the bytes the slot directory and records take, if slotted, or -1 if not known
+    private int usedBytes = -1;
+
+    TransactionId dirtier;		//transaction that last dirtied the page, if dirty
+    boolean dirty = false;
+
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -37,30 +62,49 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tuples are decoded lazily, the first time they are read, so that a scan
+     * with predicates pushed down to the page only materializes the tuples
+     * that qualify.
+     * <p>
+     * The tuples of a {@link HeapFile} created slotted are stored as
+     * variable-length records instead, in the {@link SlottedPageFormat}, so
+     * that short strings do not take the room of the longest; such a page
+     * has a slot directory rather than a header.
+     * <p>
+     * The dictionary-encoded fields of a table, if it has a
+     * {@link StringDictionary}, are stored as the INT_TYPE codes of their
+     * values; the tuples read from the page have their values.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tupleDesc = Database.getCatalog().getTupleDesc(id.getTableId());
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.dictionary = file instanceof HeapFile ? ((HeapFile) file).getDictionary() : null;
+        this.td = dictionary == null ? tupleDesc : dictionary.getStoredTupleDesc();
+        this.slotted = file instanceof HeapFile && ((HeapFile) file).isSlotted();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.data = data;
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+
+        // read the header slots of this page; the records are read lazily
+        if (slotted) {
+            recordOffsets = SlottedPageFormat.readDirectory(data, 0, numSlots);
+            header = new byte[getHeaderSize()];
+            for (int i=0; i<numSlots; i++)
+                if (recordOffsets[i] != 0)
+                    markSlotUsed(i, true);
+        } else {
+            recordOffsets = null;
+            header = Arrays.copyOf(data, getHeaderSize());
         }
-        dis.close();
+        tuples = new Tuple[numSlots];
+        decodedTuples = dictionary == null ? null : new Tuple[numSlots];
 
         setBeforeImage();
     }
@@ -69,6 +113,8 @@ public class HeapPage implements Page {
         @return the number of tuples on this page
     */
     private int getNumTuples() {  
+        if (slotted)
+            return SlottedPageFormat.getMaxSlots(td, BufferPool.getPageSize());
     	// return the size of a page divide by the size of an entry, floored
         return BufferPool.getPageSize()*8 /  (td.getSize() * 8 + 1);
     }
@@ -115,22 +161,93 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in the page data of the tuple in slot slotId
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    private int slotOffset(int slotId) {
+        if (slotted)
+            return recordOffsets[slotId];
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * @return the offset of each field within the serialized tuple in slot
+     *         slotId, which for a slotted page is computed into scratch
+     */
+    private int[] fieldOffsets(int slotId, int[] scratch) {
+        if (!slotted)
+            return fieldOffsets;
+        SlottedPageFormat.fieldOffsets(data, recordOffsets[slotId], td, scratch);
+        return scratch;
+    }
+
+    /**
+     * Returns the tuple in a used slot, decoding it from the page data the
+     * first time it is asked for.
+     */
+    private Tuple getTuple(int slotId) throws NoSuchElementException {
+        Tuple t = tuples[slotId];
+        if (t == null && slotted) {
+            t = SlottedPageFormat.readRecord(data, recordOffsets[slotId], td);
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        } else if (t == null) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                    data, slotOffset(slotId), td.getSize()));
+            t = readNextTuple(dis, slotId);
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * @return the tuple in slot slotId, or null if the slot is empty
+     */
+    Tuple getTupleInSlot(int slotId) {
+        Tuple t = getStoredTupleInSlot(slotId);
+        return t == null ? null : decoded(slotId, t);
+    }
+
+    /**
+     * @return the tuple in slot slotId as stored, with the codes of its
+     *         dictionary-encoded fields, or null if the slot is empty
+     */
+    Tuple getStoredTupleInSlot(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId))
             return null;
+        return getTuple(slotId);
+    }
+
+    /**
+     * @return the stored tuple t in slot slotId with its encoded fields
+     *         decoded, which is decoded the first time it is read and kept
+     *         until the slot changes
+     */
+    private Tuple decoded(int slotId, Tuple t) {
+        if (dictionary == null)
+            return t;
+        Tuple d = decodedTuples[slotId];
+        if (d == null) {
+            d = dictionary.decode(t, tupleDesc);
+            decodedTuples[slotId] = d;
         }
+        return d;
+    }
 
+    /**
+     * @return true if the tuple in used slot slotId satisfies pred, evaluated
+     *         on the page data unless the tuple is already materialized
+     */
+    private boolean slotMatches(int slotId, CompiledPredicate pred, int[] scratch) {
+        Tuple t = tuples[slotId];
+        if (t != null)
+            return pred.eval(t);
+        return pred.eval(data, slotOffset(slotId), fieldOffsets(slotId, scratch));
+    }
+
+    /**
+     * Suck up a tuple from the source file.
+     */
+    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
@@ -164,6 +281,31 @@ public class HeapPage implements Page {
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
+        if (slotted) {
+            // copy the records of the slots that were never decoded
+            byte[][] records = new byte[numSlots][];
+            int count = 0;
+            for (int i=0; i<numSlots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                if (tuples[i] != null) {
+                    records[i] = SlottedPageFormat.toRecord(tuples[i]);
+                } else {
+                    int off = recordOffsets[i];
+                    records[i] = Arrays.copyOfRange(data, off,
+                            off + SlottedPageFormat.recordSize(data, off, td));
+                }
+                count = i + 1;
+            }
+            try {
+                SlottedPageFormat.writeArea(dos, records, count, len);
+                dos.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return baos.toByteArray();
+        }
+
         // create the header of the page
         for (int i=0; i<header.length; i++) {
             try {
@@ -190,7 +332,15 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot that was never decoded: copy its bytes
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
@@ -242,20 +392,74 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("tuple slot is already empty");
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+        if (decodedTuples != null)
+            decodedTuples[slot] = null;
+        usedBytes = -1;
+        t.setRecordId(null);
     }
 
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
      *  that it is now stored on this page.
-     * @throws DbException if the page is full (no empty slots) or tupledesc
-     *         is mismatch.
+     * @throws DbException if the page is full (no empty slots, or for a
+     *         slotted page, no room for its record) or tupledesc is mismatch.
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        if (!tupleDesc.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatched");
+        Tuple stored = t;
+        if (dictionary != null) {
+            try {
+                stored = dictionary.encode(t);
+            } catch (IOException e) {
+                throw new DbException("could not add to the dictionary: " + e.getMessage());
+            }
+        }
+        if (slotted && getUsedBytes() + SlottedPageFormat.SLOT_SIZE
+                + SlottedPageFormat.recordSize(stored) > BufferPool.getPageSize())
+            throw new DbException("page is full");
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                markSlotUsed(i, true);
+                tuples[i] = stored;
+                if (decodedTuples != null)
+                    decodedTuples[i] = null;
+                usedBytes = -1;
+                stored.setRecordId(new RecordId(pid, i));
+                t.setRecordId(stored.getRecordId());
+                return;
+            }
+        }
+        throw new DbException("page is full");
+    }
+
+    /**
+     * @return the bytes the slot directory and records of this slotted page
+     *         take
+     */
+    private int getUsedBytes() {
+        if (usedBytes < 0) {
+            int count = 0;
+            int recordBytes = 0;
+            for (int i=0; i<numSlots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                recordBytes += tuples[i] != null ? SlottedPageFormat.recordSize(tuples[i])
+                        : SlottedPageFormat.recordSize(data, recordOffsets[i], td);
+                count = i + 1;
+            }
+            usedBytes = SlottedPageFormat.usedBytes(count, recordBytes);
+        }
+        return usedBytes;
     }
 
     /**
@@ -263,29 +467,70 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        // some code goes here
-	// not necessary for lab1
+        this.dirty = dirty;
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
     public TransactionId isDirty() {
-        // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return dirty ? dirtier : null;
+    }
+
+    /**
+     * Computes the range of each INT_TYPE field over the tuples on this page,
+     * reading the fields of tuples that have not been materialized from the
+     * page data. Fields of other types get an unbounded range, and an empty
+     * page gets an empty range (min &gt; max) for every INT_TYPE field.
+     *
+     * @param min
+     *            receives the minimum of each field
+     * @param max
+     *            receives the maximum of each field
+     * @see ZoneMap
+     */
+    void intRanges(int[] min, int[] max) {
+        for (int j=0; j<td.numFields(); j++) {
+            boolean isInt = td.getFieldType(j) == Type.INT_TYPE;
+            min[j] = isInt ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+            max[j] = isInt ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        }
+        int[] scratch = new int[td.numFields()];
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            int[] offsets = tuples[i] == null ? fieldOffsets(i, scratch) : null;
+            for (int j=0; j<td.numFields(); j++) {
+                if (td.getFieldType(j) != Type.INT_TYPE)
+                    continue;
+                int v = tuples[i] != null
+                        ? ((IntField) tuples[i].getField(j)).getValue()
+                        : CompiledPredicate.intValue(data, slotOffset(i) + offsets[j]);
+                if (v < min[j])
+                    min[j] = v;
+                if (v > max[j])
+                    max[j] = v;
+            }
+        }
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. For a slotted page,
+     * that is the number of tuples it certainly has room for, each with the
+     * largest record possible.
      */
     public int getNumEmptySlots() {
-    	int sum = 0;
+    	int used = 0;
     	for (byte b : header) {
-    		// for each byte, get the number of 0 bits
-    		sum +=  8 - Integer.bitCount(b & 0xff);
+    		// for each byte, get the number of 1 bits
+    		used += Integer.bitCount(b & 0xff);
     	}
-    	return sum;
+    	if (slotted)
+    	    return Math.min(numSlots - used, (BufferPool.getPageSize() - getUsedBytes())
+    	            / (SlottedPageFormat.SLOT_SIZE + SlottedPageFormat.maxRecordSize(td)));
+    	// the padding bits at the end of the last header byte are not slots
+    	return numSlots - used;
     }
 
     /**
@@ -314,8 +559,11 @@ public class HeapPage implements Page {
         // the i bit in the header[head_byte] byte
         int header_bit = i % 8;
   
-    	// xor flips the bit- if was in use now empty, and visa versa
-        header[header_byte] = (byte) ((header[header_byte] ^ 1 << header_bit) & 0xff);
+    	// set the bit if the slot is now in use, clear it if it is now empty
+        if (value)
+            header[header_byte] = (byte) (header[header_byte] | (1 << header_bit));
+        else
+            header[header_byte] = (byte) (header[header_byte] & ~(1 << header_bit));
 	
     }
 
@@ -324,12 +572,27 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * @param pred
+     *            a predicate pushed down to the page, or null for all tuples;
+     *            for a table with encoded fields, as built by
+     *            {@link StringDictionary#compile}
+     * @return an iterator over the tuples on this page that satisfy pred.
+     *         pred is evaluated on the page data, so tuples that do not
+     *         satisfy it are never materialized.
+     */
+    public Iterator<Tuple> iterator(final CompiledPredicate pred) {
 		  Iterator<Tuple> it = new Iterator<Tuple>() {
 			  int i = 0;
+			  final int[] scratch = new int[td.numFields()];
 		        
 			  public boolean hasNext(){
-				  // if the slot isn't used, skip it
-				  while (i < tuples.length && !isSlotUsed(i)) {
+				  // if the slot isn't used or doesn't qualify, skip it
+				  while (i < tuples.length && (!isSlotUsed(i)
+						  || (pred != null && !slotMatches(i, pred, scratch)))) {
 					  i++;
 				  }
 				  // if there were no more usable tuples false, else true
@@ -337,7 +600,14 @@ public class HeapPage implements Page {
 			  }
 			  
 			  public Tuple next(){
-				  return tuples[i++];
+				  if (!hasNext())
+					  throw new NoSuchElementException();
+				  int slot = i++;
+				  return decoded(slot, getTuple(slot));
+			  }
+
+			  public void remove() {
+				  throw new UnsupportedOperationException();
 			  }
 		  };
 		  
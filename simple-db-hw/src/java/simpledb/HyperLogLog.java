@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values in a
+ * column in constant space. Each value is hashed; the sketch keeps, for each
+ * of 2^p registers selected by the first p bits of the hash, the longest run
+ * of leading zeros seen in the remaining bits. The standard error of the
+ * estimate is about 1.04 / sqrt(2^p).
+ * <p>
+ * Sketches with the same precision can be merged, giving the sketch of the
+ * union of their values.
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default precision: 4096 registers, about 1.6% standard error */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int p;
+    private final byte[] registers;
+    // the last estimate, until a register changes
+    private transient Long estimate;
+
+    /**
+     * Create an empty sketch with DEFAULT_PRECISION.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param precision
+     *            the number of bits of the hash used to select a register,
+     *            between 4 and 16
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16)
+            throw new IllegalArgumentException("precision must be between 4 and 16");
+        this.p = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /** Add an int value to the sketch */
+    public void offer(int v) {
+        offerHash(mix(v));
+    }
+
+    /** Add a string value to the sketch */
+    public void offer(String s) {
+        offerHash(mix(s.hashCode() * 0x9E3779B97F4A7C15L + s.length()));
+    }
+
+    /** Add the value of a field to the sketch */
+    public void offer(Field f) {
+        if (f instanceof IntField)
+            offer(((IntField) f).getValue());
+        else
+            offer(((StringField) f).getValue());
+    }
+
+    private void offerHash(long h) {
+        int idx = (int) (h >>> (64 - p));
+        // the remaining bits, with a sentinel so the run length is bounded
+        long rest = (h << p) | (1L << (p - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[idx]) {
+            registers[idx] = rank;
+            estimate = null;
+        }
+    }
+
+    /** The 64 bit finalizer of MurmurHash3 */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb93fe53d8a27L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * @return the estimated number of distinct values added to the sketch
+     */
+    public long estimate() {
+        if (estimate != null)
+            return estimate;
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        // small cardinalities: linear counting is more accurate
+        if (e <= 2.5 * m && zeros > 0)
+            e = m * Math.log((double) m / zeros);
+        estimate = Math.round(e);
+        return estimate;
+    }
+
+    /**
+     * Merge another sketch into this one, so that this sketch describes the
+     * union of the values of both.
+     *
+     * @throws IllegalArgumentException
+     *             if the sketches have different precisions
+     */
+    public void merge(HyperLogLog other) {
+        if (other.p != p)
+            throw new IllegalArgumentException("cannot merge sketches of different precision");
+        for (int i = 0; i < registers.length; i++)
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        estimate = null;
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin computes a join whose inner input is a scan of a
+ * {@link BTreeFile} on its key field: instead of scanning the inner input
+ * once per outer tuple, it looks the outer tuple's join value up in the B+
+ * tree, and reads only the inner tuples that satisfy the join predicate. The
+ * joined tuples are returned in the order of the outer input.
+ */
+public class IndexNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BTreeFile file;
+    private final TransactionId tid;
+    private final Predicate.Op indexOp;
+    private transient Tuple t1;
+    private transient DbFileIterator probe;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; must not be
+     *            LIKE or NOT_EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The scan of the right(inner) relation, which must be stored
+     *            in a BTreeFile whose key field is the join field
+     * @throws IllegalArgumentException
+     *             if the B+ tree cannot be searched for the join predicate
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, SeqScan child2) {
+        super(p, child1, child2);
+        if (!canProbe(p.getOperator(), child2, p.getField2()))
+            throw new IllegalArgumentException("cannot look up " + p + " in "
+                    + child2.getTableName());
+        this.file = (BTreeFile) child2.file;
+        this.tid = child2.tid;
+        this.indexOp = reverse(p.getOperator());
+    }
+
+    /**
+     * @return true if an IndexNestedLoopJoin can look up the tuples of a scan
+     *         whose field satisfy a join predicate with operator op
+     */
+    static boolean canProbe(Predicate.Op op, SeqScan scan, int field) {
+        return scan.file instanceof BTreeFile
+                && ((BTreeFile) scan.file).keyField() == field
+                && scan.getPredicates().isEmpty()
+                && op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    // the operator of t2 op' t1, given t1 op t2
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public String getJoinMethod() {
+        return "index nested loop";
+    }
+
+    public void close() {
+        if (probe != null)
+            probe.close();
+        probe = null;
+        t1 = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (probe != null)
+            probe.close();
+        probe = null;
+        t1 = null;
+        getOuter().rewind();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        DbIterator outer = getOuter();
+        while (true) {
+            if (probe != null && probe.hasNext())
+                return merge(t1, probe.next());
+            if (probe != null)
+                probe.close();
+            probe = null;
+            if (!outer.hasNext())
+                return null;
+            t1 = outer.next();
+            probe = file.indexIterator(tid, new IndexPredicate(indexOp,
+                    t1.getField(getJoinPredicate().getField1())));
+            probe.open();
+        }
+    }
+}
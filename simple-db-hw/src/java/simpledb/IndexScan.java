@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an operator which reads the tuples of a table whose key
+ * matches a predicate through a {@link SecondaryIndex} on the table, in key
+ * order. An index-only scan returns just the key and included fields of the
+ * index, read from the index entries, and never reads the table.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SecondaryIndex index;
+    private final IndexPredicate ipred;
+    private final boolean indexOnly;
+    private final String alias;
+    private final TupleDesc td;
+    private transient DbFileIterator it;
+    private boolean isOpen = false;
+
+    /**
+     * Creates a scan of a table through one of its indexes.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            The index to read
+     * @param tableAlias
+     *            the alias of the table (needed by the parser); the returned
+     *            tupleDesc has fields with name tableAlias.fieldName
+     * @param ipred
+     *            The predicate the keys of the returned tuples match; if
+     *            null, all tuples are returned in key order
+     * @param indexOnly
+     *            Whether to return only the key and included fields, without
+     *            reading the table
+     */
+    public IndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+            IndexPredicate ipred, boolean indexOnly) {
+        this.index = index;
+        this.ipred = ipred;
+        this.indexOnly = indexOnly;
+        this.alias = tableAlias;
+        this.it = index.iterator(tid, ipred, indexOnly);
+        TupleDesc base = indexOnly ? index.getCoveredTupleDesc() : Database
+                .getCatalog().getTupleDesc(index.getTableId());
+        Type[] types = new Type[base.numFields()];
+        String[] names = new String[base.numFields()];
+        for (int i = 0; i < base.numFields(); i++) {
+            types[i] = base.getFieldType(i);
+            names[i] = tableAlias + "." + base.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the name of the table the operator scans, as it is in the
+     *         catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return alias;
+    }
+
+    /** @return the index the operator reads */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the index predicate the scanned tuples match, or null if the
+     *         scan returns all tuples
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /** @return whether the scan reads only the index, not the table */
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+    /**
+     * @return the field of the returned tuples that the index is keyed on,
+     *         and whose order they come out in
+     */
+    public int getKeyField() {
+        return indexOnly ? 0 : index.getKeyField();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one DbIterator.");
+        it.open();
+        isOpen = true;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, or of the key and included fields
+     * of the index for an index-only scan, with field names prefixed with
+     * the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
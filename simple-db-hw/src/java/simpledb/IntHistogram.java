@@ -1,8 +1,12 @@
 package simpledb;
 import static java.lang.Math.*;
+
+import java.io.Serializable;
 /** A class to represent a fixed-width histogram over a single integer-based field.
  */
-public class IntHistogram {
+public class IntHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
 	private int[] _buckets;
     private int _numBuckets;
@@ -47,13 +51,46 @@ public class IntHistogram {
      */
     public void addValue(int v) {
     	//Find the position of the bucket to increment
-    	int bucketPos = (v - _min)/_average;
+    	int bucketPos = clampedBucket(v);
     	
     	//And increment it, and add to the total value.
         _buckets[bucketPos]++;
         _totalValue++;
     }
 
+    /**
+     * Remove a value that was added to the histogram, e.g. when the tuple
+     * holding it is deleted.
+     * @param v Value to remove from the histogram
+     */
+    public void removeValue(int v) {
+    	int bucketPos = clampedBucket(v);
+    	if (_buckets[bucketPos] > 0) {
+    		_buckets[bucketPos]--;
+    		_totalValue--;
+    	}
+    }
+
+    /**
+     * Add the values of another histogram with the same buckets, min and max
+     * to this one, e.g. to combine histograms built over parts of a table.
+     * @param other The histogram to merge into this one
+     */
+    public void merge(IntHistogram other) {
+    	if (other._numBuckets != _numBuckets || other._min != _min || other._max != _max)
+    		throw new IllegalArgumentException("cannot merge histograms with different buckets");
+    	for (int i = 0; i < _numBuckets; i++)
+    		_buckets[i] += other._buckets[i];
+    	_totalValue += other._totalValue;
+    }
+
+    //The bucket of v; values outside [min, max], which can be added when the
+    //histogram is maintained incrementally, go into the first or last bucket
+    private int clampedBucket(int v) {
+    	long bucketPos = ((long) v - _min)/_average;
+    	return (int) Math.max(0, Math.min(_numBuckets - 1, bucketPos));
+    }
+
     
     
     /**
@@ -14,7 +14,10 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     // a map of groupVal -> AggregateFields
-    private HashMap<String, AggregateFields> groups;
+    // a map of groupVal -> AggregateFields, keyed by the group-by Field
+    // itself (null if there is no grouping), so that dictionary-encoded
+    // strings are grouped by their codes
+    private HashMap<Field, AggregateFields> groups;
 
     /**
      * Aggregate constructor
@@ -36,7 +39,7 @@ public class IntegerAggregator implements Aggregator {
         this.gbfield = gbfield;
         this.afield = afield;
         this.gbfieldtype = gbfieldtype;
-        this.groups = new HashMap<String, AggregateFields>();
+        this.groups = new HashMap<Field, AggregateFields>();
     }
 
     /**
@@ -47,9 +50,9 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = "";
+        Field groupVal = null;
         if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
+            groupVal = tup.getField(gbfield);
         }
         AggregateFields agg = groups.get(groupVal);
         if (agg == null)
@@ -67,6 +70,28 @@ public class IntegerAggregator implements Aggregator {
         groups.put(groupVal, agg);
     }
 
+    /**
+     * Merge the groups of another IntegerAggregator into this one.
+     * 
+     * @param other
+     *            an IntegerAggregator with the same parameters as this one
+     */
+    public void merge(Aggregator other) {
+        for (AggregateFields o : ((IntegerAggregator) other).groups.values()) {
+            AggregateFields agg = groups.get(o.groupVal);
+            if (agg == null)
+                agg = new AggregateFields(o.groupVal);
+
+            agg.count += o.count;
+            agg.sum += o.sum;
+            agg.min = (o.min < agg.min ? o.min : agg.min);
+            agg.max = (o.max > agg.max ? o.max : agg.max);
+            agg.sumCount += o.sumCount;
+
+            groups.put(o.groupVal, agg);
+        }
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      * 
@@ -94,16 +119,12 @@ public class IntegerAggregator implements Aggregator {
         }
 
         // iterate over groups and create summary tuples
-        for (String groupVal : groups.keySet()) {
+        for (Field groupVal : groups.keySet()) {
             AggregateFields agg = groups.get(groupVal);
             Tuple tup = new Tuple(td);
 
-            if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE)
-                    tup.setField(0, new IntField(new Integer(groupVal)));
-                else
-                    tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
-            }
+            if (gbfield != NO_GROUPING)
+                tup.setField(0, groupVal);
             switch (what) {
             case MIN:
                 tup.setField(aggField, new IntField(agg.min));
@@ -141,10 +162,10 @@ public class IntegerAggregator implements Aggregator {
      * A helper struct to store accumulated aggregate values.
      */
     private class AggregateFields {
-        public String groupVal;
+        public Field groupVal;
         public int min, max, sum, count, sumCount;
 
-        public AggregateFields(String groupVal) {
+        public AggregateFields(Field groupVal) {
             this.groupVal = groupVal;
             min = Integer.MAX_VALUE;
             max = Integer.MIN_VALUE;
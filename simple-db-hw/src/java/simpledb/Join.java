@@ -3,7 +3,9 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, as a nested
+ * loops join: the inner input is scanned once per outer tuple. Subclasses
+ * compute the same join with other algorithms.
  */
 public class Join extends Operator {
 
@@ -35,6 +37,24 @@ public class Join extends Operator {
         return pred;
     }
 
+    /**
+     * @return the name of the algorithm this join is computed with, as shown
+     *         in query plans
+     */
+    public String getJoinMethod() {
+        return "nested loop";
+    }
+
+    /** @return the left (outer) input of the join */
+    protected DbIterator getOuter() {
+        return child1;
+    }
+
+    /** @return the right (inner) input of the join */
+    protected DbIterator getInner() {
+        return child2;
+    }
+
     /**
      * @return
      *       the field name of join field1. Should be quantified by
@@ -77,6 +97,7 @@ public class Join extends Operator {
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        t1 = null;
     }
 
     /**
@@ -114,16 +135,7 @@ public class Join extends Operator {
                 if (!pred.filter(t1, t2))
                     continue;
 
-                int td1n = t1.getTupleDesc().numFields();
-                int td2n = t2.getTupleDesc().numFields();
-
-                // set fields in combined tuple
-                Tuple t = new Tuple(comboTD);
-                for (int i = 0; i < td1n; i++)
-                    t.setField(i, t1.getField(i));
-                for (int i = 0; i < td2n; i++)
-                    t.setField(td1n + i, t2.getField(i));
-                return t;
+                return merge(t1, t2);
             }
 
             // child2 is done: advance child1
@@ -134,6 +146,23 @@ public class Join extends Operator {
         return null;
     }
 
+    /**
+     * @return a combined tuple holding the fields of t1 followed by those of
+     *         t2
+     */
+    protected Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child1, this.child2 };
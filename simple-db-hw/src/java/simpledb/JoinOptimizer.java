@@ -28,12 +28,10 @@ public class JoinOptimizer {
     }
 
     /**
-     * Return best iterator for computing a given logical join, given the
-     * specified statistics, and the provided left and right subplans. Note that
-     * there is insufficient information to determine which plan should be the
-     * inner/outer here -- because DbIterator's don't provide any cardinality
-     * estimates, and stats only has information about the base tables. For this
-     * reason, the plan1
+     * Return an iterator computing a given logical join as a nested loops
+     * {@link Join} of the provided left and right subplans. See
+     * {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator, Map, boolean)}
+     * for choosing a cheaper algorithm.
      * 
      * @param lj
      *            The join being considered
@@ -44,9 +42,14 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return new Join(joinPredicate(lj, plan1, plan2), plan1, plan2);
+    }
+
+    // the predicate of lj over the fields of plan1 and plan2
+    private static JoinPredicate joinPredicate(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
-        DbIterator j;
 
         try {
             t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
@@ -66,12 +69,317 @@ public class JoinOptimizer {
             }
         }
 
-        JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
+        return new JoinPredicate(t1id, lj.p, t2id);
+    }
+
+    /** The algorithms a join can be computed with */
+    public enum JoinMethod {
+        /** {@link Join}: scans the inner input once per outer tuple */
+        NESTED_LOOP,
+        /** {@link BlockNestedLoopJoin}: scans the inner input once per block of outer tuples */
+        BLOCK_NESTED_LOOP,
+        /** {@link IndexNestedLoopJoin}: looks each outer tuple up in a B+ tree on the inner input */
+        INDEX_NESTED_LOOP,
+        /** {@link SortMergeJoin}: sorts both inputs on their join fields, and merges them */
+        SORT_MERGE,
+        /** {@link HashEquiJoin}: hashes blocks of outer tuples, and probes them with the inner input */
+        HASH
+    }
+
+    /** Default number of tuples of a join input that may be held in memory */
+    public static final int DEFAULT_JOIN_MEMORY = HashEquiJoin.MAP_SIZE;
+    private static volatile int joinMemory = DEFAULT_JOIN_MEMORY;
+
+    /**
+     * Set the number of tuples of a join input that a join may hold in
+     * memory: the size of the blocks of a block nested loops or hash join,
+     * and the largest input a sort-merge join sorts.
+     */
+    public static void setJoinMemory(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("join memory must hold at least one tuple");
+        joinMemory = tuples;
+    }
+
+    /**
+     * @return the number of tuples of a join input that a join may hold in
+     *         memory
+     */
+    public static int getJoinMemory() {
+        return joinMemory;
+    }
+
+    /**
+     * Estimate the cost of computing a join with a given algorithm, in the
+     * units of {@link #estimateJoinCost}: the cost of reading the inputs,
+     * plus one per tuple compared, hashed, sorted or output. Inputs that
+     * are scanned more than once are computed again each time.
+     * 
+     * @param method
+     *            The algorithm
+     * @param op
+     *            The join predicate
+     * @param card1
+     *            Estimated cardinality of the left (outer) input
+     * @param cost1
+     *            Estimated cost of computing the left input once
+     * @param sorted1
+     *            Whether the left input is in the order of its join field
+     * @param card2
+     *            Estimated cardinality of the right (inner) input
+     * @param cost2
+     *            Estimated cost of computing the right input once
+     * @param sorted2
+     *            Whether the right input is in the order of its join field
+     * @param probe2
+     *            Estimated cost of looking up the right input's tuples by
+     *            join value in a B+ tree, or Double.POSITIVE_INFINITY if the
+     *            right input is not a scan of a B+ tree on its join field
+     * @param outCard
+     *            Estimated cardinality of the join
+     * @return The estimated cost, or Double.POSITIVE_INFINITY if the
+     *         algorithm cannot compute the join within
+     *         {@link #getJoinMemory()}
+     */
+    public static double estimateJoinCost(JoinMethod method, Predicate.Op op,
+            double card1, double cost1, boolean sorted1, double card2,
+            double cost2, boolean sorted2, double probe2, double outCard) {
+        double blocks = Math.max(1, Math.ceil(card1 / joinMemory));
+        switch (method) {
+        case NESTED_LOOP:
+            return cost1 + card1 * cost2 + card1 * card2 + outCard;
+        case BLOCK_NESTED_LOOP:
+            return cost1 + blocks * cost2 + card1 * card2 + outCard;
+        case INDEX_NESTED_LOOP:
+            if (op == Predicate.Op.LIKE || op == Predicate.Op.NOT_EQUALS)
+                break;
+            // each matching inner tuple is read from a leaf page
+            return cost1 + card1 * probe2 + outCard
+                    * (1 + (card2 > 0 ? cost2 / card2 : 0));
+        case HASH:
+            if (op != Predicate.Op.EQUALS)
+                break;
+            return cost1 + blocks * cost2 + card1 + blocks * card2 + outCard;
+        case SORT_MERGE:
+            if (op != Predicate.Op.EQUALS || (!sorted1 && card1 > joinMemory)
+                    || (!sorted2 && card2 > joinMemory))
+                break;
+            return cost1 + cost2 + (sorted1 ? 0 : sortCost(card1))
+                    + (sorted2 ? 0 : sortCost(card2)) + card1 + card2 + outCard;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    private static double sortCost(double card) {
+        return card * Math.log(Math.max(2, card)) / Math.log(2);
+    }
 
-        j = new Join(p,plan1,plan2);
+    /** What is known about the output of a subplan */
+    private static class Estimate {
+        final double card;
+        final double cost;
+        // the fields whose order the tuples are in
+        final int[] sortedOn;
+        // the cost of looking tuples up by their first sorted field, if the
+        // subplan is a scan of a B+ tree
+        final double probeCost;
+
+        Estimate(double card, double cost, int[] sortedOn) {
+            this(card, cost, sortedOn, Double.POSITIVE_INFINITY);
+        }
+
+        Estimate(double card, double cost, int[] sortedOn, double probeCost) {
+            this.card = card;
+            this.cost = cost;
+            this.sortedOn = sortedOn;
+            this.probeCost = probeCost;
+        }
+
+        double probeCost(int field) {
+            return sortedOn.length > 0 && sortedOn[0] == field ? probeCost
+                    : Double.POSITIVE_INFINITY;
+        }
 
+        boolean isSortedOn(int field) {
+            for (int f : sortedOn)
+                if (f == field)
+                    return true;
+            return false;
+        }
+    }
+
+    // the estimates of the joins built by instantiateJoin
+    private final IdentityHashMap<DbIterator, Estimate> estimates = new IdentityHashMap<DbIterator, Estimate>();
+
+    /**
+     * Return the cheapest iterator for computing a given logical join of the
+     * provided left and right subplans, which may be base table scans, with
+     * or without filters, or joins built by earlier calls to this method.
+     * Every {@link JoinMethod} that can compute the join is costed with
+     * {@link #estimateJoinCost(JoinMethod, Predicate.Op, double, double, boolean, double, double, boolean, double, double)}
+     * from the estimated cardinality and cost of the subplans, whether they
+     * are in the order of their join fields, and whether the right subplan
+     * is a scan of a B+ tree on its join field. If either subplan cannot
+     * be estimated (e.g. it is a subquery), equality joins are hashed and
+     * other joins are computed by block nested loops.
+     * 
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param stats
+     *            The table stats, referenced by table names, not alias
+     * @param explain
+     *            Whether to print the cost of each method
+     * @return the join, as an Operator whose estimated cost is set
+     */
+    public DbIterator instantiateJoin(LogicalJoinNode lj, DbIterator plan1,
+            DbIterator plan2, Map<String, TableStats> stats, boolean explain)
+            throws ParsingException {
+        JoinPredicate jp = joinPredicate(lj, plan1, plan2);
+        Estimate e1 = estimate(plan1, stats);
+        Estimate e2 = estimate(plan2, stats);
+
+        JoinMethod best;
+        double bestCost = Double.POSITIVE_INFINITY;
+        double out = -1;
+        StringBuilder costs = new StringBuilder();
+        if (e1 == null || e2 == null) {
+            best = lj.p == Predicate.Op.EQUALS ? JoinMethod.HASH
+                    : JoinMethod.BLOCK_NESTED_LOOP;
+        } else {
+            String[] f1 = lj.f1QuantifiedName.split("[.]");
+            String[] f2 = lj.f2QuantifiedName.split("[.]");
+            out = estimateTableJoinCardinality(lj.p, f1[0], f2[0], f1[1],
+                    f2[1], (int) Math.min(Integer.MAX_VALUE, e1.card),
+                    (int) Math.min(Integer.MAX_VALUE, e2.card),
+                    isPkey(f1[0], f1[1]), isPkey(f2[0], f2[1]), stats,
+                    p.getTableAliasToIdMapping());
+            best = JoinMethod.NESTED_LOOP;
+            for (JoinMethod m : JoinMethod.values()) {
+                double cost = estimateJoinCost(m, lj.p, e1.card, e1.cost,
+                        e1.isSortedOn(jp.getField1()), e2.card, e2.cost,
+                        e2.isSortedOn(jp.getField2()),
+                        e2.probeCost(jp.getField2()), out);
+                if (cost < bestCost) {
+                    best = m;
+                    bestCost = cost;
+                }
+                costs.append(String.format("\n\t%1$s: %2$.0f", m, cost));
+            }
+        }
+
+        Operator j;
+        int td1n = plan1.getTupleDesc().numFields();
+        int[] sortedOn = new int[0];
+        switch (best) {
+        case BLOCK_NESTED_LOOP:
+            j = new BlockNestedLoopJoin(jp, plan1, plan2, joinMemory);
+            break;
+        case INDEX_NESTED_LOOP:
+            j = new IndexNestedLoopJoin(jp, plan1, (SeqScan) plan2);
+            sortedOn = e1.sortedOn;
+            break;
+        case HASH:
+            j = new HashEquiJoin(jp, plan1, plan2, joinMemory);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(jp, plan1, plan2,
+                    e1.isSortedOn(jp.getField1()), e2.isSortedOn(jp.getField2()));
+            sortedOn = new int[] { jp.getField1(), td1n + jp.getField2() };
+            break;
+        default:
+            j = new Join(jp, plan1, plan2);
+            // the tuples come out in the order of the outer input
+            if (e1 != null)
+                sortedOn = e1.sortedOn;
+        }
+        if (out >= 0) {
+            j.setEstimatedCost(bestCost);
+            estimates.put(j, new Estimate(out, bestCost, sortedOn));
+        }
+        if (explain)
+            System.out.println("Join " + lj + ": " + best
+                    + (out >= 0 ? String.format(", cost %1$.0f", bestCost) : "")
+                    + costs);
         return j;
+    }
 
+    // the estimate of a subplan, or null if it cannot be estimated
+    private Estimate estimate(DbIterator plan, Map<String, TableStats> stats) {
+        Estimate e = estimates.get(plan);
+        if (e != null)
+            return e;
+        if (plan instanceof Exchange)
+            return estimate(((Exchange) plan).getChildren()[0], stats);
+        if (plan instanceof Filter) {
+            DbIterator child = ((Filter) plan).getChildren()[0];
+            Estimate in = estimate(child, stats);
+            if (in == null)
+                return null;
+            Predicate pred = ((Filter) plan).getPredicate();
+            String[] field = child.getTupleDesc()
+                    .getFieldName(pred.getField()).split("[.]");
+            TableStats s = statsOf(field[0], stats, p.getTableAliasToIdMapping());
+            int f = fieldOf(s, field[0], field[1], p.getTableAliasToIdMapping());
+            double sel = f < 0 ? 1.0 : s.estimateSelectivity(f, pred.getOp(),
+                    pred.getOperand());
+            // every tuple of the child is tested
+            return new Estimate(in.card * sel, in.cost + in.card, in.sortedOn);
+        }
+        if (plan instanceof ParallelSeqScan) {
+            TableStats s = stats.get(((ParallelSeqScan) plan).getTableName());
+            if (s == null)
+                return null;
+            return new Estimate(s.estimateTableCardinality(1.0),
+                    s.estimateScanCost(), new int[0]);
+        }
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            TableStats s = stats.get(scan.getTableName());
+            if (s == null)
+                return null;
+            if (!(scan.file instanceof BTreeFile))
+                return new Estimate(s.estimateTableCardinality(1.0),
+                        s.estimateScanCost(), new int[0]);
+            int key = ((BTreeFile) scan.file).keyField();
+            // a lookup reads the pages on the path from the root to a leaf
+            double probe = IndexNestedLoopJoin.canProbe(Predicate.Op.EQUALS,
+                    scan, key) ? s.estimateIndexScanCost(0)
+                    : Double.POSITIVE_INFINITY;
+            return new Estimate(s.estimateTableCardinality(1.0),
+                    s.estimateScanCost(), new int[] { key }, probe);
+        }
+        if (plan instanceof BTreeScan) {
+            BTreeScan scan = (BTreeScan) plan;
+            TableStats s = stats.get(scan.getTableName());
+            if (s == null)
+                return null;
+            int key = ((BTreeFile) Database.getCatalog().getDatabaseFile(
+                    scan.getTableId())).keyField();
+            IndexPredicate ipred = scan.getIndexPredicate();
+            double sel = ipred == null ? 1.0 : s.estimateSelectivity(key,
+                    ipred.getOp(), ipred.getField());
+            // the tuples come out in the order of the key
+            return new Estimate(s.estimateTableCardinality(sel),
+                    s.estimateIndexScanCost(sel), new int[] { key });
+        }
+        if (plan instanceof IndexScan) {
+            IndexScan scan = (IndexScan) plan;
+            TableStats s = stats.get(scan.getTableName());
+            if (s == null)
+                return null;
+            IndexPredicate ipred = scan.getIndexPredicate();
+            double sel = ipred == null ? 1.0 : s.estimateSelectivity(scan
+                    .getIndex().getKeyField(), ipred.getOp(), ipred.getField());
+            return new Estimate(s.estimateTableCardinality(sel),
+                    s.estimateIndexScanCost(scan.getIndex(), sel,
+                            scan.isIndexOnly()),
+                    new int[] { scan.getKeyField() });
+        }
+        return null;
     }
 
     /**
@@ -111,7 +419,7 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-        	return cost1 + (card1 * cost2) + (card1 * card2);
+        	return cost1 + (card1 * cost2) + ((double) card1 * card2);
         }
     }
 
@@ -149,6 +457,16 @@ public class JoinOptimizer {
 
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * A join on a primary key produces one tuple per tuple of the other side.
+     * Otherwise, when both join fields have statistics, an equi-join is
+     * estimated from the number of distinct values of the two fields: every
+     * value of the field with fewer distinct values is assumed to appear in
+     * the other, so card1 * card2 / max(ndv1, ndv2) pairs match (the distinct
+     * values of a side are capped by its cardinality, which may have been
+     * reduced by filters). A range join is estimated from the overlap of the
+     * histograms of the two fields. Without statistics, fixed guesses are
+     * used.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
@@ -156,65 +474,172 @@ public class JoinOptimizer {
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
     	
-        int card = 1;
+        TableStats s1 = statsOf(table1Alias, stats, tableAliasToId);
+        TableStats s2 = statsOf(table2Alias, stats, tableAliasToId);
+        return estimateTableJoinCardinality(joinOp, s1,
+                fieldOf(s1, table1Alias, field1PureName, tableAliasToId), s2,
+                fieldOf(s2, table2Alias, field2PureName, tableAliasToId),
+                card1, card2, t1pkey, t2pkey);
+    }
+
+    /**
+     * Estimate the join cardinality of two tables, given the stats of their
+     * base tables (or null) and the indexes of the join fields in them (or
+     * -1).
+     */
+    private static int estimateTableJoinCardinality(Predicate.Op joinOp,
+            TableStats s1, int f1, TableStats s2, int f2, int card1,
+            int card2, boolean t1pkey, boolean t2pkey) {
+        boolean haveStats = f1 >= 0 && f2 >= 0;
+        
         switch (joinOp) {
 			case NOT_EQUALS:
 			case EQUALS: {
+				double equal;
 				if (t1pkey)
-					return card2;
-				if (t2pkey) 
-					return card1;
-				if (card1 > card2) 
-					return card1;
-				return card2;
+					equal = card2;
+				else if (t2pkey) 
+					equal = card1;
+				else if (haveStats) {
+					int ndv1 = Math.min(card1, s1.numDistinctValues(f1));
+					int ndv2 = Math.min(card2, s2.numDistinctValues(f2));
+					int ndv = Math.max(1, Math.max(ndv1, ndv2));
+					equal = Math.ceil((double) card1 * card2 / ndv);
+				} else
+					equal = Math.max(card1, card2);
+				if (joinOp == Predicate.Op.NOT_EQUALS && (t1pkey || t2pkey || haveStats))
+					return (int) Math.max(0, Math.min(Integer.MAX_VALUE,
+							(double) card1 * card2 - equal));
+				return (int) Math.min(Integer.MAX_VALUE, equal);
 			}
 			case GREATER_THAN:
 			case GREATER_THAN_OR_EQ:
 			case LESS_THAN:
 			case LESS_THAN_OR_EQ:
 			case LIKE: {
-				return (int)((card1 * card2) * 0.3);
+				double sel = haveStats ? s1.estimateJoinSelectivity(f1, joinOp,
+						s2, f2) : -1.0;
+				if (sel < 0)
+					sel = 0.3;
+				return (int) Math.min(Integer.MAX_VALUE,
+						Math.ceil((double) card1 * card2 * sel));
 			}
         }
         return 0;
     }
 
+    // the stats of the base table of an alias, or null if there are none
+    private static TableStats statsOf(String alias,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        if (stats == null || tableAliasToId == null)
+            return null;
+        Integer tableid = tableAliasToId.get(alias);
+        if (tableid == null)
+            return null;
+        String name = Database.getCatalog().getTableName(tableid);
+        return name == null ? null : stats.get(name);
+    }
+
+    // the index of a field of the base table of an alias, or -1 if the table
+    // has no stats or no such field
+    private static int fieldOf(TableStats s, String alias, String pureName,
+            Map<String, Integer> tableAliasToId) {
+        if (s == null)
+            return -1;
+        try {
+            return Database.getCatalog().getTupleDesc(tableAliasToId.get(alias))
+                    .fieldNameToIndex(pureName);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
+
     /**
      * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
+     * specified vector. The subsets are enumerated as bitmasks over the
+     * indexes of the vector, so only the subsets returned are built.
      * 
      * @param v
      *            The vector whose subsets are desired
      * @param size
      *            The size of the subsets of interest
      * @return a set of all subsets of the specified size
+     * @throws IllegalArgumentException
+     *             if v has more than 62 elements
      */
-    @SuppressWarnings("unchecked")
     public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
+        if (v.size() > 62)
+            throw new IllegalArgumentException(
+                    "cannot enumerate the subsets of more than 62 elements");
         Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+        if (size < 0 || size > v.size())
+            return els;
+        if (size == 0) {
+            els.add(new HashSet<T>());
+            return els;
+        }
+
+        long end = 1L << v.size();
+        for (long s = (1L << size) - 1; s < end; s = nextSubset(s)) {
+            Set<T> subset = new HashSet<T>();
+            for (long rest = s; rest != 0; rest &= rest - 1)
+                subset.add(v.get(Long.numberOfTrailingZeros(rest)));
+            // equal elements of v make a smaller set
+            if (subset.size() == size)
+                els.add(subset);
         }
 
         return els;
 
     }
 
+    /**
+     * The next bitmask larger than s with as many bits set (Gosper's hack):
+     * starting from the lowest k bits set, it enumerates the subsets of size
+     * k in increasing order.
+     */
+    static long nextSubset(long s) {
+        long lowest = s & -s;
+        long ripple = s + lowest;
+        return (((ripple ^ s) >>> 2) / lowest) | ripple;
+    }
+
+    /** Default largest number of joins ordered by dynamic programming */
+    public static final int DEFAULT_MAX_DP_JOINS = 12;
+    private static volatile int maxDpJoins = DEFAULT_MAX_DP_JOINS;
+
+    /**
+     * Set the largest number of joins that {@link #orderJoins} orders by
+     * dynamic programming; queries with more joins are ordered greedily.
+     */
+    public static void setMaxDpJoins(int joins) {
+        if (joins < 0)
+            throw new IllegalArgumentException("max dp joins must not be negative");
+        maxDpJoins = joins;
+    }
+
+    /**
+     * @return the largest number of joins that {@link #orderJoins} orders by
+     *         dynamic programming
+     */
+    public static int getMaxDpJoins() {
+        return maxDpJoins;
+    }
+
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * The tables form a join graph, whose edges are the joins. When there are
+     * at most {@link #getMaxDpJoins()} joins, the cheapest plan is found by
+     * dynamic programming over the connected subgraphs of the join graph
+     * (DPccp, Moerkotte and Neumann): every pair of disjoint connected sets of
+     * tables joined by an edge is considered once, so no plan with a cross
+     * product is built, and both sides of a join may be the result of other
+     * joins (a bushy plan). Sets of tables are represented as bitsets. With
+     * more joins, plans are built greedily (GOO, Fegaras): starting from the
+     * tables, the two plans whose join has the smallest cardinality are joined
+     * until none are connected.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -226,8 +651,9 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed: each join comes after the joins
+     *         of both of its inputs, and its t1 is in its outer input.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -237,204 +663,381 @@ public class JoinOptimizer {
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
-    	PlanCache planCache = new PlanCache();
-    	
-    	for (int i = 1; i <= joins.size(); i++) {
-    		for (Set<LogicalJoinNode> joinSet : enumerateSubsets(joins, i)) {
-    			
-    			Vector<LogicalJoinNode> _bestplan = null;
-    			double _bestcost = Double.MAX_VALUE;
-    			int _bestcard = Integer.MAX_VALUE;
-    			    			
-    			for (LogicalJoinNode joinPlan : joinSet) {
-    				CostCard cost = computeCostAndCardOfSubplan(stats, filterSelectivities, joinPlan, joinSet, _bestcost, planCache);
-    				if (cost != null) {
-    					if (cost.cost < _bestcost) {
-    						_bestcost = cost.cost;
-    						_bestplan = cost.plan;
-    						_bestcard = cost.card;
-    					}
-    					planCache.addPlan(joinSet, _bestcost, _bestcard, _bestplan);
-    				}
-    			}
-    		}
-    	}
+    	// single table queries have nothing to order
+    	if (joins.isEmpty())
+    		return joins;
+
+    	JoinGraph g = new JoinGraph(stats, filterSelectivities);
+    	long[] plans = joins.size() <= maxDpJoins ? g.dpccp() : g.greedy();
+
+    	Vector<LogicalJoinNode> bestPlanOrder = new Vector<LogicalJoinNode>();
+    	IdentityHashMap<LogicalJoinNode, Long> tablesOf = explain ? new IdentityHashMap<LogicalJoinNode, Long>()
+    			: null;
+    	for (long plan : plans)
+    		g.flatten(plan, bestPlanOrder, tablesOf);
     	
     	if (explain) {
-    		printJoins(joins, planCache, stats, filterSelectivities);
-    	}
-    	
-    	HashSet<LogicalJoinNode> finalSet = new HashSet<LogicalJoinNode>();
-    	for (LogicalJoinNode node : joins) {
-    		finalSet.add(node);
+    		printJoins(bestPlanOrder, g, tablesOf, stats, filterSelectivities);
     	}
     	
-        Vector<LogicalJoinNode> bestPlanOrder = planCache.getOrder(finalSet);
         return bestPlanOrder;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * The join graph of the query: a node for each table alias (and for each
+     * subquery), and an edge for each join. The best plan of each set of
+     * nodes found so far is kept in a {@link PlanCache}.
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private class JoinGraph {
+        final HashMap<String, TableStats> stats;
+        final int n; // number of nodes
+        final long[] adj; // neighbors of each node, as bitsets
+        final LogicalJoinNode[] edges;
+        final LogicalJoinNode[] swapped; // each edge with inner and outer
+                                         // swapped, null for subqueries
+        final int[] edge1, edge2; // the nodes of t1 and t2 of each edge
+        final boolean[] pkey1, pkey2; // whether t1 and t2 of each edge are
+                                      // joined on their primary keys
+        final TableStats[] stats1, stats2; // the stats of t1 and t2 of each
+        final int[] field1, field2;        // edge, and their join fields
+        final PlanCache planCache = new PlanCache();
+        final ArrayList<String> names = new ArrayList<String>(); // the table
+                                         // alias or subquery of each node
+
+        // the plan last evaluated by evaluate()
+        private double candCost;
+        private int candCard;
+        private long candOuter;
+        private int candJoin;
+        private boolean candPkey;
+
+        JoinGraph(HashMap<String, TableStats> stats,
+                HashMap<String, Double> filterSelectivities)
+                throws ParsingException {
+            this.stats = stats;
+            HashMap<String, Integer> nodes = new HashMap<String, Integer>();
+            edges = joins.toArray(new LogicalJoinNode[0]);
+            swapped = new LogicalJoinNode[edges.length];
+            edge1 = new int[edges.length];
+            edge2 = new int[edges.length];
+            pkey1 = new boolean[edges.length];
+            pkey2 = new boolean[edges.length];
+            stats1 = new TableStats[edges.length];
+            stats2 = new TableStats[edges.length];
+            field1 = new int[edges.length];
+            field2 = new int[edges.length];
+            Map<String, Integer> aliases = p.getTableAliasToIdMapping();
+            for (int e = 0; e < edges.length; e++) {
+                LogicalJoinNode j = edges[e];
+                edge1[e] = node(j.t1Alias, nodes, filterSelectivities);
+                pkey1[e] = isPkey(j.t1Alias, j.f1PureName);
+                if (j instanceof LogicalSubplanJoinNode) {
+                    // a subquery costs nothing more to read, as before
+                    edge2[e] = newNode("subquery on " + j.t1Alias, 0, 0);
+                } else {
+                    edge2[e] = node(j.t2Alias, nodes, filterSelectivities);
+                    pkey2[e] = isPkey(j.t2Alias, j.f2PureName);
+                    swapped[e] = j.swapInnerOuter();
+                    stats1[e] = statsOf(j.t1Alias, stats, aliases);
+                    stats2[e] = statsOf(j.t2Alias, stats, aliases);
+                    field1[e] = fieldOf(stats1[e], j.t1Alias, j.f1PureName,
+                            aliases);
+                    field2[e] = fieldOf(stats2[e], j.t2Alias, j.f2PureName,
+                            aliases);
+                }
+            }
+            n = planCache.size();
+            adj = new long[n];
+            for (int e = 0; e < edges.length; e++) {
+                adj[edge1[e]] |= 1L << edge2[e];
+                adj[edge2[e]] |= 1L << edge1[e];
+            }
+        }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        // the node of a table alias, whose plan of scanning it is cached
+        private int node(String alias, HashMap<String, Integer> nodes,
+                HashMap<String, Double> filterSelectivities)
+                throws ParsingException {
+            Integer i = nodes.get(alias);
+            if (i != null)
+                return i;
+            Integer tableid = p.getTableId(alias);
+            if (tableid == null)
+                throw new ParsingException("Unknown table " + alias);
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = stats.get(name);
+            Double sel = filterSelectivities.get(alias);
+            if (s == null || sel == null)
+                throw new ParsingException("Missing statistics for table "
+                        + alias);
+            i = newNode(alias, s.estimateScanCost(),
+                    s.estimateTableCardinality(sel));
+            nodes.put(alias, i);
+            return i;
+        }
+
+        // a new node, whose plan on its own has the given cost and cardinality
+        private int newNode(String name, double cost, int card)
+                throws ParsingException {
+            int i = planCache.size();
+            if (i >= 64)
+                throw new ParsingException("Too many tables in join: " + name);
+            planCache.addPlan(1L << i, cost, card, 0, -1, false);
+            names.add(name);
+            return i;
+        }
+
+        // the names of the nodes in a set, for printing
+        String namesOf(long set) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < names.size(); i++) {
+                if ((set & (1L << i)) != 0)
+                    sb.append(sb.length() == 0 ? "" : ", ").append(names.get(i));
             }
+            return "{" + sb + "}";
+        }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+        // the nodes adjacent to a set of nodes, outside it
+        private long neighbors(long set) {
+            long nb = 0;
+            for (long rest = set; rest != 0; rest &= rest - 1)
+                nb |= adj[Long.numberOfTrailingZeros(rest)];
+            return nb & ~set;
+        }
+
+        // the nodes numbered at most i
+        private long upTo(int i) {
+            return i >= 63 ? -1L : (1L << (i + 1)) - 1;
+        }
+
+        /**
+         * The cheapest plan of each connected component of the graph, by
+         * DPccp: each connected set S1 is extended by each connected set S2
+         * of its neighbors, where the numbering of the nodes makes sure each
+         * pair is enumerated once, after the best plans of S1 and S2 are
+         * known.
+         * 
+         * @return the sets of nodes of the components, whose plans are cached
+         */
+        long[] dpccp() {
+            for (int i = n - 1; i >= 0; i--) {
+                long v = 1L << i;
+                emitCsg(v);
+                enumerateCsgRec(v, upTo(i));
             }
+            return components();
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        private void enumerateCsgRec(long s, long x) {
+            long nb = neighbors(s) & ~x;
+            if (nb == 0)
+                return;
+            for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb)
+                emitCsg(s | sub);
+            for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb)
+                enumerateCsgRec(s | sub, x | nb);
+        }
 
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        private void emitCsg(long s1) {
+            long x = s1 | upTo(Long.numberOfTrailingZeros(s1));
+            long nb = neighbors(s1) & ~x;
+            for (int i = 63 - Long.numberOfLeadingZeros(nb); i >= 0; i--) {
+                long v = 1L << i;
+                if ((nb & v) == 0)
+                    continue;
+                emitCsgCmp(s1, v);
+                enumerateCmpRec(s1, v, x | (nb & upTo(i)));
+            }
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
 
-        CostCard cc = new CostCard();
+        private void enumerateCmpRec(long s1, long s2, long x) {
+            long nb = neighbors(s2) & ~x;
+            if (nb == 0)
+                return;
+            for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb)
+                emitCsgCmp(s1, s2 | sub);
+            for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb)
+                enumerateCmpRec(s1, s2 | sub, x | nb);
+        }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
-    }
+        private void emitCsgCmp(long s1, long s2) {
+            evaluate(s1, s2);
+            long s = s1 | s2;
+            if (!planCache.contains(s) || candCost < planCache.getCost(s))
+                planCache.addPlan(s, candCost, candCard, candOuter, candJoin,
+                        candPkey);
+        }
 
-    /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
-     */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+        /**
+         * The plans of the connected components of the graph, built greedily:
+         * repeatedly join the two connected plans whose join has the smallest
+         * estimated cardinality (the cheapest, among equals).
+         * 
+         * @return the sets of nodes of the components, whose plans are cached
+         */
+        long[] greedy() {
+            long[] plans = new long[n];
+            for (int i = 0; i < n; i++)
+                plans[i] = 1L << i;
+            for (int count = n; ; count--) {
+                int bestA = -1, bestB = -1;
+                double bestCost = 0;
+                int bestCard = 0;
+                long bestOuter = 0;
+                int bestJoin = 0;
+                boolean bestPkey = false;
+                for (int a = 0; a < count; a++) {
+                    long nb = neighbors(plans[a]);
+                    for (int b = a + 1; b < count; b++) {
+                        if ((nb & plans[b]) == 0)
+                            continue;
+                        evaluate(plans[a], plans[b]);
+                        if (bestA < 0 || candCard < bestCard
+                                || (candCard == bestCard && candCost < bestCost)) {
+                            bestA = a;
+                            bestB = b;
+                            bestCost = candCost;
+                            bestCard = candCard;
+                            bestOuter = candOuter;
+                            bestJoin = candJoin;
+                            bestPkey = candPkey;
+                        }
+                    }
+                }
+                if (bestA < 0)
+                    return Arrays.copyOf(plans, count);
+                long s = plans[bestA] | plans[bestB];
+                planCache.addPlan(s, bestCost, bestCard, bestOuter, bestJoin,
+                        bestPkey);
+                // the joined plan replaces its inputs, at the end
+                System.arraycopy(plans, bestB + 1, plans, bestB, count - bestB - 1);
+                System.arraycopy(plans, bestA + 1, plans, bestA, count - bestA - 2);
+                plans[count - 2] = s;
+            }
+        }
+
+        // the connected components of the graph, as bitsets
+        private long[] components() {
+            long[] comps = new long[n];
+            int count = 0;
+            long seen = 0;
+            for (int i = 0; i < n; i++) {
+                if ((seen & (1L << i)) != 0)
+                    continue;
+                long comp = 1L << i;
+                for (long nb = neighbors(comp); nb != 0; nb = neighbors(comp))
+                    comp |= nb;
+                comps[count++] = comp;
+                seen |= comp;
+            }
+            return Arrays.copyOf(comps, count);
+        }
+
+        /**
+         * Evaluate the cheapest plan joining the cached plans of two disjoint
+         * sets of nodes that share an edge, into the cand fields. The first
+         * such edge is the join; it is tried with each plan as the outer (a
+         * subquery is always the inner). Any other edges between the two
+         * plans are added after it.
+         */
+        private void evaluate(long a, long b) {
+            int edge = -1;
+            boolean ab = false;
+            boolean pkey = planCache.hasPkey(a) || planCache.hasPkey(b);
+            for (int e = 0; e < edges.length; e++) {
+                long r1 = 1L << edge1[e], r2 = 1L << edge2[e];
+                boolean eab = (a & r1) != 0 && (b & r2) != 0;
+                boolean eba = (b & r1) != 0 && (a & r2) != 0;
+                if (!eab && !eba)
+                    continue;
+                pkey |= pkey1[e] || pkey2[e];
+                if (edge < 0) {
+                    edge = e;
+                    ab = eab;
+                }
+            }
+
+            LogicalJoinNode j = edges[edge];
+            long outer = ab ? a : b;
+            long inner = ab ? b : a;
+            int outerCard = planCache.getCard(outer);
+            int innerCard = planCache.getCard(inner);
+            double outerCost = planCache.getCost(outer);
+            double innerCost = planCache.getCost(inner);
+            // the edge's own tables are primary keys only on single tables,
+            // as in a left-deep plan; joined plans carry their own flag
+            boolean outerPkey = (outer & (outer - 1)) == 0 ? pkey1[edge]
+                    : planCache.hasPkey(outer);
+            boolean innerPkey = (inner & (inner - 1)) == 0 ? pkey2[edge]
+                    : planCache.hasPkey(inner);
+            double cost = estimateJoinCost(j, outerCard, innerCard, outerCost,
+                    innerCost);
+            LogicalJoinNode j2 = swapped[edge];
+            boolean swap = false;
+            if (j2 != null) {
+                double cost2 = estimateJoinCost(j2, innerCard, outerCard,
+                        innerCost, outerCost);
+                if (cost2 < cost) {
+                    swap = true;
+                    j = j2;
+                    cost = cost2;
+                    long tmp = outer;
+                    outer = inner;
+                    inner = tmp;
+                    int tmpCard = outerCard;
+                    outerCard = innerCard;
+                    innerCard = tmpCard;
+                    boolean tmpPkey = outerPkey;
+                    outerPkey = innerPkey;
+                    innerPkey = tmpPkey;
+                }
+            }
+            candCost = cost;
+            // as estimateJoinCardinality, with the edge's stats looked up once
+            if (j2 == null)
+                candCard = estimateJoinCardinality(j, outerCard, innerCard,
+                        outerPkey, innerPkey, stats);
+            else if (swap)
+                candCard = estimateTableJoinCardinality(j.p, stats2[edge],
+                        field2[edge], stats1[edge], field1[edge], outerCard,
+                        innerCard, outerPkey, innerPkey);
+            else
+                candCard = estimateTableJoinCardinality(j.p, stats1[edge],
+                        field1[edge], stats2[edge], field2[edge], outerCard,
+                        innerCard, outerPkey, innerPkey);
+            candOuter = outer;
+            candJoin = edge;
+            candPkey = pkey;
+        }
+
+        /**
+         * Append the joins of the cached plan of a set of nodes to order,
+         * each after the joins of its inputs, and record the set of nodes
+         * each join completes in tablesOf (if not null)
+         */
+        void flatten(long s, Vector<LogicalJoinNode> order,
+                IdentityHashMap<LogicalJoinNode, Long> tablesOf) {
+            long outer = planCache.getOuter(s);
+            if (outer == 0)
+                return;
+            long inner = s & ~outer;
+            flatten(outer, order, tablesOf);
+            flatten(inner, order, tablesOf);
+            int edge = planCache.getJoin(s);
+            LogicalJoinNode j = (outer & (1L << edge1[edge])) != 0 ? edges[edge]
+                    : swapped[edge];
+            order.add(j);
+            if (tablesOf != null)
+                tablesOf.put(j, s);
+            for (int e = 0; e < edges.length; e++) {
+                long r1 = 1L << edge1[e], r2 = 1L << edge2[e];
+                if (e != edge && ((outer & r1) != 0 && (inner & r2) != 0
+                        || (inner & r1) != 0 && (outer & r2) != 0))
+                    order.add(edges[e]);
+            }
         }
-        return false;
     }
 
     /**
@@ -453,20 +1056,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -474,8 +1063,12 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
-     * @param pc
-     *            the PlanCache accumulated whild building the optimal plan
+     * @param g
+     *            the join graph, with the PlanCache accumulated while building
+     *            the optimal plan
+     * @param tablesOf
+     *            the set of tables (nodes of g) whose plan each join of js
+     *            completes; joins closing a cycle have none
      * @param stats
      *            table statistics for base tables
      * @param selectivities
@@ -483,7 +1076,8 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(Vector<LogicalJoinNode> js, JoinGraph g,
+            IdentityHashMap<LogicalJoinNode, Long> tablesOf,
             HashMap<String, TableStats> stats,
             HashMap<String, Double> selectivities) {
 
@@ -497,76 +1091,61 @@ public class JoinOptimizer {
 
         f.setSize(300, 500);
 
+        // the root of the subtree each table is in so far
         HashMap<String, DefaultMutableTreeNode> m = new HashMap<String, DefaultMutableTreeNode>();
 
-        // int numTabs = 0;
-
-        // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
-        boolean neither;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+            Long tables = tablesOf.get(j);
+            System.out.println("TABLES SO FAR = "
+                    + (tables == null ? "" : g.namesOf(tables)));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
+
+            // joins closing a cycle have no plan of their own
+            root = new DefaultMutableTreeNode("Join " + j
+                    + (tables == null ? "" : " (Cost =" + g.planCache.getCost(tables)
+                            + ", card = " + g.planCache.getCard(tables) + ")"));
+            DefaultMutableTreeNode n1 = m.get(j.t1Alias);
+            if (n1 == null) { // never seen this table before
+                n1 = new DefaultMutableTreeNode(j.t1Alias
                         + " (Cost = "
                         + stats.get(table1Name).estimateScanCost()
                         + ", card = "
                         + stats.get(table1Name).estimateTableCardinality(
                                 selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
             }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                                .estimateTableCardinality(
-                                                        selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
+            root.add(n1);
+
+            DefaultMutableTreeNode n2 = j.t2Alias == null ? null : m.get(j.t2Alias);
+            if (n2 == null) { // never seen this table before
+                if (j.t2Alias == null) {
+                    n2 = new DefaultMutableTreeNode("Subplan");
+                } else {
+                    String table2Name = Database.getCatalog().getTableName(
+                            this.p.getTableId(j.t2Alias));
+                    n2 = new DefaultMutableTreeNode(j.t2Alias
+                            + " (Cost = "
+                            + stats.get(table2Name).estimateScanCost()
+                            + ", card = "
+                            + stats.get(table2Name).estimateTableCardinality(
+                                    selectivities.get(j.t2Alias)) + ")");
+                }
             }
-            m.put(j.t2Alias, root);
+            if (n2 != n1)
+                root.add(n2);
 
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
+            // all tables of both subtrees are now accessed from root
+            for (String key : m.keySet()) {
+                if (m.get(key) == n1 || m.get(key) == n2)
                     m.put(key, root);
-                }
             }
+            m.put(j.t1Alias, root);
+            if (j.t2Alias != null)
+                m.put(j.t2Alias, root);
 
             treetop = root;
         }
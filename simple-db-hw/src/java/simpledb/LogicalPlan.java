@@ -2,24 +2,43 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * Any number of aggregates may be computed over the group by fields;
+ * they are all evaluated by a single {@link Aggregate} operator.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
  * {@link JoinOptimizer} to order joins optimally and to select the
  * best implementations for joins.
+ * <p>
+ * When exchanges are enabled (see {@link #setUseExchange}), the physical
+ * plan runs the outer input of every join and the input of the aggregate on
+ * its own thread behind an {@link Exchange}, so that those subtrees are
+ * pipelined with the operators above them.
+ * <p>
+ * When scans are parallel (see {@link #setScanParallelism}), a heap table of
+ * at least {@link #getParallelScanPages()} pages that is read whole is read by
+ * a {@link ParallelSeqScan} instead of a {@link SeqScan}.
+ * <p>
+ * When batches are enabled (see {@link #setUseBatches}), the aggregate and
+ * the projection above it are computed a batch of rows at a time, by a
+ * {@link BatchAggregate} and a {@link BatchProject}, and so are the filters
+ * whose predicates cannot be pushed down to a scan, by {@link BatchFilter}s.
+ * {@link RowsToBatches} and {@link BatchesToRows} connect them to the row
+ * operators of the plan.
  */
 public class LogicalPlan {
     private Vector<LogicalJoinNode> joins;
@@ -29,15 +48,24 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps;
+    private Vector<String> aggFields;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private boolean joinsOrdered = false;
 //    private Query owner;
 
+    private static boolean useExchange = false;
+    private static boolean useBatches = false;
+
+    /** Default number of pages from which a heap table is scanned in parallel */
+    public static final int DEFAULT_PARALLEL_SCAN_PAGES = 64;
+    private static int scanParallelism = 1;
+    private static int parallelScanPages = DEFAULT_PARALLEL_SCAN_PAGES;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
@@ -47,9 +75,62 @@ public class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggOps = new Vector<String>();
+        aggFields = new Vector<String>();
         this.query = "";
     }
 
+    /** Set whether physical plans insert {@link Exchange} operators at join
+        and aggregate boundaries.
+
+        @param enabled true to pipeline plans across threads
+    */
+    public static void setUseExchange(boolean enabled) {
+        useExchange = enabled;
+    }
+
+    /** Set whether physical plans compute aggregates, projections and the
+        filters that are not pushed down to scans with batch operators.
+
+        @param enabled true to process those operators a batch at a time
+    */
+    public static void setUseBatches(boolean enabled) {
+        useBatches = enabled;
+    }
+
+    /** Set the number of worker threads that scan a large heap table; 1,
+        the default, scans every table serially.
+
+        @param dop the number of threads of a {@link ParallelSeqScan}
+    */
+    public static void setScanParallelism(int dop) {
+        if (dop < 1)
+            throw new IllegalArgumentException("scan parallelism must be at least 1");
+        scanParallelism = dop;
+    }
+
+    /** @return the number of worker threads that scan a large heap table */
+    public static int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    /** Set the number of pages from which a heap table is scanned in
+        parallel, when scans are.
+    */
+    public static void setParallelScanPages(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("page threshold must not be negative");
+        parallelScanPages = pages;
+    }
+
+    /** @return the number of pages from which a heap table is scanned in
+        parallel, when scans are
+    */
+    public static int getParallelScanPages() {
+        return parallelScanPages;
+    }
+
     /** Set the text of the query representing this logical plan.  Does NOT parse the
         specified query -- this method is just used so that the object can print the
         SQL it represents.
@@ -81,6 +162,62 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** @return the constants of the filters of this plan, in the order the
+        filters were added via {@link #addFilter}
+     */
+    List<String> getFilterConstants() {
+        ArrayList<String> constants = new ArrayList<String>(filters.size());
+        for (LogicalFilterNode lf : filters)
+            constants.add(lf.c);
+        return constants;
+    }
+
+    /** @return true if the plan joins a subquery, whose physical plan was
+        built when the subquery was added via {@link #addJoin(String, DbIterator, Predicate.Op)}
+     */
+    boolean hasSubqueries() {
+        for (LogicalJoinNode lj : joins)
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        return false;
+    }
+
+    /** Copy this plan, comparing its filters against different constants.
+        If the joins of this plan have already been ordered by
+        {@link #physicalPlan}, the copy keeps their order instead of ordering
+        them again. The copy shares everything but its filters with this plan,
+        so neither may be added to afterwards.
+
+        @param constants the constants of the filters of the copy, in the order
+          the filters of this plan were added via {@link #addFilter}
+        @throws IllegalArgumentException if there is not one constant per filter
+     */
+    LogicalPlan bind(List<String> constants) {
+        if (constants.size() != filters.size())
+            throw new IllegalArgumentException("plan has " + filters.size()
+                    + " filters, not " + constants.size());
+        LogicalPlan lp = new LogicalPlan();
+        lp.joins = joins;
+        lp.tables = tables;
+        lp.tableMap = tableMap;
+        lp.selectList = selectList;
+        lp.groupByFields = groupByFields;
+        lp.hasAgg = hasAgg;
+        lp.aggOps = aggOps;
+        lp.aggFields = aggFields;
+        lp.oByAsc = oByAsc;
+        lp.hasOrderBy = hasOrderBy;
+        lp.oByField = oByField;
+        lp.query = query;
+        lp.joinsOrdered = joinsOrdered;
+        for (int i = 0; i < filters.size(); i++) {
+            LogicalFilterNode lf = filters.elementAt(i);
+            lp.filters.addElement(new LogicalFilterNode(lf.tableAlias,
+                    lf.fieldPureName, lf.p, constants.get(i)));
+        }
+        return lp;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -186,23 +323,34 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  May be called once per aggregate expression in the
+        select list; all aggregates are computed in a single pass.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null (further group by
+          fields can be added with {@link #addGroupBy})
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         hasAgg = true;
     }
 
+    /** Add a GROUP BY field to the query.  Fields are grouped on in the
+        order they are added; adding the same field twice has no effect.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -273,6 +421,8 @@ public class LogicalPlan {
 
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   The joins are ordered only the first time a plan is converted (or copied with {@link #bind});
+     *   later conversions keep that order.
      *  @param t The transaction that the returned DbIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -285,6 +435,7 @@ public class LogicalPlan {
      *  @return A DbIterator representing this plan.
      */ 
     public DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        subplanMap.clear();
         Iterator<LogicalScanNode> tableIt = tables.iterator();
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
@@ -306,6 +457,9 @@ public class LogicalPlan {
 
         }
 
+        Set<LogicalFilterNode> indexFilters = chooseIndexScans(t, statsMap, explain);
+        chooseParallelScans(t, explain);
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -323,10 +477,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, ftyp);
 
             Predicate p = null;
             try {
@@ -334,11 +485,17 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the BTreeScan of the table already applies it
+            if (!indexFilters.contains(lf))
+                subplanMap.put(lf.tableAlias, filter(p, subplan));
+            if (joinsOrdered)
+                continue;
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // an index-only scan has fewer fields than the table the stats describe
+            int field = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(field, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -346,7 +503,10 @@ public class LogicalPlan {
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        if (!joinsOrdered) {
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joinsOrdered = true;
+        }
 
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
@@ -381,8 +541,12 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
+            // only the outer input: joins rewind their inner input once per outer tuple
+            if (useExchange)
+                plan1 = new Exchange(plan1);
+
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = jo.instantiateJoin(lj,plan1,plan2,statsMap,explain);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -411,10 +575,12 @@ public class LogicalPlan {
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
+        int aggsSeen = 0;
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int aggIdx = aggregateIndex(si, aggsSeen++);
+                outFields.add(groupByFields.size() + aggIdx);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -426,16 +592,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int gIdx = groupByFields.indexOf(si.fname);
+                    if (gIdx < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(gIdx);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,12 +627,39 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            if (useExchange)
+                node = new Exchange(node);
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                if (useBatches) {
+                    int[] afields = new int[aggFields.size()];
+                    Aggregator.Op[] aops = new Aggregator.Op[aggFields.size()];
+                    for (int i = 0; i < afields.length; i++) {
+                        afields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                        aops[i] = getAggOp(aggOps.elementAt(i));
+                    }
+                    int[] gfields = new int[groupByFields.size()];
+                    for (int i = 0; i < gfields.length; i++)
+                        gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                    aggNode = new BatchesToRows(new BatchAggregate(batches(node),
+                            afields, gfields, aops));
+                } else if (aggFields.size() == 1 && groupByFields.size() <= 1) {
+                    aggNode = new Aggregate(node,
+                                            td.fieldNameToIndex(aggFields.elementAt(0)),
+                                            groupByFields.isEmpty()?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByFields.elementAt(0)),
+                                    getAggOp(aggOps.elementAt(0)));
+                } else {
+                    int[] afields = new int[aggFields.size()];
+                    Aggregator.Op[] aops = new Aggregator.Op[aggFields.size()];
+                    for (int i = 0; i < afields.length; i++) {
+                        afields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                        aops[i] = getAggOp(aggOps.elementAt(i));
+                    }
+                    int[] gfields = new int[groupByFields.size()];
+                    for (int i = 0; i < gfields.length; i++)
+                        gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                    aggNode = new Aggregate(node, afields, gfields, aops);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -478,9 +672,216 @@ public class LogicalPlan {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
+        // project the batches of a batch aggregate without converting them to rows
+        if (useBatches && node instanceof BatchesToRows)
+            return new BatchesToRows(new BatchProject(outFields, batches(node)));
         return new Project(outFields, outTypes, node);
     }
 
+    /** A Filter of the tuples of subplan, or, if batches are enabled and the
+     *   predicate cannot be pushed down to a scan below subplan, a BatchFilter
+     *   of its batches.
+     */
+    private static DbIterator filter(Predicate p, DbIterator subplan) {
+        DbIterator source = subplan;
+        while (source instanceof Filter)
+            source = ((Filter) source).getChildren()[0];
+        if (!useBatches || source instanceof SeqScan || source instanceof ParallelSeqScan)
+            return new Filter(p, subplan);
+        return new BatchesToRows(new BatchFilter(p, batches(subplan)));
+    }
+
+    /** The batches of the tuples of plan: the batches it is converted from, if
+     *   it is a {@link BatchesToRows}, and otherwise its tuples copied into batches.
+     */
+    private static BatchIterator batches(DbIterator plan) {
+        if (plan instanceof BatchesToRows)
+            return ((BatchesToRows) plan).getBatchChild();
+        return new RowsToBatches(plan);
+    }
+
+    // the constant a filter compares a field of type ftyp against
+    private static Field filterConstant(LogicalFilterNode lf, Type ftyp) {
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /** Replace the SeqScan in subplanMap of each heap table of at least
+     *   {@link #getParallelScanPages()} pages by a {@link ParallelSeqScan}, if
+     *   scans are parallel. The Filters above it push their predicates down to
+     *   its workers.
+     */
+    private void chooseParallelScans(TransactionId t, boolean explain) {
+        if (scanParallelism < 2)
+            return;
+        for (LogicalScanNode table : tables) {
+            DbIterator scan = subplanMap.get(table.alias);
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            if (!(scan instanceof SeqScan) || !(file instanceof HeapFile)
+                    || ((HeapFile) file).numPages() < parallelScanPages)
+                continue;
+            subplanMap.put(table.alias, new ParallelSeqScan(t, table.t, table.alias,
+                    scanParallelism));
+            if (explain)
+                System.out.println("Scanning " + table.alias + " with "
+                        + scanParallelism + " threads");
+        }
+    }
+
+    /** Choose the access path of each table: a table stored in a {@link BTreeFile}
+     *   may be read through its B+ tree (see {@link TableStats#estimateIndexScanCost(double)}),
+     *   and a heap table through one of its {@link SecondaryIndex}es (see
+     *   {@link TableStats#estimateIndexScanCost(SecondaryIndex, double, boolean)}),
+     *   reading only the tuples that match a filter on the key. An index that
+     *   holds every field of the table the plan refers to is read without
+     *   reading the table, and may then be read whole instead of the table.
+     *   If an index path is cheaper than scanning the whole table, the table's
+     *   SeqScan in subplanMap is replaced by a {@link BTreeScan} or {@link IndexScan}
+     *   that applies the filter. Of several such paths, the cheapest is chosen.
+     *  @return the filters applied by the index scans
+     */
+    private Set<LogicalFilterNode> chooseIndexScans(TransactionId t, Map<String,TableStats> statsMap, boolean explain) throws ParsingException {
+        Set<LogicalFilterNode> chosen = new HashSet<LogicalFilterNode>();
+        for (LogicalScanNode table : tables) {
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(table.t);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s == null || (!(file instanceof BTreeFile) && indexes.isEmpty()))
+                continue;
+            TupleDesc td = subplanMap.get(table.alias).getTupleDesc();
+            Set<String> referenced = referencedFields(table.alias);
+
+            // the cheapest path so far: its index (null for the table's own
+            // B+ tree), and the filter it applies
+            boolean found = false;
+            SecondaryIndex bestIndex = null;
+            boolean bestIndexOnly = false;
+            LogicalFilterNode best = null;
+            Field bestConstant = null;
+            double bestCost = s.estimateScanCost();
+
+            for (SecondaryIndex index : indexes) {
+                boolean indexOnly = referenced != null && index.covers(referenced);
+                if (indexOnly && s.estimateIndexScanCost(index, 1.0, true) < bestCost) {
+                    found = true;
+                    bestIndex = index;
+                    bestIndexOnly = true;
+                    best = null;
+                    bestConstant = null;
+                    bestCost = s.estimateIndexScanCost(index, 1.0, true);
+                }
+                for (LogicalFilterNode lf : keyFilters(table.alias, td, index.getKeyField())) {
+                    Field f = filterConstant(lf, td.getFieldType(index.getKeyField()));
+                    double sel = s.estimateSelectivity(index.getKeyField(), lf.p, f);
+                    double cost = s.estimateIndexScanCost(index, sel, indexOnly);
+                    if (cost < bestCost) {
+                        found = true;
+                        bestIndex = index;
+                        bestIndexOnly = indexOnly;
+                        best = lf;
+                        bestConstant = f;
+                        bestCost = cost;
+                    }
+                }
+            }
+            if (file instanceof BTreeFile) {
+                int key = ((BTreeFile) file).keyField();
+                for (LogicalFilterNode lf : keyFilters(table.alias, td, key)) {
+                    Field f = filterConstant(lf, td.getFieldType(key));
+                    double cost = s.estimateIndexScanCost(s.estimateSelectivity(key, lf.p, f));
+                    if (cost < bestCost) {
+                        found = true;
+                        bestIndex = null;
+                        best = lf;
+                        bestConstant = f;
+                        bestCost = cost;
+                    }
+                }
+            }
+            if (!found)
+                continue;
+
+            IndexPredicate ipred = best == null ? null : new IndexPredicate(best.p, bestConstant);
+            if (best != null)
+                chosen.add(best);
+            if (bestIndex == null)
+                subplanMap.put(table.alias, new BTreeScan(t, table.t, table.alias, ipred));
+            else
+                subplanMap.put(table.alias, new IndexScan(t, bestIndex, table.alias, ipred, bestIndexOnly));
+            if (explain)
+                System.out.println((bestIndexOnly ? "Index-only scan of " : "Index scan of ")
+                        + table.alias + (bestIndex == null ? "" : " via " + bestIndex.getName())
+                        + (best == null ? "" : " for " + best.fieldQuantifiedName + " " + best.p + " " + best.c)
+                        + ", cost " + bestCost + " (full scan " + s.estimateScanCost() + ")");
+        }
+        return chosen;
+    }
+
+    // the filters on a table that an index keyed on field key can apply
+    private List<LogicalFilterNode> keyFilters(String alias, TupleDesc td, int key) {
+        List<LogicalFilterNode> keyFilters = new ArrayList<LogicalFilterNode>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(alias) || lf.p == Predicate.Op.LIKE
+                    || lf.p == Predicate.Op.NOT_EQUALS)
+                continue;
+            try {
+                if (td.fieldNameToIndex(lf.fieldQuantifiedName) == key)
+                    keyFilters.add(lf);
+            } catch (NoSuchElementException e) {
+                // reported when the filters are built
+            }
+        }
+        return keyFilters;
+    }
+
+    /** @return the names of the fields of the table with the given alias
+     *    that the plan refers to, or null if it refers to all of them
+     */
+    private Set<String> referencedFields(String alias) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        names.addAll(groupByFields);
+        if (hasOrderBy)
+            names.add(oByField);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+        Set<String> fields = new HashSet<String>();
+        for (String name : names) {
+            String[] parts = name.split("[.]");
+            if (parts.length != 2)
+                return null;
+            if (parts[1].equals("*") && (parts[0].equals("null") || parts[0].equals(alias)))
+                return null;
+            if (parts[0].equals(alias))
+                fields.add(parts[1]);
+        }
+        return fields;
+    }
+
+    /** Find the aggregate computed for a select list entry.
+     *  @param si an aggregate entry of the select list
+     *  @param ordinal the number of aggregate entries preceding si in the select list,
+     *    used when si does not name its field the same way as {@link #addAggregate}
+     *  @return the index of the aggregate among those added via {@link #addAggregate}
+     *  @throws ParsingException if the select list has more aggregates than the plan
+     */
+    private int aggregateIndex(LogicalSelectListNode si, int ordinal) throws ParsingException {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.elementAt(i).equalsIgnoreCase(si.aggOp) && aggFields.elementAt(i).equals(si.fname))
+                return i;
+        }
+        if (ordinal >= aggOps.size())
+            throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") in SELECT list has no matching aggregate");
+        return ordinal;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Computes any number of aggregates over a composite group-by key in a single
+ * pass. All aggregates share one group table, keyed by the list of group-by
+ * field values, so the child only has to be scanned once no matter how many
+ * aggregate expressions appear in the select list.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] gbfields;
+    private Type[] gbfieldtypes;
+    private int[] afields;
+    private Op[] whats;
+    // a map of composite groupVal -> AggregateFields
+    private LinkedHashMap<List<Field>, AggregateFields> groups;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple; an
+     *            empty array if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group by fields, in the same order as
+     *            gbfields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields, in the same order as
+     *            afields
+     * @param whats
+     *            the aggregation operator for each entry of afields
+     * @throws IllegalArgumentException
+     *             if an operator is not supported over the type of its field
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] whats) {
+        if (afields.length != whats.length || afields.length != afieldtypes.length)
+            throw new IllegalArgumentException(
+                    "Each aggregate field needs exactly one operator");
+        if (gbfields.length != gbfieldtypes.length)
+            throw new IllegalArgumentException(
+                    "Each group by field needs exactly one type");
+        for (int i = 0; i < whats.length; i++) {
+            switch (whats[i]) {
+            case COUNT:
+                break;
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+                if (afieldtypes[i] != Type.INT_TYPE)
+                    throw new IllegalArgumentException("Invalid operator type "
+                            + whats[i] + " over " + afieldtypes[i]);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid operator type "
+                        + whats[i]);
+            }
+        }
+        this.gbfields = gbfields;
+        this.gbfieldtypes = gbfieldtypes;
+        this.afields = afields;
+        this.whats = whats;
+        this.groups = new LinkedHashMap<List<Field>, AggregateFields>();
+    }
+
+    /**
+     * @return the TupleDesc of the tuples returned by {@link #iterator}: the
+     *         group by fields in order, followed by one INT_TYPE column per
+     *         aggregate
+     */
+    public TupleDesc getTupleDesc() {
+        Type[] typeAr = new Type[gbfields.length + afields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            typeAr[i] = gbfieldtypes[i];
+        for (int i = 0; i < afields.length; i++)
+            typeAr[gbfields.length + i] = Type.INT_TYPE;
+        return new TupleDesc(typeAr);
+    }
+
+    /**
+     * Merge a new tuple into every aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate fields and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        List<Field> groupVal = new ArrayList<Field>(gbfields.length);
+        for (int i = 0; i < gbfields.length; i++)
+            groupVal.add(tup.getField(gbfields[i]));
+
+        AggregateFields agg = groups.get(groupVal);
+        if (agg == null) {
+            agg = new AggregateFields(afields.length);
+            groups.put(groupVal, agg);
+        }
+
+        for (int i = 0; i < afields.length; i++) {
+            agg.count[i]++;
+            if (whats[i] == Op.COUNT)
+                continue;
+            int x = ((IntField) tup.getField(afields[i])).getValue();
+            agg.sum[i] += x;
+            agg.min[i] = (x < agg.min[i] ? x : agg.min[i]);
+            agg.max[i] = (x > agg.max[i] ? x : agg.max[i]);
+        }
+    }
+
+    /**
+     * Merge the groups of another MultiAggregator into this one.
+     *
+     * @param other
+     *            a MultiAggregator with the same parameters as this one
+     */
+    public void merge(Aggregator other) {
+        for (Map.Entry<List<Field>, AggregateFields> e : ((MultiAggregator) other).groups
+                .entrySet()) {
+            AggregateFields o = e.getValue();
+            AggregateFields agg = groups.get(e.getKey());
+            if (agg == null) {
+                agg = new AggregateFields(afields.length);
+                groups.put(e.getKey(), agg);
+            }
+
+            for (int i = 0; i < afields.length; i++) {
+                agg.count[i] += o.count[i];
+                agg.sum[i] += o.sum[i];
+                agg.min[i] = (o.min[i] < agg.min[i] ? o.min[i] : agg.min[i]);
+                agg.max[i] = (o.max[i] > agg.max[i] ? o.max[i] : agg.max[i]);
+            }
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group by values followed by
+     *         one value per aggregate, as described by {@link #getTupleDesc}
+     */
+    public DbIterator iterator() {
+        LinkedList<Tuple> result = new LinkedList<Tuple>();
+        TupleDesc td = getTupleDesc();
+
+        // iterate over groups and create summary tuples
+        for (Map.Entry<List<Field>, AggregateFields> e : groups.entrySet()) {
+            AggregateFields agg = e.getValue();
+            Tuple tup = new Tuple(td);
+
+            int i = 0;
+            for (Field f : e.getKey())
+                tup.setField(i++, f);
+            for (int a = 0; a < afields.length; a++) {
+                int val = 0;
+                switch (whats[a]) {
+                case MIN:
+                    val = agg.min[a];
+                    break;
+                case MAX:
+                    val = agg.max[a];
+                    break;
+                case SUM:
+                    val = agg.sum[a];
+                    break;
+                case COUNT:
+                    val = agg.count[a];
+                    break;
+                case AVG:
+                    val = agg.sum[a] / agg.count[a];
+                    break;
+                default:
+                    break;
+                }
+                tup.setField(i++, new IntField(val));
+            }
+
+            result.add(tup);
+        }
+
+        return new TupleIterator(td, Collections.unmodifiableList(result));
+    }
+
+    /**
+     * A helper struct to store the accumulated values of every aggregate for
+     * one group.
+     */
+    private class AggregateFields {
+        public int[] min, max, sum, count;
+
+        public AggregateFields(int n) {
+            min = new int[n];
+            max = new int[n];
+            sum = new int[n];
+            count = new int[n];
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+        }
+    }
+
+}
@@ -57,6 +57,7 @@ public abstract class Operator implements DbIterator {
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
+    private double estimatedCost = 0;
 
     public void open() throws DbException, TransactionAbortedException {
         this.open = true;
@@ -104,4 +105,20 @@ public abstract class Operator implements DbIterator {
         this.estimatedCardinality = card;
     }
 
+    /**
+     * @return The estimated cost of computing this operator, as set by the
+     *         optimizer when it chose how to compute it, or 0 if it did not
+     * */
+    public double getEstimatedCost() {
+        return this.estimatedCost;
+    }
+
+    /**
+     * @param cost
+     *            The estimated cost of computing this operator
+     * */
+    protected void setEstimatedCost(double cost) {
+        this.estimatedCost = cost;
+    }
+
 }
@@ -24,6 +24,11 @@ public class OperatorCardinality {
         if (o instanceof Filter) {
             return updateFilterCardinality((Filter) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof ParallelSeqScan) {
+            o.setEstimatedCardinality(tableStats.get(
+                    ((ParallelSeqScan) o).getTableName())
+                    .estimateTableCardinality(1.0));
+            return false;
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
@@ -32,6 +37,9 @@ public class OperatorCardinality {
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof BatchesToRows) {
+            return updateBatchesCardinality((BatchesToRows) o, tableAliasToId,
+                    tableStats);
         } else {
             DbIterator[] children = o.getChildren();
             int childC = 1;
@@ -52,6 +60,26 @@ public class OperatorCardinality {
         }
     }
 
+    // the batch operators above the row input are not estimated separately;
+    // they return as many tuples as it does
+    private static boolean updateBatchesCardinality(BatchesToRows b,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        DbIterator input = b.getRowInput();
+        int childC = 1;
+        boolean hasJoinPK = false;
+        if (input instanceof Operator) {
+            hasJoinPK = updateOperatorCardinality((Operator) input,
+                    tableAliasToId, tableStats);
+            childC = ((Operator) input).getEstimatedCardinality();
+        } else if (input instanceof SeqScan) {
+            childC = tableStats.get(((SeqScan) input).getTableName())
+                    .estimateTableCardinality(1.0);
+        }
+        b.setEstimatedCardinality(childC);
+        return hasJoinPK;
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -224,24 +252,28 @@ public class OperatorCardinality {
                     .estimateTableCardinality(1.0));
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
+        // the number of groups is at most the product of the number of
+        // distinct values of each group by field
+        double numGroups = 1.0;
+        for (String groupFieldName : a.groupFieldNames()) {
+            String[] tmp = groupFieldName.split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
 
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+            numGroups *= 1.0 / groupFieldAvgSelectivity;
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) (Math.min(childCard, numGroups)));
         return hasJoinPK;
     }
 }
@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * ParallelSeqScan reads every tuple of a heap file using several worker
+ * threads. The pages of the file are divided into small contiguous ranges
+ * ("morsels") which the workers claim one at a time from a shared counter, so
+ * that a worker that finishes early simply takes the next morsel. Each worker
+ * applies the scan's predicates to the bytes of the pages it reads, and
+ * projection to the qualifying tuples, and hands the survivors to the consumer
+ * through a bounded queue.
+ *
+ * Tuples are returned in no particular order.
+ */
+public class ParallelSeqScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages in a morsel */
+    public static final int DEFAULT_MORSEL_PAGES = 4;
+    /** Default capacity of the queue between the workers and the consumer */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final HeapFile file;
+    private final int dop;
+    private int morselPages = DEFAULT_MORSEL_PAGES;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private final ArrayList<Predicate> preds = new ArrayList<Predicate>();
+    // predicates pushed down by a Filter above this scan
+    private List<Predicate> pushed = Collections.emptyList();
+    private ArrayList<Integer> outFieldIds = null;
+    private TupleDesc td;
+    private transient CompiledPredicate compiled;
+
+    // state of the running scan
+    private transient ExecutorService pool;
+    private transient BlockingQueue<Tuple> queue;
+    private transient AtomicReference<Throwable> error;
+    private int finished;
+
+    // marks the end of one worker's output in the queue
+    private static final Tuple END = new Tuple(new TupleDesc(
+            new Type[] { Type.INT_TYPE }));
+
+    /**
+     * Creates a parallel sequential scan over the specified table as a part of
+     * the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a HeapFile
+     * @param tableAlias
+     *            the alias of this table, used to prefix the field names as
+     *            in {@link SeqScan}
+     * @param dop
+     *            the number of worker threads
+     * @throws IllegalArgumentException
+     *             if the table is not a HeapFile or dop is less than 1
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+            int dop) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException(
+                    "ParallelSeqScan only supports heap files");
+        if (dop < 1)
+            throw new IllegalArgumentException("dop must be at least 1");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.file = (HeapFile) f;
+        this.dop = dop;
+        this.td = scanTupleDesc();
+    }
+
+    public ParallelSeqScan(TransactionId tid, int tableid, int dop) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), dop);
+    }
+
+    /**
+     * @return the name of the table scanned by this operator
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table scanned by this operator
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getParallelism() {
+        return dop;
+    }
+
+    /**
+     * Add a predicate that tuples must satisfy to be returned. Predicates
+     * refer to fields of the table, before any projection, and are evaluated
+     * by the workers.
+     */
+    public void addPredicate(Predicate p) {
+        preds.add(p);
+    }
+
+    /**
+     * Set the predicates a Filter above this scan pushes down into it, for
+     * the workers to evaluate, replacing any it pushed before. Takes effect
+     * the next time the scan is opened.
+     */
+    void pushDown(List<Predicate> preds) {
+        pushed = preds;
+    }
+
+    /**
+     * Only return the given fields of each tuple, in the given order.
+     *
+     * @param fieldList
+     *            the ids of the table fields to return
+     */
+    public void setProjection(ArrayList<Integer> fieldList) {
+        TupleDesc scantd = scanTupleDesc();
+        Type[] types = new Type[fieldList.size()];
+        String[] names = new String[fieldList.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = scantd.getFieldType(fieldList.get(i));
+            names[i] = scantd.getFieldName(fieldList.get(i));
+        }
+        this.outFieldIds = fieldList;
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * Set the number of pages handed to a worker at a time.
+     */
+    public void setMorselPages(int morselPages) {
+        if (morselPages < 1)
+            throw new IllegalArgumentException("a morsel needs at least one page");
+        this.morselPages = morselPages;
+    }
+
+    /**
+     * Set the capacity of the queue between the workers and the consumer.
+     * Workers block when the queue is full.
+     */
+    public void setQueueSize(int queueSize) {
+        if (queueSize < 1)
+            throw new IllegalArgumentException("queue size must be at least 1");
+        this.queueSize = queueSize;
+    }
+
+    private TupleDesc scanTupleDesc() {
+        TupleDesc filetd = file.getTupleDesc();
+        Type[] types = new Type[filetd.numFields()];
+        String[] names = new String[filetd.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = filetd.getFieldType(i);
+            names[i] = tableAlias + "." + filetd.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        queue = new ArrayBlockingQueue<Tuple>(queueSize);
+        error = new AtomicReference<Throwable>();
+        finished = 0;
+        ArrayList<Predicate> all = new ArrayList<Predicate>(preds);
+        all.addAll(pushed);
+        compiled = file.compile(all);
+        pool = Executors.newFixedThreadPool(dop);
+        final int numPages = file.numPages();
+        final BlockingQueue<Tuple> q = queue;
+        final AtomicInteger counter = new AtomicInteger(0);
+        final AtomicReference<Throwable> err = error;
+        for (int i = 0; i < dop; i++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    scanMorsels(numPages, q, counter, err);
+                }
+            });
+        }
+        super.open();
+    }
+
+    /**
+     * Worker loop: claim morsels until the file is exhausted, pushing the
+     * qualifying tuples onto the queue, then push END. The state is passed
+     * in so that workers of a closed scan cannot touch a reopened one.
+     */
+    private void scanMorsels(int numPages, BlockingQueue<Tuple> q,
+            AtomicInteger counter, AtomicReference<Throwable> err) {
+        try {
+            try {
+                int start;
+                while ((start = counter.getAndAdd(morselPages)) < numPages) {
+                    int end = Math.min(start + morselPages, numPages);
+                    DbFileIterator it = file.iterator(tid, start, end, compiled);
+                    it.open();
+                    try {
+                        while (it.hasNext())
+                            q.put(project(it.next()));
+                    } finally {
+                        it.close();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the scan was closed; stop quietly
+                return;
+            } catch (Throwable e) {
+                err.compareAndSet(null, e);
+            }
+            q.put(END);
+        } catch (InterruptedException e) {
+            // the scan was closed while we were finishing
+        }
+    }
+
+    private Tuple project(Tuple t) {
+        if (outFieldIds == null)
+            return t;
+        Tuple out = new Tuple(td);
+        out.setRecordId(t.getRecordId());
+        for (int i = 0; i < outFieldIds.size(); i++)
+            out.setField(i, t.getField(outFieldIds.get(i)));
+        return out;
+    }
+
+    protected Tuple fetchNext() throws DbException,
+            TransactionAbortedException {
+        while (finished < dop) {
+            Tuple t;
+            try {
+                t = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while scanning: " + e);
+            }
+            if (t != END)
+                return t;
+            finished++;
+            Throwable e = error.get();
+            if (e != null) {
+                if (e instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) e;
+                if (e instanceof DbException)
+                    throw (DbException) e;
+                throw new DbException("parallel scan failed: " + e);
+            }
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        queue = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+
+}
@@ -107,6 +107,8 @@ public class Parser {
                     try {
                         LogicalPlan sublp = parseQueryLogicalPlan(tid,
                                 (ZQuery) ops.elementAt(1));
+                        TableStats.awaitTableStats(sublp
+                                .getTableAliasToIdMapping().values());
                         DbIterator pp = sublp.physicalPlan(tid,
                                 TableStats.getStatsMap(), explain);
                         lp.addJoin(tab1field, pp, op);
@@ -192,22 +194,18 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
+                groupByFields.addElement(groupByField);
                 System.out.println("GROUP BY FIELD : " + groupByField);
             }
 
@@ -217,8 +215,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -228,20 +226,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
+                aggFields.addElement(aggField);
+                aggFuns.addElement(aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -251,12 +247,15 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.elementAt(i), aggFields.elementAt(i), null);
         }
         // sort the data
 
@@ -286,9 +285,34 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
-        Query query = new Query(tId);
+        return handleQueryStatement(s, tId, null);
+    }
 
+    /**
+     * Plan a query, and cache its plan under stmt, the normalized text of the
+     * query, unless stmt is null.
+     */
+    Query handleQueryStatement(ZQuery s, TransactionId tId,
+            QueryPlanCache.Statement stmt) throws TransactionAbortedException,
+            DbException, IOException, simpledb.ParsingException,
+            Zql.ParseException {
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        Query query = handlePlannedQuery(lp, tId);
+        if (stmt != null)
+            Database.getPlanCache().put(stmt, lp);
+        return query;
+    }
+
+    /**
+     * Build the physical plan of a logical plan, e.g. one found in the
+     * {@link QueryPlanCache}, and print it.
+     */
+    private Query handlePlannedQuery(LogicalPlan lp, TransactionId tId)
+            throws simpledb.ParsingException {
+        Query query = new Query(tId);
+
+        // plan as soon as the stats of the tables in the query are ready
+        TableStats.awaitTableStats(lp.getTableAliasToIdMapping().values());
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -502,9 +526,15 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * Run a statement. A SELECT statement that differs from an earlier one
+     * only in its constants reuses the plan of the earlier one (see
+     * {@link QueryPlanCache}).
+     */
     public void processNextStatement(String s) {
         try {
-            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")),
+                    QueryPlanCache.normalize(s));
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -512,9 +542,21 @@ public class Parser {
     }
 
     public void processNextStatement(InputStream is) {
+        processNextStatement(is, null);
+    }
+
+    // run the statement read from is, whose normalized text is stmt, or
+    // null if it is not known
+    private void processNextStatement(InputStream is,
+            QueryPlanCache.Statement stmt) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            LogicalPlan cached = stmt == null ? null : Database
+                    .getPlanCache().lookup(stmt);
+            ZStatement s = null;
+            if (cached == null) {
+                ZqlParser p = new ZqlParser(is);
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -527,7 +569,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (cached != null)
+                        query = handlePlannedQuery(cached, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -535,7 +579,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), stmt);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -595,7 +639,7 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 7) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -605,10 +649,15 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel n] [-exchange] [-batch] [-f queryFile]";
     static final int SLEEP_TIME = 5000;
 
+    // where the table stats are saved between runs
+    protected File statsFile = null;
+
     protected void shutdown() {
+        if (statsFile != null)
+            TableStats.writeStatistics(statsFile);
         System.out.println("Bye");
     }
 
@@ -617,7 +666,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        statsFile = TableStats.statsFileFor(argv[0]);
+        TableStats.computeStatisticsInBackground(statsFile);
 
         String queryFile = null;
 
@@ -626,6 +676,23 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-exchange")) {
+                    LogicalPlan.setUseExchange(true);
+                    System.out.println("Pipelined execution with exchanges enabled.");
+                } else if (argv[i].equals("-batch")) {
+                    LogicalPlan.setUseBatches(true);
+                    System.out.println("Batch execution of aggregates and projections enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected degree of parallelism after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    Aggregate.setDefaultParallelism(Integer.parseInt(argv[i]));
+                    LogicalPlan.setScanParallelism(Integer.parseInt(argv[i]));
+                    System.out.println("Parallel aggregation and scans of tables of "
+                            + LogicalPlan.getParallelScanPages() + " pages or more enabled with "
+                            + argv[i] + " threads.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -684,7 +751,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -693,8 +759,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is an implementation of a DbFile that, like a HeapFile, stores a
+ * collection of tuples in no particular order on fixed-size pages, but lays
+ * each page out column by column, as described in the {@link PaxPage}
+ * constructor. It suits analytic tables that are scanned for a few of many
+ * fields: {@link #iterator(TransactionId, CompiledPredicate, int[])}
+ * evaluates a predicate on the minipages of the fields it reads and decodes
+ * only the fields asked for, which {@link SeqScan} uses for the predicates of
+ * the Filters and the fields of the Project above it.
+ * <p>
+ * Like a HeapFile, a PaxFile may store its pages compressed, in a
+ * {@link CompressedPageFile}.
+ *
+ * @see PaxPage#PaxPage
+ */
+public class PaxFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    // null if the pages are not compressed
+    private final CompressedPageFile compressed;
+
+    /**
+     * Constructs a PAX file backed by the specified file. Its pages are
+     * compressed if the file already stores them compressed.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, whose pages are
+     * stored compressed if compress is true. The pages of a file that
+     * already stores them uncompressed are compressed first.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     * @param compress
+     *            whether to store the pages compressed; a file that already
+     *            stores them compressed keeps doing so either way
+     */
+    public PaxFile(File f, TupleDesc td, boolean compress) {
+        this.file = f;
+        this.td = td;
+        if (compress || CompressedPageFile.isCompressed(f)) {
+            try {
+                if (!CompressedPageFile.isCompressed(f) && f.length() > 0)
+                    CompressedPageFile.convert(f, BufferPool.getPageSize(),
+                            BufferPool.getPageSize());
+                this.compressed = new CompressedPageFile(f);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            this.compressed = null;
+        }
+    }
+
+    /**
+     * Returns the File backing this PaxFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this PaxFile, the hash code of the
+     * absolute name of its file.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.pageNumber() < 0 || pid.pageNumber() >= numPages())
+            throw new IllegalArgumentException("page " + pid.pageNumber() + " is not in "
+                    + file);
+        try {
+            byte[] data;
+            if (compressed != null) {
+                data = compressed.read(pid.pageNumber(), BufferPool.getPageSize());
+            } else {
+                data = new byte[BufferPool.getPageSize()];
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    raf.seek((long) pid.pageNumber() * BufferPool.getPageSize());
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+            }
+            return new PaxPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    // write the bytes of a page to the file, compressed if its pages are
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        if (compressed != null) {
+            compressed.write(pgNo, data);
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek((long) pgNo * BufferPool.getPageSize());
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        if (compressed != null)
+            return compressed.numPages();
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        // find the first page with an empty slot
+        for (int i = 0; i < numPages(); i++) {
+            PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                dirtied.add(page);
+                return dirtied;
+            }
+        }
+        // all pages are full: append an empty page to the file and insert there
+        int pgNo;
+        synchronized (this) {
+            pgNo = numPages();
+            writePageData(pgNo, PaxPage.createEmptyPageData());
+        }
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+        page.insertTuple(t);
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not a member of this file");
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy a
+     * predicate, with only some of their fields decoded. The predicate is
+     * evaluated on the minipages of the fields it reads, so tuples that do
+     * not satisfy it are never materialized, and the minipages of the other
+     * fields are not read.
+     *
+     * @param pred
+     *            the predicate, as built by {@link CompiledPredicate#compile},
+     *            or null for all tuples
+     * @param fields
+     *            the fields to decode, or null for all of them; the other
+     *            fields of the tuples returned are not set
+     */
+    public DbFileIterator iterator(TransactionId tid, CompiledPredicate pred, int[] fields) {
+        return new PaxFileIterator(tid, pred, fields);
+    }
+
+    private class PaxFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final CompiledPredicate pred;
+        private final int[] fields;
+        private int pgNo;
+        private Iterator<Tuple> tuples;
+
+        PaxFileIterator(TransactionId tid, CompiledPredicate pred, int[] fields) {
+            this.tid = tid;
+            this.pred = pred;
+            this.fields = fields;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            pgNo = 0;
+            tuples = Collections.<Tuple>emptyList().iterator();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            tuples = null;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (tuples == null)
+                return null;
+            while (!tuples.hasNext()) {
+                if (pgNo >= numPages())
+                    return null;
+                PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), pgNo++), Permissions.READ_ONLY);
+                tuples = page.iterator(pred, fields);
+            }
+            return tuples.next();
+        }
+    }
+}
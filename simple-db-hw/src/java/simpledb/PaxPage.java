@@ -0,0 +1,335 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of PaxPage stores data for one page of a PaxFile and
+ * implements the Page interface that is used by BufferPool. Unlike a
+ * HeapPage, which stores its tuples one after the other, a PaxPage stores
+ * them column by column (the PAX layout), so that reading some of the fields
+ * of its tuples only touches the bytes of those fields.
+ *
+ * @see PaxFile
+ * @see BufferPool
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final int headerSize;
+
+    // the bytes of the page, kept up to date as tuples are inserted and deleted
+    final byte[] data;
+    // offset in data of the minipage of each field
+    final int[] columnOffsets;
+    // the bytes each field takes
+    final int[] fieldSizes;
+
+    TransactionId dirtier;		//transaction that last dirtied the page, if dirty
+    boolean dirty = false;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk. A PaxPage
+     * has as many tuple slots as a HeapPage of the same table,
+     * <p>
+     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     * <p>
+     * and starts with the same header bytes indicating the slots that are in
+     * use. The header is followed by one minipage per field, in field order:
+     * the minipage of a field holds the value of that field in every slot, in
+     * slot order, serialized as in a HeapPage. The slots that are not in use
+     * hold zeros.
+     * <p>
+     * Tuples are decoded from the minipages when they are read, and only the
+     * fields asked for; see {@link #iterator(CompiledPredicate, int[])}.
+     *
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#getPageSize()
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (data.length != BufferPool.getPageSize())
+            throw new IOException("a page of " + data.length + " bytes, where pages have "
+                    + BufferPool.getPageSize());
+        this.numSlots = getNumSlots(td);
+        this.headerSize = (numSlots + 7) / 8;
+        this.data = data.clone();
+        this.fieldSizes = new int[td.numFields()];
+        this.columnOffsets = new int[td.numFields()];
+        int off = headerSize;
+        for (int j = 0; j < fieldSizes.length; j++) {
+            fieldSizes[j] = td.getFieldType(j).getLen();
+            columnOffsets[j] = off;
+            off += numSlots * fieldSizes[j];
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of tuples a page of tuples of schema td has room for
+     */
+    static int getNumSlots(TupleDesc td) {
+        return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the offset in the page data of field j of the tuple in slot
+     *         slotId
+     */
+    private int fieldOffset(int slotId, int j) {
+        return columnOffsets[j] + slotId * fieldSizes[j];
+    }
+
+    /**
+     * Decode some of the fields of the tuple in a used slot; the others are
+     * left unset.
+     *
+     * @param fields
+     *            the fields to decode, or null for all of them
+     */
+    private Tuple getTuple(int slotId, int[] fields) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int n = fields == null ? td.numFields() : fields.length;
+        for (int k = 0; k < n; k++) {
+            int j = fields == null ? k : fields[k];
+            int off = fieldOffset(slotId, j);
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(CompiledPredicate.intValue(data, off)));
+                continue;
+            }
+            try {
+                t.setField(j, td.getFieldType(j).parse(new DataInputStream(
+                        new ByteArrayInputStream(data, off, fieldSizes[j]))));
+            } catch (java.text.ParseException e) {
+                e.printStackTrace();
+                throw new NoSuchElementException("parsing error!");
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return the tuple in slot slotId, or null if the slot is empty
+     */
+    Tuple getTupleInSlot(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId))
+            return null;
+        return getTuple(slotId, null);
+    }
+
+    /**
+     * @return true if the tuple in used slot slotId satisfies pred, evaluated
+     *         on the minipages of the fields it reads
+     */
+    private boolean slotMatches(int slotId, CompiledPredicate pred, int[] scratch) {
+        for (int j = 0; j < scratch.length; j++)
+            scratch[j] = fieldOffset(slotId, j);
+        return pred.eval(data, 0, scratch);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the PaxPage constructor and
+     * have it produce an identical PaxPage object.
+     *
+     * @see #PaxPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     * Used to add new, empty pages to the file. Passing the results of
+     * this method to the PaxPage constructor will create a PaxPage with
+     * no valid tuples in it.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("tuple slot is already empty");
+        markSlotUsed(slot, false);
+        for (int j = 0; j < fieldSizes.length; j++)
+            Arrays.fill(data, fieldOffset(slot, j), fieldOffset(slot, j) + fieldSizes[j], (byte) 0);
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatched");
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                continue;
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+            DataOutputStream dos = new DataOutputStream(baos);
+            try {
+                for (int j = 0; j < fieldSizes.length; j++)
+                    t.getField(j).serialize(dos);
+                dos.flush();
+            } catch (IOException e) {
+                // a ByteArrayOutputStream does not throw
+                throw new RuntimeException(e);
+            }
+            byte[] bytes = baos.toByteArray();
+            int off = 0;
+            for (int j = 0; j < fieldSizes.length; j++) {
+                System.arraycopy(bytes, off, data, fieldOffset(i, j), fieldSizes[j]);
+                off += fieldSizes[j];
+            }
+            markSlotUsed(i, true);
+            t.setRecordId(new RecordId(pid, i));
+            return;
+        }
+        throw new DbException("page is full");
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int used = 0;
+        for (int i = 0; i < headerSize; i++)
+            used += Integer.bitCount(data[i] & 0xff);
+        return numSlots - used;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return ((data[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    /**
+     * Abstraction to fill or clear a slot on this page.
+     */
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            data[i / 8] = (byte) (data[i / 8] | (1 << (i % 8)));
+        else
+            data[i / 8] = (byte) (data[i / 8] & ~(1 << (i % 8)));
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null, null);
+    }
+
+    /**
+     * @param pred
+     *            a predicate evaluated on the minipages of the fields it
+     *            reads, or null for all tuples
+     * @param fields
+     *            the fields of the tuples to decode, or null for all of
+     *            them; the other fields of the tuples returned are not set
+     * @return an iterator over the tuples on this page that satisfy pred
+     */
+    public Iterator<Tuple> iterator(final CompiledPredicate pred, final int[] fields) {
+        return new Iterator<Tuple>() {
+            int i = 0;
+            final int[] scratch = new int[td.numFields()];
+
+            public boolean hasNext() {
+                // skip the slots that are not used or whose tuple doesn't qualify
+                while (i < numSlots && (!isSlotUsed(i)
+                        || (pred != null && !slotMatches(i, pred, scratch))))
+                    i++;
+                return i < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(i++, fields);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
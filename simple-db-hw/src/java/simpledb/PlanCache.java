@@ -1,50 +1,161 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of tables.
+ * <p>
+ * Sets of tables are bitmasks over the indexes of the tables in the join
+ * graph: table i is in set s if bit (1L << i) of s is set, so a plan can
+ * join at most 64 tables. The best plan of a set is stored as its cost, its
+ * cardinality and the way it was built: the set of tables of its outer
+ * input (the inner input joins the rest) and the index of the join that
+ * joins them, so plans are not materialized until the best one is known.
+ * The sets are kept in an open-addressing hash table whose entries are spread
+ * over parallel arrays, so that adding or looking up a plan allocates
+ * nothing.
+ */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] sets = new long[INITIAL_CAPACITY]; // 0 marks a free entry
+    private double[] costs = new double[INITIAL_CAPACITY];
+    private int[] cards = new int[INITIAL_CAPACITY];
+    private long[] outers = new long[INITIAL_CAPACITY];
+    private int[] joins = new int[INITIAL_CAPACITY];
+    private boolean[] pkeys = new boolean[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /** Add a new cost, cardinality and plan for a particular set of tables.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified set
+        @param s the set of tables for which a new plan is being added; must not be empty
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param outer the tables of the outer input of the plan, or 0 if s is a single table
+        @param join the index of the join that joins the outer input to the rest of s
+        @param pkey whether one of the joins of the plan is on a primary key
+    */
+    void addPlan(long s, double cost, int card, long outer, int join, boolean pkey) {
+        if (s == 0)
+            throw new IllegalArgumentException("cannot cache the plan of no tables");
+        int i = find(s);
+        if (sets[i] == 0) {
+            if (2 * (size + 1) > sets.length) {
+                grow();
+                i = find(s);
+            }
+            sets[i] = s;
+            size++;
+        }
+        costs[i] = cost;
+        cards[i] = card;
+        outers[i] = outer;
+        joins[i] = join;
+        pkeys[i] = pkey;
+    }
+
+    /** @return true if the cache holds a plan for the specified set of tables */
+    boolean contains(long s) {
+        return s != 0 && sets[find(s)] == s;
+    }
+
+    /** Find the cost of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cost for
+        @return the cost of the best plan for s in the cache
+        @throws java.util.NoSuchElementException if there is no plan for s
+    */
+    double getCost(long s) {
+        return costs[entry(s)];
+    }
+
+    /** Find the cardinality of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
+        @throws java.util.NoSuchElementException if there is no plan for s
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+    int getCard(long s) {
+        return cards[entry(s)];
+    }
+
+    /** Find the outer input of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the outer input for
+        @return the tables of the outer input of the best plan for s, or 0 if s is a single table
+        @throws java.util.NoSuchElementException if there is no plan for s
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    long getOuter(long s) {
+        return outers[entry(s)];
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Find the join of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the join for
+        @return the index of the join that joins the inputs of the best plan for s
+        @throws java.util.NoSuchElementException if there is no plan for s
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    int getJoin(long s) {
+        return joins[entry(s)];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** @return whether one of the joins of the best plan for s is on a primary key
+        @throws java.util.NoSuchElementException if there is no plan for s
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    boolean hasPkey(long s) {
+        return pkeys[entry(s)];
+    }
+
+    /** @return the number of sets of tables the cache holds a plan for */
+    int size() {
+        return size;
+    }
+
+    // the entry of s, which must be in the cache
+    private int entry(long s) {
+        int i = s == 0 ? -1 : find(s);
+        if (i < 0 || sets[i] != s)
+            throw new java.util.NoSuchElementException("no plan for tables "
+                    + Long.toBinaryString(s));
+        return i;
+    }
+
+    // the entry holding s, or the free entry where it belongs
+    private int find(long s) {
+        int mask = sets.length - 1;
+        int i = hash(s) & mask;
+        while (sets[i] != 0 && sets[i] != s)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    // the sets of a join graph share their low bits, so mix them all in
+    private static int hash(long s) {
+        s ^= s >>> 33;
+        s *= 0xff51afd7ed558ccdL;
+        s ^= s >>> 33;
+        return (int) s;
+    }
+
+    private void grow() {
+        long[] oldSets = sets;
+        double[] oldCosts = costs;
+        int[] oldCards = cards;
+        long[] oldOuters = outers;
+        int[] oldJoins = joins;
+        boolean[] oldPkeys = pkeys;
+        int capacity = 2 * oldSets.length;
+        sets = new long[capacity];
+        costs = new double[capacity];
+        cards = new int[capacity];
+        outers = new long[capacity];
+        joins = new int[capacity];
+        pkeys = new boolean[capacity];
+        for (int j = 0; j < oldSets.length; j++) {
+            if (oldSets[j] == 0)
+                continue;
+            int i = find(oldSets[j]);
+            sets[i] = oldSets[j];
+            costs[i] = oldCosts[j];
+            cards[i] = oldCards[j];
+            outers[i] = oldOuters[j];
+            joins[i] = oldJoins[j];
+            pkeys[i] = oldPkeys[j];
+        }
     }
 }
@@ -4,6 +4,11 @@ import java.util.*;
 
 /**
  * Project is an operator that implements a relational projection.
+ * <p>
+ * If its child is a {@link SeqScan}, directly or through a stack of Filters
+ * whose predicates are pushed down into the scan, the scan is told which
+ * fields are projected out, so that over a {@link PaxFile} it decodes only
+ * those.
  */
 public class Project extends Operator {
 
@@ -47,6 +52,11 @@ public class Project extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        DbIterator c = child;
+        while (c instanceof Filter)
+            c = ((Filter) c).getChildren()[0];
+        if (c instanceof SeqScan)
+            ((SeqScan) c).projectDown(outFieldIds);
         child.open();
         super.open();
     }
@@ -0,0 +1,258 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * QueryPlanCache keeps the optimized plans of recently run queries, so that a
+ * query that differs from an earlier one only in the constants it compares
+ * fields against is not parsed and optimized again.
+ * <p>
+ * Queries are looked up by their normalized text (see {@link #normalize}),
+ * in which every number and quoted string is replaced by a <tt>?</tt>
+ * placeholder. The plan kept for a query is its {@link LogicalPlan} after
+ * {@link LogicalPlan#physicalPlan} has ordered its joins; physical operators
+ * belong to the transaction they were built for and cannot be shared, so a
+ * hit returns a copy of the plan whose filters compare against the new
+ * constants, which builds its operators without ordering the joins again.
+ * <p>
+ * A plan is dropped when the catalog is modified, or when the statistics of
+ * one of its tables are replaced: that is, recomputed because so many tuples
+ * changed that the old ones no longer describe the table (see
+ * {@link TableStats#getRefreshFraction}). The least recently used plan is
+ * dropped when the cache is full.
+ *
+ * @Threadsafe
+ */
+public class QueryPlanCache {
+
+    /** Default number of plans kept */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** A query in normalized form, and the constants taken out of it. */
+    public static class Statement {
+        private final String text;
+        private final List<String> params;
+
+        Statement(String text, List<String> params) {
+            this.text = text;
+            this.params = params;
+        }
+
+        /** @return the normalized text of the query */
+        public String getText() {
+            return text;
+        }
+
+        /** @return the constants of the query, in the order they appear in it */
+        public List<String> getParams() {
+            return params;
+        }
+    }
+
+    // a cached plan, and what it was planned against
+    private static class Entry {
+        final LogicalPlan plan;
+        final String[] tables;
+        final TableStats[] stats;
+
+        Entry(LogicalPlan plan, String[] tables, TableStats[] stats) {
+            this.plan = plan;
+            this.tables = tables;
+            this.stats = stats;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> plans;
+    private long catalogVersion = -1;
+    private int hits = 0, misses = 0;
+
+    /** Create a cache holding up to {@link #DEFAULT_CAPACITY} plans. */
+    public QueryPlanCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param capacity
+     *            the number of plans kept
+     */
+    public QueryPlanCache(final int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("plan cache must hold at least one plan");
+        plans = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Normalize the text of a SELECT statement: runs of white space become a
+     * single space, and every number and quoted string becomes a <tt>?</tt>.
+     * Keywords and names are kept as they are.
+     *
+     * @param sql
+     *            the text of a statement
+     * @return the normalized statement, or null if the statement is not a
+     *         query whose plan can be cached: it is not a SELECT, it has a
+     *         subquery, or it cannot be split into tokens
+     */
+    public static Statement normalize(String sql) {
+        StringBuilder text = new StringBuilder(sql.length());
+        ArrayList<String> params = new ArrayList<String>();
+        int selects = 0;
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(sql.charAt(i)))
+                    i++;
+                if (text.length() > 0 && i < n)
+                    text.append(' ');
+            } else if (c == '\'' || c == '"') {
+                int end = sql.indexOf(c, i + 1);
+                if (end < 0)
+                    return null;
+                params.add(sql.substring(i + 1, end));
+                text.append('?');
+                i = end + 1;
+            } else if (Character.isDigit(c)
+                    || (c == '.' && i + 1 < n && Character.isDigit(sql.charAt(i + 1)))) {
+                int start = i;
+                while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                    i++;
+                params.add(sql.substring(start, i));
+                text.append('?');
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < n && (Character.isLetterOrDigit(sql.charAt(i))
+                        || sql.charAt(i) == '_' || sql.charAt(i) == '.'))
+                    i++;
+                String word = sql.substring(start, i);
+                if (word.equalsIgnoreCase("select"))
+                    selects++;
+                text.append(word);
+            } else if (c == '?') {
+                // a placeholder in the query itself would be taken for a constant
+                return null;
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+        if (selects != 1 || !text.toString().regionMatches(true, 0, "select", 0, 6))
+            return null;
+        return new Statement(text.toString(), params);
+    }
+
+    /**
+     * Find the plan of a query.
+     *
+     * @param stmt
+     *            the normalized query
+     * @return a plan for the query, with its joins already ordered, or null if
+     *         no valid plan for it is cached
+     */
+    public synchronized LogicalPlan lookup(Statement stmt) {
+        checkCatalog();
+        Entry e = plans.get(stmt.getText());
+        if (e != null && !current(e)) {
+            plans.remove(stmt.getText());
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.plan.bind(stmt.getParams());
+    }
+
+    /**
+     * Cache the plan of a query, once {@link LogicalPlan#physicalPlan} has
+     * ordered its joins. The plan is not cached if it joins a subquery, or if
+     * its filters do not compare against the constants of the query, in
+     * order: a constant that is not a filter's cannot be substituted.
+     *
+     * @param stmt
+     *            the normalized query
+     * @param lp
+     *            the plan of the query
+     * @return true if the plan was cached
+     */
+    public synchronized boolean put(Statement stmt, LogicalPlan lp) {
+        if (lp.hasSubqueries() || !lp.getFilterConstants().equals(stmt.getParams()))
+            return false;
+        checkCatalog();
+        ArrayList<String> tables = new ArrayList<String>();
+        for (Integer id : lp.getTableAliasToIdMapping().values()) {
+            String name = Database.getCatalog().getTableName(id);
+            if (!tables.contains(name))
+                tables.add(name);
+        }
+        Map<String, TableStats> statsMap = TableStats.getStatsMap();
+        TableStats[] stats = new TableStats[tables.size()];
+        for (int i = 0; i < stats.length; i++)
+            stats[i] = statsMap.get(tables.get(i));
+        // keep a copy, so that the cache does not hold on to the operators
+        // built for the transaction that planned the query
+        plans.put(stmt.getText(), new Entry(lp.bind(stmt.getParams()),
+                tables.toArray(new String[0]), stats));
+        return true;
+    }
+
+    /** Drop every plan. */
+    public synchronized void clear() {
+        plans.clear();
+    }
+
+    /** @return the number of plans cached */
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    /** @return the number of lookups that found a plan */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that did not find a plan */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    // drop every plan if the catalog changed since they were cached
+    private void checkCatalog() {
+        long version = Database.getCatalog().getVersion();
+        if (version != catalogVersion) {
+            plans.clear();
+            catalogVersion = version;
+        }
+    }
+
+    // whether the statistics e was planned with are still those of its tables
+    private static boolean current(Entry e) {
+        Map<String, TableStats> statsMap = TableStats.getStatsMap();
+        for (int i = 0; i < e.tables.length; i++)
+            if (statsMap.get(e.tables[i]) != e.stats[i])
+                return false;
+        return true;
+    }
+
+    /** @return a string listing the cached queries, for debugging purposes */
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        Iterator<String> it = plans.keySet().iterator();
+        while (it.hasNext())
+            sb.append(it.next()).append('\n');
+        return sb.toString();
+    }
+}
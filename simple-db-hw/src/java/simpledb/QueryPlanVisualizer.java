@@ -1,8 +1,11 @@
 package simpledb;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import simpledb.TupleDesc.TDItem;
 
 public class QueryPlanVisualizer {
@@ -13,10 +16,36 @@ public class QueryPlanVisualizer {
     static final String PROJECT = "π";
     static final String RENAME = "?";
     static final String SCAN = "scan";
+    static final String BATCH = "batch";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
+    // the predicates the Filters above each SeqScan push down into it
+    private final IdentityHashMap<SeqScan, List<Predicate>> scanPredicates = new IdentityHashMap<SeqScan, List<Predicate>>();
+
+    /**
+     * Remember the predicates of the stack of Filters topped by f for the
+     * SeqScan below the stack, if any, into which the Filters push them.
+     */
+    private void recordPushedPredicates(Filter f) {
+        List<Predicate> preds = new ArrayList<Predicate>();
+        DbIterator c = f;
+        while (c instanceof Filter) {
+            preds.add(((Filter) c).getPredicate());
+            c = ((Filter) c).getChildren()[0];
+        }
+        if (c instanceof SeqScan && !scanPredicates.containsKey(c))
+            scanPredicates.put((SeqScan) c, preds);
+    }
+
+    // the estimated cost of a join, if the optimizer set it
+    private static String cost(Operator j) {
+        if (j.getEstimatedCost() <= 0)
+            return "";
+        return String.format("cost:%1$.0f,", j.getEstimatedCost());
+    }
+
     private int calculateQueryPlanTreeDepth(DbIterator root) {
         if (root == null)
             return 0;
@@ -24,6 +53,8 @@ public class QueryPlanVisualizer {
         if (!(root instanceof Operator))
             return 2;
         Operator o = (Operator) root;
+        if (o instanceof BatchesToRows)
+            return this.calculateQueryPlanTreeDepth(((BatchesToRows) o).getRowInput()) + 2;
         DbIterator[] children = o.getChildren();
 
         if (o instanceof Join || o instanceof HashEquiJoin) {
@@ -56,6 +87,30 @@ public class QueryPlanVisualizer {
 
     }
 
+    // the batch operators above the row input of b, from the top down
+    private static String batchOperators(BatchesToRows b) {
+        String ops = "";
+        BatchIterator it = b.getBatchChild();
+        while (true) {
+            String op;
+            if (it instanceof BatchProject) {
+                op = PROJECT;
+                it = ((BatchProject) it).getChild();
+            } else if (it instanceof BatchAggregate) {
+                op = GROUPBY;
+                it = ((BatchAggregate) it).getChild();
+            } else if (it instanceof BatchFilter) {
+                Predicate p = ((BatchFilter) it).getPredicate();
+                it = ((BatchFilter) it).getChild();
+                op = SELECT + "(" + it.getTupleDesc().getFieldName(p.getField())
+                        + p.getOp() + p.getOperand() + ")";
+            } else {
+                return ops;
+            }
+            ops += (ops.length() > 0 ? "," : "") + op;
+        }
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
             DbIterator queryPlan, int currentStartPosition,
             int parentUpperBarStartShift) {
@@ -65,10 +120,22 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan
+                || queryPlan instanceof IndexScan || queryPlan instanceof ParallelSeqScan) {
+            String tableName, alias;
+            if (queryPlan instanceof SeqScan) {
+                tableName = ((SeqScan) queryPlan).getTableName();
+                alias = ((SeqScan) queryPlan).getAlias();
+            } else if (queryPlan instanceof ParallelSeqScan) {
+                tableName = ((ParallelSeqScan) queryPlan).getTableName();
+                alias = ((ParallelSeqScan) queryPlan).getAlias();
+            } else if (queryPlan instanceof IndexScan) {
+                tableName = ((IndexScan) queryPlan).getTableName();
+                alias = ((IndexScan) queryPlan).getAlias();
+            } else {
+                tableName = ((BTreeScan) queryPlan).getTableName();
+                alias = ((BTreeScan) queryPlan).getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
@@ -76,6 +143,43 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                // with predicates pushed down, show how many pages the zone map
+                // lets the scan skip
+                List<Predicate> pushed = scanPredicates.get(s);
+                if (pushed == null)
+                    pushed = new ArrayList<Predicate>();
+                if (s.file instanceof HeapFile
+                        && (!pushed.isEmpty() || !s.getPredicates().isEmpty()))
+                    thisNode.text += String.format(",skip:%1$d/%2$d pages",
+                            s.countSkippablePages(pushed),
+                            ((HeapFile) s.file).getZoneMap().numPages());
+            } else if (queryPlan instanceof ParallelSeqScan) {
+                thisNode.text += String.format(",parallel:%1$d",
+                        ((ParallelSeqScan) queryPlan).getParallelism());
+            } else if (queryPlan instanceof IndexScan) {
+                // show the index, and the key range read through it
+                IndexScan s = (IndexScan) queryPlan;
+                IndexPredicate ipred = s.getIndexPredicate();
+                thisNode.text += String.format(",%1$s:%2$s",
+                        s.isIndexOnly() ? "index only" : "index", s.getIndex().getName());
+                if (ipred != null)
+                    thisNode.text += String.format("(%1$s%2$s%3$s)",
+                            s.getTupleDesc().getFieldName(s.getKeyField()),
+                            ipred.getOp(), ipred.getField());
+            } else {
+                // show the key range read through the index
+                BTreeScan s = (BTreeScan) queryPlan;
+                IndexPredicate ipred = s.getIndexPredicate();
+                if (ipred != null) {
+                    TupleDesc td = s.getTupleDesc();
+                    int key = ((BTreeFile) Database.getCatalog().getDatabaseFile(
+                            s.getTableId())).keyField();
+                    thisNode.text += String.format(",index:%1$s%2$s%3$s",
+                            td.getFieldName(key), ipred.getOp(), ipred.getField());
+                }
+            }
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -114,11 +218,12 @@ public class QueryPlanVisualizer {
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                String join = JOIN + "(" + j.getJoinMethod() + ")";
+                thisNode.text = String.format("%1$s(%2$s),%3$scard:%4$d", join,
+                        field1 + jp.getOperator() + field2, cost(j), j.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (join.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = join.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -128,7 +233,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
+                        - join.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -143,8 +248,8 @@ public class QueryPlanVisualizer {
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),%3$scard:%4$d", HASH_JOIN, field1
+                        + jp.getOperator() + field2, cost(j), j.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = HASH_JOIN.length() / 2;
@@ -172,14 +277,22 @@ public class QueryPlanVisualizer {
                 TupleDesc td = a.getTupleDesc();
                 int gfield = a.groupField();
 
+                String aggs = "";
+                String[] anames = a.aggregateFieldNames();
+                for (int i = 0; i < anames.length; i++)
+                    aggs += (i > 0 ? ", " : "") + anames[i];
+
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs,a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    String groups = "";
+                    String[] gnames = a.groupFieldNames();
+                    for (int i = 0; i < gnames.length; i++)
+                        groups += (i > 0 ? "," : "") + gnames[i];
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, groups, aggs,a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -199,6 +312,7 @@ public class QueryPlanVisualizer {
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
                 Predicate p = f.getPredicate();
+                recordPushedPredicates(f);
                 thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
                         .getTupleDesc().getFieldName(p.getField())
                         + p.getOp()
@@ -217,6 +331,24 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof BatchesToRows) {
+                BatchesToRows b = (BatchesToRows) plan;
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", BATCH,
+                        batchOperators(b), b.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (BATCH.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = BATCH.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, b.getRowInput(),
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - BATCH.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
                 thisNode.text = String.format(
@@ -261,7 +393,8 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
+            else if (plan instanceof Exchange
+                    || plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
                 int card=0;
                 try {
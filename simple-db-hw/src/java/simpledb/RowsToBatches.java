@@ -0,0 +1,75 @@
+package simpledb;
+
+/**
+ * RowsToBatches adapts a tuple-at-a-time {@link DbIterator} to the
+ * {@link BatchIterator} interface by copying the child's tuples into
+ * columnar batches.
+ */
+public class RowsToBatches implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private final int capacity;
+    private transient TupleBatch batch;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The row operator to read tuples from
+     */
+    public RowsToBatches(DbIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The row operator to read tuples from
+     * @param capacity
+     *            the number of rows per batch
+     */
+    public RowsToBatches(DbIterator child, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("a batch needs at least one row");
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), capacity);
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("Operator not yet open");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.append(child.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+
+    /**
+     * @return the row operator this adapter reads from
+     */
+    public DbIterator getChild() {
+        return child;
+    }
+
+}
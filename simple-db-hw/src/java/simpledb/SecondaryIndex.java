@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SecondaryIndex is a B+ tree over one field of a table stored in a
+ * {@link HeapFile}. Each entry of the tree holds the key of a tuple, the
+ * values of the index's included fields, and the {@link RecordId} of the
+ * tuple in the heap, so that the tuples whose key satisfies an
+ * {@link IndexPredicate} can be found without scanning the table, and a
+ * query that refers only to the key and included fields can be answered
+ * from the index alone.
+ * <p>
+ * The tree is stored in its own {@link BTreeFile}, keyed on the first field of
+ * its entries, which the {@link Catalog} registers as a table named after
+ * the index (so that the buffer pool can read its pages). The
+ * {@link BufferPool} keeps the entries up to date as tuples are inserted into
+ * and deleted from the table, as part of the same transaction.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ */
+public class SecondaryIndex {
+
+    // leaves room in the pages of a new index for the entries of tuples
+    // inserted later
+    private static final double BUILD_FILL_FACTOR = 0.9;
+
+    private final String name;
+    private final int tableid;
+    private final int keyField;
+    private final int[] included;
+    private final BTreeFile file;
+    // the key and included fields, named as in the table
+    private final TupleDesc coveredTd;
+
+    /**
+     * Create an index over a table, stored in a file. If the file is empty,
+     * the index has no entries until {@link #build} is called. A new index
+     * keyed on a string field of a table with slotted pages, one declared
+     * with varchar columns, stores its internal keys prefix compressed.
+     *
+     * @param name
+     *            the name of the index, which must not be that of a table
+     * @param tableid
+     *            the id of the indexed table, which must be stored in a
+     *            HeapFile
+     * @param keyField
+     *            the field of the table the index is keyed on
+     * @param included
+     *            the other fields of the table whose values the index holds
+     * @param f
+     *            the file the B+ tree is stored in
+     * @throws IllegalArgumentException
+     *             if the table is not stored in a HeapFile, or a field is
+     *             not one of the table's
+     */
+    public SecondaryIndex(String name, int tableid, int keyField,
+            int[] included, File f) {
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("only heap tables have secondary indexes");
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        int[] fields = new int[included.length + 1];
+        fields[0] = keyField;
+        System.arraycopy(included, 0, fields, 1, included.length);
+        Type[] types = new Type[fields.length + 2];
+        String[] names = new String[fields.length + 2];
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] < 0 || fields[i] >= td.numFields())
+                throw new IllegalArgumentException("no field " + fields[i] + " in " + td);
+            types[i] = td.getFieldType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+        }
+        this.name = name;
+        this.tableid = tableid;
+        this.keyField = keyField;
+        this.included = included.clone();
+        this.coveredTd = new TupleDesc(Arrays.copyOf(types, fields.length),
+                Arrays.copyOf(names, fields.length));
+        // the record id of the tuple
+        types[fields.length] = Type.INT_TYPE;
+        names[fields.length] = "_page";
+        types[fields.length + 1] = Type.INT_TYPE;
+        names[fields.length + 1] = "_slot";
+        boolean compressKeys = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).isSlotted();
+        this.file = new BTreeFile(f, 0, new TupleDesc(types, names), false, false, compressKeys);
+    }
+
+    /** @return the name of the index */
+    public String getName() {
+        return name;
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the field of the table the index is keyed on */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the other fields of the table whose values the index holds */
+    public int[] getIncludedFields() {
+        return included.clone();
+    }
+
+    /** @return the file the B+ tree is stored in */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return the schema of the tuples of an index-only scan: the key field,
+     *         then the included fields, named as in the table
+     */
+    public TupleDesc getCoveredTupleDesc() {
+        return coveredTd;
+    }
+
+    /**
+     * @param fieldNames
+     *            names of fields of the table
+     * @return true if the index holds the values of all of the fields
+     */
+    public boolean covers(Collection<String> fieldNames) {
+        for (String f : fieldNames) {
+            boolean found = false;
+            for (int i = 0; i < coveredTd.numFields() && !found; i++)
+                found = f.equals(coveredTd.getFieldName(i));
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    // the entry of a tuple of the table
+    private Tuple entry(Tuple t) {
+        Tuple e = new Tuple(file.getTupleDesc());
+        int n = coveredTd.numFields();
+        e.setField(0, t.getField(keyField));
+        for (int i = 0; i < included.length; i++)
+            e.setField(i + 1, t.getField(included[i]));
+        RecordId rid = t.getRecordId();
+        e.setField(n, new IntField(rid.getPageId().pageNumber()));
+        e.setField(n + 1, new IntField(rid.tupleno()));
+        return e;
+    }
+
+    /**
+     * Add the entry of a tuple that was inserted into the table.
+     *
+     * @param tid
+     *            the transaction that inserted the tuple
+     * @param t
+     *            the tuple, with its record id set
+     */
+    public void insert(TransactionId tid, Tuple t) throws DbException,
+            IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, file.getId(), entry(t));
+    }
+
+    /**
+     * Remove the entry of a tuple that is about to be deleted from the
+     * table.
+     *
+     * @param tid
+     *            the transaction deleting the tuple
+     * @param t
+     *            the tuple, with its record id still set
+     * @throws DbException
+     *             if the index has no entry for the tuple
+     */
+    public void delete(TransactionId tid, Tuple t) throws DbException,
+            IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        int n = coveredTd.numFields();
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(
+                Predicate.Op.EQUALS, t.getField(keyField)));
+        Tuple found = null;
+        it.open();
+        while (found == null && it.hasNext()) {
+            Tuple e = it.next();
+            if (((IntField) e.getField(n)).getValue() == rid.getPageId().pageNumber()
+                    && ((IntField) e.getField(n + 1)).getValue() == rid.tupleno())
+                found = e;
+        }
+        it.close();
+        if (found == null)
+            throw new DbException("index " + name + " has no entry for " + t);
+        Database.getBufferPool().deleteTuple(tid, found);
+    }
+
+    /**
+     * Add the entries of all tuples of the table to the index, which must be
+     * empty, e.g. when it is created over a table that already has tuples.
+     * The entries are sorted and bulk loaded into the B+ tree.
+     *
+     * @see BTreeFile#bulkLoad
+     */
+    public void build(TransactionId tid) throws DbException, IOException,
+            TransactionAbortedException {
+        final DbFileIterator it = Database.getCatalog()
+                .getDatabaseFile(tableid).iterator(tid);
+        file.bulkLoad(tid, new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                it.rewind();
+                super.close();
+            }
+
+            public void close() {
+                it.close();
+                super.close();
+            }
+
+            protected Tuple readNext() throws DbException,
+                    TransactionAbortedException {
+                return it.hasNext() ? entry(it.next()) : null;
+            }
+        }, false, BUILD_FILL_FACTOR);
+    }
+
+    /**
+     * Return the tuples whose key satisfies a predicate, in key order.
+     *
+     * @param tid
+     *            the transaction reading the tuples
+     * @param ipred
+     *            the predicate the keys satisfy, or null for all tuples
+     * @param indexOnly
+     *            if true, the tuples are built from the index entries, with
+     *            schema {@link #getCoveredTupleDesc()}, and the table is not
+     *            read; otherwise they are the tuples of the table
+     */
+    public DbFileIterator iterator(final TransactionId tid,
+            IndexPredicate ipred, final boolean indexOnly) {
+        final DbFileIterator entries = ipred == null ? file.iterator(tid)
+                : file.indexIterator(tid, ipred);
+        final int n = coveredTd.numFields();
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                entries.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                entries.rewind();
+                super.close();
+            }
+
+            public void close() {
+                entries.close();
+                super.close();
+            }
+
+            protected Tuple readNext() throws DbException,
+                    TransactionAbortedException {
+                while (entries.hasNext()) {
+                    Tuple e = entries.next();
+                    if (indexOnly) {
+                        Tuple t = new Tuple(coveredTd);
+                        for (int i = 0; i < n; i++)
+                            t.setField(i, e.getField(i));
+                        return t;
+                    }
+                    HeapPageId pid = new HeapPageId(tableid,
+                            ((IntField) e.getField(n)).getValue());
+                    HeapPage p = (HeapPage) Database.getBufferPool().getPage(
+                            tid, pid, Permissions.READ_ONLY);
+                    Tuple t = p.getTupleInSlot(((IntField) e.getField(n + 1)).getValue());
+                    if (t != null)
+                        return t;
+                }
+                return null;
+            }
+        };
+    }
+}
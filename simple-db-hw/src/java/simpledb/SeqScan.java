@@ -6,6 +6,17 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Predicates can be pushed down into the scan, either directly with
+ * {@link #addPredicate} or by a {@link Filter} directly above it. Over a
+ * HeapFile they are evaluated on the bytes of each page, so tuples that do
+ * not qualify are never materialized, and the file's {@link ZoneMap} is used
+ * to skip the pages that cannot hold a qualifying tuple.
+ * <p>
+ * Over a {@link PaxFile}, the predicates are evaluated on the minipages of the
+ * fields they read, and a {@link Project} above the scan (directly or through
+ * Filters) can have it decode only the fields it projects out; the other
+ * fields of the tuples the scan returns are not set.
  */
 public class SeqScan implements DbIterator {
 
@@ -22,6 +33,13 @@ public class SeqScan implements DbIterator {
     boolean open = false;		//Boolean to check whether the iterator is open or not
     ArrayList<Tuple> tuples;	//Collection of tuples that we will be keeping up while going through the pages
 	int pgNum;					//Current Page Number
+	
+	//Predicates pushed down into the scan
+	ArrayList<Predicate> predicates = new ArrayList<Predicate>();	//added with addPredicate
+	List<Predicate> pushed = Collections.emptyList();				//pushed by a Filter above us
+	CompiledPredicate residual;		//predicates to apply here when the file can't apply them
+	Tuple lookahead;				//next qualifying tuple when applying residual
+	int[] projected;				//fields a Project above reads, or null for all
     /////
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -99,6 +117,84 @@ public class SeqScan implements DbIterator {
 
 
 
+    /**
+     * Only return tuples that satisfy p. Takes effect the next time the scan
+     * is opened.
+     * 
+     * @param p
+     *            a predicate over the fields of the table
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /**
+     * @return the predicates added with {@link #addPredicate}
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * Set the predicates a Filter above this scan pushes down into it,
+     * replacing any it pushed before. Takes effect the next time the scan is
+     * opened.
+     */
+    void pushDown(List<Predicate> preds) {
+        pushed = preds;
+    }
+
+    /**
+     * Set the only fields an operator above this scan reads from its tuples,
+     * once the predicates pushed down into it have been evaluated. Over a
+     * PaxFile, the other fields are not decoded. Takes effect the next time
+     * the scan is opened.
+     * 
+     * @param fields
+     *            the fields read, or null for all of them
+     */
+    void projectDown(List<Integer> fields) {
+        if (fields == null) {
+            projected = null;
+            return;
+        }
+        projected = new int[fields.size()];
+        for (int i = 0; i < projected.length; i++)
+            projected[i] = fields.get(i);
+    }
+
+    /**
+     * @return the number of pages the zone map let this scan skip since it
+     *         was last opened or rewound
+     */
+    public int getSkippedPages() {
+        if (iterator instanceof HeapFile.HeapFileIterator)
+            return ((HeapFile.HeapFileIterator) iterator).getSkippedPages();
+        return 0;
+    }
+
+    /**
+     * Counts the pages the zone map would let this scan skip if preds were
+     * pushed down into it, in addition to the predicates added with
+     * {@link #addPredicate}. Used by EXPLAIN, before the scan runs.
+     * 
+     * @return the number of pages that would be skipped, or 0 if the table
+     *         is not a HeapFile or there are no predicates
+     */
+    public int countSkippablePages(List<Predicate> preds) {
+        if (!(file instanceof HeapFile) || (preds.isEmpty() && predicates.isEmpty()))
+            return 0;
+        ArrayList<Predicate> all = new ArrayList<Predicate>(predicates);
+        all.addAll(preds);
+        CompiledPredicate pred = ((HeapFile) file).compile(all);
+        ZoneMap zm = ((HeapFile) file).getZoneMap();
+        int skippable = 0;
+        for (int i = 0; i < zm.numPages(); i++)
+            if (!zm.mayMatch(i, pred))
+                skippable++;
+        return skippable;
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -121,6 +217,7 @@ public class SeqScan implements DbIterator {
         	//Use StringBuilder to combine tableAlias and fieldName together
         	StringBuilder fieldNameBuilder = new StringBuilder();
         	fieldNameBuilder.append(tableAlias);
+        	fieldNameBuilder.append(".");
         	fieldNameBuilder.append(tupleDesc.getFieldName(i));
         	
         	//Then pass the new string to the field array
@@ -133,26 +230,67 @@ public class SeqScan implements DbIterator {
 
     
     public void open() throws DbException, TransactionAbortedException {
+    	residual = null;
+    	lookahead = null;
+    	CompiledPredicate pred = null;
+    	if (!predicates.isEmpty() || !pushed.isEmpty()) {
+    		ArrayList<Predicate> preds = new ArrayList<Predicate>(predicates);
+    		preds.addAll(pushed);
+    		//a heap file compiles them for its pages, which may store codes
+    		pred = file instanceof HeapFile ? ((HeapFile) file).compile(preds)
+    				: CompiledPredicate.compile(preds);
+    	}
+    	//A PAX file evaluates the predicates on its minipages, and decodes only
+    	//the projected fields
+    	if (file instanceof PaxFile) {
+    		iterator = ((PaxFile) file).iterator(tid, pred, projected);
+    	} else if (pred != null) {
+    		//A heap file evaluates the predicates on its pages; otherwise we apply them
+    		if (file instanceof HeapFile) {
+    			iterator = ((HeapFile) file).iterator(tid, 0, -1, pred);
+    		} else {
+    			iterator = file.iterator(tid);
+    			residual = pred;
+    		}
+    	} else {
+    		//predicates pushed down before may have been taken back out
+    		iterator = file.iterator(tid);
+    	}
     	iterator.open();
     }
     
     public boolean hasNext() throws TransactionAbortedException, DbException {
-		return iterator.hasNext();
+    	if (residual == null)
+    		return iterator.hasNext();
+    	while (lookahead == null && iterator.hasNext()) {
+    		Tuple t = iterator.next();
+    		if (residual.eval(t))
+    			lookahead = t;
+    	}
+		return lookahead != null;
 	}
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-		return iterator.next();
+    	if (residual == null)
+    		return iterator.next();
+    	if (!hasNext())
+    		throw new NoSuchElementException();
+    	Tuple t = lookahead;
+    	lookahead = null;
+		return t;
 	}
 	
 
     public void close() {
         iterator.close();
+        lookahead = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
 		iterator.rewind();
+		lookahead = null;
 	}
 
 }
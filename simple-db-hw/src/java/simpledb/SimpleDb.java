@@ -16,6 +16,7 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            boolean slotted=false;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -30,21 +31,22 @@ public class SimpleDb {
                 }
                 int index=0;
                 for (String s: typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
-                            ts[index++]=Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
-                                ts[index++]=Type.STRING_TYPE;
-                            else {
-                                System.err.println("Unknown type " + s);
-                                return;
-                            }
+                        Type type = Type.forName(s);
+                        if (Type.isVarchar(s))
+                            slotted=true;
+                        if (type != null)
+                            ts[index++]=type;
+                        else {
+                            System.err.println("Unknown type " + s);
+                            return;
+                        }
                 }
                 if (args.length==5)
                     fieldSeparator=args[4].charAt(0);
             }
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,slotted);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
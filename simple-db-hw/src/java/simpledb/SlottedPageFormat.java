@@ -0,0 +1,285 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedPageFormat is a layout of the tuples on a page of a table with a
+ * STRING_TYPE field, shared by {@link HeapPage} and {@link BTreeLeafPage}.
+ * Stored at fixed width, a string field takes {@link Type#STRING_LEN} + 4
+ * bytes however short its value is, so slotted pages store their tuples as
+ * variable-length records instead: a STRING field is its length followed by
+ * only its bytes, and an INT field is its four bytes as before.
+ * <p>
+ * Tables opt in to the layout, by declaring a varchar column in the schema
+ * file (see {@link Catalog#loadSchema}), while their data file is empty. The
+ * pages of a data file are slotted if and only if it has a format marker, an
+ * empty sidecar file next to it (the data file's name with {@link #SUFFIX}
+ * appended); the string tables of data files without one keep the fixed-width
+ * layout.
+ * <p>
+ * The tuple area of a slotted page starts with the number of slots in its
+ * slot directory, as a two-byte unsigned short, followed by the directory:
+ * the two-byte offset from the start of the page of the record in each slot,
+ * or 0 if the slot is empty. The records are packed at the end of the page,
+ * in slot order, with free space between them and the directory. A tuple
+ * keeps its slot, and so its RecordId, when the page is written out and read
+ * back, while the records themselves are compacted.
+ * <p>
+ * A page has room for a tuple when the bytes its records and directory take,
+ * plus a new slot and the tuple's record, fit in the page. Since records
+ * differ in size, pages count how many more tuples they can hold by the
+ * largest record of their schema.
+ */
+final class SlottedPageFormat {
+
+    /** Suffix appended to the name of a data file to name its format marker */
+    static final String SUFFIX = ".slotted";
+
+    /** The bytes a slot of the directory takes */
+    static final int SLOT_SIZE = 2;
+
+    private SlottedPageFormat() {
+    }
+
+    private static File markerOf(File dataFile) {
+        return new File(dataFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * @return true if the pages of a data file are slotted, that is if it
+     *         has a format marker
+     */
+    static boolean isSlotted(File dataFile) {
+        return markerOf(dataFile).exists();
+    }
+
+    /**
+     * Give a data file a format marker, or remove it, before its pages are
+     * written.
+     */
+    static void setSlotted(File dataFile, boolean slotted) throws IOException {
+        File marker = markerOf(dataFile);
+        if (slotted)
+            new FileOutputStream(marker, true).close();
+        else if (marker.exists() && !marker.delete())
+            throw new IOException("could not remove " + marker);
+    }
+
+    /**
+     * Open the layout of a data file of tuples of schema td.
+     *
+     * @param slotted
+     *            whether to store the tuples on slotted pages; ignored if td
+     *            has no STRING_TYPE field, or the data file already has pages
+     * @return true if the pages of the data file are slotted
+     * @throws IOException
+     *             if the format marker cannot be created
+     */
+    static boolean open(File dataFile, TupleDesc td, boolean slotted) throws IOException {
+        if (!isSlotted(dataFile) && slotted && appliesTo(td) && dataFile.length() == 0)
+            setSlotted(dataFile, true);
+        return isSlotted(dataFile);
+    }
+
+    /**
+     * @return true if tuples of schema td can be stored on slotted pages,
+     *         that is if it has a STRING_TYPE field
+     */
+    static boolean appliesTo(TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++)
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return the bytes the record of a tuple of schema td takes when all of
+     *         its strings are empty
+     */
+    static int minRecordSize(TupleDesc td) {
+        return td.numFields() * 4;
+    }
+
+    /**
+     * @return the most bytes the record of a tuple of schema td can take,
+     *         which is the size of the tuple at fixed width
+     */
+    static int maxRecordSize(TupleDesc td) {
+        return td.getSize();
+    }
+
+    /**
+     * @param areaSize
+     *            the bytes of the page that hold the slot count, the
+     *            directory and the records
+     * @return the most slots a page can have, if every tuple had the
+     *         smallest record possible
+     */
+    static int getMaxSlots(TupleDesc td, int areaSize) {
+        return (areaSize - SLOT_SIZE) / (SLOT_SIZE + minRecordSize(td));
+    }
+
+    /**
+     * @return the bytes the record of t takes
+     */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += 4;
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                size += Math.min(((StringField) t.getField(j)).getValue().length(),
+                        Type.STRING_LEN);
+        }
+        return size;
+    }
+
+    /**
+     * @return the bytes the record at offset off of page data takes
+     */
+    static int recordSize(byte[] data, int off, TupleDesc td) {
+        int p = off;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                p += CompiledPredicate.intValue(data, p);
+            p += 4;
+        }
+        return p - off;
+    }
+
+    /**
+     * Compute the offset of each field within the record at offset off of
+     * page data, as {@link CompiledPredicate#eval(byte[], int, int[])} takes
+     * them.
+     *
+     * @param fieldOffsets
+     *            receives the offset of each field
+     */
+    static void fieldOffsets(byte[] data, int off, TupleDesc td, int[] fieldOffsets) {
+        int p = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            fieldOffsets[j] = p;
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                p += CompiledPredicate.intValue(data, off + p);
+            p += 4;
+        }
+    }
+
+    /**
+     * @return the tuple of the record at offset off of page data, without a
+     *         RecordId
+     */
+    static Tuple readRecord(byte[] data, int off, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        int p = off;
+        for (int j = 0; j < td.numFields(); j++) {
+            int v = CompiledPredicate.intValue(data, p);
+            p += 4;
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                t.setField(j, new StringField(new String(data, p, v), Type.STRING_LEN));
+                p += v;
+            } else {
+                t.setField(j, new IntField(v));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return the record of t
+     */
+    static byte[] toRecord(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordSize(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        TupleDesc td = t.getTupleDesc();
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    String s = ((StringField) t.getField(j)).getValue();
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    dos.writeInt(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    t.getField(j).serialize(dos);
+                }
+            }
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Read the slot directory of a page.
+     *
+     * @param start
+     *            the offset of the slot count in data
+     * @param maxSlots
+     *            the most slots the page can have
+     * @return the offset of the record in each of the maxSlots slots, or 0 if
+     *         the slot is empty
+     * @throws IOException
+     *             if the directory has more slots than the page can have
+     */
+    static int[] readDirectory(byte[] data, int start, int maxSlots) throws IOException {
+        int count = readShort(data, start);
+        if (count > maxSlots)
+            throw new IOException("slot directory of " + count
+                    + " slots, where a page has at most " + maxSlots);
+        int[] offsets = new int[maxSlots];
+        for (int i = 0; i < count; i++)
+            offsets[i] = readShort(data, start + SLOT_SIZE * (i + 1));
+        return offsets;
+    }
+
+    private static int readShort(byte[] data, int off) {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
+    /**
+     * Write the slot count, directory and records of a page, from the
+     * current position of dos to the end of the page.
+     *
+     * @param records
+     *            the record in each slot, or null if the slot is empty
+     * @param count
+     *            the number of slots to write, one more than the last used
+     * @param pageSize
+     *            the number of bytes of the page, from its start at position 0
+     *            of dos
+     */
+    static void writeArea(DataOutputStream dos, byte[][] records, int count, int pageSize)
+            throws IOException {
+        int total = 0;
+        for (int i = 0; i < count; i++)
+            if (records[i] != null)
+                total += records[i].length;
+        int off = pageSize - total;
+        dos.writeShort(count);
+        for (int i = 0; i < count; i++) {
+            if (records[i] == null) {
+                dos.writeShort(0);
+            } else {
+                dos.writeShort(off);
+                off += records[i].length;
+            }
+        }
+        dos.write(new byte[pageSize - total - dos.size()]);
+        for (int i = 0; i < count; i++)
+            if (records[i] != null)
+                dos.write(records[i]);
+    }
+
+    /**
+     * @param count
+     *            the number of slots of the directory
+     * @param recordBytes
+     *            the bytes of the records
+     * @return the bytes the slot count, directory and records take
+     */
+    static int usedBytes(int count, int recordBytes) {
+        return SLOT_SIZE + SLOT_SIZE * count + recordBytes;
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin computes an equality join by merging its inputs in the order
+ * of their join fields. An input that is already in that order (e.g. the
+ * output of another SortMergeJoin on the same field) is read as it comes;
+ * any other input is read into memory and sorted when the join is opened.
+ * The joined tuples are returned in the order of the join fields.
+ */
+public class SortMergeJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean sorted1, sorted2;
+    private transient Run left, right;
+    // the tuples of each input with the current join value
+    private transient ArrayList<Tuple> leftGroup, rightGroup;
+    private transient int li, ri;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be an
+     *            equality
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param sorted1
+     *            Whether child1 returns its tuples in the order of its join
+     *            field
+     * @param sorted2
+     *            Whether child2 returns its tuples in the order of its join
+     *            field
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            boolean sorted1, boolean sorted2) {
+        super(p, child1, child2);
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("sort-merge join only computes equality joins");
+        this.sorted1 = sorted1;
+        this.sorted2 = sorted2;
+    }
+
+    public String getJoinMethod() {
+        return "sort-merge";
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        left = new Run(getOuter(), getJoinPredicate().getField1(), sorted1);
+        right = new Run(getInner(), getJoinPredicate().getField2(), sorted2);
+        leftGroup = new ArrayList<Tuple>();
+        rightGroup = new ArrayList<Tuple>();
+        li = ri = 0;
+    }
+
+    public void close() {
+        super.close();
+        left = right = null;
+        leftGroup = rightGroup = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // an input that was sorted in memory is not read again
+        left.rewind();
+        right.rewind();
+        leftGroup.clear();
+        rightGroup.clear();
+        li = ri = 0;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (li < leftGroup.size()) {
+                Tuple t = merge(leftGroup.get(li), rightGroup.get(ri));
+                if (++ri == rightGroup.size()) {
+                    ri = 0;
+                    li++;
+                }
+                return t;
+            }
+
+            // skip ahead to the next join value both inputs have
+            Tuple l = left.head(), r = right.head();
+            while (l != null && r != null) {
+                int c = compare(left.key(), right.key());
+                if (c < 0)
+                    l = left.advance();
+                else if (c > 0)
+                    r = right.advance();
+                else
+                    break;
+            }
+            if (l == null || r == null)
+                return null;
+            Field key = left.key();
+            left.group(key, leftGroup);
+            right.group(key, rightGroup);
+            li = ri = 0;
+        }
+    }
+
+    static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return b.compare(Predicate.Op.LESS_THAN, a) ? 1 : 0;
+    }
+
+    /**
+     * The tuples of an input in the order of a field: the input itself if
+     * it is in that order, or its tuples sorted in memory.
+     */
+    private static class Run {
+        private final DbIterator child;
+        private final int field;
+        private ArrayList<Tuple> sorted;
+        private int pos;
+        private Tuple head;
+
+        Run(DbIterator child, final int field, boolean isSorted)
+                throws DbException, TransactionAbortedException {
+            this.child = child;
+            this.field = field;
+            if (!isSorted) {
+                sorted = new ArrayList<Tuple>();
+                while (child.hasNext())
+                    sorted.add(child.next());
+                Collections.sort(sorted, new Comparator<Tuple>() {
+                    public int compare(Tuple a, Tuple b) {
+                        return SortMergeJoin.compare(a.getField(field),
+                                b.getField(field));
+                    }
+                });
+            }
+            pos = 0;
+            advance();
+        }
+
+        // the current tuple, or null if the run is done
+        Tuple head() {
+            return head;
+        }
+
+        Field key() {
+            return head.getField(field);
+        }
+
+        // move to the next tuple, and return it
+        Tuple advance() throws DbException, TransactionAbortedException {
+            if (sorted != null)
+                head = pos < sorted.size() ? sorted.get(pos++) : null;
+            else
+                head = child.hasNext() ? child.next() : null;
+            return head;
+        }
+
+        // collect the tuples whose field equals key, which start the run
+        void group(Field key, ArrayList<Tuple> into)
+                throws DbException, TransactionAbortedException {
+            into.clear();
+            while (head != null && compare(key(), key) == 0) {
+                into.add(head);
+                advance();
+            }
+        }
+
+        void rewind() throws DbException, TransactionAbortedException {
+            if (sorted == null)
+                child.rewind();
+            pos = 0;
+            advance();
+        }
+    }
+}
@@ -12,8 +12,10 @@ public class StringAggregator implements Aggregator {
     private int gbfield;
     private Type gbfieldtype;
     private int afield;
-    // a map of groupVal -> AggregateFields
-    private HashMap<String, AggregateFields> groups;
+    // a map of groupVal -> AggregateFields, keyed by the group-by Field
+    // itself (null if there is no grouping), so that dictionary-encoded
+    // strings are grouped by their codes
+    private HashMap<Field, AggregateFields> groups;
 
     /**
      * Aggregate constructor
@@ -31,7 +33,7 @@ public class StringAggregator implements Aggregator {
         this.gbfield = gbfield;
         this.afield = afield;
         this.gbfieldtype = gbfieldtype;
-        this.groups = new HashMap<String, AggregateFields>();
+        this.groups = new HashMap<Field, AggregateFields>();
     }
 
     /**
@@ -39,9 +41,9 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = "";
+        Field groupVal = null;
         if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
+            groupVal = tup.getField(gbfield);
         }
         AggregateFields agg = groups.get(groupVal);
         if (agg == null)
@@ -52,6 +54,22 @@ public class StringAggregator implements Aggregator {
         groups.put(groupVal, agg);
     }
 
+    /**
+     * Merge the groups of another StringAggregator into this one.
+     * @param other a StringAggregator with the same parameters as this one
+     */
+    public void merge(Aggregator other) {
+        for (AggregateFields o : ((StringAggregator) other).groups.values()) {
+            AggregateFields agg = groups.get(o.groupVal);
+            if (agg == null)
+                agg = new AggregateFields(o.groupVal);
+
+            agg.count += o.count;
+
+            groups.put(o.groupVal, agg);
+        }
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
@@ -73,15 +91,12 @@ public class StringAggregator implements Aggregator {
         }
 
         // iterate over groups and create summary tuples
-        for (String groupVal : groups.keySet()) {
+        for (Field groupVal : groups.keySet()) {
             AggregateFields agg = groups.get(groupVal);
             Tuple tup = new Tuple(td);
 
-            if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE)
-                    tup.setField(0, new IntField(new Integer(groupVal)));
-                else tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
-            }
+            if (gbfield != NO_GROUPING)
+                tup.setField(0, groupVal);
 
             switch (what) {
             case COUNT: tup.setField(aggField, new IntField(agg.count));
@@ -100,10 +115,10 @@ public class StringAggregator implements Aggregator {
      * A helper struct to store accumulated aggregate values.
      */
     private class AggregateFields {
-        public String groupVal;
+        public Field groupVal;
         public int count;
 
-        public AggregateFields(String groupVal) {
+        public AggregateFields(Field groupVal) {
             this.groupVal = groupVal;
             count = 0;
         }
@@ -0,0 +1,313 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A StringDictionary gives the values of the dictionary-encoded STRING_TYPE
+ * fields of a HeapFile integer codes, which the pages of the file store in
+ * place of the strings. An encoded field is stored as an INT_TYPE field, so a
+ * low-cardinality column such as a status takes 4 bytes per tuple rather than
+ * the bytes of its string. Codes are numbered from 0 in the order values are
+ * first stored, and are shared by all the encoded fields of a table.
+ * <p>
+ * The dictionary is kept in a sidecar file next to the data file (the data
+ * file's name with {@link #SUFFIX} appended), which records the fields that
+ * are encoded, followed by the values in code order. A new value is appended
+ * to it when it is encoded, before any page that stores its code can be
+ * written. A data file is dictionary encoded if and only if it has a
+ * dictionary.
+ * <p>
+ * {@link HeapPage} encodes tuples when they are inserted, and decodes them
+ * into {@link EncodedStringField}s when they are read; {@link #compile}
+ * translates predicates on encoded fields into predicates on their codes.
+ */
+public class StringDictionary {
+
+    /** Suffix appended to the name of a data file to name its dictionary */
+    public static final String SUFFIX = ".dict";
+
+    private static final int MAGIC = 0x53444331;
+
+    private final File file;
+    private final boolean[] encoded;
+    private final TupleDesc storedTd;
+    private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+    // the value of each code below size; replaced when it grows, and
+    // republished after every value added, so decode does not lock
+    private volatile EncodedStringField[] values = new EncodedStringField[16];
+    private int size;
+
+    /**
+     * Opens the dictionary of a data file, which is created if the file has
+     * none and is empty.
+     *
+     * @param td
+     *            the TupleDesc of the tuples of the file
+     * @param encoded
+     *            for each field of td, whether it is encoded; ignored if the
+     *            file already has a dictionary, which keeps its fields
+     * @throws IllegalArgumentException
+     *             if a field to encode is not a STRING_TYPE field, or the
+     *             data file is not empty and has no dictionary
+     * @throws IOException
+     *             if the dictionary cannot be read or created
+     */
+    public StringDictionary(File dataFile, TupleDesc td, boolean[] encoded) throws IOException {
+        this.file = dictionaryOf(dataFile);
+        if (file.exists()) {
+            this.encoded = load(td.numFields());
+        } else {
+            if (encoded == null || encoded.length != td.numFields())
+                throw new IllegalArgumentException("a flag per field is needed to encode "
+                        + dataFile);
+            for (int j = 0; j < encoded.length; j++)
+                if (encoded[j] && td.getFieldType(j) != Type.STRING_TYPE)
+                    throw new IllegalArgumentException("field " + td.getFieldName(j)
+                            + " is not a string, so it cannot be encoded");
+            if (dataFile.length() > 0)
+                throw new IllegalArgumentException(dataFile
+                        + " already stores its strings unencoded");
+            this.encoded = encoded.clone();
+            DataOutputStream dos = new DataOutputStream(new FileOutputStream(file));
+            try {
+                dos.writeInt(MAGIC);
+                dos.writeInt(encoded.length);
+                for (boolean b : encoded)
+                    dos.writeBoolean(b);
+            } finally {
+                dos.close();
+            }
+        }
+
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int j = 0; j < types.length; j++) {
+            types[j] = this.encoded[j] ? Type.INT_TYPE : td.getFieldType(j);
+            names[j] = td.getFieldName(j);
+        }
+        this.storedTd = new TupleDesc(types, names);
+    }
+
+    private static File dictionaryOf(File dataFile) {
+        return new File(dataFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * @return true if a data file is dictionary encoded, that is if it has a
+     *         dictionary
+     */
+    public static boolean exists(File dataFile) {
+        return dictionaryOf(dataFile).exists();
+    }
+
+    // read the encoded fields and the values, dropping a last value cut short
+    // by a crash while it was appended
+    private boolean[] load(int numFields) throws IOException {
+        long length = file.length();
+        long valid;
+        boolean[] enc;
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            if (dis.readInt() != MAGIC)
+                throw new IOException(file + " is not a dictionary");
+            int n = dis.readInt();
+            if (n != numFields)
+                throw new IOException(file + " is the dictionary of a table of " + n
+                        + " fields, not " + numFields);
+            enc = new boolean[n];
+            for (int j = 0; j < n; j++)
+                enc[j] = dis.readBoolean();
+            valid = 8 + n;
+            while (valid + 2 <= length) {
+                int len = dis.readUnsignedShort();
+                if (valid + 2 + len > length)
+                    break;
+                byte[] b = new byte[len];
+                dis.readFully(b);
+                add(new String(b, "UTF-8"));
+                valid += 2 + len;
+            }
+        } finally {
+            dis.close();
+        }
+        if (valid < length) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(valid);
+            } finally {
+                raf.close();
+            }
+        }
+        return enc;
+    }
+
+    private int add(String value) {
+        EncodedStringField[] v = values;
+        if (size == v.length)
+            v = Arrays.copyOf(v, 2 * size);
+        v[size] = new EncodedStringField(this, size, value);
+        codes.put(value, size);
+        values = v;
+        return size++;
+    }
+
+    /**
+     * @return true if field j is encoded
+     */
+    public boolean isEncoded(int j) {
+        return encoded[j];
+    }
+
+    /**
+     * @return the TupleDesc of the tuples as the pages store them, with every
+     *         encoded field an INT_TYPE field
+     */
+    public TupleDesc getStoredTupleDesc() {
+        return storedTd;
+    }
+
+    /**
+     * @return the number of values in the dictionary
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the code of a value, or -1 if it has none
+     */
+    public synchronized int lookup(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the code of a value, giving it the next code, and appending it
+     * to the dictionary file, if it has none.
+     */
+    public synchronized int encode(String value) throws IOException {
+        Integer code = codes.get(value);
+        if (code != null)
+            return code;
+        byte[] b = value.getBytes("UTF-8");
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(file, true));
+        try {
+            dos.writeShort(b.length);
+            dos.write(b);
+        } finally {
+            dos.close();
+        }
+        return add(value);
+    }
+
+    /**
+     * @return the field holding the value of a code
+     * @throws NoSuchElementException
+     *             if no value has the code
+     */
+    public EncodedStringField decode(int code) {
+        EncodedStringField[] v = values;
+        EncodedStringField f = code >= 0 && code < v.length ? v[code] : null;
+        if (f == null)
+            throw new NoSuchElementException("no value of " + file + " has code " + code);
+        return f;
+    }
+
+    /**
+     * @return a tuple of the stored TupleDesc with the fields of t, with
+     *         every encoded field replaced by the code of its value
+     */
+    Tuple encode(Tuple t) throws IOException {
+        Tuple stored = new Tuple(storedTd);
+        for (int j = 0; j < encoded.length; j++) {
+            Field f = t.getField(j);
+            stored.setField(j, encoded[j] ? new IntField(encode(((StringField) f).getValue())) : f);
+        }
+        return stored;
+    }
+
+    /**
+     * @return a tuple of td, with the fields and record id of a stored tuple,
+     *         and every encoded field replaced by its value
+     */
+    Tuple decode(Tuple stored, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(stored.getRecordId());
+        for (int j = 0; j < encoded.length; j++) {
+            Field f = stored.getField(j);
+            t.setField(j, encoded[j] ? decode(((IntField) f).getValue()) : f);
+        }
+        return t;
+    }
+
+    /**
+     * Build an evaluator for the conjunction of predicates over the fields of
+     * the tuples of the table that is evaluated on their stored form, as the
+     * pages of the file and its {@link ZoneMap} hold them. An EQUALS or
+     * NOT_EQUALS predicate on an encoded field becomes a comparison of its
+     * code, which {@link CompiledPredicate#compile} folds with the INT_TYPE
+     * predicates; any other predicate on an encoded field decodes the code,
+     * and remembers its result for every code it sees.
+     */
+    public CompiledPredicate compile(List<Predicate> preds) {
+        ArrayList<Predicate> onCodes = new ArrayList<Predicate>();
+        ArrayList<CompiledPredicate> decoded = new ArrayList<CompiledPredicate>();
+        for (Predicate p : preds) {
+            if (!encoded[p.getField()]) {
+                onCodes.add(p);
+                continue;
+            }
+            int code = lookup(((StringField) p.getOperand()).getValue());
+            // a value without a code may get one while the predicate is in use
+            if (code >= 0 && (p.getOp() == Predicate.Op.EQUALS
+                    || p.getOp() == Predicate.Op.NOT_EQUALS))
+                onCodes.add(new Predicate(p.getField(), p.getOp(), new IntField(code)));
+            else
+                decoded.add(new Decoded(this, p));
+        }
+        if (!onCodes.isEmpty() || decoded.isEmpty())
+            decoded.add(0, CompiledPredicate.compile(onCodes));
+        return CompiledPredicate.and(decoded.toArray(new CompiledPredicate[decoded.size()]));
+    }
+
+    /**
+     * A predicate on an encoded field, evaluated on the value of each code
+     * the first time the code is seen.
+     */
+    static final class Decoded extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final transient StringDictionary dictionary;
+        private final Predicate p;
+        // per code: 0 if not evaluated yet, 1 if it satisfies p, 2 if not;
+        // scans in several threads may race to grow it, which only loses
+        // results that are evaluated again
+        private byte[] results = new byte[0];
+
+        Decoded(StringDictionary dictionary, Predicate p) {
+            this.dictionary = dictionary;
+            this.p = p;
+        }
+
+        private boolean test(int code) {
+            byte[] r = results;
+            if (code < r.length && r[code] != 0)
+                return r[code] == 1;
+            boolean b = dictionary.decode(code).compare(p.getOp(), p.getOperand());
+            if (code >= r.length)
+                r = Arrays.copyOf(r, Math.max(code + 1, 2 * r.length));
+            r[code] = (byte) (b ? 1 : 2);
+            results = r;
+            return b;
+        }
+
+        public boolean eval(Tuple t) {
+            return test(intValue(t, p.getField()));
+        }
+
+        public boolean eval(byte[] data, int off, int[] fieldOffsets) {
+            return test(intValue(data, off + fieldOffsets[p.getField()]));
+        }
+    }
+}
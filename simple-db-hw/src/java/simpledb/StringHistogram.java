@@ -1,10 +1,13 @@
 package simpledb;
 
+import java.io.Serializable;
+
 /**
  * A class to represent a fixed-width histogram over a single String-based
  * field.
  */
-public class StringHistogram {
+public class StringHistogram implements Serializable {
+    private static final long serialVersionUID = 1L;
     final IntHistogram hist;
 
     /**
@@ -65,6 +68,20 @@ public class StringHistogram {
         hist.addValue(val);
     }
 
+    /** Remove a value that was added to the histogram */
+    public void removeValue(String s) {
+        int val = stringToInt(s);
+        hist.removeValue(val);
+    }
+
+    /**
+     * Add the values of another StringHistogram with the same number of
+     * buckets to this one
+     */
+    public void merge(StringHistogram other) {
+        hist.merge(other.hist);
+    }
+
     /**
      * Estimate the selectivity (as a double between 0 and 1) of the specified
      * predicate over the specified string
@@ -1,23 +1,85 @@
 package simpledb;
 
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query. 
+ * <p>
+ * Statistics can be saved to a stats file next to the catalog and loaded at
+ * startup, instead of being recomputed by scanning every table (see
+ * {@link #computeStatistics(File)}). Once computed, the statistics of a table
+ * are updated incrementally as tuples are inserted into and deleted from it
+ * through the BufferPool; when the number of tuples changed since they were
+ * last computed exceeds a fraction of the table (see
+ * {@link #setRefreshFraction}), the next lookup starts recomputing them from
+ * the table in the background, once, and the old statistics are served until
+ * the new ones replace them (see {@link #awaitRefresh}).
+ * <p>
+ * The statistics of the tables are computed concurrently, and large tables
+ * are split into page ranges whose statistics are collected concurrently and
+ * merged (see {@link #computeStatisticsInBackground(Collection, Runnable)}).
+ * The statistics of a table stored in a {@link BTreeFile} are collected by
+ * scanning the whole table.
  * 
  * This class is not needed in implementing lab1 and lab2.
  */
-public class TableStats {
+public class TableStats implements Serializable {
+
+    private static final long serialVersionUID = 2L;
 
     private static final ConcurrentHashMap<String, TableStats> statsMap = new ConcurrentHashMap<String, TableStats>();
 
+    // tables whose statistics have drifted too far and must be recomputed
+    private static final Set<String> staleTables = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // tables whose statistics are being computed in the background, and the
+    // latches released when they are ready
+    private static final ConcurrentHashMap<String, CountDownLatch> pending = new ConcurrentHashMap<String, CountDownLatch>();
+
+    // stale tables whose statistics are being recomputed in the background,
+    // and the latches released when they are replaced; their old statistics
+    // are served meanwhile
+    private static final ConcurrentHashMap<String, CountDownLatch> refreshing = new ConcurrentHashMap<String, CountDownLatch>();
+
     static final int IOCOSTPERPAGE = 1000;
 
+    /** Default number of pages of a table whose statistics one thread collects */
+    public static final int DEFAULT_SPLIT_PAGES = 256;
+    private static volatile int splitPages = DEFAULT_SPLIT_PAGES;
+
+    private static volatile int statsThreads = Math.max(1, Runtime
+            .getRuntime().availableProcessors());
+
+    /** Default fraction of a table that may change before its stats are recomputed */
+    public static final double DEFAULT_REFRESH_FRACTION = 0.2;
+    private static volatile double refreshFraction = DEFAULT_REFRESH_FRACTION;
+
+    /** Suffix appended to the name of a catalog file to name its stats file */
+    public static final String STATS_SUFFIX = ".stats";
+
     public static TableStats getTableStats(String tablename) {
+        awaitTableStats(tablename);
+        refreshStale();
         return statsMap.get(tablename);
     }
 
@@ -44,19 +106,395 @@ public class TableStats {
     }
 
     public static Map<String, TableStats> getStatsMap() {
+        refreshStale();
         return statsMap;
     }
 
+    /**
+     * Compute the statistics of every table in the catalog, and wait until
+     * they are all ready (see {@link #computeStatisticsInBackground}).
+     */
     public static void computeStatistics() {
+        System.out.println("Computing table stats.");
+        awaitQuietly(computeStatisticsInBackground(allTables(), null));
+        System.out.println("Done.");
+    }
+
+    /**
+     * Load the statistics of every table in the catalog from statsFile,
+     * compute the statistics of the tables it has no current statistics for,
+     * and save them all back to statsFile.
+     * <p>
+     * The statistics of a table are current if the table's data file has the
+     * same length and modification time as when they were saved.
+     */
+    public static void computeStatistics(File statsFile) {
+        awaitQuietly(computeStatisticsInBackground(statsFile));
+    }
+
+    /**
+     * Like {@link #computeStatistics(File)}, but returns as soon as the
+     * current statistics have been loaded from statsFile; the others are
+     * computed in the background, and statsFile is saved when they are all
+     * ready. Use {@link #awaitTableStats} to wait for the statistics of the
+     * tables a query needs.
+     * 
+     * @return a latch released when all the statistics are ready
+     */
+    public static CountDownLatch computeStatisticsInBackground(final File statsFile) {
+        Set<String> loaded = loadStatistics(statsFile);
+        if (!loaded.isEmpty())
+            System.out.println("Loaded stats of " + loaded.size()
+                    + " table(s) from " + statsFile + ".");
+        List<Integer> missing = new ArrayList<Integer>();
+        for (int tableid : allTables())
+            if (!loaded.contains(Database.getCatalog().getTableName(tableid)))
+                missing.add(tableid);
+        if (!missing.isEmpty())
+            System.out.println("Computing stats of " + missing.size()
+                    + " table(s) in the background.");
+        return computeStatisticsInBackground(missing, new Runnable() {
+            public void run() {
+                writeStatistics(statsFile);
+            }
+        });
+    }
+
+    /**
+     * Start computing the statistics of tables on a pool of
+     * {@link #getStatsThreads()} threads, and return without waiting for
+     * them. The tables are computed concurrently, and the pages of a table
+     * are split into ranges of {@link #getSplitPages()} pages whose statistics
+     * are collected concurrently and merged. The statistics of each table are
+     * put into the stats map as soon as they are ready;
+     * {@link #getTableStats} and {@link #awaitTableStats} wait for the tables
+     * that are still being computed.
+     * 
+     * @param tableids
+     *            the tables to compute the statistics of
+     * @param whenDone
+     *            run once the statistics of all the tables are ready, or null
+     * @return a latch released when the statistics of all the tables are ready
+     */
+    public static CountDownLatch computeStatisticsInBackground(
+            Collection<Integer> tableids, Runnable whenDone) {
+        return computeInBackground(tableids, whenDone, pending);
+    }
+
+    // compute the statistics of tables in the background, keeping the latch
+    // of each table in latches until its statistics are ready
+    private static CountDownLatch computeInBackground(Collection<Integer> tableids,
+            final Runnable whenDone,
+            final ConcurrentHashMap<String, CountDownLatch> latches) {
+        final CountDownLatch all = new CountDownLatch(tableids.size());
+        final AtomicInteger tablesLeft = new AtomicInteger(tableids.size());
+        if (tableids.isEmpty()) {
+            if (whenDone != null)
+                whenDone.run();
+            return all;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(statsThreads,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "table-stats");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        for (final int tableid : tableids) {
+            final String name = Database.getCatalog().getTableName(tableid);
+            final CountDownLatch ready = new CountDownLatch(1);
+            latches.put(name, ready);
+            final DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            final boolean heap = f instanceof HeapFile;
+            // a B+ tree is read in one piece, through its iterator
+            final int numPages = heap ? ((HeapFile) f).numPages() : 1;
+            final int[] pages = heap ? choosePages(numPages, samplePages,
+                    new Random(seedFor(tableid))) : new int[1];
+            final int split = splitPages;
+            final int ranges = Math.max(1, (pages.length + split - 1) / split);
+            final Collector[] partials = new Collector[ranges];
+            final AtomicInteger remaining = new AtomicInteger(ranges);
+            for (int r = 0; r < ranges; r++) {
+                final int range = r;
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            Collector c;
+                            if (heap) {
+                                c = new Collector(f.getTupleDesc(), numPages,
+                                        new Random(31L * seedFor(tableid) + range));
+                                c.read(tableid, pages, range * split,
+                                        Math.min(pages.length, (range + 1) * split));
+                            } else {
+                                c = collect(tableid);
+                            }
+                            partials[range] = c;
+                        } finally {
+                            // the last range to finish builds the statistics,
+                            // and the last table to finish runs whenDone
+                            if (remaining.decrementAndGet() == 0) {
+                                try {
+                                    finish(tableid, name, partials, latches, ready);
+                                    if (tablesLeft.decrementAndGet() == 0
+                                            && whenDone != null)
+                                        whenDone.run();
+                                } finally {
+                                    all.countDown();
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        pool.shutdown();
+        return all;
+    }
+
+    // merge the partial statistics of a table, publish them, and release
+    // whoever is waiting for them
+    private static void finish(int tableid, String name, Collector[] partials,
+            ConcurrentHashMap<String, CountDownLatch> latches, CountDownLatch ready) {
+        try {
+            Collector merged = null;
+            for (Collector c : partials) {
+                if (c == null) {
+                    System.out.println("Unable to compute stats of " + name);
+                    return;
+                }
+                if (merged == null)
+                    merged = c;
+                else
+                    merged.merge(c);
+            }
+            setTableStats(name, new TableStats(tableid, IOCOSTPERPAGE, merged));
+        } catch (RuntimeException e) {
+            System.out.println("Unable to compute stats of " + name + ": " + e);
+        } finally {
+            latches.remove(name, ready);
+            ready.countDown();
+        }
+    }
+
+    /**
+     * Wait until the statistics of the given tables, if they are being
+     * computed in the background, are ready.
+     */
+    public static void awaitTableStats(Collection<Integer> tableids) {
+        for (int tableid : tableids)
+            awaitTableStats(Database.getCatalog().getTableName(tableid));
+    }
+
+    // wait for the statistics of a table being computed in the background
+    private static void awaitTableStats(String tablename) {
+        CountDownLatch ready = pending.get(tablename);
+        if (ready != null)
+            awaitQuietly(ready);
+    }
+
+    /**
+     * Wait until the statistics of a table, if they are stale and being
+     * recomputed in the background, have been replaced.
+     */
+    public static void awaitRefresh(String tablename) {
+        CountDownLatch ready = refreshing.get(tablename);
+        if (ready != null)
+            awaitQuietly(ready);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<Integer> allTables() {
+        List<Integer> tableids = new ArrayList<Integer>();
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        while (tableIt.hasNext())
+            tableids.add(tableIt.next());
+        return tableids;
+    }
 
-        System.out.println("Computing table stats.");
-        while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+    /**
+     * Set the number of threads used to compute statistics.
+     */
+    public static void setStatsThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("stats threads must be at least 1");
+        statsThreads = threads;
+    }
+
+    /**
+     * @return the number of threads used to compute statistics
+     */
+    public static int getStatsThreads() {
+        return statsThreads;
+    }
+
+    /**
+     * Set the number of pages of a table whose statistics are collected by
+     * one thread; the statistics of larger tables are collected by several
+     * threads and merged.
+     */
+    public static void setSplitPages(int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("split pages must be at least 1");
+        splitPages = pages;
+    }
+
+    /**
+     * @return the number of pages of a table whose statistics are collected
+     *         by one thread
+     */
+    public static int getSplitPages() {
+        return splitPages;
+    }
+
+    /**
+     * @return the stats file kept next to catalogFile
+     */
+    public static File statsFileFor(String catalogFile) {
+        return new File(catalogFile + STATS_SUFFIX);
+    }
+
+    /**
+     * Save the statistics of every table in the catalog to statsFile.
+     */
+    public static void writeStatistics(File statsFile) {
+        refreshStale();
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(statsFile)));
+            try {
+                Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+                while (tableIt.hasNext()) {
+                    String name = Database.getCatalog().getTableName(tableIt.next());
+                    TableStats s = statsMap.get(name);
+                    if (s == null)
+                        continue;
+                    synchronized (s) {
+                        s.recordFileVersion();
+                        oos.writeBoolean(true);
+                        oos.writeUTF(name);
+                        oos.writeObject(s);
+                    }
+                }
+                oos.writeBoolean(false);
+            } finally {
+                oos.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to save table stats to " + statsFile
+                    + ": " + e);
         }
-        System.out.println("Done.");
+    }
+
+    /**
+     * Load the statistics saved in statsFile of the tables in the catalog
+     * whose data files have not changed since.
+     * 
+     * @return the names of the tables whose statistics were loaded
+     */
+    public static Set<String> loadStatistics(File statsFile) {
+        Set<String> loaded = new HashSet<String>();
+        if (!statsFile.exists())
+            return loaded;
+        try {
+            ObjectInputStream ois = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(statsFile)));
+            try {
+                while (ois.readBoolean()) {
+                    String name = ois.readUTF();
+                    TableStats s = (TableStats) ois.readObject();
+                    int tableid;
+                    try {
+                        tableid = Database.getCatalog().getTableId(name);
+                    } catch (NoSuchElementException e) {
+                        continue;
+                    }
+                    DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+                    if (tableid != s._tableId || !(f instanceof HeapFile)
+                            || !f.getTupleDesc().equals(s._tupleDesc))
+                        continue;
+                    s._dbFile = f;
+                    if (!s.isFileCurrent())
+                        continue;
+                    setTableStats(name, s);
+                    loaded.add(name);
+                }
+            } finally {
+                ois.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable table stats file "
+                    + statsFile + ": " + e);
+        } catch (ClassNotFoundException e) {
+            System.out.println("Ignoring unreadable table stats file "
+                    + statsFile + ": " + e);
+        }
+        return loaded;
+    }
+
+    /**
+     * Set the fraction of a table's tuples that may be inserted or deleted
+     * before its statistics are recomputed from the table.
+     */
+    public static void setRefreshFraction(double fraction) {
+        if (fraction < 0)
+            throw new IllegalArgumentException("refresh fraction must not be negative");
+        refreshFraction = fraction;
+    }
+
+    /**
+     * @return the fraction of a table's tuples that may be inserted or
+     *         deleted before its statistics are recomputed
+     */
+    public static double getRefreshFraction() {
+        return refreshFraction;
+    }
+
+    /**
+     * Update the statistics of a table after tuple t was inserted into it.
+     * Called by the BufferPool.
+     */
+    public static void tupleInserted(int tableid, Tuple t) {
+        String name = Database.getCatalog().getTableName(tableid);
+        TableStats s = name == null ? null : statsMap.get(name);
+        if (s != null && s.addTuple(t))
+            staleTables.add(name);
+    }
+
+    /**
+     * Update the statistics of a table after tuple t was deleted from it.
+     * Called by the BufferPool.
+     */
+    public static void tupleDeleted(int tableid, Tuple t) {
+        String name = Database.getCatalog().getTableName(tableid);
+        TableStats s = name == null ? null : statsMap.get(name);
+        if (s != null && s.removeTuple(t))
+            staleTables.add(name);
+    }
+
+    // start recomputing, in the background, the statistics of the tables
+    // that have changed too much; the caller that takes a table off the stale
+    // set starts it, unless it is already being recomputed
+    private static void refreshStale() {
+        if (staleTables.isEmpty())
+            return;
+        List<Integer> tableids = new ArrayList<Integer>();
+        for (String name : staleTables.toArray(new String[0])) {
+            if (!staleTables.remove(name) || refreshing.containsKey(name))
+                continue;
+            TableStats old = statsMap.get(name);
+            if (old != null)
+                tableids.add(old._tableId);
+        }
+        if (!tableids.isEmpty())
+            computeInBackground(tableids, null, refreshing);
     }
 
     /**
@@ -65,6 +503,54 @@ public class TableStats {
      * histograms.
      */
     static final int NUM_HIST_BINS = 100;
+
+    /**
+     * Number of tuples kept in the reservoir sample the histograms are built
+     * from.
+     */
+    static final int SAMPLE_SIZE = 10000;
+
+    /** Default maximum number of pages read to compute a table's statistics */
+    public static final int DEFAULT_SAMPLE_PAGES = 1000;
+    private static volatile int samplePages = DEFAULT_SAMPLE_PAGES;
+
+    /**
+     * Set the maximum number of pages read to compute the statistics of a
+     * table. Tables with more pages are estimated from that many pages chosen
+     * at random; 0 reads every page.
+     */
+    public static void setSamplePages(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("sample pages must not be negative");
+        samplePages = pages;
+    }
+
+    /**
+     * @return the maximum number of pages read to compute the statistics of a
+     *         table, or 0 if every page is read
+     */
+    public static int getSamplePages() {
+        return samplePages;
+    }
+
+    // the seed of the random page and tuple samples, or null to seed them with
+    // the id of the table sampled
+    private static volatile Long sampleSeed = null;
+
+    /**
+     * Seed the random choice of the pages and tuples the statistics of every
+     * table are estimated from, so that they are the same on every run; null
+     * seeds them with the id of each table, which is the default.
+     */
+    public static void setSampleSeed(Long seed) {
+        sampleSeed = seed;
+    }
+
+    //The seed of the samples of a table
+    private static long seedFor(int tableid) {
+        Long seed = sampleSeed;
+        return seed == null ? tableid : seed;
+    }
     
     
     
@@ -76,18 +562,36 @@ public class TableStats {
     //My lab implementations:
 	private int _tableId;
 	private int _ioCostPerPage;
-	private HeapFile _dbFile;
+	private transient DbFile _dbFile;	//a HeapFile or a BTreeFile
 	private TupleDesc _tupleDesc;
 	private int _numTuples=0;
+	
+	//Incremental maintenance
+	private int _baseTuples;			//tuples when the stats were computed from the table
+	private int _modifications = 0;		//tuples inserted or deleted since
+	private long _fileLength;			//data file length and modification time when the
+	private long _fileModified;			//stats were computed or saved
 
-	private HashMap<String, Integer> minValues;
-	private HashMap<String, Integer> _maxValues;
-	private HashMap<String, Object> _histograms;
+	//The histogram of each field: an EquiDepthHistogram or a StringHistogram
+	private Object[] _histograms;
+
+	//Distinct values: a sketch of each column, and the factor its estimate is
+	//scaled by when only a sample of the pages was read
+	private HyperLogLog[] _sketches;
+	private double[] _distinctScale;
 	
     
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
+     * <p>
+     * The statistics are collected in a single pass over the table, or over
+     * a random sample of its pages if it has more than
+     * {@link #getSamplePages()}. A reservoir sample of the tuples read is kept,
+     * from which an {@link EquiDepthHistogram} is built for each integer
+     * column, and the number of distinct values of each column is estimated
+     * with a {@link HyperLogLog} sketch, so both the time and the space taken
+     * are bounded independently of the size of the table.
      * 
      * @param tableid
      *            The table over which to compute statistics
@@ -96,92 +600,332 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
+    	this(tableid, ioCostPerPage, collect(tableid));
+    }
+
+    //Build the statistics of a table from what was collected from its pages
+    private TableStats(int tableid, int ioCostPerPage, Collector c) {
     	_tableId = tableid;
         this._ioCostPerPage = ioCostPerPage;
-        _dbFile = (HeapFile)Database.getCatalog().getDatabaseFile(_tableId);
+        _dbFile = Database.getCatalog().getDatabaseFile(_tableId);
         _tupleDesc = _dbFile.getTupleDesc();
-        minValues = new HashMap<String, Integer>();
-        _maxValues = new HashMap<String, Integer>();
-        _histograms = new HashMap<String, Object>();
-        
-        Transaction transaction = new Transaction();
-        TransactionId tid = transaction.getId();
-        DbFileIterator it = _dbFile.iterator(tid);
-
         
-        //Handles exceptions; otherwise gives errors
-        try {
-        	//Open up the iterator to go through the tuples 
-        	it.open(); 
-        	
-        	//While there are tuples left in the file,
-        	//iterate through them, and get their information
-        	while (it.hasNext()){ 
-        		Tuple tuple = it.next(); 
-        		for (int i=0; i<_tupleDesc.numFields(); i++) {
-        			String fieldName = _tupleDesc.getFieldName(i);
-        			Type fieldType = _tupleDesc.getFieldType(i);
-
-        			if (fieldType.equals(Type.INT_TYPE)) {
-        				int value = ((IntField)tuple.getField(i)).getValue();
-        				if (!minValues.containsKey(fieldName) || value < minValues.get(fieldName)) {
-        					minValues.put(fieldName, value);
-        				}
-        				if (!_maxValues.containsKey(fieldName) || value > _maxValues.get(fieldName)) {
-        					_maxValues.put(fieldName, value);
-        				}
-        			}
-        		}
-        	}
-        	
-        	//Create a new histogram with the information from the first loop
-        	for (String key : minValues.keySet()) {
-        		IntHistogram newIntHistogram = new IntHistogram(NUM_HIST_BINS, minValues.get(key), _maxValues.get(key));
-        		_histograms.put(key, newIntHistogram);
-        	}
-        	
-        	//Restart from the beginning
-        	it.rewind();
-        	
-        	
-        	//This time, put the information of the tuples into the histogram
-        	while (it.hasNext()){
-        		Tuple tuple = it.next();
-        		_numTuples++;
-        		for (int i=0; i<_tupleDesc.numFields(); i++) {
-        			String fieldName = _tupleDesc.getFieldName(i);
-        			Type fieldType = _tupleDesc.getFieldType(i);
-        			if (fieldType.equals(Type.INT_TYPE)) { 
-        				int value = ((IntField)tuple.getField(i)).getValue();
-        				IntHistogram intHistogram = (IntHistogram)_histograms.get(fieldName);
-        				intHistogram.addValue(value);
-        				_histograms.put(fieldName, intHistogram);
-        			} 
-        			
-        			else { 
-        				String value = ((StringField)tuple.getField(i)).getValue();
-        				if (_histograms.containsKey(fieldName)) {
-        					StringHistogram stringHistogram = (StringHistogram)_histograms.get(fieldName);
-        					stringHistogram.addValue(value);
-        					_histograms.put(fieldName, stringHistogram);
-        				} else {
-        					StringHistogram stringHistogram = new StringHistogram(NUM_HIST_BINS);
-        					stringHistogram.addValue(value);
-        					_histograms.put(fieldName, stringHistogram);
-        				}
-        			}
-        		}
+        //Scale what was seen on the sampled pages up to the whole table
+        int numFields = _tupleDesc.numFields();
+        double scale = c.pagesRead == 0 ? 1.0 : (double) c.numPages / c.pagesRead;
+        _numTuples = (int) Math.round(c.count * scale);
+        _sketches = c.sketches;
+        _distinctScale = new double[numFields];
+        _histograms = new Object[numFields];
+        int n = c.sampled();
+        for (int i=0; i<numFields; i++) {
+        	long seen = c.sketches[i].estimate();
+        	_distinctScale[i] = 1.0;
+        	if (scale > 1.0 && seen > 0)
+        		_distinctScale[i] = Math.max(1.0, estimateDistinct(c.sample[i], n,
+        				_numTuples) / seen);
+        	if (_tupleDesc.getFieldType(i).equals(Type.INT_TYPE)) {
+        		EquiDepthHistogram h = new EquiDepthHistogram(NUM_HIST_BINS,
+        				c.sample[i], n, _numTuples);
+        		h.scaleDistinct(numDistinctValues(i));
+        		_histograms[i] = h;
+        	} else {
+        		_histograms[i] = c.strings[i];
         	}
-
-        } 
-        
-        catch (DbException e) {
-        	e.printStackTrace();
-        } 
-        
-        catch (TransactionAbortedException e) {
-        	e.printStackTrace();
         }
+        _baseTuples = _numTuples;
+        recordFileVersion();
+    }
+
+    //Collect the statistics of a table on the calling thread
+    private static Collector collect(int tableid) {
+    	DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+    	if (!(file instanceof HeapFile)) {
+    		Collector c = new Collector(file.getTupleDesc(), 1, new Random(seedFor(tableid)));
+    		c.readAll(file);
+    		return c;
+    	}
+    	HeapFile f = (HeapFile) file;
+    	int numPages = f.numPages();
+    	int[] pages = choosePages(numPages, samplePages, new Random(seedFor(tableid)));
+    	Collector c = new Collector(f.getTupleDesc(), numPages, new Random(seedFor(tableid)));
+    	c.read(tableid, pages, 0, pages.length);
+    	return c;
+    }
+
+    //Choose up to max of the pages of a table at random, in file order; all of
+    //them if max is 0
+    private static int[] choosePages(int numPages, int max, Random rand) {
+    	int k = max == 0 ? numPages : Math.min(numPages, max);
+    	int[] pages = new int[numPages];
+    	for (int i=0; i<numPages; i++)
+    		pages[i] = i;
+    	if (k < numPages) {
+    		for (int i=0; i<k; i++) {
+    			int j = i + rand.nextInt(numPages - i);
+    			int tmp = pages[i];
+    			pages[i] = pages[j];
+    			pages[j] = tmp;
+    		}
+    		pages = Arrays.copyOf(pages, k);
+    		Arrays.sort(pages);
+    	}
+    	return pages;
+    }
+
+    //Haas and Stokes' Duj1 estimator of the number of distinct values of a
+    //column of total values, from a uniform sample of n of them with d
+    //distinct values, f1 of which appear only once: n*d / (n - f1 + f1*n/total).
+    //It is exact for columns whose values are all distinct and for columns
+    //whose every value appears more than once in the sample
+    private static double estimateDistinct(int[] sample, int n, double total) {
+    	if (n == 0)
+    		return 0;
+    	int[] sorted = Arrays.copyOf(sample, n);
+    	Arrays.sort(sorted);
+    	int d = 0, once = 0;
+    	for (int i=0; i<n; ) {
+    		int j = i;
+    		while (j < n && sorted[j] == sorted[i])
+    			j++;
+    		d++;
+    		if (j - i == 1)
+    			once++;
+    		i = j;
+    	}
+    	return (double) n * d / (n - once + once * n / Math.max(total, n));
+    }
+
+    /**
+     * Collects the statistics of a table in a single pass over its tuples:
+     * the number of tuples, a reservoir sample of them (Vitter's algorithm R),
+     * a distinct value sketch of each column, and a StringHistogram of each
+     * string column. String values are sampled by their hash codes, which is
+     * enough to count their repetitions.
+     * <p>
+     * Collectors of disjoint sets of pages of a table can be merged.
+     */
+    private static class Collector {
+    	final int numPages;
+    	final Random rand;
+    	final int[][] sample;
+    	final HyperLogLog[] sketches;
+    	final StringHistogram[] strings;
+    	int count = 0;
+    	int pagesRead = 0;
+
+    	Collector(TupleDesc td, int numPages, Random rand) {
+    		this.numPages = numPages;
+    		this.rand = rand;
+    		int numFields = td.numFields();
+    		sample = new int[numFields][SAMPLE_SIZE];
+    		sketches = new HyperLogLog[numFields];
+    		strings = new StringHistogram[numFields];
+    		for (int i=0; i<numFields; i++) {
+    			sketches[i] = new HyperLogLog();
+    			if (!td.getFieldType(i).equals(Type.INT_TYPE))
+    				strings[i] = new StringHistogram(NUM_HIST_BINS);
+    		}
+    	}
+
+    	//Read pages[from] to pages[to - 1] of a table
+    	void read(int tableid, int[] pages, int from, int to) {
+    		Transaction transaction = new Transaction();
+    		TransactionId tid = transaction.getId();
+    		
+    		//Handles exceptions; otherwise gives errors
+    		try {
+    			for (int i=from; i<to; i++) {
+    				HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+    						new HeapPageId(tableid, pages[i]), Permissions.READ_ONLY);
+    				Iterator<Tuple> it = page.iterator();
+    				while (it.hasNext())
+    					add(it.next());
+    				pagesRead++;
+    			}
+    		} 
+    		
+    		catch (DbException e) {
+    			e.printStackTrace();
+    		} 
+    		
+    		catch (TransactionAbortedException e) {
+    			e.printStackTrace();
+    		}
+    	}
+
+    	//Read every tuple of a file that is not read by pages, as one page
+    	void readAll(DbFile file) {
+    		Transaction transaction = new Transaction();
+    		DbFileIterator it = file.iterator(transaction.getId());
+    		try {
+    			it.open();
+    			while (it.hasNext())
+    				add(it.next());
+    			it.close();
+    			pagesRead++;
+    		} 
+    		
+    		catch (DbException e) {
+    			e.printStackTrace();
+    		} 
+    		
+    		catch (TransactionAbortedException e) {
+    			e.printStackTrace();
+    		}
+    	}
+
+    	void add(Tuple t) {
+    		//the slot of the reservoir this tuple replaces, if any
+    		int slot = count < SAMPLE_SIZE ? count : rand.nextInt(count + 1);
+    		count++;
+    		for (int i=0; i<sample.length; i++) {
+    			int v;
+    			Field f = t.getField(i);
+    			if (f instanceof IntField) {
+    				v = ((IntField) f).getValue();
+    				sketches[i].offer(v);
+    			} else {
+    				String s = ((StringField) f).getValue();
+    				sketches[i].offer(s);
+    				strings[i].addValue(s);
+    				v = s.hashCode();
+    			}
+    			if (slot < SAMPLE_SIZE)
+    				sample[i][slot] = v;
+    		}
+    	}
+
+    	/**
+    	 * Merge the collector of other pages of the same table into this one.
+    	 * The merged reservoir takes tuples from each reservoir in proportion
+    	 * to the number of tuples it was drawn from, so it is again a uniform
+    	 * sample of all of them.
+    	 */
+    	void merge(Collector other) {
+    		int n1 = sampled(), n2 = other.sampled();
+    		int n = Math.min(SAMPLE_SIZE, n1 + n2);
+    		int k2 = count + other.count == 0 ? 0 : (int) Math.round((double) n
+    				* other.count / (count + other.count));
+    		k2 = Math.max(n - n1, Math.min(n2, k2));
+    		int k1 = n - k2;
+    		int[] mine = pick(n1, k1, rand);
+    		int[] theirs = pick(n2, k2, rand);
+    		for (int i=0; i<sample.length; i++) {
+    			int[] merged = new int[SAMPLE_SIZE];
+    			for (int j=0; j<k1; j++)
+    				merged[j] = sample[i][mine[j]];
+    			for (int j=0; j<k2; j++)
+    				merged[k1 + j] = other.sample[i][theirs[j]];
+    			sample[i] = merged;
+    			sketches[i].merge(other.sketches[i]);
+    			if (strings[i] != null)
+    				strings[i].merge(other.strings[i]);
+    		}
+    		count += other.count;
+    		pagesRead += other.pagesRead;
+    	}
+
+    	//k distinct indexes out of 0 .. n-1, chosen at random
+    	private static int[] pick(int n, int k, Random rand) {
+    		int[] idx = new int[n];
+    		for (int i=0; i<n; i++)
+    			idx[i] = i;
+    		for (int i=0; i<k; i++) {
+    			int j = i + rand.nextInt(n - i);
+    			int tmp = idx[i];
+    			idx[i] = idx[j];
+    			idx[j] = tmp;
+    		}
+    		return Arrays.copyOf(idx, k);
+    	}
+
+    	//the number of tuples in the reservoir
+    	int sampled() {
+    		return Math.min(count, SAMPLE_SIZE);
+    	}
+    }
+
+    //Remember the version of the data file the stats describe
+    private void recordFileVersion() {
+    	_fileLength = dataFile().length();
+    	_fileModified = dataFile().lastModified();
+    }
+
+    //Whether the data file is still the version the stats describe
+    private boolean isFileCurrent() {
+    	return dataFile().length() == _fileLength
+    			&& dataFile().lastModified() == _fileModified;
+    }
+
+    //The file the table is stored in
+    private File dataFile() {
+    	if (_dbFile instanceof BTreeFile)
+    		return ((BTreeFile) _dbFile).getFile();
+    	if (_dbFile instanceof PaxFile)
+    		return ((PaxFile) _dbFile).getFile();
+    	return ((HeapFile) _dbFile).getFile();
+    }
+
+    /**
+     * @return the number of pages of the table
+     */
+    public int numPages() {
+    	if (_dbFile instanceof BTreeFile)
+    		return ((BTreeFile) _dbFile).numPages();
+    	if (_dbFile instanceof PaxFile)
+    		return ((PaxFile) _dbFile).numPages();
+    	return ((HeapFile) _dbFile).numPages();
+    }
+
+    /**
+     * Update the statistics for a tuple inserted into the table.
+     * 
+     * @return true if so many tuples have changed since the statistics were
+     *         computed that they should be recomputed
+     */
+    public synchronized boolean addTuple(Tuple t) {
+    	_numTuples++;
+    	for (int i=0; i<_tupleDesc.numFields(); i++) {
+    		_sketches[i].offer(t.getField(i));
+    		Object h = _histograms[i];
+    		if (h instanceof EquiDepthHistogram)
+    			((EquiDepthHistogram) h).addValue(((IntField) t.getField(i)).getValue());
+    		else if (h instanceof StringHistogram)
+    			((StringHistogram) h).addValue(((StringField) t.getField(i)).getValue());
+    	}
+    	return modified();
+    }
+
+    /**
+     * Update the statistics for a tuple deleted from the table.
+     * 
+     * @return true if so many tuples have changed since the statistics were
+     *         computed that they should be recomputed
+     */
+    public synchronized boolean removeTuple(Tuple t) {
+    	_numTuples = Math.max(0, _numTuples - 1);
+    	for (int i=0; i<_tupleDesc.numFields(); i++) {
+    		Object h = _histograms[i];
+    		if (h instanceof EquiDepthHistogram)
+    			((EquiDepthHistogram) h).removeValue(((IntField) t.getField(i)).getValue());
+    		else if (h instanceof StringHistogram)
+    			((StringHistogram) h).removeValue(((StringField) t.getField(i)).getValue());
+    	}
+    	return modified();
+    }
+
+    private boolean modified() {
+    	_modifications++;
+    	return _modifications >= refreshFraction * _baseTuples;
+    }
+
+    /**
+     * @return the number of tuples inserted into or deleted from the table
+     *         since the statistics were computed from it
+     */
+    public synchronized int getModifications() {
+    	return _modifications;
     }
 
     /**
@@ -197,10 +941,65 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-    	double cost = _dbFile.numPages()*_ioCostPerPage;
+    	double cost = numPages()*_ioCostPerPage;
     	return cost;
     }
 
+    /**
+     * Estimates the cost of reading the tuples of a table stored in a
+     * {@link BTreeFile} whose key satisfies a predicate through the B+ tree,
+     * as a {@link BTreeScan} with an {@link IndexPredicate} does: the
+     * internal pages on the path from the root down to the first matching
+     * leaf, then the leaf pages holding the matching tuples. Pages are
+     * costed as in {@link #estimateScanCost()}.
+     * 
+     * @param selectivityFactor
+     *            The fraction of the table's tuples that the scan reads
+     * @return The estimated cost of the scan, or Double.POSITIVE_INFINITY if
+     *         the table is not stored in a B+ tree
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+    	if (!(_dbFile instanceof BTreeFile))
+    		return Double.POSITIVE_INFINITY;
+    	return indexPagesRead((BTreeFile) _dbFile, selectivityFactor) * _ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of the table whose key
+     * satisfies a predicate through one of its secondary indexes, as an
+     * {@link IndexScan} does: the pages of the index read as in
+     * {@link #estimateIndexScanCost}, then, unless the scan reads only the
+     * index, one page of the table for each matching tuple.
+     * 
+     * @param index
+     *            An index on the table
+     * @param selectivityFactor
+     *            The fraction of the table's tuples that the scan reads
+     * @param indexOnly
+     *            Whether the scan reads only the index
+     * @return The estimated cost of the scan
+     */
+    public double estimateIndexScanCost(SecondaryIndex index,
+    		double selectivityFactor, boolean indexOnly) {
+    	double pages = indexPagesRead(index.getFile(), selectivityFactor);
+    	if (!indexOnly)
+    		pages += estimateTableCardinality(selectivityFactor);
+    	return pages * _ioCostPerPage;
+    }
+
+    //The number of pages of a B+ tree read to find the first key satisfying a
+    //predicate, and the fraction of the leaves holding the matching keys
+    private static double indexPagesRead(BTreeFile f, double selectivityFactor) {
+    	int pages = Math.max(1, f.numPages());
+    	// the number of children of a full internal page
+    	int keyBits = f.getTupleDesc().getFieldType(f.keyField()).getLen() * 8;
+    	int ptrBits = BTreePage.INDEX_SIZE * 8;
+    	double fanout = Math.max(2, BufferPool.getPageSize() * 8 / (keyBits + ptrBits + 1));
+    	double height = Math.ceil(Math.log(pages) / Math.log(fanout));
+    	double leaves = Math.max(1, Math.ceil(selectivityFactor * pages));
+    	return height + leaves;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -246,22 +1045,55 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-    	String fieldName = _tupleDesc.getFieldName(field);
     	Type type = constant.getType();
     	
     	if (type==Type.INT_TYPE) {
     		int value = ((IntField)constant).getValue();
-    		IntHistogram histogram = (IntHistogram)_histograms.get(fieldName);
+    		EquiDepthHistogram histogram = (EquiDepthHistogram)_histograms[field];
     		return histogram.estimateSelectivity(op, value);
     	} 
     	
     	else {
     		String value = ((StringField)constant).getValue();
-    		StringHistogram histogram = (StringHistogram)_histograms.get(fieldName);
+    		StringHistogram histogram = (StringHistogram)_histograms[field];
     		return histogram.estimateSelectivity(op, value);
     	}
     }
 
+    /**
+     * Estimate the selectivity of the join predicate <tt>field op
+     * otherField</tt> between this table and another: the fraction of the
+     * pairs of their tuples that satisfy it, from the overlap of the
+     * histograms of the two fields.
+     *
+     * @return The estimated selectivity, or -1.0 if it cannot be estimated
+     *         from histograms (e.g. the fields are strings or op is LIKE)
+     */
+    public double estimateJoinSelectivity(int field, Predicate.Op op,
+    		TableStats other, int otherField) {
+    	Object h1 = _histograms[field];
+    	Object h2 = other._histograms[otherField];
+    	if (!(h1 instanceof EquiDepthHistogram) || !(h2 instanceof EquiDepthHistogram))
+    		return -1.0;
+    	return ((EquiDepthHistogram) h1).estimateJoinSelectivity(op,
+    			(EquiDepthHistogram) h2);
+    }
+
+    /**
+     * Estimate the number of distinct values of a field of the table.
+     * 
+     * @param field
+     *            The index of the field
+     * @return The estimated number of distinct values, at least 1 and at most
+     *         the number of tuples in the table (0 if the table is empty)
+     */
+    public synchronized int numDistinctValues(int field) {
+    	if (_numTuples == 0)
+    		return 0;
+    	double ndv = _sketches[field].estimate() * _distinctScale[field];
+    	return (int) Math.max(1, Math.min(_numTuples, Math.round(ndv)));
+    }
+
     /**
      * return the total number of tuples in this table
      * */
@@ -103,7 +103,7 @@ public class Tuple implements Serializable {
     public String toString() {
     	StringBuilder ret = new StringBuilder();
       for (int i = 0; i < fieldArray.length - 1; i++) {
-          ret.append(fieldArray + " ");
+          ret.append(fieldArray[i] + " ");
       }
       ret.append(fieldArray[fieldArray.length - 1] + "\n");
       return ret.toString();
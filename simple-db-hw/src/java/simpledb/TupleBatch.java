@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to a fixed number of rows in columnar form: each
+ * INT_TYPE column is an int[] and each STRING_TYPE column is a String[].
+ * Operators that implement {@link BatchIterator} exchange TupleBatches
+ * instead of individual Tuples, so they can process a whole column at a time
+ * in a tight loop.
+ * <p>
+ * A batch may carry a selection vector listing which of its rows are live.
+ * Filters only rewrite the selection vector, leaving the column arrays
+ * untouched, and operators downstream of a filter visit the live rows via
+ * {@link #numRows} and {@link #row}.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of rows in a batch */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int[][] intCols;
+    private final String[][] stringCols;
+    private int size;
+    private int[] sel;
+    private int selCount;
+
+    /**
+     * Create an empty batch that can hold capacity rows of the given schema.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.intCols = new int[td.numFields()][];
+        this.stringCols = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intCols[i] = new int[capacity];
+            else
+                stringCols[i] = new String[capacity];
+        }
+    }
+
+    /**
+     * Create a batch over existing column arrays. The arrays are shared, not
+     * copied.
+     *
+     * @param td
+     *            the schema of the batch
+     * @param intCols
+     *            the INT_TYPE columns, with null for string columns
+     * @param stringCols
+     *            the STRING_TYPE columns, with null for int columns
+     * @param size
+     *            the number of rows stored in the columns
+     * @param sel
+     *            the selection vector, or null if all rows are live
+     * @param selCount
+     *            the number of entries of sel in use
+     */
+    TupleBatch(TupleDesc td, int[][] intCols, String[][] stringCols,
+            int size, int[] sel, int selCount) {
+        this.td = td;
+        this.intCols = intCols;
+        this.stringCols = stringCols;
+        this.size = size;
+        this.sel = sel;
+        this.selCount = selCount;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows the columns can hold
+     */
+    public int capacity() {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (intCols[i] != null)
+                return intCols[i].length;
+            if (stringCols[i] != null)
+                return stringCols[i].length;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of rows stored in the columns, live or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of live rows
+     */
+    public int numRows() {
+        return sel == null ? size : selCount;
+    }
+
+    /**
+     * @return the position in the columns of the i-th live row
+     */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * @return the selection vector, or null if every stored row is live
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Replace the selection vector.
+     *
+     * @param sel
+     *            positions of the live rows, in increasing order, or null to
+     *            make every stored row live
+     * @param count
+     *            the number of entries of sel in use
+     */
+    public void setSelection(int[] sel, int count) {
+        this.sel = sel;
+        this.selCount = count;
+    }
+
+    /**
+     * @return the values of INT_TYPE column i
+     */
+    public int[] intColumn(int i) {
+        return intCols[i];
+    }
+
+    /**
+     * @return the values of STRING_TYPE column i
+     */
+    public String[] stringColumn(int i) {
+        return stringCols[i];
+    }
+
+    int[][] intColumns() {
+        return intCols;
+    }
+
+    String[][] stringColumns() {
+        return stringCols;
+    }
+
+    /**
+     * Discard all rows and the selection vector.
+     */
+    public void clear() {
+        size = 0;
+        sel = null;
+        selCount = 0;
+    }
+
+    /**
+     * @return true if no more rows can be appended
+     */
+    public boolean isFull() {
+        return size == capacity();
+    }
+
+    /**
+     * Append the fields of a tuple as a new live row. Must not be called on
+     * a batch with a selection vector.
+     */
+    public void append(Tuple t) {
+        for (int i = 0; i < intCols.length; i++) {
+            if (intCols[i] != null)
+                intCols[i][size] = ((IntField) t.getField(i)).getValue();
+            else
+                stringCols[i][size] = ((StringField) t.getField(i)).getValue();
+        }
+        size++;
+    }
+
+    /**
+     * @return the live row i of this batch as a Tuple
+     */
+    public Tuple getTuple(int i) {
+        int r = row(i);
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < intCols.length; c++) {
+            if (intCols[c] != null)
+                t.setField(c, new IntField(intCols[c][r]));
+            else
+                t.setField(c, new StringField(stringCols[c][r], Type.STRING_LEN));
+        }
+        return t;
+    }
+
+}
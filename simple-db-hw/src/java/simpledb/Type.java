@@ -46,6 +46,41 @@ public enum Type implements Serializable {
     
     public static final int STRING_LEN = 128;
 
+  /**
+   * @return the type named in a schema: "int", or "string", "varchar" or
+   *   "varchar(n)" for STRING_TYPE, or null if there is none by that name.
+   *   A varchar(n) column is a STRING_TYPE column, and n may be at most
+   *   STRING_LEN; see {@link #isVarchar} for how it is stored.
+   */
+    public static Type forName(String name) {
+        String s = name.trim().toLowerCase();
+        if (s.equals("int"))
+            return INT_TYPE;
+        if (s.equals("string") || s.equals("varchar"))
+            return STRING_TYPE;
+        if (s.startsWith("varchar(") && s.endsWith(")")) {
+            try {
+                int n = Integer.parseInt(s.substring(8, s.length() - 1).trim());
+                if (n > 0 && n <= STRING_LEN)
+                    return STRING_TYPE;
+            } catch (NumberFormatException e) {
+                // not a length
+            }
+        }
+        return null;
+    }
+
+  /**
+   * @return true if a type named in a schema is a varchar type. A table with
+   *   a varchar column is created with its tuples on slotted pages, where
+   *   strings take only the room of their value.
+   * @see SlottedPageFormat
+   */
+    public static boolean isVarchar(String name) {
+        return forName(name) == STRING_TYPE
+                && name.trim().toLowerCase().startsWith("varchar");
+    }
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
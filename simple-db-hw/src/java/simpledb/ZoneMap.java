@@ -0,0 +1,281 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A ZoneMap records, for every page of a HeapFile, the minimum and maximum of
+ * each INT_TYPE column over the tuples on that page. A scan with predicates
+ * pushed down to it asks the zone map whether a page can hold a qualifying
+ * tuple, and skips the pages that cannot without reading them.
+ * <p>
+ * The HeapFile keeps its zone map up to date as tuples are inserted and
+ * deleted. The zone map is also persisted in a small sidecar file next to the
+ * data file (the data file's name with {@link #SUFFIX} appended). The entries
+ * of the pages written to the data file since the sidecar was last updated
+ * are written to it together, when the buffer pool flushes its pages (see
+ * {@link #flush}), rather than once per page. The sidecar records
+ * the number of pages of the file it describes, and the length and
+ * modification time of its data file and, if its pages are compressed, of
+ * its page map (see {@link CompressedPageFile}); if they do not match, the
+ * sidecar is ignored.
+ * <p>
+ * A zone map that cannot be loaded from its sidecar is not built by reading
+ * the data file up front. The pages it has no entry for yet have an unbounded
+ * range, so they might always hold qualifying tuples, and their entries are
+ * filled in as the pages are read (see {@link #pageRead}) or written.
+ */
+public class ZoneMap {
+
+    /** Suffix appended to the name of a data file to name its sidecar */
+    public static final String SUFFIX = ".zonemap";
+
+    // sidecar layout: the header, then numFields (min, max) pairs per page
+    private static final int HEADER_SIZE = 8 + 8 + 8 + 8 + 4 + 4;
+
+    private final File dataFile;
+    // the page map of the data file, which may not exist
+    private final File pageMap;
+    private final File sidecar;
+    private final int numFields;
+    private int numPages;
+    // [page][field]; fields that are not INT_TYPE have an unbounded range
+    private int[][] min, max;
+    // the pages whose entries in the sidecar are out of date
+    private final BitSet dirty = new BitSet();
+    // the pages whose entries describe their tuples; the others are unbounded
+    private final BitSet known = new BitSet();
+
+    private ZoneMap(File dataFile, int numFields) {
+        this.dataFile = dataFile;
+        this.pageMap = new File(dataFile.getPath() + CompressedPageFile.SUFFIX);
+        this.sidecar = new File(dataFile.getPath() + SUFFIX);
+        this.numFields = numFields;
+        this.numPages = 0;
+        this.min = new int[0][];
+        this.max = new int[0][];
+    }
+
+    /**
+     * Returns the zone map of a heap file, loaded from its sidecar if that is
+     * current. If not, no page of the file is read: the zone map has no entry
+     * for any of its pages until they are read or written.
+     */
+    public static ZoneMap open(HeapFile hf) {
+        ZoneMap zm = new ZoneMap(hf.getFile(), hf.getTupleDesc().numFields());
+        int n = hf.numPages();
+        if (!zm.load(n)) {
+            zm.ensurePages(n);
+            for (int i = 0; i < n; i++)
+                zm.forget(i);
+        }
+        return zm;
+    }
+
+    /**
+     * @return the number of pages the zone map describes
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return false if the zone map proves that no tuple on page pageNo
+     *         satisfies pred; true if one might. Pages the zone map does not
+     *         describe might always hold qualifying tuples.
+     */
+    public synchronized boolean mayMatch(int pageNo, CompiledPredicate pred) {
+        if (pageNo >= numPages)
+            return true;
+        return pred.mayMatch(min[pageNo], max[pageNo]);
+    }
+
+    /**
+     * @return the minimum of field on page pageNo, as recorded by the zone map
+     */
+    public synchronized int getMin(int pageNo, int field) {
+        return min[pageNo][field];
+    }
+
+    /**
+     * @return the maximum of field on page pageNo, as recorded by the zone map
+     */
+    public synchronized int getMax(int pageNo, int field) {
+        return max[pageNo][field];
+    }
+
+    /**
+     * Widen the ranges of page pageNo to include a newly inserted tuple.
+     */
+    public synchronized void tupleInserted(int pageNo, Tuple t) {
+        ensurePages(pageNo + 1);
+        for (int j = 0; j < numFields; j++) {
+            Field f = t.getField(j);
+            if (!(f instanceof IntField))
+                continue;
+            int v = ((IntField) f).getValue();
+            if (v < min[pageNo][j])
+                min[pageNo][j] = v;
+            if (v > max[pageNo][j])
+                max[pageNo][j] = v;
+        }
+    }
+
+    /**
+     * Recompute the ranges of a page from its contents, e.g. after a tuple
+     * has been deleted from it.
+     */
+    public synchronized void pageChanged(HeapPage page) {
+        int pageNo = page.getId().pageNumber();
+        ensurePages(pageNo + 1);
+        page.intRanges(min[pageNo], max[pageNo]);
+        known.set(pageNo);
+    }
+
+    /**
+     * Fill in the entry of a page that has just been read from the data file,
+     * if the zone map has none yet, to be written to the sidecar by the next
+     * {@link #flush}.
+     */
+    public synchronized void pageRead(HeapPage page) {
+        int pageNo = page.getId().pageNumber();
+        if (pageNo < numPages && known.get(pageNo))
+            return;
+        pageWritten(page);
+    }
+
+    /**
+     * Recompute the ranges of a page that has just been written to the data
+     * file, to be written to the sidecar by the next {@link #flush}.
+     */
+    public synchronized void pageWritten(HeapPage page) {
+        pageChanged(page);
+        dirty.set(page.getId().pageNumber());
+    }
+
+    /**
+     * Write the entries of the pages written since the last flush to the
+     * sidecar, with a header describing the data file as it is now. Until
+     * then, the sidecar does not match the data file, and is ignored if the
+     * zone map is reopened.
+     */
+    public synchronized void flush() {
+        if (dirty.isEmpty())
+            return;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(sidecar, "rw");
+            try {
+                raf.setLength(HEADER_SIZE + (long) numPages * numFields * 8);
+                writeHeader(raf);
+                for (int i = dirty.nextSetBit(0); i >= 0 && i < numPages;
+                        i = dirty.nextSetBit(i + 1)) {
+                    raf.seek(HEADER_SIZE + (long) i * numFields * 8);
+                    writePage(raf, i);
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            // the sidecar is only a cache; it will be rebuilt when reopened
+        }
+        dirty.clear();
+    }
+
+    /** Make sure the zone map describes the first n pages; new pages are empty */
+    private void ensurePages(int n) {
+        if (n <= numPages)
+            return;
+        if (n > min.length) {
+            int cap = Math.max(n, 2 * min.length);
+            min = Arrays.copyOf(min, cap);
+            max = Arrays.copyOf(max, cap);
+        }
+        dirty.set(numPages, n);
+        known.set(numPages, n);
+        for (int i = numPages; i < n; i++) {
+            min[i] = new int[numFields];
+            max[i] = new int[numFields];
+            Arrays.fill(min[i], Integer.MAX_VALUE);
+            Arrays.fill(max[i], Integer.MIN_VALUE);
+        }
+        numPages = n;
+    }
+
+    /** Give page pageNo an unbounded range until its tuples are seen */
+    private void forget(int pageNo) {
+        Arrays.fill(min[pageNo], Integer.MIN_VALUE);
+        Arrays.fill(max[pageNo], Integer.MAX_VALUE);
+        known.clear(pageNo);
+    }
+
+    private void writeHeader(RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        raf.writeLong(dataFile.length());
+        raf.writeLong(dataFile.lastModified());
+        raf.writeLong(pageMap.length());
+        raf.writeLong(pageMap.lastModified());
+        raf.writeInt(numFields);
+        raf.writeInt(numPages);
+    }
+
+    private void writePage(DataOutput out, int pageNo) throws IOException {
+        for (int j = 0; j < numFields; j++) {
+            out.writeInt(min[pageNo][j]);
+            out.writeInt(max[pageNo][j]);
+        }
+    }
+
+    /**
+     * Load the zone map from the sidecar.
+     *
+     * @param filePages
+     *            the number of pages of the file
+     * @return false if there is no sidecar or it does not describe the
+     *         current contents of the file
+     */
+    private boolean load(int filePages) {
+        if (!sidecar.exists())
+            return false;
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(sidecar)));
+            try {
+                long length = dis.readLong();
+                long modified = dis.readLong();
+                long mapLength = dis.readLong();
+                long mapModified = dis.readLong();
+                int fields = dis.readInt();
+                int pages = dis.readInt();
+                if (length != dataFile.length()
+                        || modified != dataFile.lastModified()
+                        || mapLength != pageMap.length()
+                        || mapModified != pageMap.lastModified()
+                        || fields != numFields
+                        || pages != filePages
+                        || sidecar.length() != HEADER_SIZE + (long) pages
+                                * numFields * 8)
+                    return false;
+                ensurePages(pages);
+                for (int i = 0; i < pages; i++) {
+                    boolean unbounded = true;
+                    for (int j = 0; j < numFields; j++) {
+                        min[i][j] = dis.readInt();
+                        max[i][j] = dis.readInt();
+                        unbounded &= min[i][j] == Integer.MIN_VALUE
+                                && max[i][j] == Integer.MAX_VALUE;
+                    }
+                    // the entries saved before the page was read are unbounded
+                    if (unbounded)
+                        known.clear(i);
+                }
+                dirty.clear();
+                return true;
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -176,6 +176,43 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates in one pass
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN,
+            Aggregator.Op.COUNT });
+    assertEquals(Utility.getTupleDesc(4), op.getTupleDesc());
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 12, 2, 3,
+                    3, 12, 2, 3,
+                    5, 7, 7, 1 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() grouping by several columns
+   */
+  @Test public void multipleGroupFields() throws Exception {
+    DbIterator child = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 2, 4,
+                    1, 1, 6,
+                    3, 1, 2 });
+    Aggregate op = new Aggregate(child, new int[] { 2, 2 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.MAX, Aggregator.Op.AVG });
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 1, 6, 4,
+                    1, 2, 4, 4,
+                    3, 1, 2, 2 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
   /**
    * JUnit suite target
    */
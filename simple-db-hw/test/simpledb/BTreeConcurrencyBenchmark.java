@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Throughput benchmark for concurrent access to one {@link BTreeFile}: threads
+ * inserting distinct keys into an empty tree, threads looking up random keys
+ * in the loaded tree, and half of the threads doing each at once. Readers
+ * take no latches, and inserts latch only the leaf they change unless it has
+ * to be split, so throughput should grow with the number of threads up to the
+ * number of cores.
+ * <p>
+ * Each case is run once to warm up before it is measured. Run with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.BTreeConcurrencyBenchmark [keys] [max threads]
+ * </pre>
+ */
+public class BTreeConcurrencyBenchmark {
+
+    static final int LOOKUPS_PER_THREAD = 50000;
+
+    static long sink = 0;
+
+    /** The work of one thread of a case. */
+    interface Task {
+        /** @return the number of operations done */
+        int run(int thread, int threads) throws Exception;
+    }
+
+    static BTreeFile emptyTree() throws Exception {
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+    }
+
+    // run a task in some threads, and return the operations per second
+    static double run(final int threads, final Task task) throws Exception {
+        final int[] ops = new int[threads];
+        final Exception[] errors = new Exception[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int id = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        ops[id] = task.run(id, threads);
+                    } catch (Exception e) {
+                        errors[id] = e;
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        long elapsed = System.nanoTime() - start;
+        int total = 0;
+        for (int i = 0; i < threads; i++) {
+            if (errors[i] != null)
+                throw errors[i];
+            total += ops[i];
+        }
+        return total * 1e9 / elapsed;
+    }
+
+    static void insert(BTreeFile bf, TransactionId tid, int key) throws Exception {
+        Database.getBufferPool().insertTuple(tid, bf.getId(),
+                BTreeUtility.getBTreeTuple(new int[] { key, key }));
+    }
+
+    static int lookup(BTreeFile bf, TransactionId tid, int key) throws Exception {
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(
+                Predicate.Op.EQUALS, new IntField(key)));
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    // insert the keys of a thread's share into a tree
+    static Task inserts(final BTreeFile bf, final List<Integer> keys) {
+        return new Task() {
+            public int run(int thread, int threads) throws Exception {
+                TransactionId tid = new TransactionId();
+                int n = 0;
+                for (int i = thread; i < keys.size(); i += threads, n++)
+                    insert(bf, tid, keys.get(i));
+                Database.getBufferPool().transactionComplete(tid);
+                return n;
+            }
+        };
+    }
+
+    // look up random keys of a tree
+    static Task lookups(final BTreeFile bf, final int keys) {
+        return new Task() {
+            public int run(int thread, int threads) throws Exception {
+                TransactionId tid = new TransactionId();
+                Random r = new Random(thread);
+                for (int i = 0; i < LOOKUPS_PER_THREAD; i++)
+                    sink += lookup(bf, tid, r.nextInt(keys));
+                Database.getBufferPool().transactionComplete(tid);
+                return LOOKUPS_PER_THREAD;
+            }
+        };
+    }
+
+    static void measure(int keys, int threads, boolean print) throws Exception {
+        ArrayList<Integer> order = new ArrayList<Integer>();
+        for (int k = 0; k < keys; k++)
+            order.add(k);
+        Collections.shuffle(order, new Random(0));
+
+        BTreeFile bf = emptyTree();
+        double insertRate = run(threads, inserts(bf, order));
+        double lookupRate = run(threads, lookups(bf, keys));
+
+        // half of the threads insert new keys while the others look keys up
+        final ArrayList<Integer> more = new ArrayList<Integer>();
+        for (int k : order)
+            more.add(k + keys);
+        final Task in = inserts(bf, more);
+        final Task out = lookups(bf, keys);
+        double mixedRate = threads < 2 ? Double.NaN : run(threads, new Task() {
+            public int run(int thread, int threads) throws Exception {
+                return thread % 2 == 0 ? in.run(thread / 2, (threads + 1) / 2)
+                        : out.run(thread, threads);
+            }
+        });
+
+        if (print)
+            System.out.printf("%7d %14.0f %14.0f %14.0f%n", threads, insertRate,
+                    lookupRate, mixedRate);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+
+        measure(keys / 10, maxThreads, false);
+
+        System.out.printf("%7s %14s %14s %14s%n", "threads", "inserts/s",
+                "lookups/s", "mixed ops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2)
+            measure(keys, threads, true);
+        System.out.println("(checksum " + sink + ")");
+    }
+}
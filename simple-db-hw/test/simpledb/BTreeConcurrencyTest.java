@@ -0,0 +1,212 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeConcurrencyTest extends SimpleDbTestBase {
+	private static final int THREADS = 4;
+	private static final int KEYS_PER_THREAD = 5000;
+
+	private BTreeFile bf;
+	private volatile boolean writing;
+
+	@Before
+	public void setUp() throws Exception {
+		File f = File.createTempFile("concurrent", ".dat");
+		f.deleteOnExit();
+		bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+	}
+
+	/**
+	 * A thread of a test, which records the exception or failure that ends
+	 * it, if any
+	 */
+	private static abstract class Worker extends Thread {
+		Throwable error = null;
+
+		abstract void work() throws Exception;
+
+		public void run() {
+			try {
+				work();
+			} catch (Throwable e) {
+				error = e;
+			}
+		}
+	}
+
+	private static void join(List<Worker> workers) throws Exception {
+		for (Worker w : workers)
+			w.join();
+		for (Worker w : workers) {
+			if (w.error instanceof Exception)
+				throw (Exception) w.error;
+			if (w.error != null)
+				throw (Error) w.error;
+		}
+	}
+
+	private void insert(TransactionId tid, int key) throws Exception {
+		Database.getBufferPool().insertTuple(tid, bf.getId(),
+				BTreeUtility.getBTreeTuple(new int[] { key, -key }));
+	}
+
+	// the keys of the tuples of the tree, in the order of a scan
+	private ArrayList<Integer> scan(TransactionId tid) throws Exception {
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			keys.add(((IntField) it.next().getField(0)).getValue());
+		it.close();
+		return keys;
+	}
+
+	private int lookup(TransactionId tid, int key) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid,
+				new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * Threads inserting into the same tree at once, splitting its pages, lose
+	 * no tuples and leave a well formed tree
+	 */
+	@Test
+	public void concurrentInserts() throws Exception {
+		ArrayList<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < THREADS; i++) {
+			final int id = i;
+			workers.add(new Worker() {
+				void work() throws Exception {
+					TransactionId tid = new TransactionId();
+					for (int k = 0; k < KEYS_PER_THREAD; k++)
+						insert(tid, k * THREADS + id);
+					Database.getBufferPool().transactionComplete(tid);
+				}
+			});
+		}
+		for (Worker w : workers)
+			w.start();
+		join(workers);
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		ArrayList<Integer> keys = scan(tid);
+		assertEquals(THREADS * KEYS_PER_THREAD, keys.size());
+		for (int k = 0; k < keys.size(); k++)
+			assertEquals(k, (int) keys.get(k));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Scans and lookups running while other threads insert and delete tuples
+	 * see every tuple that is not changed exactly once, in key order
+	 */
+	@Test
+	public void readersAndWriters() throws Exception {
+		// the keys that are multiples of 4 are never changed; the others that
+		// are even are deleted, and the odd ones inserted
+		final int keys = THREADS * KEYS_PER_THREAD;
+		TransactionId tid = new TransactionId();
+		for (int k = 0; k < keys; k += 2)
+			insert(tid, k);
+		Database.getBufferPool().transactionComplete(tid);
+
+		ArrayList<Worker> writers = new ArrayList<Worker>();
+		for (int i = 0; i < THREADS / 2; i++) {
+			final int id = i;
+			writers.add(new Worker() {
+				void work() throws Exception {
+					TransactionId tid = new TransactionId();
+					for (int k = 2 * id + 1; k < keys; k += THREADS)
+						insert(tid, k);
+					Database.getBufferPool().transactionComplete(tid);
+				}
+			});
+		}
+		writers.add(new Worker() {
+			void work() throws Exception {
+				TransactionId tid = new TransactionId();
+				for (int k = 2; k < keys; k += 4) {
+					DbFileIterator it = bf.indexIterator(tid,
+							new IndexPredicate(Predicate.Op.EQUALS, new IntField(k)));
+					it.open();
+					Tuple t = it.next();
+					it.close();
+					Database.getBufferPool().deleteTuple(tid, t);
+				}
+				Database.getBufferPool().transactionComplete(tid);
+			}
+		});
+
+		ArrayList<Worker> readers = new ArrayList<Worker>();
+		for (int i = 0; i < THREADS; i++) {
+			final int id = i;
+			readers.add(new Worker() {
+				void work() throws Exception {
+					TransactionId tid = new TransactionId();
+					Random r = new Random(id);
+					while (writing) {
+						ArrayList<Integer> seen = scan(tid);
+						int next = 0;
+						for (int k = 0; k < seen.size(); k++) {
+							if (k > 0)
+								assertTrue(seen.get(k - 1) < seen.get(k));
+							if (seen.get(k) % 4 == 0) {
+								assertEquals(next, (int) seen.get(k));
+								next += 4;
+							}
+						}
+						assertEquals(keys, next);
+						for (int n = 0; n < 100; n++)
+							assertEquals(1, lookup(tid, 4 * r.nextInt(keys / 4)));
+					}
+					Database.getBufferPool().transactionComplete(tid);
+				}
+			});
+		}
+
+		writing = true;
+		for (Worker w : readers)
+			w.start();
+		for (Worker w : writers)
+			w.start();
+		try {
+			join(writers);
+		} finally {
+			writing = false;
+		}
+		join(readers);
+
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		ArrayList<Integer> seen = scan(tid);
+		assertEquals(keys / 4 * 3, seen.size());
+		for (int k : seen)
+			assertTrue(k % 4 != 2);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeConcurrencyTest.class);
+	}
+}
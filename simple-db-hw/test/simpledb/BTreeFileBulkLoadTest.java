@@ -0,0 +1,177 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileBulkLoadTest extends SimpleDbTestBase {
+	// more tuples than are sorted in memory at a time, with many duplicate keys
+	private static final int ROWS = 30000;
+	private static final int MAX_VALUE = 1000;
+
+	private TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static BTreeFile createEmptyBTreeFile() throws Exception {
+		File f = File.createTempFile("bulk", ".dat");
+		f.deleteOnExit();
+		return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+	}
+
+	// whether a tree has no tuples; the iterators of a tree without a root
+	// page cannot be opened
+	private boolean isEmpty(BTreeFile bf) throws Exception {
+		return bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId() == null
+				|| count(bf.iterator(tid)) == 0;
+	}
+
+	private int count(DbFileIterator it) throws Exception {
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * Check that a loaded tree is well formed and holds the given tuples
+	 */
+	private void checkTree(BTreeFile bf, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		SystemTestUtil.matchTuples(bf, tid, tuples);
+
+		int key = tuples.get(0).get(0);
+		int matches = 0;
+		for (ArrayList<Integer> t : tuples) {
+			if (t.get(0) == key)
+				matches++;
+		}
+		assertEquals(matches, count(bf.indexIterator(tid,
+				new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)))));
+	}
+
+	/**
+	 * Unit test for BTreeFile.bulkLoad() with tuples in key order
+	 */
+	@Test
+	public void sortedLoad() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		BTreeFile source = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+		BTreeFile bf = createEmptyBTreeFile();
+		bf.bulkLoad(tid, source.iterator(tid), true, 1.0);
+		checkTree(bf, tuples);
+		assertFalse(new File(bf.getFile().getPath() + ".load").exists());
+	}
+
+	/**
+	 * Unit test for BTreeFile.bulkLoad() with tuples that are sorted first
+	 */
+	@Test
+	public void unsortedLoad() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile source = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+		BTreeFile bf = createEmptyBTreeFile();
+		bf.bulkLoad(tid, source.iterator(tid), false, 0.75);
+		checkTree(bf, tuples);
+	}
+
+	/**
+	 * The fill factor sets how full the pages of the tree are
+	 */
+	@Test
+	public void fillFactor() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		BTreeFile source = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+		BTreeFile full = createEmptyBTreeFile();
+		full.bulkLoad(tid, source.iterator(tid), true, 1.0);
+		BTreeFile half = createEmptyBTreeFile();
+		half.bulkLoad(tid, source.iterator(tid), true, 0.5);
+		checkTree(half, tuples);
+
+		int leafSlots = BTreeUtility.getNumTuplesPerPage(2);
+		int leaves = (ROWS + leafSlots - 1) / leafSlots;
+		assertTrue(full.numPages() < leaves + leaves / 10);
+		assertTrue(half.numPages() > 1.9 * leaves);
+	}
+
+	/**
+	 * Loading no tuples, or a single page's worth
+	 */
+	@Test
+	public void smallLoads() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile source = SystemTestUtil.createRandomHeapFile(2, 0, MAX_VALUE, null, tuples);
+		BTreeFile bf = createEmptyBTreeFile();
+		bf.bulkLoad(tid, source.iterator(tid), false, 1.0);
+		assertTrue(isEmpty(bf));
+
+		source = SystemTestUtil.createRandomHeapFile(2, 10, MAX_VALUE, null, tuples);
+		bf = createEmptyBTreeFile();
+		bf.bulkLoad(tid, source.iterator(tid), false, 1.0);
+		checkTree(bf, tuples);
+		assertEquals(1, bf.numPages());
+	}
+
+	/**
+	 * Tuples that are not in key order, or a tree that is not empty, are
+	 * rejected, and leave the tree as it was
+	 */
+	@Test
+	public void rejectedLoads() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile source = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+		BTreeFile bf = createEmptyBTreeFile();
+		try {
+			bf.bulkLoad(tid, source.iterator(tid), true, 1.0);
+			fail("unsorted tuples were loaded");
+		} catch (DbException e) {
+			// expected
+		}
+		assertTrue(isEmpty(bf));
+		assertFalse(new File(bf.getFile().getPath() + ".load").exists());
+
+		bf.bulkLoad(tid, source.iterator(tid), false, 1.0);
+		try {
+			bf.bulkLoad(tid, source.iterator(tid), false, 1.0);
+			fail("a tree with tuples was loaded");
+		} catch (DbException e) {
+			// expected
+		}
+		checkTree(bf, tuples);
+
+		try {
+			createEmptyBTreeFile().bulkLoad(tid, source.iterator(tid), false, 0.25);
+			fail("pages were filled less than half");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeFileBulkLoadTest.class);
+	}
+}
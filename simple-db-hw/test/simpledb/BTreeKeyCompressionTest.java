@@ -0,0 +1,281 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeKeyCompressionTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+	// the entries a page holds with fixed-width string keys
+	private static final int FIXED_ENTRIES = (BufferPool.getPageSize() * 8 - 2 * 4 * 8 - 8 - 1)
+			/ ((Type.STRING_TYPE.getLen() + 4) * 8 + 1);
+
+	private TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+	}
+
+	// an empty B+ tree file of (string, int) tuples keyed on the string, with compressed keys
+	private BTreeFile createStringKeyedFile() throws Exception {
+		File f = File.createTempFile("strings", ".dat");
+		f.deleteOnExit();
+		new File(f.getPath() + BTreeInternalPage.COMPRESSED_KEYS_SUFFIX).deleteOnExit();
+		return openStringKeyedFile(f, true);
+	}
+
+	private BTreeFile openStringKeyedFile(File f, boolean compressKeys) {
+		BTreeFile bf = new BTreeFile(f, 0, new TupleDesc(
+				new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "key", "value" }),
+				false, false, compressKeys);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		return bf;
+	}
+
+	private static String key(int i) {
+		return String.format("customer-%08d", i);
+	}
+
+	private static Tuple tuple(BTreeFile bf, int i) {
+		Tuple t = new Tuple(bf.getTupleDesc());
+		t.setField(0, new StringField(key(i), Type.STRING_LEN));
+		t.setField(1, new IntField(i));
+		return t;
+	}
+
+	// the values of the tuples of the tree, in the order of a scan
+	private ArrayList<Integer> scan(BTreeFile bf) throws Exception {
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			values.add(((IntField) it.next().getField(1)).getValue());
+		it.close();
+		return values;
+	}
+
+	private int lookup(BTreeFile bf, int i) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS,
+				new StringField(key(i), Type.STRING_LEN)));
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			assertEquals(i, ((IntField) it.next().getField(1)).getValue());
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	// the average number of entries of the internal pages right above the leaves
+	private double entriesAboveLeaves(BTreeFile bf, BTreePageId pid) throws Exception {
+		BTreeInternalPage page = (BTreeInternalPage) bf.getPage(tid, new HashMap<PageId, Page>(),
+				pid, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = it.next();
+		if (e.getLeftChild().pgcateg() == BTreePageId.LEAF)
+			return page.getNumEntries();
+		double sum = entriesAboveLeaves(bf, e.getLeftChild());
+		int n = 1;
+		do {
+			sum += entriesAboveLeaves(bf, e.getRightChild());
+			n++;
+		} while (it.hasNext() && (e = it.next()) != null);
+		return sum / n;
+	}
+
+	private void commit() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+	}
+
+	/**
+	 * Separators are the shortest prefix of the right-hand key greater than the left-hand
+	 * one, and only string keys are shortened
+	 */
+	@Test
+	public void separators() {
+		assertEquals("apr", sep("apple", "apricot"));
+		assertEquals("appl", sep("app", "apple"));
+		assertEquals("b", sep("azzz", "banana"));
+		assertEquals("same", sep("same", "same"));
+		assertEquals("key", sep(null, "key"));
+		IntField i = new IntField(12345);
+		assertSame(i, BTreeInternalPage.getSeparator(new IntField(12300), i));
+	}
+
+	private static String sep(String below, String key) {
+		Field f = BTreeInternalPage.getSeparator(
+				below == null ? null : new StringField(below, Type.STRING_LEN),
+				new StringField(key, Type.STRING_LEN));
+		return ((StringField) f).getValue();
+	}
+
+	/**
+	 * An internal page with string keys holds many more entries than fixed-width keys
+	 * leave room for, and reads back the entries it writes
+	 */
+	@Test
+	public void internalPage() throws Exception {
+		BTreeFile bf = createStringKeyedFile();
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), 0);
+		assertTrue(page.getMaxEntries() > FIXED_ENTRIES);
+
+		int n = 0;
+		while (page.getNumEmptySlots() > 0) {
+			page.insertEntry(new BTreeEntry(new StringField(key(n), Type.STRING_LEN),
+					new BTreePageId(bf.getId(), n + 2, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), n + 3, BTreePageId.LEAF)));
+			n++;
+		}
+		assertTrue(n > 5 * FIXED_ENTRIES);
+		assertEquals(n, page.getNumEntries());
+
+		BTreeInternalPage read = new BTreeInternalPage(pid, page.getPageData(), 0);
+		assertEquals(n, read.getNumEntries());
+		Iterator<BTreeEntry> it = read.iterator();
+		for (int i = 0; i < n; i++) {
+			BTreeEntry e = it.next();
+			assertEquals(key(i), ((StringField) e.getKey()).getValue());
+			assertEquals(i + 2, e.getLeftChild().pageNumber());
+			assertEquals(i + 3, e.getRightChild().pageNumber());
+		}
+		assertFalse(it.hasNext());
+		assertArrayEquals(page.getPageData(), read.getPageData());
+
+		// a full page takes no entry with a key that might not fit
+		try {
+			page.insertEntry(new BTreeEntry(new StringField(key(n) + "-with-a-longer-tail",
+					Type.STRING_LEN), new BTreePageId(bf.getId(), n + 2, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), n + 3, BTreePageId.LEAF)));
+		} catch (DbException e) {
+			// expected, unless it fit
+		}
+	}
+
+	/**
+	 * A tree of string keys stays well formed as tuples are inserted and deleted in random
+	 * order, and its internal pages hold many more entries than fixed-width keys allow
+	 */
+	@Test
+	public void insertsAndDeletes() throws Exception {
+		BTreeFile bf = createStringKeyedFile();
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < ROWS; i++)
+			order.add(i);
+		Collections.shuffle(order, new Random(1));
+		for (int i = 0; i < ROWS; i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(bf, order.get(i)));
+			if (i % 500 == 0)
+				commit();
+		}
+		commit();
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		ArrayList<Integer> values = scan(bf);
+		assertEquals(ROWS, values.size());
+		for (int i = 0; i < ROWS; i++)
+			assertEquals(i, (int) values.get(i));
+		BTreePageId root = bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId();
+		assertTrue(entriesAboveLeaves(bf, root) > 2 * FIXED_ENTRIES);
+
+		// delete three quarters of the tuples, found through the index
+		Collections.shuffle(order, new Random(2));
+		HashSet<Integer> deleted = new HashSet<Integer>();
+		for (int i = 0; i < ROWS / 4 * 3; i++) {
+			int k = order.get(i);
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS,
+					new StringField(key(k), Type.STRING_LEN)));
+			it.open();
+			Tuple t = it.next();
+			it.close();
+			Database.getBufferPool().deleteTuple(tid, t);
+			deleted.add(k);
+			if (i % 500 == 0)
+				commit();
+		}
+		commit();
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		values = scan(bf);
+		assertEquals(ROWS - deleted.size(), values.size());
+		int next = 0;
+		for (int v : values) {
+			while (deleted.contains(next))
+				next++;
+			assertEquals(next++, v);
+		}
+		for (int i = 0; i < ROWS; i += 97)
+			assertEquals(deleted.contains(i) ? 0 : 1, lookup(bf, i));
+		commit();
+	}
+
+	/**
+	 * Bulk loading a tree of string keys fills its internal pages by the bytes their
+	 * entries take
+	 */
+	@Test
+	public void bulkLoad() throws Exception {
+		BTreeFile source = createStringKeyedFile();
+		for (int i = 0; i < ROWS; i++) {
+			Database.getBufferPool().insertTuple(tid, source.getId(), tuple(source, i));
+			if (i % 500 == 0)
+				commit();
+		}
+		commit();
+
+		BTreeFile bf = createStringKeyedFile();
+		bf.bulkLoad(tid, source.iterator(tid), true, 1.0);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		ArrayList<Integer> values = scan(bf);
+		assertEquals(ROWS, values.size());
+		for (int i = 0; i < ROWS; i++)
+			assertEquals(i, (int) values.get(i));
+		for (int i = 0; i < ROWS; i += 97)
+			assertEquals(1, lookup(bf, i));
+		BTreePageId root = bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId();
+		assertTrue(entriesAboveLeaves(bf, root) > 2 * FIXED_ENTRIES);
+		commit();
+	}
+
+	/**
+	 * A tree created without compressed keys, and one that already has pages when
+	 * compressed keys are asked for, keep their fixed-width internal pages
+	 */
+	@Test
+	public void fixedWidthUnlessCreatedSo() throws Exception {
+		File f = File.createTempFile("strings", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = openStringKeyedFile(f, false);
+		assertFalse(bf.compressesKeys());
+		for (int i = 0; i < 1000; i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(bf, i));
+		commit();
+		Database.getBufferPool().flushAllPages();
+
+		BTreeFile reopened = openStringKeyedFile(f, true);
+		assertFalse(reopened.compressesKeys());
+		assertFalse(new File(f.getPath() + BTreeInternalPage.COMPRESSED_KEYS_SUFFIX).exists());
+		BTreePageId pid = new BTreePageId(reopened.getId(), 1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), 0);
+		assertEquals(FIXED_ENTRIES, page.getMaxEntries());
+		assertEquals(1000, scan(reopened).size());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeKeyCompressionTest.class);
+	}
+}
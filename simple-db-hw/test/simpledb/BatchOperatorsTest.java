@@ -0,0 +1,176 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BatchOperatorsTest extends SimpleDbTestBase {
+
+  int testWidth = 3;
+  int rows = 5000;
+  int[] data;
+  Object[] mixedData;
+
+  /**
+   * Initialize each unit test with random int and string/int tables
+   */
+  @Before public void setUp() {
+    Random r = new Random(42);
+    data = new int[rows * testWidth];
+    for (int i = 0; i < data.length; i++)
+      data[i] = r.nextInt(50) - 10;
+    mixedData = new Object[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      mixedData[2 * i] = "s" + r.nextInt(7);
+      mixedData[2 * i + 1] = r.nextInt(1000);
+    }
+  }
+
+  /** @return the rows of it as sorted strings, for multiset comparison */
+  private ArrayList<String> rowsOf(DbIterator it) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      out.add(it.next().toString());
+    it.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  private BatchIterator batchScan(int capacity) {
+    return new RowsToBatches(TestUtil.createTupleList(testWidth, data), capacity);
+  }
+
+  /**
+   * Converting rows to batches and back preserves the rows and their order
+   */
+  @Test public void roundTrip() throws Exception {
+    DbIterator op = new BatchesToRows(batchScan(7));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(testWidth, data), op);
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(testWidth, data), op);
+    op.close();
+  }
+
+  /**
+   * BatchFilter returns the same rows as Filter for every operator
+   */
+  @Test public void filter() throws Exception {
+    for (Predicate.Op pop : new Predicate.Op[] { Predicate.Op.EQUALS,
+        Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ }) {
+      Predicate p = new Predicate(1, pop, new IntField(5));
+      DbIterator expected = new Filter(p, TestUtil.createTupleList(testWidth, data));
+      DbIterator actual = new BatchesToRows(new BatchFilter(p, batchScan(100)));
+      assertEquals(rowsOf(expected), rowsOf(actual));
+    }
+  }
+
+  /**
+   * Stacked filters narrow the selection vector of the same batch
+   */
+  @Test public void conjunction() throws Exception {
+    Predicate p1 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20));
+    Predicate p2 = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(0));
+    DbIterator expected = new Filter(p2, new Filter(p1,
+        TestUtil.createTupleList(testWidth, data)));
+    DbIterator actual = new BatchesToRows(new BatchFilter(p2,
+        new BatchFilter(p1, batchScan(TupleBatch.DEFAULT_CAPACITY))));
+    assertEquals(rowsOf(expected), rowsOf(actual));
+  }
+
+  /**
+   * BatchFilter over a string column returns the same rows as Filter for
+   * every operator
+   */
+  @Test public void filterStrings() throws Exception {
+    for (Predicate.Op pop : Predicate.Op.values()) {
+      Predicate p = new Predicate(0, pop, new StringField("s3", Type.STRING_LEN));
+      DbIterator expected = new Filter(p, TestUtil.createTupleList(2, mixedData));
+      DbIterator actual = new BatchesToRows(new BatchFilter(p,
+          new RowsToBatches(TestUtil.createTupleList(2, mixedData))));
+      assertEquals(rowsOf(expected), rowsOf(actual));
+    }
+  }
+
+  /**
+   * BatchProject reorders and drops columns like Project
+   */
+  @Test public void project() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(2);
+    fields.add(0);
+    Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+    Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(30));
+    DbIterator expected = new Project(fields, types, new Filter(p,
+        TestUtil.createTupleList(testWidth, data)));
+    BatchProject bp = new BatchProject(fields, new BatchFilter(p, batchScan(64)));
+    assertEquals(2, bp.getTupleDesc().numFields());
+    assertEquals(rowsOf(expected), rowsOf(new BatchesToRows(bp)));
+  }
+
+  /**
+   * BatchAggregate computes the same groups as Aggregate
+   */
+  @Test public void aggregate() throws Exception {
+    int[] afields = new int[] { 1, 2, 2, 1, 2 };
+    Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.SUM,
+        Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.COUNT,
+        Aggregator.Op.AVG };
+    int[][] groupings = new int[][] { {}, { 0 }, { 0, 1 } };
+    for (int[] gfields : groupings) {
+      DbIterator expected = new Aggregate(
+          TestUtil.createTupleList(testWidth, data), afields, gfields, aops);
+      BatchAggregate ba = new BatchAggregate(batchScan(TupleBatch.DEFAULT_CAPACITY),
+          afields, gfields, aops);
+      assertEquals(expected.getTupleDesc(), ba.getTupleDesc());
+      assertEquals(rowsOf(expected), rowsOf(new BatchesToRows(ba)));
+    }
+  }
+
+  /**
+   * BatchAggregate grouped by a string column, below a filter
+   */
+  @Test public void aggregateStrings() throws Exception {
+    Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+    int[] afields = new int[] { 1, 0 };
+    int[] gfields = new int[] { 0 };
+    Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.SUM,
+        Aggregator.Op.COUNT };
+    DbIterator expected = new Aggregate(new Filter(p,
+        TestUtil.createTupleList(2, mixedData)), afields, gfields, aops);
+    BatchAggregate ba = new BatchAggregate(new BatchFilter(p,
+        new RowsToBatches(TestUtil.createTupleList(2, mixedData))),
+        afields, gfields, aops);
+    assertEquals(rowsOf(expected), rowsOf(new BatchesToRows(ba)));
+  }
+
+  /**
+   * A filter that rejects everything produces no batches
+   */
+  @Test public void emptyResult() throws Exception {
+    Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000));
+    BatchFilter bf = new BatchFilter(p, batchScan(10));
+    bf.open();
+    assertNull(bf.nextBatch());
+    bf.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchOperatorsTest.class);
+  }
+}
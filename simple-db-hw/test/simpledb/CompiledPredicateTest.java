@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompiledPredicateTest extends SimpleDbTestBase {
+
+  private static final Predicate.Op[] OPS = new Predicate.Op[] {
+      Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN,
+      Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+      Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.LIKE };
+
+  private static Tuple tuple(int a, int b) {
+    Tuple t = new Tuple(Utility.getTupleDesc(2));
+    t.setField(0, new IntField(a));
+    t.setField(1, new IntField(b));
+    return t;
+  }
+
+  /**
+   * Each operator on its own agrees with Predicate.filter, including at the
+   * edges of the int range
+   */
+  @Test public void singleOperators() {
+    int[] vals = new int[] { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+    for (Predicate.Op op : OPS) {
+      for (int v : vals) {
+        Predicate p = new Predicate(0, op, new IntField(v));
+        CompiledPredicate c = CompiledPredicate.compile(p);
+        for (int x : vals) {
+          Tuple t = tuple(x, 0);
+          assertEquals(op + " " + v + " on " + x, p.filter(t), c.eval(t));
+        }
+      }
+    }
+  }
+
+  /**
+   * Random conjunctions, with several predicates on the same field merged into
+   * one range, agree with applying each Predicate in turn
+   */
+  @Test public void conjunctions() {
+    Random r = new Random(7);
+    for (int trial = 0; trial < 500; trial++) {
+      ArrayList<Predicate> preds = new ArrayList<Predicate>();
+      int n = 1 + r.nextInt(4);
+      for (int i = 0; i < n; i++)
+        preds.add(new Predicate(r.nextInt(2), OPS[r.nextInt(OPS.length)],
+            new IntField(r.nextInt(10))));
+      CompiledPredicate c = CompiledPredicate.compile(preds);
+      for (int i = 0; i < 20; i++) {
+        Tuple t = tuple(r.nextInt(10), r.nextInt(10));
+        boolean expected = true;
+        for (Predicate p : preds)
+          expected &= p.filter(t);
+        assertEquals(preds + " on " + t, expected, c.eval(t));
+      }
+    }
+  }
+
+  /**
+   * String predicates fall back to Predicate.filter
+   */
+  @Test public void strings() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    Tuple t = new Tuple(td);
+    t.setField(0, new StringField("hello", Type.STRING_LEN));
+    t.setField(1, new IntField(3));
+    ArrayList<Predicate> preds = new ArrayList<Predicate>();
+    preds.add(new Predicate(0, Predicate.Op.LIKE, new StringField("ell",
+        Type.STRING_LEN)));
+    preds.add(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(4)));
+    assertEquals(true, CompiledPredicate.compile(preds).eval(t));
+    preds.add(new Predicate(0, Predicate.Op.EQUALS, new StringField("world",
+        Type.STRING_LEN)));
+    assertEquals(false, CompiledPredicate.compile(preds).eval(t));
+  }
+
+  /**
+   * A join predicate bound to an outer tuple agrees with JoinPredicate.filter
+   */
+  @Test public void bind() {
+    int[] vals = new int[] { -1, 0, 1 };
+    for (Predicate.Op op : OPS) {
+      JoinPredicate jp = new JoinPredicate(1, op, 0);
+      for (int v : vals) {
+        Tuple outer = tuple(0, v);
+        CompiledPredicate c = CompiledPredicate.bind(jp, outer);
+        for (int x : vals) {
+          Tuple inner = tuple(x, 0);
+          assertEquals(op + " " + v + " " + x, jp.filter(outer, inner),
+              c.eval(inner));
+        }
+      }
+    }
+  }
+
+  /**
+   * A string LIKE join predicate bound to an outer tuple agrees with
+   * JoinPredicate.filter, on inner tuples and on their serialized bytes
+   */
+  @Test public void bindLike() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    JoinPredicate jp = new JoinPredicate(1, Predicate.Op.LIKE, 1);
+    Tuple outer = new Tuple(td);
+    outer.setField(0, new IntField(0));
+    outer.setField(1, new StringField("hello", Type.STRING_LEN));
+    CompiledPredicate c = CompiledPredicate.bind(jp, outer);
+    int[] fieldOffsets = new int[] { 0, Type.INT_TYPE.getLen() };
+    for (String s : new String[] { "ell", "hello", "world", "" }) {
+      Tuple inner = new Tuple(td);
+      inner.setField(0, new IntField(1));
+      inner.setField(1, new StringField(s, Type.STRING_LEN));
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.write(new byte[3]);
+      inner.getField(0).serialize(out);
+      inner.getField(1).serialize(out);
+      assertEquals(s, jp.filter(outer, inner), c.eval(inner));
+      assertEquals(s, jp.filter(outer, inner), c.eval(bytes.toByteArray(), 3, fieldOffsets));
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompiledPredicateTest.class);
+  }
+}
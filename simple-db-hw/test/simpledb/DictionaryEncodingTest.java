@@ -0,0 +1,258 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DictionaryEncodingTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE,
+            Type.STRING_TYPE, Type.STRING_TYPE }, new String[] { "id", "status", "country" });
+    private static final boolean[] ENCODED = { false, true, true };
+    private static final String[] STATUSES = { "pending", "shipped", "delivered", "returned" };
+    private static final int ROWS = 2000;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(1000);
+        hf = new HeapFile(tempFile(), TD, false, ENCODED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    // an empty data file, whose dictionary and zone map are deleted with it
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("dict", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + StringDictionary.SUFFIX).deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    private static Tuple tuple(int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(STATUSES[i % STATUSES.length], Type.STRING_LEN));
+        t.setField(2, new StringField("country" + i % 30, Type.STRING_LEN));
+        return t;
+    }
+
+    private static void insert(HeapFile f, int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().insertTuple(tid, f.getId(), tuple(i));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private int countWhere(int field, Predicate.Op op, String value) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.addPredicate(new Predicate(field, op, new StringField(value, Type.STRING_LEN)));
+        int n = count(scan);
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * Encoded fields are stored as codes, so the table takes fewer pages than
+     * the same tuples unencoded, and reads back the same after it is reopened
+     * with its dictionary
+     */
+    @Test public void storedAsCodes() throws Exception {
+        insert(hf, 0, ROWS);
+        HeapFile plain = new HeapFile(tempFile(), TD);
+        Database.getCatalog().addTable(plain, SystemTestUtil.getUUID());
+        insert(plain, 0, ROWS);
+        assertTrue(hf.numPages() * 2 < plain.numPages());
+        assertEquals(STATUSES.length + 30, hf.getDictionary().size());
+
+        // a value cut short while it was appended is dropped
+        FileOutputStream out = new FileOutputStream(hf.getFile().getPath()
+                + StringDictionary.SUFFIX, true);
+        out.write(new byte[] { 0, 10, 'x' });
+        out.close();
+
+        Database.resetBufferPool(1000);
+        HeapFile reopened = new HeapFile(hf.getFile(), TD);
+        assertNotNull(reopened.getDictionary());
+        assertEquals(STATUSES.length + 30, reopened.getDictionary().size());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(STATUSES[i % STATUSES.length], ((StringField) t.getField(1)).getValue());
+            assertEquals("country" + i % 30, ((StringField) t.getField(2)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Equality predicates on encoded fields compare codes, and still find a
+     * value that had no code when they were compiled
+     */
+    @Test public void equalityOnCodes() throws Exception {
+        insert(hf, 0, ROWS);
+        List<Predicate> preds = Arrays.asList(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("shipped", Type.STRING_LEN)));
+        assertTrue(hf.compile(preds) instanceof CompiledPredicate.IntRange);
+        assertEquals(ROWS / STATUSES.length, countWhere(1, Predicate.Op.EQUALS, "shipped"));
+        assertEquals(ROWS - ROWS / STATUSES.length,
+                countWhere(1, Predicate.Op.NOT_EQUALS, "shipped"));
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("lost", Type.STRING_LEN)));
+        assertEquals(0, count(scan));
+        Tuple lost = tuple(ROWS);
+        lost.setField(1, new StringField("lost", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), lost);
+        assertEquals(1, count(scan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Other predicates on encoded fields are evaluated on the values of the
+     * codes
+     */
+    @Test public void otherPredicates() throws Exception {
+        insert(hf, 0, ROWS);
+        assertEquals(expected(1, Predicate.Op.LIKE, "ed"),
+                countWhere(1, Predicate.Op.LIKE, "ed"));
+        assertEquals(expected(1, Predicate.Op.GREATER_THAN, "pending"),
+                countWhere(1, Predicate.Op.GREATER_THAN, "pending"));
+        assertEquals(expected(2, Predicate.Op.LESS_THAN, "country2"),
+                countWhere(2, Predicate.Op.LESS_THAN, "country2"));
+    }
+
+    // the number of the tuples inserted that satisfy a predicate
+    private static int expected(int field, Predicate.Op op, String value) {
+        Predicate p = new Predicate(field, op, new StringField(value, Type.STRING_LEN));
+        int n = 0;
+        for (int i = 0; i < ROWS; i++)
+            if (p.filter(tuple(i)))
+                n++;
+        return n;
+    }
+
+    /**
+     * Group-bys and equi-joins on encoded fields see fields that compare by
+     * code
+     */
+    @Test public void groupByAndJoin() throws Exception {
+        insert(hf, 0, ROWS);
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, hf.getId()), 0, 1, Aggregator.Op.COUNT);
+        agg.open();
+        HashSet<String> seen = new HashSet<String>();
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            assertTrue(t.getField(0) instanceof EncodedStringField);
+            assertTrue(seen.add(t.getField(0).toString()));
+            assertEquals(ROWS / STATUSES.length, ((IntField) t.getField(1)).getValue());
+        }
+        agg.close();
+        assertEquals(STATUSES.length, seen.size());
+
+        EncodedStringField shipped = hf.getDictionary().decode(
+                hf.getDictionary().lookup("shipped"));
+        assertEquals(shipped, new StringField("shipped", Type.STRING_LEN));
+        assertTrue(shipped.compare(Predicate.Op.EQUALS,
+                hf.getDictionary().decode(hf.getDictionary().encode("shipped"))));
+        assertFalse(shipped.equals(hf.getDictionary().decode(0)));
+
+        int rows = 40;
+        Predicate first = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(rows));
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                new Filter(first, new SeqScan(tid, hf.getId())),
+                new Filter(first, new SeqScan(tid, hf.getId())));
+        assertEquals(rows * rows / STATUSES.length, count(join));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The dict annotation of the schema file encodes a string field
+     */
+    @Test public void catalogAnnotation() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        new File(dir, "orders.dat").deleteOnExit();
+        new File(dir, "orders.dat" + StringDictionary.SUFFIX).deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("orders (id int pk, status string dict, note string)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int id = Database.getCatalog().getTableId("orders");
+        StringDictionary dict = ((HeapFile) Database.getCatalog().getDatabaseFile(id))
+                .getDictionary();
+        assertNotNull(dict);
+        assertTrue(dict.isEncoded(1));
+        assertFalse(dict.isEncoded(2));
+        assertEquals("id", Database.getCatalog().getPrimaryKey(id));
+    }
+
+    /**
+     * A page decodes the tuple in a slot once, and again only after the slot
+     * changes
+     */
+    @Test public void decodedOnce() throws Exception {
+        insert(hf, 0, 10);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        Tuple first = page.getTupleInSlot(3);
+        assertSame(first, page.getTupleInSlot(3));
+        assertSame(first, nth(page.iterator(null), 3));
+
+        page.deleteTuple(first);
+        assertNull(page.getTupleInSlot(3));
+        page.insertTuple(tuple(42));
+        Tuple replaced = page.getTupleInSlot(3);
+        assertNotSame(first, replaced);
+        assertEquals(42, ((IntField) replaced.getField(0)).getValue());
+        assertEquals(STATUSES[42 % STATUSES.length], ((StringField) replaced.getField(1)).getValue());
+    }
+
+    private static Tuple nth(Iterator<Tuple> it, int n) {
+        for (int i = 0; i < n; i++)
+            it.next();
+        return it.next();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryEncodingTest.class);
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class EquiDepthHistogramTest {
+
+	/**
+	 * A value that makes up half of a skewed column gets buckets of its own,
+	 * so its frequency is estimated closely, as are ranges around it
+	 */
+	@Test public void skewTest() {
+		Random r = new Random(3);
+		int[] sample = new int[10000];
+		for (int i = 0; i < sample.length; i++)
+			sample[i] = i % 2 == 0 ? 7 : r.nextInt(1000);
+		EquiDepthHistogram h = new EquiDepthHistogram(100, sample, sample.length, 1000000);
+
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.EQUALS, 7), 0.01);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.NOT_EQUALS, 7), 0.01);
+		Assert.assertEquals(0.0005, h.estimateSelectivity(Op.EQUALS, 500), 0.001);
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.GREATER_THAN, 500), 0.02);
+		Assert.assertEquals(0.5 + 0.004, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 7), 0.01);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, 0), 0.001);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, 1000), 0.001);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 0), 0.001);
+	}
+
+	/**
+	 * Values added and removed after the histogram was built are counted,
+	 * including values outside its range
+	 */
+	@Test public void incrementalTest() {
+		int[] sample = new int[100];
+		for (int i = 0; i < sample.length; i++)
+			sample[i] = i;
+		EquiDepthHistogram h = new EquiDepthHistogram(10, sample, sample.length, 100);
+		for (int i = 0; i < 100; i++)
+			h.addValue(200);
+		Assert.assertEquals(200.0, h.totalValues(), 0.0);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.GREATER_THAN, 99), 0.05);
+		for (int i = 0; i < 100; i++)
+			h.removeValue(200);
+		// the widened bucket keeps its range, but not the removed values
+		Assert.assertEquals(100.0, h.totalValues(), 0.0);
+		Assert.assertTrue(h.estimateSelectivity(Op.GREATER_THAN, 99) < 0.1);
+
+		EquiDepthHistogram empty = new EquiDepthHistogram(10, new int[0], 0, 0);
+		Assert.assertEquals(0.0, empty.estimateSelectivity(Op.EQUALS, 1), 0.0);
+		empty.addValue(1);
+		Assert.assertEquals(1.0, empty.estimateSelectivity(Op.EQUALS, 1), 0.0);
+	}
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  int testWidth = 3;
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = new TestUtil.MockScan(-500, 500, testWidth);
+  }
+
+  /**
+   * Unit test for Exchange.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    Exchange op = new Exchange(scan);
+    assertEquals(scan.getTupleDesc(), op.getTupleDesc());
+  }
+
+  /**
+   * Tuples come out of the exchange in the order the child produced them,
+   * even when the queue is much smaller than the input
+   */
+  @Test public void passesAllTuples() throws Exception {
+    Exchange op = new Exchange(scan, 7, 2);
+    op.open();
+    DbIterator expected = new TestUtil.MockScan(-500, 500, testWidth);
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for Exchange.rewind() in the middle of the child's output
+   */
+  @Test public void rewind() throws Exception {
+    Exchange op = new Exchange(scan, 4, 1);
+    op.open();
+    for (int i = 0; i < 10; i++)
+      op.next();
+    assertTrue(op.hasNext());
+
+    op.rewind();
+    Tuple expected = Utility.getHeapTuple(-500, testWidth);
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+    op.close();
+  }
+
+  /**
+   * Closing the exchange stops a producer blocked on a full queue
+   */
+  @Test public void closeWhileBlocked() throws Exception {
+    Exchange op = new Exchange(scan, 1, 1);
+    op.open();
+    op.next();
+    op.close();
+
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(1000, count);
+    op.close();
+  }
+
+  /**
+   * Errors thrown by the child on the producer thread reach the consumer
+   * after the tuples produced before the error
+   */
+  @Test public void propagatesErrors() throws Exception {
+    DbIterator failing = new TestUtil.MockScan(0, 5, testWidth) {
+      private static final long serialVersionUID = 1L;
+      int seen = 0;
+
+      public Tuple next() throws DbException, TransactionAbortedException,
+          NoSuchElementException {
+        if (seen++ == 3)
+          throw new DbException("child failed");
+        return super.next();
+      }
+    };
+    Exchange op = new Exchange(failing, 2, 4);
+    op.open();
+    for (int i = 0; i < 3; i++)
+      op.next();
+    try {
+      op.hasNext();
+      fail("expected DbException");
+    } catch (DbException e) {
+      assertEquals("child failed", e.getMessage());
+    }
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -9,6 +9,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class FilterTest extends SimpleDbTestBase {
 
@@ -120,6 +121,36 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * A stack of Filters leaves the Filters below its top, and the scan it
+   * pushes its predicates into, usable on their own once it is closed
+   */
+  @Test public void stackedFiltersAreLeftUnchanged() throws Exception {
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100, 10, null,
+        new java.util.ArrayList<java.util.ArrayList<Integer>>());
+    TransactionId tid = new TransactionId();
+    SeqScan ss = new SeqScan(tid, hf.getId());
+    Filter inner = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5)), ss);
+    Filter top = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10)), inner);
+    assertEquals(0, count(top));
+
+    int n = count(inner);
+    assertTrue(n > 0 && n < 100);
+    assertEquals(100, count(ss));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static int count(DbIterator it) throws Exception {
+    int n = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
   /**
    * JUnit suite target
    */
@@ -100,6 +100,38 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(CompiledPredicate): only the qualifying
+     * tuples are returned, and only they are materialized
+     */
+    @Test public void testIteratorPredicate() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        preds.add(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)));
+        preds.add(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(40000)));
+        Iterator<Tuple> it = page.iterator(CompiledPredicate.compile(preds));
+        int matches = 0;
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[0] > 20000 && values[1] < 40000) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+                assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+                matches++;
+            }
+        }
+        assertFalse(it.hasNext());
+
+        int materialized = 0;
+        for (Tuple t : page.tuples)
+            if (t != null)
+                materialized++;
+        assertEquals(matches, materialized);
+
+        // the page still serializes to the bytes it was read from
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
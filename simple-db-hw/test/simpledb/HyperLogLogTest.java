@@ -0,0 +1,41 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class HyperLogLogTest {
+
+	/**
+	 * The estimate is within a few standard errors of the true count, for
+	 * small and large counts, and repeated values are not counted twice
+	 */
+	@Test public void estimateTest() {
+		int[] counts = new int[] { 0, 1, 10, 1000, 100000, 1000000 };
+		for (int n : counts) {
+			HyperLogLog h = new HyperLogLog();
+			for (int rep = 0; rep < 3; rep++)
+				for (int i = 0; i < n; i++)
+					h.offer(i * 31 + 17);
+			Assert.assertEquals("count " + n, n, h.estimate(), Math.max(1, 0.05 * n));
+		}
+
+		HyperLogLog s = new HyperLogLog();
+		for (int i = 0; i < 50000; i++)
+			s.offer("value" + (i % 20000));
+		Assert.assertEquals(20000, s.estimate(), 1000);
+	}
+
+	/**
+	 * The merge of two sketches estimates the size of the union of their values
+	 */
+	@Test public void mergeTest() {
+		HyperLogLog a = new HyperLogLog();
+		HyperLogLog b = new HyperLogLog();
+		for (int i = 0; i < 60000; i++)
+			a.offer(i);
+		for (int i = 40000; i < 100000; i++)
+			b.offer(i);
+		a.merge(b);
+		Assert.assertEquals(100000, a.estimate(), 5000);
+	}
+}
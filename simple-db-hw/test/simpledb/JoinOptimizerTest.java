@@ -3,8 +3,13 @@ package simpledb;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import org.junit.Assert;
@@ -265,6 +270,44 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
     }
 
+    /**
+     * Without primary keys, an equi-join is estimated from the number of
+     * distinct values of the join fields, and a range join from the overlap of
+     * their histograms
+     */
+    @Test
+    public void estimateJoinCardinalityFromStats() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName2 + " t1, " + tableName2
+                        + " t2 WHERE t1.c8 = t2.c7;"),
+                new Vector<LogicalJoinNode>());
+
+        // both fields hold about 500 copies of each of 20 values
+        double cardinality = j.estimateJoinCardinality(new LogicalJoinNode(
+                "t1", "t2", "c3", "c4", Predicate.Op.EQUALS), 10000, 10000,
+                false, false, TableStats.getStatsMap());
+        Assert.assertEquals(10000.0 * 10000 / 20, cardinality, 250000);
+
+        // filtering one side to 100 tuples leaves at most 100 distinct values
+        cardinality = j.estimateJoinCardinality(new LogicalJoinNode("t1",
+                "t2", "c3", "c4", Predicate.Op.EQUALS), 100, 10000, false,
+                false, TableStats.getStatsMap());
+        Assert.assertEquals(100.0 * 10000 / 20, cardinality, 2500);
+
+        cardinality = j.estimateJoinCardinality(new LogicalJoinNode("t1",
+                "t2", "c3", "c4", Predicate.Op.NOT_EQUALS), 10000, 10000,
+                false, false, TableStats.getStatsMap());
+        Assert.assertEquals(10000.0 * 10000 * 19 / 20, cardinality, 250000);
+
+        // x < y for x, y uniform over 0..19 holds for (1 - 1/20) / 2 of pairs
+        cardinality = j.estimateJoinCardinality(new LogicalJoinNode("t1",
+                "t2", "c3", "c4", Predicate.Op.LESS_THAN), 10000, 10000,
+                false, false, TableStats.getStatsMap());
+        Assert.assertEquals(10000.0 * 10000 * 0.475, cardinality, 5000000);
+    }
+
     /**
      * Determine whether the orderJoins implementation is doing a reasonable job
      * of ordering joins, and not taking an unreasonable amount of time to do so
@@ -621,4 +664,339 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * enumerateSubsets() returns each subset of the given size once
+     */
+    @Test
+    public void enumerateSubsetsTest() {
+        JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+        Vector<Integer> v = new Vector<Integer>();
+        for (int i = 0; i < 10; i++)
+            v.add(i);
+        int[] binomial = { 1, 10, 45, 120, 210, 252, 210, 120, 45, 10, 1, 0 };
+        for (int size = 0; size < binomial.length; size++) {
+            Set<Set<Integer>> subsets = jo.enumerateSubsets(v, size);
+            Assert.assertEquals(binomial[size], subsets.size());
+            for (Set<Integer> s : subsets)
+                Assert.assertEquals(size, s.size());
+        }
+        Assert.assertTrue(jo.enumerateSubsets(v, 3).contains(
+                new HashSet<Integer>(Arrays.asList(2, 5, 9))));
+    }
+
+    /**
+     * Check that order holds the joins of nodes, each joining two tables not
+     * joined yet, in an order LogicalPlan can execute
+     */
+    private static void assertExecutableOrder(Vector<LogicalJoinNode> order,
+            Vector<LogicalJoinNode> nodes) {
+        Assert.assertEquals(nodes.size(), order.size());
+        // the root of the subplan each table is in so far
+        HashMap<String, String> root = new HashMap<String, String>();
+        for (LogicalJoinNode j : order) {
+            boolean found = false;
+            for (LogicalJoinNode n : nodes)
+                found |= (n.t1Alias.equals(j.t1Alias) && n.t2Alias.equals(j.t2Alias))
+                        || (n.t1Alias.equals(j.t2Alias) && n.t2Alias.equals(j.t1Alias));
+            Assert.assertTrue("unexpected join " + j, found);
+            String r1 = root.containsKey(j.t1Alias) ? root.get(j.t1Alias) : j.t1Alias;
+            String r2 = root.containsKey(j.t2Alias) ? root.get(j.t2Alias) : j.t2Alias;
+            Assert.assertFalse("join " + j + " closes a cycle", r1.equals(r2));
+            for (Map.Entry<String, String> e : root.entrySet())
+                if (e.getValue().equals(r2))
+                    e.setValue(r1);
+            root.put(j.t1Alias, r1);
+            root.put(j.t2Alias, r1);
+        }
+    }
+
+    /**
+     * A table of (i * step0 % mod0, i % mod1), for i in [0, rows)
+     */
+    private static HeapFile createChainTable(int rows, int step0, int mod0,
+            int mod1) throws IOException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i * step0 % mod0);
+            t.add(i % mod1);
+            tuples.add(t);
+        }
+        return createDuplicateHeapFile(tuples, 2, "c");
+    }
+
+    /**
+     * A chain of joins whose two ends are small and selective is best joined
+     * as a bushy plan, joining each end with its neighbors before joining the
+     * two results; the plan must still compute the join correctly.
+     */
+    @Test(timeout = 60000)
+    public void bushyOrderJoinsTest() throws Exception {
+        final int IO_COST = 100;
+        String[] names = { "a", "b", "c", "d", "e" };
+        HeapFile[] files = { createChainTable(10, 1, 10, 10),
+                createChainTable(1000, 1, 10, 1000),
+                createChainTable(5000, 1, 10, 10),
+                createChainTable(1000, 1, 1000, 10),
+                createChainTable(10, 100, 1000, 1) };
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        for (int i = 0; i < names.length; i++) {
+            Database.getCatalog().addTable(files[i], names[i]);
+            stats.put(names[i], new TableStats(files[i].getId(), IO_COST));
+            filterSelectivities.put(names[i], 1.0);
+        }
+
+        // a.c1 = b.c1, b.c0 = c.c0, c.c1 = d.c1, d.c0 = e.c0
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < names.length; i++)
+            nodes.add(new LogicalJoinNode(names[i - 1], names[i], "c" + (i % 2),
+                    "c" + (i % 2), Predicate.Op.EQUALS));
+        String query = "SELECT COUNT(a.c0) FROM a, b, c, d, e WHERE a.c1 = b.c1 AND b.c0 = c.c0 AND c.c1 = d.c1 AND d.c0 = e.c0;";
+        TransactionId tid = new TransactionId();
+        Vector<LogicalJoinNode> result = new JoinOptimizer(new Parser()
+                .generateLogicalPlan(tid, query), nodes).orderJoins(stats,
+                filterSelectivities, false);
+        assertExecutableOrder(result, nodes);
+
+        // both sides of the last join are subplans joined earlier
+        LogicalJoinNode last = result.get(result.size() - 1);
+        for (String side : new String[] { last.t1Alias, last.t2Alias }) {
+            boolean joinedEarlier = false;
+            for (LogicalJoinNode j : result.subList(0, result.size() - 1))
+                joinedEarlier |= j.t1Alias.equals(side) || j.t2Alias.equals(side);
+            Assert.assertTrue("expected a bushy plan: " + result, joinedEarlier);
+        }
+
+        // only the value 0 reaches e: a.c1 = 0 matches one tuple of b, with
+        // b.c0 = 0, which matches 500 tuples of c, which match the 10 tuples
+        // of d with d.c1 = 0 that e matches
+        DbIterator plan = new Parser().generateLogicalPlan(tid, query)
+                .physicalPlan(tid, stats, false);
+        plan.open();
+        Assert.assertEquals(5000, ((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A star query with more joins than are ordered by dynamic programming is
+     * ordered greedily, quickly.
+     */
+    @Test(timeout = 60000)
+    public void starOrderJoinsTest() throws Exception {
+        final int IO_COST = 100;
+        final int DIMENSIONS = 16;
+        Assert.assertTrue(DIMENSIONS > JoinOptimizer.getMaxDpJoins());
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(DIMENSIONS, 2000,
+                100, null, new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(fact, "fact");
+        stats.put("fact", new TableStats(fact.getId(), IO_COST));
+        filterSelectivities.put("fact", 1.0);
+        StringBuilder query = new StringBuilder("SELECT COUNT(fact.c0) FROM fact");
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < DIMENSIONS; i++) {
+            String name = "dim" + i;
+            HeapFile dim = SystemTestUtil.createRandomHeapFile(2, 10 + 20 * i,
+                    100, null, new ArrayList<ArrayList<Integer>>(), "c");
+            Database.getCatalog().addTable(dim, name);
+            stats.put(name, new TableStats(dim.getId(), IO_COST));
+            filterSelectivities.put(name, 1.0);
+            nodes.add(new LogicalJoinNode("fact", name, "c" + i, "c0",
+                    Predicate.Op.EQUALS));
+            query.append(", ").append(name);
+            where.append(i == 0 ? " WHERE " : " AND ").append("fact.c")
+                    .append(i).append(" = ").append(name).append(".c0");
+        }
+        query.append(where).append(";");
+
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), query.toString()), nodes);
+        long start = System.currentTimeMillis();
+        Vector<LogicalJoinNode> result = j.orderJoins(stats,
+                filterSelectivities, false);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertExecutableOrder(result, nodes);
+        Assert.assertTrue("ordering took " + elapsed + "ms", elapsed < 5000);
+    }
+
+    /**
+     * A table of (i % mod0, i % mod1), for i in [0, rows)
+     */
+    private static ArrayList<ArrayList<Integer>> modTuples(int rows, int mod0,
+            int mod1) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i % mod0, i % mod1)));
+        return tuples;
+    }
+
+    /**
+     * A B+ tree of the tuples, keyed on c0, whose columns are named like
+     * those of createDuplicateHeapFile
+     */
+    private static BTreeFile createDuplicateBTreeFile(
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File hFile = File.createTempFile("table", ".dat");
+        hFile.deleteOnExit();
+        File bFile = File.createTempFile("table_index", ".dat");
+        bFile.deleteOnExit();
+        BTreeFile bf = BTreeFileEncoder.convert(tuples, hFile, bFile,
+                BufferPool.getPageSize(), 2, new Type[] { Type.INT_TYPE,
+                        Type.INT_TYPE }, ',', 0);
+        return new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    }
+
+    // the first join in a plan
+    private static Operator findJoin(DbIterator plan) {
+        if (plan instanceof Join || plan instanceof HashEquiJoin)
+            return (Operator) plan;
+        if (plan instanceof Operator)
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                Operator j = findJoin(child);
+                if (j != null)
+                    return j;
+            }
+        return null;
+    }
+
+    /**
+     * Each join is computed by the algorithm its inputs make cheapest, and
+     * gets the same tuples as a nested loops join would
+     */
+    @Test(timeout = 60000)
+    public void joinMethodTest() throws Exception {
+        final int IO_COST = 100;
+        String[] names = { "ha", "hb", "ba", "bb" };
+        ArrayList<ArrayList<Integer>> ha = modTuples(5, 10, 1000);
+        ArrayList<ArrayList<Integer>> hb = modTuples(2000, 100, 7);
+        ArrayList<ArrayList<Integer>> ba = modTuples(20000, 500, 1000);
+        ArrayList<ArrayList<Integer>> bb = modTuples(2000, 400, 3);
+        DbFile[] files = { createDuplicateHeapFile(ha, 2, "c"),
+                createDuplicateHeapFile(hb, 2, "c"),
+                createDuplicateBTreeFile(ba), createDuplicateBTreeFile(bb) };
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (int i = 0; i < names.length; i++) {
+            Database.getCatalog().addTable(files[i], names[i]);
+            stats.put(names[i], new TableStats(files[i].getId(), IO_COST));
+        }
+
+        Object[][] cases = {
+                // heap tables: equality joins are hashed...
+                { "ha.c0 = hb.c0", HashEquiJoin.class, ha, 0, hb, 0, Predicate.Op.EQUALS },
+                // ...and other joins are computed by block nested loops
+                { "ha.c0 < hb.c1", BlockNestedLoopJoin.class, ha, 0, hb, 1, Predicate.Op.LESS_THAN },
+                // a few outer tuples are looked up in a B+ tree on the join field
+                { "ha.c1 = ba.c0", IndexNestedLoopJoin.class, ha, 1, ba, 0, Predicate.Op.EQUALS },
+                { "ha.c1 > ba.c0", IndexNestedLoopJoin.class, ha, 1, ba, 0, Predicate.Op.GREATER_THAN },
+                // inputs sorted on the join field are merged
+                { "ba.c0 = bb.c0", SortMergeJoin.class, ba, 0, bb, 0, Predicate.Op.EQUALS } };
+        for (Object[] c : cases) {
+            String[] sides = ((String) c[0]).split(" . ");
+            String query = "SELECT " + sides[0] + ", " + sides[1] + " FROM "
+                    + sides[0].split("[.]")[0] + ", " + sides[1].split("[.]")[0]
+                    + " WHERE " + c[0] + ";";
+            TransactionId tid = new TransactionId();
+            DbIterator plan = new Parser().generateLogicalPlan(tid, query)
+                    .physicalPlan(tid, stats, false);
+            Operator j = findJoin(plan);
+            Assert.assertEquals(query, c[1], j.getClass());
+            Assert.assertTrue(j.getEstimatedCost() > 0);
+
+            @SuppressWarnings("unchecked")
+            ArrayList<ArrayList<Integer>> t1 = (ArrayList<ArrayList<Integer>>) c[2];
+            @SuppressWarnings("unchecked")
+            ArrayList<ArrayList<Integer>> t2 = (ArrayList<ArrayList<Integer>>) c[4];
+            int f1 = (Integer) c[3], f2 = (Integer) c[5];
+            Predicate.Op op = (Predicate.Op) c[6];
+            int expected = 0;
+            for (ArrayList<Integer> a : t1)
+                for (ArrayList<Integer> b : t2)
+                    if (new IntField(a.get(f1)).compare(op, new IntField(b.get(f2))))
+                        expected++;
+
+            int actual = 0;
+            plan.open();
+            while (plan.hasNext()) {
+                plan.next();
+                actual++;
+            }
+            plan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            Assert.assertEquals(query, expected, actual);
+        }
+    }
+
+    // the scans of a plan, in order
+    private static void findScans(DbIterator plan, List<DbIterator> scans) {
+        if (plan instanceof Operator)
+            for (DbIterator child : ((Operator) plan).getChildren())
+                findScans(child, scans);
+        else
+            scans.add(plan);
+    }
+
+    /**
+     * A selective filter on the key of a B+ tree table is applied by reading
+     * the table through its index; other filters scan the whole table
+     */
+    @Test(timeout = 60000)
+    public void indexScanTest() throws Exception {
+        final int IO_COST = 100;
+        ArrayList<ArrayList<Integer>> tuples = modTuples(20000, 20000, 10);
+        BTreeFile bf = createDuplicateBTreeFile(tuples);
+        Database.getCatalog().addTable(bf, "bk");
+        HeapFile hf = createDuplicateHeapFile(modTuples(100, 100, 10), 2, "c");
+        Database.getCatalog().addTable(hf, "hk");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("bk", new TableStats(bf.getId(), IO_COST));
+        stats.put("hk", new TableStats(hf.getId(), IO_COST));
+        Assert.assertTrue(stats.get("bk").estimateIndexScanCost(0.001) < stats
+                .get("bk").estimateScanCost());
+        Assert.assertEquals(Double.POSITIVE_INFINITY,
+                stats.get("hk").estimateIndexScanCost(0.001), 0);
+
+        Object[][] cases = {
+                // point and narrow range queries read the index...
+                { "SELECT bk.c1 FROM bk WHERE bk.c0 = 17;", BTreeScan.class, 1 },
+                { "SELECT bk.c1 FROM bk WHERE bk.c0 < 100 AND bk.c1 = 3;", BTreeScan.class, 10 },
+                { "SELECT bk.c1 FROM bk, hk WHERE bk.c0 >= 19950 AND bk.c1 = hk.c1;", BTreeScan.class, 500 },
+                // ...but wide ranges and filters on other fields do not
+                { "SELECT bk.c1 FROM bk WHERE bk.c0 > 100;", SeqScan.class, 19899 },
+                { "SELECT bk.c1 FROM bk WHERE bk.c1 = 3;", SeqScan.class, 2000 } };
+        for (Object[] c : cases) {
+            TransactionId tid = new TransactionId();
+            DbIterator plan = new Parser().generateLogicalPlan(tid,
+                    (String) c[0]).physicalPlan(tid, stats, false);
+            List<DbIterator> scans = new ArrayList<DbIterator>();
+            findScans(plan, scans);
+            boolean found = false;
+            for (DbIterator scan : scans)
+                if (scan instanceof BTreeScan || scan instanceof SeqScan)
+                    found |= ((scan instanceof BTreeScan ? ((BTreeScan) scan)
+                            .getTableName() : ((SeqScan) scan).getTableName())
+                            .equals("bk") && scan.getClass() == c[1]);
+            Assert.assertTrue((String) c[0], found);
+            Assert.assertEquals(c[1] == BTreeScan.class, new QueryPlanVisualizer()
+                    .getQueryPlanTree(plan).contains("index:bk.c0"));
+
+            int n = 0;
+            plan.open();
+            while (plan.hasNext()) {
+                plan.next();
+                n++;
+            }
+            plan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            Assert.assertEquals((String) c[0], c[2], n);
+        }
+    }
 }
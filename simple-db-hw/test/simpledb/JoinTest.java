@@ -105,6 +105,89 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  // the number of tuples left in it, which must be open
+  private static int count(DbIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * BlockNestedLoopJoin with blocks smaller than the outer input returns the
+   * same tuples as Join, and can be rewound
+   */
+  @Test public void blockNestedLoopJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2, 3);
+    assertEquals("block nested loop", op.getJoinMethod());
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+    op.rewind();
+    assertEquals(11, count(op));
+  }
+
+  /**
+   * HashEquiJoin with a map smaller than the outer input returns the same
+   * tuples as Join, and can be rewound
+   */
+  @Test public void hashEquiJoinSmallMap() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2, 1);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.rewind();
+    assertEquals(3, count(op));
+  }
+
+  /**
+   * SortMergeJoin joins sorted and unsorted inputs, with duplicate join
+   * values, and returns the joined tuples in the order of the join field
+   */
+  @Test public void sortMergeJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2, true, true);
+    assertEquals("sort-merge", op.getJoinMethod());
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.rewind();
+    assertEquals(3, count(op));
+
+    DbIterator left = TestUtil.createTupleList(width1,
+        new int[] { 3, 0, 1, 0, 3, 1, 2, 0 });
+    DbIterator right = TestUtil.createTupleList(width1,
+        new int[] { 3, 5, 4, 5, 1, 5, 3, 6 });
+    DbIterator expected = TestUtil.createTupleList(width1 * 2,
+        new int[] { 1, 0, 1, 5,
+                    3, 0, 3, 5,
+                    3, 0, 3, 6,
+                    3, 1, 3, 5,
+                    3, 1, 3, 6 });
+    op = new SortMergeJoin(pred, left, right, false, false);
+    op.open();
+    expected.open();
+    // the sort is stable, so the order is known
+    while (expected.hasNext())
+      assertTrue(TestUtil.compareTuples(expected.next(), op.next()));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertEquals(5, count(op));
+  }
+
+  /**
+   * SortMergeJoin only computes equality joins
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void sortMergeJoinInequality() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    new SortMergeJoin(pred, scan1, scan2, false, false);
+  }
+
   /**
    * JUnit suite target
    */
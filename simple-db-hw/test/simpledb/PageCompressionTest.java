@@ -0,0 +1,228 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCompressionTest extends SimpleDbTestBase {
+
+    private static final int PAGE_SIZE = BufferPool.getPageSize();
+
+    @Before public void setUp() {
+        Database.resetBufferPool(1000);
+    }
+
+    // an empty data file, whose page map is deleted with it
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("compressed", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        new File(f.getPath() + CompressedPageFile.SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    // a page of mostly zeros, which compresses well
+    private static byte[] sparsePage(int seed) {
+        byte[] page = new byte[PAGE_SIZE];
+        for (int i = 0; i < PAGE_SIZE; i += 97)
+            page[i] = (byte) (seed + i);
+        return page;
+    }
+
+    // a page of random bytes, which does not compress
+    private static byte[] randomPage(int seed) {
+        byte[] page = new byte[PAGE_SIZE];
+        new Random(seed).nextBytes(page);
+        return page;
+    }
+
+    /**
+     * Pages read back as they were written, whether they compress or not, and
+     * after the file is reopened
+     */
+    @Test public void roundTrip() throws Exception {
+        File f = tempFile();
+        CompressedPageFile pages = new CompressedPageFile(f);
+        assertTrue(CompressedPageFile.isCompressed(f));
+        assertEquals(0, pages.numPages());
+
+        pages.write(0, sparsePage(0));
+        pages.write(1, randomPage(1));
+        pages.write(3, sparsePage(3));
+        assertEquals(4, pages.numPages());
+        assertArrayEquals(new byte[PAGE_SIZE], pages.read(2, PAGE_SIZE));
+        assertTrue(f.length() < 2 * PAGE_SIZE);
+
+        // pages that grow and shrink
+        pages.write(0, randomPage(0));
+        pages.write(1, sparsePage(1));
+
+        CompressedPageFile reopened = new CompressedPageFile(f);
+        assertEquals(4, reopened.numPages());
+        assertArrayEquals(randomPage(0), reopened.read(0, PAGE_SIZE));
+        assertArrayEquals(sparsePage(1), reopened.read(1, PAGE_SIZE));
+        assertArrayEquals(new byte[PAGE_SIZE], reopened.read(2, PAGE_SIZE));
+        assertArrayEquals(sparsePage(3), reopened.read(3, PAGE_SIZE));
+        try {
+            reopened.read(4, PAGE_SIZE);
+            fail("read a page past the end of the file");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The extents of pages that move are reused, so rewriting pages does not
+     * grow the data file without bound
+     */
+    @Test public void extentsAreReused() throws Exception {
+        File f = tempFile();
+        CompressedPageFile pages = new CompressedPageFile(f);
+        for (int i = 0; i < 8; i++)
+            pages.write(i, sparsePage(i));
+        for (int round = 0; round < 50; round++) {
+            int i = round % 8;
+            pages.write(i, round % 2 == 0 ? randomPage(round) : sparsePage(round));
+        }
+        assertTrue(f.length() <= 8 * PAGE_SIZE);
+    }
+
+    /**
+     * A compressed heap file of repetitive tuples takes a fraction of the
+     * space of its pages, and is compressed again when it is reopened
+     */
+    @Test public void heapFile() throws Exception {
+        File f = tempFile();
+        TupleDesc td = Utility.getTupleDesc(4);
+        HeapFile hf = new HeapFile(f, td, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        int rows = 20000;
+        for (int i = 0; i < rows; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { i, i % 10, 7, i / 100 }));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+
+        int numPages = hf.numPages();
+        assertTrue(numPages > 10);
+        assertTrue(f.length() < (long) numPages * PAGE_SIZE / 3);
+
+        Database.resetBufferPool(1000);
+        HeapFile reopened = new HeapFile(f, td);
+        assertNotNull(reopened.getCompressedPages());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(numPages, reopened.numPages());
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(i / 100, ((IntField) t.getField(3)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The zone map of a compressed heap file is loaded from its sidecar when
+     * the file is reopened, rather than rebuilt by reading every page
+     */
+    @Test public void zoneMapReused() throws Exception {
+        File f = tempFile();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5000; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { i, 0 }));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        int numPages = hf.numPages();
+        assertEquals(0, hf.getZoneMap().getMin(0, 0));
+
+        // change the minimum of page 0 in the sidecar only: a zone map that
+        // is rebuilt from the pages would not see it
+        File sidecar = new File(f.getPath() + ZoneMap.SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(sidecar, "rw");
+        raf.seek(sidecar.length() - (long) numPages * 2 * 8);
+        raf.writeInt(-1);
+        raf.close();
+
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        assertEquals(numPages, reopened.getZoneMap().numPages());
+        assertEquals(-1, reopened.getZoneMap().getMin(0, 0));
+    }
+
+    /**
+     * An uncompressed heap file opened to be compressed keeps its tuples
+     */
+    @Test public void convertHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 100, null, tuples);
+        new File(f.getPath() + CompressedPageFile.SUFFIX).deleteOnExit();
+        long rawLength = f.length();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(rawLength / PAGE_SIZE, hf.numPages());
+        assertTrue(f.length() < rawLength);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A compressed B+ tree stays well formed as tuples are inserted, and can be
+     * bulk loaded
+     */
+    @Test public void btreeFile() throws Exception {
+        File f = tempFile();
+        BTreeFile bf = new BTreeFile(f, 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        int rows = 5000;
+        for (int i = 0; i < rows; i++)
+            Database.getBufferPool().insertTuple(tid, bf.getId(),
+                    BTreeUtility.getBTreeTuple(new int[] { (i * 31) % rows, 1 }));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        int numPages = bf.numPages();
+        assertTrue(numPages > 10);
+        assertTrue(f.length() < (long) numPages * PAGE_SIZE / 2);
+
+        Database.resetBufferPool(1000);
+        tid = new TransactionId();
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+        File g = tempFile();
+        BTreeFile loaded = new BTreeFile(g, 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(loaded, SystemTestUtil.getUUID());
+        loaded.bulkLoad(tid, bf.iterator(tid), true, 1.0);
+        BTreeChecker.checkRep(loaded, tid, new HashMap<PageId, Page>(), true);
+        assertTrue(CompressedPageFile.isCompressed(g));
+        DbFileIterator it = loaded.iterator(tid);
+        it.open();
+        for (int i = 0; i < rows; i++)
+            assertEquals(i, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCompressionTest.class);
+    }
+}
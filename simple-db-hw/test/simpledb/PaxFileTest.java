@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 8;
+    private static final TupleDesc TD = Utility.getTupleDesc(COLUMNS);
+
+    private PaxFile pf;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(1000);
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        pf = new PaxFile(f, TD);
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+    }
+
+    // a tuple whose field j is i * COLUMNS + j
+    private static Tuple tuple(int i) {
+        int[] values = new int[COLUMNS];
+        for (int j = 0; j < COLUMNS; j++)
+            values[j] = i * COLUMNS + j;
+        return Utility.getHeapTuple(values);
+    }
+
+    private static int value(Tuple t, int j) {
+        return ((IntField) t.getField(j)).getValue();
+    }
+
+    private void insert(int rows) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++)
+            tuples.add(tuple(i));
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new TupleIterator(TD, tuples), pf.getId());
+        insert.open();
+        assertEquals(rows, value(insert.next(), 0));
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * A page stores each field of its tuples in a minipage of its own, and
+     * reads back the tuples it writes
+     */
+    @Test public void pageLayout() throws Exception {
+        HeapPageId pid = new HeapPageId(pf.getId(), 0);
+        PaxPage page = new PaxPage(pid, PaxPage.createEmptyPageData());
+        int slots = PaxPage.getNumSlots(TD);
+        assertEquals(slots, page.getNumEmptySlots());
+        for (int i = 0; i < slots; i++)
+            page.insertTuple(tuple(i));
+        assertEquals(0, page.getNumEmptySlots());
+
+        byte[] data = page.getPageData();
+        int header = (slots + 7) / 8;
+        for (int j = 0; j < COLUMNS; j++)
+            for (int i = 0; i < slots; i += 17)
+                assertEquals(i * COLUMNS + j,
+                        CompiledPredicate.intValue(data, header + 4 * (j * slots + i)));
+
+        PaxPage read = new PaxPage(pid, data);
+        Iterator<Tuple> it = read.iterator();
+        for (int i = 0; i < slots; i++) {
+            Tuple t = it.next();
+            assertEquals(i, t.getRecordId().tupleno());
+            for (int j = 0; j < COLUMNS; j++)
+                assertEquals(i * COLUMNS + j, value(t, j));
+        }
+        assertFalse(it.hasNext());
+
+        read.deleteTuple(read.getTupleInSlot(3));
+        assertEquals(1, read.getNumEmptySlots());
+        assertNull(read.getTupleInSlot(3));
+        read.insertTuple(tuple(-1));
+        assertEquals(-COLUMNS, value(read.getTupleInSlot(3), 0));
+    }
+
+    /**
+     * An iterator with a predicate and a projection decodes only the
+     * projected fields of the tuples that qualify
+     */
+    @Test public void projectingIterator() throws Exception {
+        insert(2000);
+        CompiledPredicate pred = CompiledPredicate.compile(new Predicate(5,
+                Predicate.Op.LESS_THAN, new IntField(100 * COLUMNS)));
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = pf.iterator(tid, pred, new int[] { 2, 6 });
+        it.open();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = it.next();
+            assertEquals(i * COLUMNS + 2, value(t, 2));
+            assertEquals(i * COLUMNS + 6, value(t, 6));
+            assertFalse(t.getField(0) instanceof IntField);
+            assertFalse(t.getField(5) instanceof IntField);
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A PAX table is scanned, filtered, projected and deleted from by the
+     * usual operators
+     */
+    @Test public void operators() throws Exception {
+        int rows = 3000;
+        insert(rows);
+        assertTrue(pf.numPages() > 1);
+        TransactionId tid = new TransactionId();
+        assertEquals(rows, count(new SeqScan(tid, pf.getId())));
+
+        // the Project has the scan decode only the field it projects out
+        SeqScan scan = new SeqScan(tid, pf.getId());
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField((rows - 10) * COLUMNS)), scan);
+        Project project = new Project(new ArrayList<Integer>(Arrays.asList(7)),
+                new Type[] { Type.INT_TYPE }, filter);
+        project.open();
+        for (int i = rows - 10; i < rows; i++)
+            assertEquals(i * COLUMNS + 7, value(project.next(), 0));
+        assertFalse(project.hasNext());
+        project.close();
+
+        Delete delete = new Delete(tid, new Filter(new Predicate(1, Predicate.Op.LESS_THAN,
+                new IntField(rows / 2 * COLUMNS)), new SeqScan(tid, pf.getId())));
+        delete.open();
+        assertEquals(rows / 2, value(delete.next(), 0));
+        delete.close();
+        assertEquals(rows - rows / 2, count(new SeqScan(tid, pf.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tables declared columnar in the schema file are PAX files
+     */
+    @Test public void catalogOption() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        new File(dir, "wide.dat").deleteOnExit();
+        new File(dir, "narrow.dat").deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("wide (a int, b int, c int) columnar\nnarrow (a int)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        assertTrue(Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("wide")) instanceof PaxFile);
+        assertTrue(Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("narrow")) instanceof HeapFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
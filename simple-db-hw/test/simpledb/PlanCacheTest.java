@@ -0,0 +1,59 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class PlanCacheTest {
+
+	/**
+	 * Plans are found by their set of tables, replaced by later plans for the
+	 * same set, and kept as the cache grows
+	 */
+	@Test public void addAndFindTest() {
+		PlanCache pc = new PlanCache();
+		// every subset of 12 tables: many more than the initial capacity
+		for (long s = 1; s < (1L << 12); s++)
+			pc.addPlan(s, s * 1.5, (int) s + 1, s & -s, (int) (s % 7), s % 2 == 0);
+		// sets that differ only in their high bits
+		for (int i = 12; i < 64; i++)
+			pc.addPlan(1L << i | 1, i, i, 1, i, true);
+		pc.addPlan(5, 0.5, 3, 4, 1, true);
+		Assert.assertEquals((1 << 12) - 1 + 52, pc.size());
+
+		for (long s = 1; s < (1L << 12); s++) {
+			Assert.assertTrue(pc.contains(s));
+			if (s == 5)
+				continue;
+			Assert.assertEquals(s * 1.5, pc.getCost(s), 0.0);
+			Assert.assertEquals((int) s + 1, pc.getCard(s));
+			Assert.assertEquals(s & -s, pc.getOuter(s));
+			Assert.assertEquals((int) (s % 7), pc.getJoin(s));
+			Assert.assertEquals(s % 2 == 0, pc.hasPkey(s));
+		}
+		for (int i = 12; i < 64; i++)
+			Assert.assertEquals(i, pc.getCard(1L << i | 1));
+		Assert.assertEquals(0.5, pc.getCost(5), 0.0);
+		Assert.assertEquals(3, pc.getCard(5));
+		Assert.assertEquals(4, pc.getOuter(5));
+		Assert.assertEquals(1, pc.getJoin(5));
+		Assert.assertTrue(pc.hasPkey(5));
+	}
+
+	/**
+	 * Looking up a set without a plan fails
+	 */
+	@Test public void missingPlanTest() {
+		PlanCache pc = new PlanCache();
+		pc.addPlan(3, 1, 1, 1, 0, false);
+		Assert.assertFalse(pc.contains(6));
+		Assert.assertFalse(pc.contains(0));
+		try {
+			pc.getCost(6);
+			Assert.fail("expected NoSuchElementException");
+		} catch (NoSuchElementException e) {
+			// expected
+		}
+	}
+}
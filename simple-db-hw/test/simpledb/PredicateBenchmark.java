@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Microbenchmark comparing interpreted predicate evaluation
+ * ({@link Predicate#filter}, {@link JoinPredicate#filter}) with the
+ * specialized evaluators built by {@link CompiledPredicate}, over
+ * FilterTest-style integer tuples.
+ * <p>
+ * Like a JMH run, each case is warmed up before it is measured, and the
+ * number of matches is consumed so the JIT cannot drop the work. Before
+ * measuring, the interpreted paths are also run over string tuples, so that
+ * Field.compare sees both field types as it does in a server that runs
+ * queries over mixed schemas. Run with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.PredicateBenchmark [rows]
+ * </pre>
+ */
+public class PredicateBenchmark {
+
+    static final int WARMUP_ITERATIONS = 10;
+    static final int ITERATIONS = 20;
+
+    static long sink = 0;
+
+    interface Case {
+        int run();
+    }
+
+    static void measure(String name, int rows, Case c) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+            sink += c.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            sink += c.run();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-28s %8.2f ns/tuple%n", name, (double) elapsed
+                / ITERATIONS / rows);
+    }
+
+    /** Exercise Predicate and JoinPredicate on StringFields. */
+    static void pollute() {
+        TupleDesc std = new TupleDesc(new Type[] { Type.STRING_TYPE,
+                Type.STRING_TYPE });
+        Tuple st = new Tuple(std);
+        st.setField(0, new StringField("a", Type.STRING_LEN));
+        st.setField(1, new StringField("b", Type.STRING_LEN));
+        Predicate sp = new Predicate(0, Predicate.Op.LESS_THAN, new StringField(
+                "m", Type.STRING_LEN));
+        JoinPredicate sjp = new JoinPredicate(0, Predicate.Op.LESS_THAN, 1);
+        for (int i = 0; i < 100000; i++) {
+            if (sp.filter(st))
+                sink++;
+            if (sjp.filter(st, st))
+                sink++;
+        }
+    }
+
+    public static void main(String[] args) {
+        final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int width = 3;
+        TupleDesc td = Utility.getTupleDesc(width);
+        Random r = new Random(0);
+        final Tuple[] tuples = new Tuple[rows];
+        for (int i = 0; i < rows; i++) {
+            tuples[i] = new Tuple(td);
+            for (int j = 0; j < width; j++)
+                tuples[i].setField(j, new IntField(r.nextInt(1000)));
+        }
+
+        pollute();
+
+        final List<Predicate> preds = new ArrayList<Predicate>();
+        preds.add(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(800)));
+        preds.add(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)));
+        preds.add(new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(5)));
+        final CompiledPredicate compiled = CompiledPredicate.compile(preds);
+
+        measure("filter: Predicate", rows, new Case() {
+            public int run() {
+                int n = 0;
+                for (Tuple t : tuples) {
+                    boolean pass = true;
+                    for (Predicate p : preds)
+                        if (!p.filter(t)) {
+                            pass = false;
+                            break;
+                        }
+                    if (pass)
+                        n++;
+                }
+                return n;
+            }
+        });
+        measure("filter: CompiledPredicate", rows, new Case() {
+            public int run() {
+                int n = 0;
+                for (Tuple t : tuples)
+                    if (compiled.eval(t))
+                        n++;
+                return n;
+            }
+        });
+
+        final JoinPredicate jp = new JoinPredicate(0, Predicate.Op.LESS_THAN, 1);
+        final Tuple outer = tuples[0];
+        final CompiledPredicate bound = CompiledPredicate.bind(jp, outer);
+        measure("join: JoinPredicate", rows, new Case() {
+            public int run() {
+                int n = 0;
+                for (Tuple t : tuples)
+                    if (jp.filter(outer, t))
+                        n++;
+                return n;
+            }
+        });
+        measure("join: CompiledPredicate.bind", rows, new Case() {
+            public int run() {
+                int n = 0;
+                for (Tuple t : tuples)
+                    if (bound.eval(t))
+                        n++;
+                return n;
+            }
+        });
+
+        System.out.println("(checksum " + sink + ")");
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class QueryPlanCacheTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 500;
+
+    private ArrayList<ArrayList<Integer>> tuplesA, tuplesB;
+
+    /**
+     * Create two tables, whose column c1 is joined and column c0 is filtered
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuplesA = new ArrayList<ArrayList<Integer>>();
+        tuplesB = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            tuplesA.add(new ArrayList<Integer>(Arrays.asList(i % 10, i % 50)));
+            tuplesB.add(new ArrayList<Integer>(Arrays.asList(i % 7, i % 25)));
+        }
+        addTable(tuplesA, "qa");
+        addTable(tuplesB, "qb");
+    }
+
+    private static void addTable(ArrayList<ArrayList<Integer>> tuples,
+            String name) throws Exception {
+        HeapFile f = JoinOptimizerTest.createDuplicateHeapFile(tuples, 2, "c");
+        Database.getCatalog().addTable(f, name);
+        TableStats.setTableStats(name, new TableStats(f.getId(), 100));
+    }
+
+    private static final String QUERY = "SELECT qa.c0 FROM qa, qb WHERE qa.c1 = qb.c1 AND qa.c0 < %d;";
+
+    // the number of tuples of QUERY, computed without the database
+    private int expectedCount(int bound) {
+        int n = 0;
+        for (ArrayList<Integer> a : tuplesA)
+            for (ArrayList<Integer> b : tuplesB)
+                if (a.get(1).equals(b.get(1)) && a.get(0) < bound)
+                    n++;
+        return n;
+    }
+
+    private static int count(LogicalPlan lp) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator it = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * Literals are taken out of queries, and queries that cannot be cached
+     * are not normalized
+     */
+    @Test public void normalizeTest() {
+        QueryPlanCache.Statement s = QueryPlanCache.normalize(
+                "SELECT t.f0\n  FROM t   WHERE t.f1 = 42 AND t.f2 = 'x y' AND t.f3 > 1.5;");
+        Assert.assertEquals("SELECT t.f0 FROM t WHERE t.f1 = ? AND t.f2 = ? AND t.f3 > ?;",
+                s.getText());
+        Assert.assertEquals(Arrays.asList("42", "x y", "1.5"), s.getParams());
+
+        // names with digits in them are not constants
+        s = QueryPlanCache.normalize("select t1.field0 from t1 where t1.field0 = 3;");
+        Assert.assertEquals("select t1.field0 from t1 where t1.field0 = ?;", s.getText());
+        Assert.assertEquals(Arrays.asList("3"), s.getParams());
+
+        Assert.assertEquals(s.getText(), QueryPlanCache.normalize(
+                "select t1.field0 from t1 where t1.field0 = 17;").getText());
+
+        Assert.assertNull(QueryPlanCache.normalize("insert into t values (1, 2);"));
+        Assert.assertNull(QueryPlanCache.normalize("commit;"));
+        Assert.assertNull(QueryPlanCache.normalize(
+                "select t.f0 from t where t.f1 = (select max(u.f1) from u);"));
+        Assert.assertNull(QueryPlanCache.normalize("select t.f0 from t where t.f1 = 'x;"));
+    }
+
+    /**
+     * A query that differs from an earlier one only in its constants reuses
+     * its plan, and gets the right answer
+     */
+    @Test public void reusePlanTest() throws Exception {
+        QueryPlanCache cache = Database.getPlanCache();
+        Parser p = new Parser();
+        p.processNextStatement(String.format(QUERY, 3));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(0, cache.getHits());
+
+        p.processNextStatement(String.format(QUERY, 7));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getHits());
+
+        for (int bound : new int[] { 0, 5, 10 }) {
+            LogicalPlan lp = cache.lookup(QueryPlanCache.normalize(String.format(QUERY, bound)));
+            Assert.assertNotNull(lp);
+            Assert.assertEquals(expectedCount(bound), count(lp));
+        }
+    }
+
+    /**
+     * Plans are dropped when the statistics of their tables are replaced, or
+     * when the catalog changes
+     */
+    @Test public void invalidateTest() throws Exception {
+        QueryPlanCache cache = Database.getPlanCache();
+        Parser p = new Parser();
+        QueryPlanCache.Statement s = QueryPlanCache.normalize(String.format(QUERY, 3));
+
+        p.processNextStatement(String.format(QUERY, 3));
+        Assert.assertNotNull(cache.lookup(s));
+        TableStats.setTableStats("qb", new TableStats(
+                Database.getCatalog().getTableId("qb"), 100));
+        Assert.assertNull(cache.lookup(s));
+
+        p.processNextStatement(String.format(QUERY, 3));
+        Assert.assertNotNull(cache.lookup(s));
+        addTable(tuplesA, "qc");
+        Assert.assertNull(cache.lookup(s));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    /**
+     * A plan whose filters do not take their constants from the query in
+     * order is not cached
+     */
+    @Test public void uncachablePlanTest() throws Exception {
+        TransactionId tid = new TransactionId();
+        String sql = "SELECT qa.c0 FROM qa WHERE qa.c0 < 3;";
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        Assert.assertFalse(Database.getPlanCache().put(
+                QueryPlanCache.normalize("SELECT qa.c0 FROM qa WHERE qa.c0 < 4;"), lp));
+        Assert.assertTrue(Database.getPlanCache().put(QueryPlanCache.normalize(sql), lp));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryPlanCacheTest.class);
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private HeapFile hf;
+    private SecondaryIndex index;
+
+    /**
+     * Create a table of (i, i % 1000, i % 7), with an index on its column c1
+     * that includes column c2
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 1000, i % 7)));
+        hf = JoinOptimizerTest.createDuplicateHeapFile(tuples, 3, "c");
+        Database.getCatalog().addTable(hf, "si");
+
+        File f = File.createTempFile("si_c1", ".dat");
+        f.deleteOnExit();
+        index = new SecondaryIndex("si_c1", hf.getId(), 1, new int[] { 2 }, f);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // the number of tuples of an iterator
+    private static int count(DbFileIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private int lookup(TransactionId tid, int key, boolean indexOnly) throws Exception {
+        return count(index.iterator(tid, new IndexPredicate(
+                Predicate.Op.EQUALS, new IntField(key)), indexOnly));
+    }
+
+    /**
+     * The index finds the tuples of the table by key, from the table or from
+     * its own entries
+     */
+    @Test public void lookupTest() throws Exception {
+        TransactionId tid = new TransactionId();
+        Assert.assertEquals(Arrays.asList(index), Database.getCatalog().getIndexes(hf.getId()));
+        Assert.assertEquals(ROWS, count(index.iterator(tid, null, false)));
+        Assert.assertEquals(5, lookup(tid, 7, false));
+        Assert.assertEquals(0, lookup(tid, 1000, false));
+
+        DbFileIterator it = index.iterator(tid, new IndexPredicate(
+                Predicate.Op.EQUALS, new IntField(7)), true);
+        it.open();
+        Tuple t = it.next();
+        Assert.assertEquals(index.getCoveredTupleDesc(), t.getTupleDesc());
+        Assert.assertEquals(2, t.getTupleDesc().numFields());
+        Assert.assertEquals(new IntField(7), t.getField(0));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserting into and deleting from the table through the buffer pool
+     * keeps the index up to date
+     */
+    @Test public void maintenanceTest() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(-1));
+        t.setField(1, new IntField(7));
+        t.setField(2, new IntField(3));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Assert.assertEquals(6, lookup(tid, 7, false));
+
+        // delete the tuples with c1 = 8
+        DbFileIterator it = index.iterator(tid, new IndexPredicate(
+                Predicate.Op.EQUALS, new IntField(8)), false);
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            doomed.add(it.next());
+        it.close();
+        Assert.assertEquals(5, doomed.size());
+        for (Tuple d : doomed)
+            Database.getBufferPool().deleteTuple(tid, d);
+        Assert.assertEquals(0, lookup(tid, 8, false));
+        Assert.assertEquals(0, lookup(tid, 8, true));
+        Assert.assertEquals(ROWS - 4, count(index.iterator(tid, null, true)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner reads the table through the index for selective filters on
+     * the key, and reads only the index when it holds every field the query
+     * refers to
+     */
+    @Test public void planTest() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("si", new TableStats(hf.getId(), 100));
+        Object[][] cases = {
+                { "SELECT si.c0 FROM si WHERE si.c1 = 7;", "index", 5 },
+                { "SELECT si.c2 FROM si WHERE si.c1 = 7 AND si.c2 = 0;", "index only", 1 },
+                { "SELECT si.c0 FROM si WHERE si.c1 > 100;", "scan", 4495 } };
+        for (Object[] c : cases) {
+            TransactionId tid = new TransactionId();
+            DbIterator plan = new Parser().generateLogicalPlan(tid,
+                    (String) c[0]).physicalPlan(tid, stats, false);
+            String tree = new QueryPlanVisualizer().getQueryPlanTree(plan);
+            if (c[1].equals("scan"))
+                Assert.assertFalse(tree, tree.contains("index"));
+            else
+                Assert.assertTrue(tree, tree.contains("," + c[1] + ":si_c1"));
+
+            int n = 0;
+            plan.open();
+            while (plan.hasNext()) {
+                plan.next();
+                n++;
+            }
+            plan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            Assert.assertEquals((String) c[0], c[2], n);
+        }
+    }
+
+    /**
+     * Indexes declared in the schema file are created, and built from their
+     * tables
+     */
+    @Test public void loadSchemaTest() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 100; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        File data = new File(dir, "st.dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(tuples, data, BufferPool.getPageSize(), 2);
+        new File(dir, "st_b.dat").deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("st (a int, b int)\nindex st_b on st (b) include (a)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableid = Database.getCatalog().getTableId("st");
+        Assert.assertEquals(1, Database.getCatalog().getIndexes(tableid).size());
+        SecondaryIndex st = Database.getCatalog().getIndexes(tableid).get(0);
+        Assert.assertEquals(1, st.getKeyField());
+        Assert.assertTrue(Arrays.equals(new int[] { 0 }, st.getIncludedFields()));
+        TransactionId tid = new TransactionId();
+        Assert.assertEquals(10, count(st.iterator(tid, new IndexPredicate(
+                Predicate.Op.EQUALS, new IntField(3)), true)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
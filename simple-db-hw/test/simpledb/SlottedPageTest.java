@@ -0,0 +1,293 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+    // the tuples of schema TD a page holds at fixed width
+    private static final int FIXED_TUPLES = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws IOException {
+        HeapFile hf = new HeapFile(tempFile(), TD, false, null, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        this.pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    // an empty data file, whose format marker is deleted with it
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + SlottedPageFormat.SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        return "n" + i;
+    }
+
+    // a page filled with tuples with short names
+    private HeapPage fullPage() throws IOException, DbException {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; page.getNumEmptySlots() > 0; i++)
+            page.insertTuple(tuple(i, name(i)));
+        return page;
+    }
+
+    /**
+     * Only tables with a string field that are created slotted are slotted,
+     * and a data file keeps its layout when it is reopened
+     */
+    @Test public void createdSlotted() throws IOException {
+        File f = tempFile();
+        assertTrue(new HeapFile(f, TD, false, null, true).isSlotted());
+        assertTrue(new HeapFile(f, TD).isSlotted());
+        assertFalse(new HeapFile(tempFile(), TD).isSlotted());
+        assertFalse(new HeapFile(tempFile(), Utility.getTupleDesc(3), false, null, true)
+                .isSlotted());
+        assertFalse(new BTreeFile(tempFile(), 0, TD).isSlotted());
+        assertTrue(new BTreeFile(tempFile(), 0, TD, false, true).isSlotted());
+    }
+
+    /**
+     * A data file of string tuples written at fixed width is read at fixed
+     * width, even if it is opened as slotted
+     */
+    @Test public void fixedWidthStringsKeepTheirLayout() throws Exception {
+        int rows = 2 * FIXED_TUPLES;
+        HeapFile hf = encode(rows, false);
+        assertFalse(hf.isSlotted());
+        assertEquals(2, hf.numPages());
+        hf = new HeapFile(hf.getFile(), TD, false, null, true);
+        assertFalse(hf.isSlotted());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertRows(hf, rows);
+    }
+
+    // check that a heap file holds the tuples with short names from 0 to rows
+    private static void assertRows(HeapFile hf, int rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(name(i), ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A heap page of tuples with short strings holds many times more of them
+     * than it would at fixed width, and reads back the tuples it writes, in
+     * the same slots
+     */
+    @Test public void heapPageRoundTrip() throws Exception {
+        HeapPage page = fullPage();
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next())
+            n++;
+        assertTrue(n > 5 * FIXED_TUPLES);
+
+        HeapPage read = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        Iterator<Tuple> it = read.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(name(i), ((StringField) t.getField(1)).getValue());
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+    }
+
+    /**
+     * Predicates pushed down to a heap page are evaluated on its
+     * variable-length records
+     */
+    @Test public void predicatesOnPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, fullPage().getPageData());
+        CompiledPredicate ints = CompiledPredicate.compile(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)));
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(ints); it.hasNext(); it.next())
+            n++;
+        assertEquals(10, n);
+
+        CompiledPredicate strings = CompiledPredicate.compile(new Predicate(1,
+                Predicate.Op.EQUALS, new StringField(name(42), Type.STRING_LEN)));
+        Iterator<Tuple> it = page.iterator(strings);
+        assertEquals(42, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+
+        int[] min = new int[2];
+        int[] max = new int[2];
+        page.intRanges(min, max);
+        assertEquals(0, min[0]);
+        assertTrue(max[0] > 5 * FIXED_TUPLES);
+    }
+
+    /**
+     * Deleting tuples frees the bytes of their records for longer ones, and
+     * the tuples left keep their slots
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        HeapPage page = new HeapPage(pid, fullPage().getPageData());
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext();)
+            all.add(it.next());
+        for (int i = 0; i < 40; i++)
+            page.deleteTuple(all.get(2 * i));
+        assertTrue(page.getNumEmptySlots() > 0);
+
+        char[] longName = new char[Type.STRING_LEN];
+        Arrays.fill(longName, 'x');
+        int inserted = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(tuple(-1, new String(longName)));
+            inserted++;
+        }
+        assertTrue(inserted > 0);
+
+        HeapPage read = new HeapPage(pid, page.getPageData());
+        for (int i = 1; i < all.size(); i += 2) {
+            Tuple t = read.getTupleInSlot(all.get(i).getRecordId().tupleno());
+            assertEquals(name(i), ((StringField) t.getField(1)).getValue());
+        }
+        int longOnes = 0;
+        for (Iterator<Tuple> it = read.iterator(); it.hasNext();)
+            if (((IntField) it.next().getField(0)).getValue() == -1)
+                longOnes++;
+        assertEquals(inserted, longOnes);
+    }
+
+    // a heap file of tuples with short names, encoded from a text file
+    private static HeapFile encode(int rows, boolean slotted) throws IOException {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        File data = tempFile();
+        PrintWriter w = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++)
+            w.println(i + "," + name(i));
+        w.close();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2, new Type[] {
+                Type.INT_TYPE, Type.STRING_TYPE }, ',', slotted);
+        HeapFile hf = new HeapFile(data, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * A text file with string fields is encoded into slotted heap pages
+     */
+    @Test public void encodeHeapFile() throws Exception {
+        int rows = 10 * FIXED_TUPLES;
+        HeapFile hf = encode(rows, true);
+        assertTrue(hf.isSlotted());
+        assertTrue(hf.numPages() <= 2);
+        assertRows(hf, rows);
+    }
+
+    /**
+     * A B+ tree of tuples with short strings needs many times fewer leaves
+     * than at fixed width
+     */
+    @Test public void btreeLeaves() throws Exception {
+        BTreeFile bf = new BTreeFile(tempFile(), 0, TD, false, true);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        int rows = 20 * FIXED_TUPLES;
+        HeapFile source = encode(rows, true);
+        TransactionId tid = new TransactionId();
+        bf.bulkLoad(tid, source.iterator(tid), true, 1.0);
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+        assertTrue(bf.numPages() < rows / FIXED_TUPLES / 4);
+
+        // delete most of the tuples, merging leaves
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 8 != 0)
+                toDelete.add(t);
+        }
+        it.close();
+        for (Tuple t : toDelete)
+            Database.getBufferPool().deleteTuple(tid, t);
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A table of the schema file with a varchar column is slotted, and one
+     * with only string columns is not
+     */
+    @Test public void catalogVarchar() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        for (String table : new String[] { "names", "legacy" }) {
+            new File(dir, table + ".dat").deleteOnExit();
+            new File(dir, table + ".dat" + SlottedPageFormat.SUFFIX).deleteOnExit();
+        }
+        FileWriter w = new FileWriter(schema);
+        w.write("names (id int, name varchar(32))\n");
+        w.write("legacy (id int, name string)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        assertTrue(((HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("names"))).isSlotted());
+        assertFalse(((HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("legacy"))).isSlotted());
+    }
+
+    /**
+     * varchar columns are string columns
+     */
+    @Test public void varcharType() {
+        assertEquals(Type.STRING_TYPE, Type.forName("varchar(32)"));
+        assertEquals(Type.STRING_TYPE, Type.forName("VARCHAR"));
+        assertEquals(Type.STRING_TYPE, Type.forName("string"));
+        assertEquals(Type.INT_TYPE, Type.forName("int"));
+        assertNull(Type.forName("varchar(" + (Type.STRING_LEN + 1) + ")"));
+        assertNull(Type.forName("float"));
+        assertTrue(Type.isVarchar("varchar(32)"));
+        assertFalse(Type.isVarchar("string"));
+        assertFalse(Type.isVarchar("varchar(0)"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -1,7 +1,11 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -151,4 +155,141 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Statistics saved to a stats file are loaded back while the table is
+	 * unchanged, and ignored once its data file changes
+	 */
+	@Test public void persistStatisticsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(tableName, s);
+		File statsFile = File.createTempFile("catalog", TableStats.STATS_SUFFIX);
+		statsFile.deleteOnExit();
+		TableStats.writeStatistics(statsFile);
+
+		Assert.assertTrue(TableStats.loadStatistics(statsFile).contains(tableName));
+		TableStats loaded = TableStats.getTableStats(tableName);
+		Assert.assertNotSame(s, loaded);
+		Assert.assertEquals(s.totalTuples(), loaded.totalTuples());
+		Assert.assertEquals(s.estimateScanCost(), loaded.estimateScanCost(), 0.001);
+		for (int col = 0; col < 10; col++)
+			Assert.assertEquals(s.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(16)),
+					loaded.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(16)), 1e-9);
+
+		f.getFile().setLastModified(f.getFile().lastModified() - 10000);
+		Assert.assertFalse(TableStats.loadStatistics(statsFile).contains(tableName));
+	}
+
+	/**
+	 * Inserts and deletes update the statistics incrementally until enough of
+	 * the table has changed, after which they are recomputed in the background
+	 * while the old ones are still served
+	 */
+	@Test public void incrementalRefreshTest() throws Exception {
+		TableStats.setRefreshFraction(0.01);
+		try {
+			TableStats s = new TableStats(this.tableId, IO_COST);
+			TableStats.setTableStats(tableName, s);
+			TransactionId tid = new TransactionId();
+			for (int i = 0; i < 100; i++)
+				Database.getBufferPool().insertTuple(tid, tableId, Utility.getHeapTuple(40, 10));
+			Assert.assertSame(s, TableStats.getTableStats(tableName));
+			Assert.assertEquals(10300, s.totalTuples());
+			Assert.assertEquals(100, s.getModifications());
+			Assert.assertTrue(s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(31)) > 0.005);
+
+			Tuple t = Utility.getHeapTuple(40, 10);
+			Database.getBufferPool().insertTuple(tid, tableId, t);
+			Database.getBufferPool().deleteTuple(tid, t);
+			Assert.assertEquals(10300, s.totalTuples());
+
+			// 102 = 1% of 10200 modifications: the stats are recomputed
+			Assert.assertSame(s, TableStats.getTableStats(tableName));
+			TableStats.awaitRefresh(tableName);
+			TableStats recomputed = TableStats.getTableStats(tableName);
+			Assert.assertNotSame(s, recomputed);
+			Assert.assertEquals(10300, recomputed.totalTuples());
+			Assert.assertEquals(0, recomputed.getModifications());
+		} finally {
+			TableStats.setRefreshFraction(TableStats.DEFAULT_REFRESH_FRACTION);
+		}
+	}
+
+	/**
+	 * Statistics computed from a sample of the pages of a table estimate its
+	 * size, the distinct values of its columns and their selectivities
+	 */
+	@Test public void sampledStatisticsTest() throws Exception {
+		// column 0 is shuffled, so that sampling whole pages samples its values
+		// uniformly
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		for (int i = 0; i < 50000; i++)
+			values.add(i);
+		Collections.shuffle(values, new Random(0));
+		ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 50000; i++) {
+			ArrayList<Integer> row = new ArrayList<Integer>();
+			row.add(values.get(i));
+			row.add(i % 100);
+			rows.add(row);
+		}
+		File temp = File.createTempFile("sampled", ".dat");
+		temp.deleteOnExit();
+		HeapFileEncoder.convert(rows, temp, BufferPool.getPageSize(), 2);
+		HeapFile hf = Utility.openHeapFile(2, temp);
+		String name = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(hf, name);
+		int id = Database.getCatalog().getTableId(name);
+
+		TableStats.setSamplePages(hf.numPages() / 4);
+		TableStats.setSampleSeed(1L);
+		try {
+			TableStats s = new TableStats(id, IO_COST);
+			Assert.assertEquals(50000, s.totalTuples(), 2500);
+			Assert.assertEquals(hf.numPages() * IO_COST, s.estimateScanCost(), 0.0);
+			Assert.assertEquals(50000, s.numDistinctValues(0), 10000);
+			Assert.assertEquals(100, s.numDistinctValues(1), 5);
+			Assert.assertEquals(0.01, s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(42)), 0.005);
+			Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(25000)), 0.05);
+		} finally {
+			TableStats.setSamplePages(TableStats.DEFAULT_SAMPLE_PAGES);
+			TableStats.setSampleSeed(null);
+		}
+
+		TableStats full = new TableStats(id, IO_COST);
+		Assert.assertEquals(50000, full.totalTuples());
+		Assert.assertEquals(50000, full.numDistinctValues(0), 2500);
+	}
+
+	/**
+	 * Statistics computed in the background, with the table split into page
+	 * ranges whose statistics are merged, match those computed on one thread
+	 */
+	@Test public void parallelStatisticsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, TableStats.IOCOSTPERPAGE);
+		TableStats.setSplitPages(7);
+		try {
+			CountDownLatch done = TableStats.computeStatisticsInBackground(
+					Collections.singletonList(this.tableId), null);
+			TableStats.awaitTableStats(Collections.singletonList(this.tableId));
+			TableStats p = TableStats.getTableStats(tableName);
+			Assert.assertNotNull(p);
+			Assert.assertNotSame(s, p);
+			done.await();
+
+			Assert.assertEquals(s.totalTuples(), p.totalTuples());
+			Assert.assertEquals(s.estimateScanCost(), p.estimateScanCost(), 0.0);
+			for (int col = 0; col < 10; col++) {
+				Assert.assertEquals(s.numDistinctValues(col), p.numDistinctValues(col));
+				for (int v = 0; v < 32; v += 8) {
+					Assert.assertEquals(s.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(v)),
+							p.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(v)), 0.02);
+					Assert.assertEquals(s.estimateSelectivity(col, Predicate.Op.EQUALS, new IntField(v)),
+							p.estimateSelectivity(col, Predicate.Op.EQUALS, new IntField(v)), 0.01);
+				}
+			}
+		} finally {
+			TableStats.setSplitPages(TableStats.DEFAULT_SPLIT_PAGES);
+		}
+	}
 }
@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+  private static final int PAGES = 10;
+
+  private File file;
+  private HeapFile hf;
+  private int tuplesPerPage;
+  private TransactionId tid;
+
+  /**
+   * Create a two column table whose first column is the row number, so each
+   * page holds a disjoint range of it
+   */
+  @Before public void setUp() throws Exception {
+    tuplesPerPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < PAGES * tuplesPerPage; i++) {
+      ArrayList<Integer> t = new ArrayList<Integer>();
+      t.add(i);
+      t.add(i % 7);
+      tuples.add(t);
+    }
+    file = File.createTempFile("zonemap", ".dat");
+    file.deleteOnExit();
+    new File(file.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+    HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+    hf = Utility.openHeapFile(2, file);
+    tid = new TransactionId();
+  }
+
+  private int count(SeqScan scan) throws Exception {
+    int n = 0;
+    scan.open();
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    return n;
+  }
+
+  // read every page, so the zone map has an entry for each
+  private void readAll() throws Exception {
+    SeqScan scan = new SeqScan(tid, hf.getId());
+    assertEquals(PAGES * tuplesPerPage, count(scan));
+    scan.close();
+  }
+
+  /**
+   * Each page's range is recorded as it is read, and a scan skips the pages
+   * outside the range of its predicate
+   */
+  @Test public void skipPages() throws Exception {
+    // without a sidecar, opening the zone map reads no page, and a page
+    // without an entry might hold any value
+    ZoneMap zm = hf.getZoneMap();
+    assertEquals(PAGES, zm.numPages());
+    assertEquals(Integer.MIN_VALUE, zm.getMin(0, 0));
+    assertEquals(Integer.MAX_VALUE, zm.getMax(0, 0));
+    SeqScan first = new SeqScan(tid, hf.getId());
+    first.addPredicate(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(7 * tuplesPerPage)));
+    assertEquals(3 * tuplesPerPage, count(first));
+    assertEquals(0, first.getSkippedPages());
+    first.close();
+
+    for (int i = 0; i < PAGES; i++) {
+      assertEquals(i * tuplesPerPage, zm.getMin(i, 0));
+      assertEquals((i + 1) * tuplesPerPage - 1, zm.getMax(i, 0));
+      assertEquals(0, zm.getMin(i, 1));
+      assertEquals(6, zm.getMax(i, 1));
+    }
+
+    SeqScan scan = new SeqScan(tid, hf.getId());
+    scan.addPredicate(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(7 * tuplesPerPage)));
+    assertEquals(7, scan.countSkippablePages(new ArrayList<Predicate>()));
+    assertEquals(3 * tuplesPerPage, count(scan));
+    assertEquals(7, scan.getSkippedPages());
+
+    // a predicate on the second column rules out no page
+    SeqScan scan2 = new SeqScan(tid, hf.getId());
+    scan2.addPredicate(new Predicate(1, Predicate.Op.EQUALS, new IntField(3)));
+    count(scan2);
+    assertEquals(0, scan2.getSkippedPages());
+  }
+
+  /**
+   * Inserting a tuple widens the range of its page, and deleting tuples
+   * narrows it again
+   */
+  @Test public void maintained() throws Exception {
+    readAll();
+    SeqScan scan = new SeqScan(tid, hf.getId());
+    scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+    assertEquals(0, count(scan));
+    assertEquals(PAGES, scan.getSkippedPages());
+    scan.close();
+
+    // all pages are full, so this goes on a new page
+    Database.getBufferPool().insertTuple(tid, hf.getId(),
+        Utility.getHeapTuple(new int[] { -5, 0 }));
+    assertEquals(1, count(scan));
+    assertEquals(PAGES, scan.getSkippedPages());
+    scan.close();
+
+    // delete the smallest values of the first page
+    SeqScan small = new SeqScan(tid, hf.getId());
+    small.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)));
+    small.addPredicate(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)));
+    small.open();
+    ArrayList<Tuple> victims = new ArrayList<Tuple>();
+    while (small.hasNext())
+      victims.add(small.next());
+    small.close();
+    assertEquals(10, victims.size());
+    for (Tuple t : victims)
+      Database.getBufferPool().deleteTuple(tid, t);
+    assertEquals(10, hf.getZoneMap().getMin(0, 0));
+    assertEquals(0, count(small));
+    assertEquals(PAGES + 1, small.getSkippedPages());
+  }
+
+  /**
+   * The zone map is written to its sidecar as pages are flushed, and loaded
+   * from there when the table is reopened
+   */
+  @Test public void persisted() throws Exception {
+    Tuple t = Utility.getHeapTuple(new int[] { 1 << 20, 0 });
+    Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+    Database.getBufferPool().flushAllPages();
+    assertTrue(new File(file.getPath() + ZoneMap.SUFFIX).exists());
+
+    HeapFile reopened = Utility.openHeapFile(2, file);
+    ZoneMap zm = reopened.getZoneMap();
+    assertEquals(PAGES + 1, zm.numPages());
+    assertEquals(1 << 20, zm.getMax(PAGES, 0));
+    assertEquals(0, zm.getMin(0, 0));
+  }
+
+  /**
+   * Writing pages leaves the sidecar alone; the entries of the pages written
+   * are written to it together when the buffer pool flushes
+   */
+  @Test public void sidecarUpdatedOnFlush() throws Exception {
+    File sidecar = new File(file.getPath() + ZoneMap.SUFFIX);
+    readAll();
+    Database.getBufferPool().flushAllPages();
+    long saved = sidecar.length();
+    assertTrue(saved > 0);
+
+    // all pages are full, so this goes on a new page
+    Database.getBufferPool().insertTuple(tid, hf.getId(),
+        Utility.getHeapTuple(new int[] { 1 << 20, 0 }));
+    hf.writePage(Database.getBufferPool().getPage(tid,
+        new HeapPageId(hf.getId(), PAGES), Permissions.READ_ONLY));
+    assertEquals(saved, sidecar.length());
+
+    Database.getBufferPool().flushAllPages();
+    assertEquals(saved + 2 * 8, sidecar.length());
+    assertEquals(1 << 20, Utility.openHeapFile(2, file).getZoneMap().getMax(PAGES, 0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ZoneMapTest.class);
+  }
+}
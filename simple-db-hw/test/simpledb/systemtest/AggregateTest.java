@@ -12,9 +12,15 @@ import org.junit.Test;
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
+        validateAggregate(table, operation, aggregateColumn, groupColumn, 1, expectedResult);
+    }
+
+    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, int parallelism, ArrayList<ArrayList<Integer>> expectedResult)
+            throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, table.getId(), "");
         Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
+        ag.setParallelism(parallelism);
 
         SystemTestUtil.matchTuples(ag, expectedResult);
         Database.getBufferPool().transactionComplete(tid);
@@ -75,6 +81,11 @@ public class AggregateTest extends SimpleDbTestBase {
     private final static int COLUMNS = 3;
     private void doAggregate(Aggregator.Op operation, int groupColumn)
             throws IOException, DbException, TransactionAbortedException {
+        doAggregate(operation, groupColumn, 1);
+    }
+
+    private void doAggregate(Aggregator.Op operation, int groupColumn, int parallelism)
+            throws IOException, DbException, TransactionAbortedException {
         // Create the table
         ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
         HeapFile table = SystemTestUtil.createRandomHeapFile(
@@ -85,7 +96,7 @@ public class AggregateTest extends SimpleDbTestBase {
                 aggregate(createdTuples, operation, 1, groupColumn);
 
         // validate that we get the answer
-        validateAggregate(table, operation, 1, groupColumn, expected);
+        validateAggregate(table, operation, 1, groupColumn, parallelism, expected);
     }
 
     @Test public void testSum() throws IOException, DbException, TransactionAbortedException {
@@ -113,6 +124,16 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    @Test public void testParallel()
+            throws IOException, DbException, TransactionAbortedException {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM,
+                Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.COUNT,
+                Aggregator.Op.AVG }) {
+            doAggregate(op, 0, 3);
+            doAggregate(op, Aggregator.NO_GROUPING, 3);
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -0,0 +1,67 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BatchPlanTest extends SimpleDbTestBase {
+    private final static int ROWS = 4096;
+    private final static int COLUMNS = 3;
+
+    /**
+     * With batches enabled, the planner computes the aggregate and the
+     * projection above it with batch operators, with the same result as the
+     * row operators, and explains the plan.
+     */
+    @Test public void testAggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, "bt");
+        TableStats.setTableStats("bt", new TableStats(f.getId(), 100));
+        TreeMap<Integer, Integer> sums = new TreeMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(2) < 50) {
+                Integer s = sums.get(t.get(0));
+                sums.put(t.get(0), (s == null ? 0 : s) + t.get(1));
+            }
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int g : sums.keySet()) {
+            ArrayList<Integer> out = new ArrayList<Integer>();
+            out.add(sums.get(g));
+            out.add(g);
+            expected.add(out);
+        }
+        String sql = "SELECT SUM(bt.c1), bt.c0 FROM bt WHERE bt.c2 < 50 GROUP BY bt.c0;";
+
+        LogicalPlan.setUseBatches(true);
+        try {
+            TransactionId tid = new TransactionId();
+            LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+            DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            assertTrue(plan instanceof BatchesToRows);
+            // the filter is pushed down to the scan, below the batches
+            assertTrue(((BatchesToRows) plan).getRowInput() instanceof Filter);
+            SystemTestUtil.matchTuples(plan, expected);
+
+            OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                    lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+            String tree = new QueryPlanVisualizer().getQueryPlanTree(plan);
+            assertTrue(tree.contains("batch("));
+            assertTrue(tree.contains("scan(bt)"));
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            LogicalPlan.setUseBatches(false);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchPlanTest.class);
+    }
+}
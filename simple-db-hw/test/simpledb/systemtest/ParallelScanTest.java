@@ -0,0 +1,132 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+    private final static int ROWS = 4096;
+    private final static int COLUMNS = 3;
+
+    /** Scans a multi-page table with several workers and small morsels. */
+    @Test public void testScan() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", 4);
+        scan.setMorselPages(1);
+        scan.setQueueSize(16);
+        SystemTestUtil.matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Workers apply predicates and the projection before queueing tuples. */
+    @Test public void testFilterProject() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 100, null, tuples, "c");
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 50 && t.get(1) >= 10) {
+                ArrayList<Integer> out = new ArrayList<Integer>();
+                out.add(t.get(2));
+                out.add(t.get(0));
+                expected.add(out);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", 3);
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)));
+        scan.addPredicate(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10)));
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        scan.setProjection(fields);
+
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t.c2", scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Rewinding in the middle of a scan restarts it from scratch. */
+    @Test public void testRewind() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", 2);
+        scan.setQueueSize(8);
+        scan.open();
+        for (int i = 0; i < 100; ++i)
+            scan.next();
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        assertEquals(ROWS, count);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // the scan at the bottom of the leftmost path of a plan
+    private static DbIterator scanOf(DbIterator plan) {
+        while (plan instanceof Operator && ((Operator) plan).getChildren().length > 0)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    /**
+     * The planner reads a heap table of enough pages with a ParallelSeqScan
+     * when scans are parallel, and its filters run on the workers.
+     */
+    @Test public void testPlanner() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, "pt");
+        TableStats.setTableStats("pt", new TableStats(f.getId(), 100));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 50) {
+                ArrayList<Integer> out = new ArrayList<Integer>();
+                out.add(t.get(2));
+                expected.add(out);
+            }
+        }
+        String sql = "SELECT pt.c2 FROM pt WHERE pt.c0 < 50;";
+
+        LogicalPlan.setScanParallelism(4);
+        try {
+            LogicalPlan.setParallelScanPages(f.numPages());
+            TransactionId tid = new TransactionId();
+            DbIterator plan = new Parser().generateLogicalPlan(tid, sql)
+                    .physicalPlan(tid, TableStats.getStatsMap(), false);
+            assertTrue(scanOf(plan) instanceof ParallelSeqScan);
+            assertEquals(4, ((ParallelSeqScan) scanOf(plan)).getParallelism());
+            SystemTestUtil.matchTuples(plan, expected);
+
+            LogicalPlan.setParallelScanPages(f.numPages() + 1);
+            plan = new Parser().generateLogicalPlan(tid, sql)
+                    .physicalPlan(tid, TableStats.getStatsMap(), false);
+            assertTrue(scanOf(plan) instanceof SeqScan);
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            LogicalPlan.setScanParallelism(1);
+            LogicalPlan.setParallelScanPages(LogicalPlan.DEFAULT_PARALLEL_SCAN_PAGES);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -67,6 +67,40 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test that predicates pushed down into a SeqScan filter its tuples. */
+    @Test public void testPushdown() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, tuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) < 30 && t.get(2) >= 50)
+                expected.add(t);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table");
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30)));
+        scan.addPredicate(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)));
+        SystemTestUtil.matchTuples(scan, expected);
+
+        // a Filter directly above a scan is pushed down into it
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(7)),
+                new SeqScan(tid, f.getId(), "table"));
+        ArrayList<ArrayList<Integer>> sevens = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(1) == 7)
+                sevens.add(t);
+        SystemTestUtil.matchTuples(filter, sevens);
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            n++;
+        }
+        assertEquals(sevens.size(), n);
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */